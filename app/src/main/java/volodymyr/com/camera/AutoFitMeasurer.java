@@ -0,0 +1,72 @@
+package volodymyr.com.camera;
+
+import android.support.annotation.Nullable;
+import android.view.View;
+
+/**
+ * Measuring shared by the auto-fit preview views: the largest size of the set aspect ratio fitting into the measure specs.
+ */
+class AutoFitMeasurer {
+
+    interface OnMeasuredListener {
+        /**
+         * Called once the view got a new size of the set aspect ratio, on the main thread.
+         */
+        void onMeasured(int width, int height);
+    }
+
+    private int mRatioWidth = 0;
+    private int mRatioHeight = 0;
+    private int mWidth;
+    private int mHeight;
+    @Nullable
+    private OnMeasuredListener mOnMeasuredListener;
+
+    /**
+     * @return true if the ratio changed and the view has to be measured again
+     */
+    boolean setAspectRatio(int width, int height) {
+        if (width == mRatioWidth && height == mRatioHeight) {
+            return false;
+        }
+        mRatioWidth = width;
+        mRatioHeight = height;
+        return true;
+    }
+
+    void setOnMeasuredListener(@Nullable OnMeasuredListener onMeasuredListener) {
+        mOnMeasuredListener = onMeasuredListener;
+        if (onMeasuredListener != null && mRatioWidth != 0 && mWidth != 0) {
+            onMeasuredListener.onMeasured(mWidth, mHeight);
+        }
+    }
+
+    void measure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = View.MeasureSpec.getSize(widthMeasureSpec);
+        int height = View.MeasureSpec.getSize(heightMeasureSpec);
+        int measuredWidth = width;
+        int measuredHeight = height;
+        if (0 != mRatioWidth && 0 != mRatioHeight) {
+            if (width < height * mRatioWidth / mRatioHeight) {
+                measuredHeight = width * mRatioHeight / mRatioWidth;
+            } else {
+                measuredWidth = height * mRatioWidth / mRatioHeight;
+            }
+        }
+        boolean changed = measuredWidth != mWidth || measuredHeight != mHeight;
+        mWidth = measuredWidth;
+        mHeight = measuredHeight;
+        // sizes before the ratio is known would only size the preview twice
+        if (changed && mOnMeasuredListener != null && mRatioWidth != 0 && mWidth != 0) {
+            mOnMeasuredListener.onMeasured(mWidth, mHeight);
+        }
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+}
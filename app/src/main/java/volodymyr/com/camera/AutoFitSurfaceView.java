@@ -0,0 +1,47 @@
+package volodymyr.com.camera;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.util.AttributeSet;
+import android.view.SurfaceView;
+
+/**
+ * {@link SurfaceView} sized like {@link AutoFitTextureView}. Its buffers go to the display compositor as they are,
+ * without the GPU pass a {@link android.view.TextureView} takes.
+ */
+public class AutoFitSurfaceView extends SurfaceView {
+
+    private final AutoFitMeasurer mMeasurer = new AutoFitMeasurer();
+
+    public AutoFitSurfaceView(Context context) {
+        super(context);
+    }
+
+    public AutoFitSurfaceView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public AutoFitSurfaceView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    public AutoFitSurfaceView(Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes) {
+        super(context, attrs, defStyleAttr, defStyleRes);
+    }
+
+    public void setAspectRatio(int width, int height) {
+        if (mMeasurer.setAspectRatio(width, height)) {
+            requestLayout();
+        }
+    }
+
+    void setOnMeasuredListener(@Nullable AutoFitMeasurer.OnMeasuredListener onMeasuredListener) {
+        mMeasurer.setOnMeasuredListener(onMeasuredListener);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        mMeasurer.measure(widthMeasureSpec, heightMeasureSpec);
+        setMeasuredDimension(mMeasurer.getWidth(), mMeasurer.getHeight());
+    }
+}
@@ -1,14 +1,14 @@
 package volodymyr.com.camera;
 
 import android.content.Context;
+import android.support.annotation.Nullable;
 import android.util.AttributeSet;
 import android.view.TextureView;
 
 
 public class AutoFitTextureView extends TextureView {
 
-    private int mRatioWidth = 0;
-    private int mRatioHeight = 0;
+    private final AutoFitMeasurer mMeasurer = new AutoFitMeasurer();
 
     public AutoFitTextureView(Context context) {
         super(context);
@@ -27,23 +27,18 @@ public class AutoFitTextureView extends TextureView {
     }
 
     public void setAspectRatio(int width, int height) {
-        mRatioWidth = width;
-        mRatioHeight = height;
-        requestLayout();
+        if (mMeasurer.setAspectRatio(width, height)) {
+            requestLayout();
+        }
+    }
+
+    void setOnMeasuredListener(@Nullable AutoFitMeasurer.OnMeasuredListener onMeasuredListener) {
+        mMeasurer.setOnMeasuredListener(onMeasuredListener);
     }
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        int width = MeasureSpec.getSize(widthMeasureSpec);
-        int height = MeasureSpec.getSize(heightMeasureSpec);
-        if (0 == mRatioWidth || 0 == mRatioHeight) {
-            setMeasuredDimension(width, height);
-        } else {
-            if (width < height * mRatioWidth / mRatioHeight) {
-                setMeasuredDimension(width, width * mRatioHeight / mRatioWidth);
-            } else {
-                setMeasuredDimension(height * mRatioWidth / mRatioHeight, height);
-            }
-        }
+        mMeasurer.measure(widthMeasureSpec, heightMeasureSpec);
+        setMeasuredDimension(mMeasurer.getWidth(), mMeasurer.getHeight());
     }
-}
\ No newline at end of file
+}
@@ -1,42 +1,139 @@
 package volodymyr.com.camera;
 
-import android.graphics.SurfaceTexture;
-import android.hardware.camera2.CameraAccessException;
-import android.hardware.camera2.CameraCaptureSession;
-import android.hardware.camera2.CameraCharacteristics;
+import android.content.Context;
+import android.graphics.ImageFormat;
 import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CaptureRequest;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Environment;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.MotionEvent;
+import android.view.OrientationEventListener;
 import android.view.Surface;
-import android.view.TextureView;
+import android.widget.FrameLayout;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
+import butterknife.OnClick;
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
 import io.reactivex.Observable;
+import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
-import io.reactivex.subjects.PublishSubject;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.BehaviorSubject;
 import volodymyr.com.camera.camera.CameraHelper;
-import volodymyr.com.camera.camera.event.CaptureSessionStateEvent;
-import volodymyr.com.camera.camera.event.DeviceStateEvent;
+import volodymyr.com.camera.camera.CameraLifecycle;
+import volodymyr.com.camera.camera.CameraSession;
+import volodymyr.com.camera.camera.CameraSessionState;
+import volodymyr.com.camera.camera.CameraSchedulers;
+import volodymyr.com.camera.camera.CameraSwitcher;
+import volodymyr.com.camera.camera.FrameBackpressure;
+import volodymyr.com.camera.camera.QualityGovernor;
+import volodymyr.com.camera.camera.QualityLevel;
+import volodymyr.com.camera.camera.backend.Camera2Backend;
+import volodymyr.com.camera.camera.backend.CameraBackend;
+import volodymyr.com.camera.camera.backend.CaptureRequestSpec;
+import volodymyr.com.camera.camera.backend.CaptureSessionHandle;
+import volodymyr.com.camera.camera.backend.FrameTarget;
+import volodymyr.com.camera.camera.backend.OutputTarget;
+import volodymyr.com.camera.camera.backend.SurfaceTarget;
+import volodymyr.com.camera.camera.control.AutoController;
+import volodymyr.com.camera.camera.event.CaptureSessionEvents;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.gallery.ThumbnailCache;
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
+import volodymyr.com.camera.camera.motion.MotionConfig;
+import volodymyr.com.camera.camera.motion.MotionDetector;
+import volodymyr.com.camera.camera.processing.FrameGraph;
+import volodymyr.com.camera.camera.processing.StageConfig;
 import volodymyr.com.camera.camera.pojo.CaptureSessionData;
-import volodymyr.com.camera.camera.pojo.Pair;
+import volodymyr.com.camera.camera.record.VideoConfig;
+import volodymyr.com.camera.camera.record.VideoRecorder;
+import volodymyr.com.camera.camera.still.StillCapture;
+import volodymyr.com.camera.camera.still.StillImage;
+import volodymyr.com.camera.camera.storage.ImageSaver;
 
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = MainActivity.class.getSimpleName();
-
-    @BindView(R.id.texture_view)
-    AutoFitTextureView textureView;
-    private Surface mSurface;
-
-    private CameraHelper cameraHelper;
-    private PublishSubject<SurfaceTexture> mOnSurfaceTextureAvailable = PublishSubject.create();
-    private final CompositeDisposable mCompositeDisposable = new CompositeDisposable();
+    private static final int MAX_ANALYSIS_FRAMES_IN_FLIGHT = 2;
+    private static final int STILL_BUFFER_SIZE = 3;
+    private static final int SAVE_QUEUE_CAPACITY = 2;
+    private static final int SAVE_SYNC_BATCH_SIZE = 4;
+    private static final long METRICS_LOG_PERIOD_S = 10;
+    private static final int THUMBNAIL_SIZE = 256;
+    private static final int FRAME_GRAPH_THREADS = 2;
+    private static final long MOTION_BUDGET_NS = TimeUnit.MILLISECONDS.toNanos(4);
+    private static final long THUMBNAIL_DISK_BYTES = 32 * 1024 * 1024;
+    private static final long ANALYSIS_PIXEL_RATE_BUDGET = 1920L * 1080 * 30;
+    private static final String PREF_PREVIEW_OUTPUT = "preview_output";
+    // session outputs, in the order createSessionOutputs() lists them
+    private static final int ANALYSIS_OUTPUT = 1;
+    private static final int STILL_OUTPUT = 2;
+
+    @BindView(R.id.preview_container)
+    FrameLayout previewContainer;
+    private PreviewOutput mPreviewOutput;
+    private volatile QualityGovernor mQualityGovernor;
+    private volatile Observable<QualityLevel> mQualityLevelObservable;
+    private volatile StillCapture mStillCapture;
+    private volatile AutoController mAutoController;
+    private ImageSaver mImageSaver;
+    private ThumbnailCache mThumbnailCache;
+    private final MotionDetector mMotionDetector = new MotionDetector(new MotionConfig());
+    private FrameGraph mFrameGraph;
+    private volatile VideoRecorder mVideoRecorder;
+    /**
+     * Recorders taken out of the session and waiting for it to reconfigure before they are stopped
+     */
+    private final Set<VideoRecorder> mStoppingRecorders = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private Disposable mRecordingStatsDisposable;
+    private Disposable mMetricsLogDisposable;
+    /**
+     * Work that may outlive a pause but uses what onDestroy closes, like the image saver and the thumbnail cache
+     */
+    private final CompositeDisposable mDisposables = new CompositeDisposable();
+    private final BehaviorSubject<Boolean> mRecordingMode = BehaviorSubject.createDefault(false);
+    private final BehaviorSubject<CameraHelper> mSelectedCamera = BehaviorSubject.create();
+    /**
+     * Clockwise rotation of the device in multiples of 90 degrees, it turns independently of the activity
+     */
+    private final BehaviorSubject<Integer> mDeviceOrientation = BehaviorSubject.createDefault(0);
+    private OrientationEventListener mOrientationListener;
+
+    private RetainedCamera mRetainedCamera;
+    private CameraSchedulers mCameraSchedulers;
+    private CameraSwitcher mCameraSwitcher;
+    private CameraSession mCameraSession;
+    private volatile CameraHelper cameraHelper;
+    private CameraLifecycle mCameraLifecycle;
+    private boolean mPaused;
 
 
     @Override
@@ -44,94 +141,515 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         ButterKnife.bind(this);
-        cameraHelper = new CameraHelper(this);
-        initTexture();
+        mRetainedCamera = (RetainedCamera) getLastCustomNonConfigurationInstance();
+        boolean recreated = mRetainedCamera != null;
+        if (!recreated) {
+            mRetainedCamera = new RetainedCamera(this);
+        }
+        mCameraSchedulers = mRetainedCamera.cameraSchedulers;
+        mCameraSwitcher = mRetainedCamera.cameraSwitcher;
+        cameraHelper = mRetainedCamera.getCameraHelper(mCameraSwitcher.getCameraId());
+        if (recreated) {
+            cameraHelper.getCameraMetrics().onRecreated();
+        }
+        // queued JPEGs hold full-size copies, or reader buffers without ZSL, keep the queue short and drop shots rather than stall capture
+        mImageSaver = new ImageSaver(createOutputDirectory(Environment.DIRECTORY_PICTURES), SAVE_QUEUE_CAPACITY,
+                ImageSaver.OverflowPolicy.DROP_NEWEST, SAVE_SYNC_BATCH_SIZE, Schedulers.io(), Build.MANUFACTURER, Build.MODEL);
+        mThumbnailCache = new ThumbnailCache(new File(getCacheDir(), "thumbnails"), THUMBNAIL_SIZE,
+                (int) (Runtime.getRuntime().maxMemory() / 8), THUMBNAIL_DISK_BYTES);
+        mDisposables.add(mImageSaver.getSavedFiles().subscribe(file -> {
+            Log.d(TAG, "Still image saved to " + file);
+            prefetchThumbnail(file);
+        }));
+        initPreview();
+        initFrameGraph();
+        mOrientationListener = new OrientationEventListener(this) {
+            @Override
+            public void onOrientationChanged(int orientation) {
+                if (orientation != ORIENTATION_UNKNOWN) {
+                    mDeviceOrientation.onNext((orientation + 45) / 90 * 90 % 360);
+                }
+            }
+        };
+        mCameraSession = new CameraSession(mCameraSwitcher, mRetainedCamera::getCameraHelper, Schedulers.computation());
+        mCameraLifecycle = new CameraLifecycle(mCameraSwitcher);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (mPaused) {
+            cameraHelper.getCameraMetrics().onResumed();
+        }
+        mCameraLifecycle.onResume();
+        mOrientationListener.enable();
+        startCamera();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mPaused = true;
+        mOrientationListener.disable();
+        VideoRecorder videoRecorder = mVideoRecorder;
+        mVideoRecorder = null;
+        // streams go first, then the session and the devices, unless the recreated activity takes them over
+        mCameraLifecycle.onPause(isChangingConfigurations());
+        if (videoRecorder != null) {
+            mRecordingStatsDisposable.dispose();
+            mStoppingRecorders.add(videoRecorder);
+            mRecordingMode.onNext(false);
+            setQualityGovernorEnabled(true);
+        }
+        // the session is closed, so recorders waiting for a reconfiguration won't get one
+        for (VideoRecorder stoppingRecorder : mStoppingRecorders) {
+            finishRecording(stoppingRecorder);
+        }
+        if (mStillCapture != null) {
+            mStillCapture.clearBuffer();
+        }
+        Log.d(TAG, "Paused, live camera resources: " + cameraHelper.getResourceTracker());
+        Log.d(TAG, "Motion analysis: " + mMotionDetector.getAnalysedFrames() + " frames analysed, mean "
+                + mMotionDetector.getAnalysisTime().snapshot().getMean() + " ns, " + mMotionDetector.getSkippedFrames() + " skipped");
+        for (FrameGraph.Stage stage : mFrameGraph.getStages()) {
+            Log.d(TAG, "Frame stage " + stage + ", mean " + stage.getLatency().snapshot().getMean() + " ns");
+        }
+    }
 
-        Observable<Pair<DeviceStateEvent, CameraDevice>> cameraDeviceObservable = mOnSurfaceTextureAvailable
+    /**
+     * Builds the camera streams for this resume, everything set up before, like params, outputs and the preview surface,
+     * is reused.
+     */
+    private void startCamera() {
+        // the device opens while the camera is selected and the preview view is laid out, only the session waits for them
+        mCameraLifecycle.add(mCameraSwitcher.getCurrentCameraId()
+                .observeOn(AndroidSchedulers.mainThread())
+                .map(mRetainedCamera::getCameraHelper)
+                .subscribe(selectedCameraHelper -> {
+                    onCameraSelected(selectedCameraHelper);
+                    mSelectedCamera.onNext(selectedCameraHelper);
+                }, throwable -> onCameraError("Camera setup failed", throwable)));
+
+        mCameraLifecycle.add(mCameraSession.getStates().subscribe(this::onCameraSessionState,
+                throwable -> onCameraError("Camera state handling failed", throwable)));
+
+        // the next camera is opened once the current one streams, so pre-warming never delays the start
+        mCameraLifecycle.add(mCameraSession.getStates()
+                .filter(state -> state.type == CameraSessionState.Type.STREAMING)
                 .firstElement()
-                .doAfterSuccess(this::setupSurface)
-                .toObservable()
-                .flatMap(__ -> cameraHelper.openCamera())
-                .share();
-
-        Observable<CameraDevice> openCameraObservable = cameraDeviceObservable
-                .filter(pair -> pair.param1 == DeviceStateEvent.ON_OPENED)
-                .map(pair -> pair.param2)
-                .share();
-
-        Observable<CameraDevice> closeCameraObservable = cameraDeviceObservable
-                .filter(pair -> pair.param1 == DeviceStateEvent.ON_CLOSED)
-                .map(pair -> pair.param2)
-                .share();
-
-
-        Observable<Pair<CaptureSessionStateEvent, CameraCaptureSession>> createCaptureSessionObservable = openCameraObservable
-                .flatMap(cameraDevice -> cameraHelper.createCaptureSession(cameraDevice, Arrays.asList(mSurface)))
-                .share();
-
-        Observable<CameraCaptureSession> captureSessionConfiguredObservable = createCaptureSessionObservable
-                .filter(pair -> pair.param1 == CaptureSessionStateEvent.ON_CONFIGURED)
-                .map(pair -> pair.param2)
-                .share();
-
-        Observable<CameraCaptureSession> captureSessionClosedObservable = createCaptureSessionObservable
-                .filter(pair -> pair.param1 == CaptureSessionStateEvent.ON_CLOSED)
-                .map(pair -> pair.param2)
-                .share();
-
-        Observable<CaptureSessionData> previewObservable = captureSessionConfiguredObservable
-                .flatMap(cameraCaptureSession -> {
-                    CaptureRequest.Builder previewBuilder = createPreviewBuilder(cameraCaptureSession, mSurface);
-                    return cameraHelper.fromSetRepeatingRequest(cameraCaptureSession, previewBuilder.build());
+                .observeOn(Schedulers.io())
+                .subscribe(__ -> prewarmNextCamera(), throwable -> Log.w(TAG, "Camera pre-warm failed", throwable)));
+
+        Flowable<CaptureSessionData> previewFlowable = mCameraSession.start(this::createSessionOutputs,
+                this::createPreviewRequests, FrameBackpressure.latest());
+
+        // Capture results are delivered on the camera thread, hop to AndroidSchedulers.mainThread() only for UI work.
+        // Events are pooled, so the flowable is not shared and every event is released by its single subscriber.
+        mCameraLifecycle.add(previewFlowable.subscribe(captureSessionData -> {
+            mStillCapture.onCaptureSessionData(captureSessionData);
+            mAutoController.onCaptureSessionData(captureSessionData);
+            captureSessionData.release();
+        }, throwable -> Log.e(TAG, "Camera gave up after " + CameraSession.MAX_RETRIES + " retries", throwable)));
+
+        Flowable<Frame> analysisFlowable = mCameraSession.getStates()
+                .filter(state -> state.type == CameraSessionState.Type.CONFIGURED)
+                .toFlowable(BackpressureStrategy.LATEST)
+                .switchMap(state -> state.session.getFrames((FrameTarget) state.outputs.get(ANALYSIS_OUTPUT)), 1);
+
+        mCameraLifecycle.add(mMotionDetector.getMotionEvents().subscribe(motionEvent ->
+                Log.d(TAG, "Motion " + motionEvent.score + " in " + motionEvent.regions.size() + " regions, largest "
+                        + motionEvent.regions.get(0).bounds)));
+
+        // the graph only dispatches on the delivering thread, stages run on its own workers
+        mCameraLifecycle.add(analysisFlowable.subscribe(mFrameGraph::onFrame,
+                throwable -> Log.e(TAG, "Analysis frames failed, motion detection stopped until the next start", throwable)));
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return mRetainedCamera;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mDisposables.dispose();
+        if (mMetricsLogDisposable != null) {
+            mMetricsLogDisposable.dispose();
+        }
+        // camera streams and the session are gone since onPause, the devices too unless the recreated activity keeps them
+        if (!isChangingConfigurations()) {
+            mRetainedCamera.release();
+        }
+        mImageSaver.close();
+        mThumbnailCache.close();
+        mFrameGraph.close();
+        if (mStillCapture != null) {
+            mStillCapture.close();
+        }
+        mPreviewOutput.release();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mThumbnailCache.trimMemory(level);
+    }
+
+    /**
+     * Switches the preview between TextureView and SurfaceView. The activity is recreated, which keeps the devices open.
+     */
+    @OnClick(R.id.preview_output_button)
+    void onPreviewOutputClick() {
+        if (mVideoRecorder != null) {
+            return;
+        }
+        PreviewOutput.Type type = mPreviewOutput instanceof SurfaceViewPreviewOutput
+                ? PreviewOutput.Type.TEXTURE_VIEW
+                : PreviewOutput.Type.SURFACE_VIEW;
+        getPreferences(Context.MODE_PRIVATE).edit().putString(PREF_PREVIEW_OUTPUT, type.name()).apply();
+        recreate();
+    }
+
+    @OnClick(R.id.switch_button)
+    void onSwitchClick() {
+        if (mCameraSession.getCaptureSession() == null || mVideoRecorder != null) {
+            return;
+        }
+        String nextCameraId;
+        try {
+            nextCameraId = mRetainedCamera.getNextCameraId(cameraHelper.getCameraParams().cameraId);
+        } catch (Exception e) {
+            Log.e(TAG, "Can't list cameras", e);
+            return;
+        }
+        if (nextCameraId == null) {
+            return;
+        }
+        mRetainedCamera.getCameraHelper(nextCameraId).getCameraMetrics().onSwitchRequested();
+        // the preview surface can't be part of two sessions, the next camera gets it once this session let it go
+        mCameraLifecycle.add(mCameraSession.switchTo(nextCameraId)
+                .subscribe(() -> Log.d(TAG, "Switched to camera " + nextCameraId),
+                        throwable -> onCameraError("Switch to camera " + nextCameraId + " failed", throwable)));
+    }
+
+    @OnClick(R.id.shutter_button)
+    void onShutterClick() {
+        long pressTime = SystemClock.elapsedRealtimeNanos();
+        CaptureSessionHandle captureSession = mCameraSession.getCaptureSession();
+        CaptureRequestSpec previewRequest = mCameraSession.getRepeatingRequest();
+        // the recording session has no still output
+        if (captureSession == null || previewRequest == null || mVideoRecorder != null) {
+            return;
+        }
+        AutoController autoController = mAutoController;
+        StillCapture stillCapture = mStillCapture;
+        int jpegOrientation = cameraHelper.getOutputOrientation(mDeviceOrientation.getValue());
+        AtomicBoolean prepared = new AtomicBoolean();
+        Maybe<StillImage> preparedPicture = autoController.prepareCapture(captureSession, previewRequest)
+                .doOnSubscribe(__ -> prepared.set(true))
+                .andThen(Maybe.defer(() -> stillCapture.takePicture(captureSession, pressTime, jpegOrientation)));
+        // ZSL takes the frame of the press right away, the ring buffer would have dropped it during a precapture,
+        // only a frame 3A hadn't converged on is replaced by one taken once 3A is ready
+        Maybe<StillImage> picture = stillCapture.getMode() == StillCapture.Mode.ZSL
+                ? stillCapture.takeBufferedPicture(pressTime, autoController::isConverged).switchIfEmpty(preparedPicture)
+                : preparedPicture;
+        // a capture still running when the activity is destroyed is dropped, the saver is closed by then
+        mDisposables.add(picture
+                .doFinally(() -> {
+                    if (prepared.get()) {
+                        autoController.finishCapture(captureSession, previewRequest);
+                    }
                 })
-                .share();
+                .subscribe(stillImage -> {
+                    Log.d(TAG, "Still image " + stillImage.frame.getWidth() + "x" + stillImage.frame.getHeight()
+                            + " in " + stillImage.shutterLatencyNanos / 1000 + "us");
+                    if (!mImageSaver.save(stillImage.frame, stillImage.metadata)) {
+                        Log.w(TAG, "Still image dropped, " + mImageSaver.getQueueDepth() + " waiting to be saved");
+                    }
+                }, throwable -> Log.e(TAG, "Still capture failed", throwable)));
+    }
 
-        previewObservable.subscribe(captureSessionData -> {
+    @OnClick(R.id.record_button)
+    void onRecordClick() {
+        VideoRecorder videoRecorder = mVideoRecorder;
+        if (videoRecorder == null) {
+            startRecording();
+        } else {
+            stopRecording(videoRecorder);
+        }
+    }
 
-        });
+    private void startRecording() {
+        int orientationHint = cameraHelper.getOutputOrientation(mDeviceOrientation.getValue());
+        VideoRecorder videoRecorder = new VideoRecorder(VideoConfig.from(cameraHelper.getCameraParams(), orientationHint), createVideoFile());
+        try {
+            videoRecorder.prepare();
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Video encoder setup failed", e);
+            return;
+        }
+        // encoder runs before the session targets its surface, so no frame is queued into a stopped codec
+        videoRecorder.start();
+        mVideoRecorder = videoRecorder;
+        setQualityGovernorEnabled(false);
+        mRecordingStatsDisposable = Observable.interval(METRICS_LOG_PERIOD_S, TimeUnit.SECONDS)
+                .subscribe(__ -> Log.d(TAG, "Recording: encoder queue " + videoRecorder.getEncoderQueueDepth()
+                        + ", writer queue " + videoRecorder.getWriterQueueDepth()
+                        + ", dropped " + videoRecorder.getDroppedFrames()));
+        mRecordingMode.onNext(true);
     }
 
-    private CaptureRequest.Builder createPreviewBuilder(CameraCaptureSession captureSession, Surface previewSurface) throws CameraAccessException {
-        CaptureRequest.Builder builder = captureSession.getDevice().createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-        builder.addTarget(previewSurface);
-        setup3Auto(builder);
-        return builder;
+    private void stopRecording(@NonNull VideoRecorder videoRecorder) {
+        mVideoRecorder = null;
+        mRecordingStatsDisposable.dispose();
+        // onPause stops the recorder if this never gets to, the subscription is disposed there
+        mStoppingRecorders.add(videoRecorder);
+        // the encoder is drained once the session without its surface replaced the recording one, or failed to
+        mCameraLifecycle.add(mCameraSession.getStates()
+                // the current state is replayed first, the next configured one is the session without the surface
+                .skip(1)
+                .filter(state -> state.type == CameraSessionState.Type.CONFIGURED || state.type == CameraSessionState.Type.ERROR)
+                .firstElement()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(__ -> finishRecording(videoRecorder),
+                        throwable -> finishRecording(videoRecorder),
+                        () -> finishRecording(videoRecorder)));
+        mRecordingMode.onNext(false);
+        setQualityGovernorEnabled(true);
     }
 
-    private void setup3Auto(CaptureRequest.Builder builder) {
-        // Enable auto-magical 3A run by camera device
-        CameraHelper.CameraParams cameraParams = cameraHelper.getCameraParams();
-        builder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO);
+    /**
+     * Stops a recorder of {@link #mStoppingRecorders} once, in background, draining the encoder and finalizing the file
+     * takes seconds.
+     */
+    private void finishRecording(@NonNull VideoRecorder videoRecorder) {
+        if (!mStoppingRecorders.remove(videoRecorder)) {
+            return;
+        }
+        // not tied to the lifecycle, the file has to be finalized even if the activity goes away meanwhile
+        Completable.fromAction(() -> stopRecorder(videoRecorder))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(() -> {
+                    // the cache is closed with the activity
+                    if (!isDestroyed()) {
+                        prefetchThumbnail(videoRecorder.getOutputFile());
+                    }
+                });
+    }
+
+    /**
+     * Level changes reconfigure the session or change the frame rate, neither of which the encoder should see.
+     */
+    private void setQualityGovernorEnabled(boolean enabled) {
+        QualityGovernor qualityGovernor = mQualityGovernor;
+        if (qualityGovernor != null) {
+            qualityGovernor.setEnabled(enabled);
+        }
+    }
 
-        Float minFocusDist = cameraParams.cameraCharacteristics.get(CameraCharacteristics.LENS_INFO_MINIMUM_FOCUS_DISTANCE);
+    private static void stopRecorder(@NonNull VideoRecorder videoRecorder) {
+        try {
+            videoRecorder.stop();
+            Log.d(TAG, "Video saved to " + videoRecorder.getOutputFile());
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Video recording failed", e);
+        }
+    }
 
-        // If MINIMUM_FOCUS_DISTANCE is 0, lens is fixed-focus and we need to skip the AF run.
-        boolean noAFRun = (minFocusDist == null || minFocusDist == 0);
+    /**
+     * Decodes the thumbnail of a new capture in background, so browsing recent captures finds it cached.
+     */
+    private void prefetchThumbnail(@NonNull File file) {
+        mDisposables.add(mThumbnailCache.load(file).subscribe(
+                thumbnail -> Log.d(TAG, "Thumbnail " + thumbnail.getWidth() + "x" + thumbnail.getHeight() + " of " + file.getName()),
+                throwable -> Log.w(TAG, "Thumbnail of " + file.getName() + " failed", throwable)));
+    }
 
-        if (!noAFRun) {
-            // If there is a "continuous picture" mode available, use it, otherwise default to AUTO.
-            int[] afModes = cameraParams.cameraCharacteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
-            if (contains(afModes, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE)) {
-                builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-            } else {
-                builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_AUTO);
-            }
+    @NonNull
+    private File createVideoFile() {
+        return new File(createOutputDirectory(Environment.DIRECTORY_MOVIES), "VID_" + System.currentTimeMillis() + ".mp4");
+    }
+
+    @NonNull
+    private File createOutputDirectory(@NonNull String type) {
+        File directory = getExternalFilesDir(type);
+        return directory == null ? getFilesDir() : directory;
+    }
+
+    /**
+     * Swaps everything sized for the previous camera, before the device of {@code selectedCameraHelper} is requested.
+     */
+    private void onCameraSelected(@NonNull CameraHelper selectedCameraHelper) {
+        if (selectedCameraHelper == cameraHelper && mStillCapture != null) {
+            // resumed with the same camera, outputs and quality levels of the last start are still valid
+            return;
+        }
+        cameraHelper = selectedCameraHelper;
+        mMotionDetector.reset();
+        // buffers are sized once the view is measured at the aspect ratio of the camera
+        Size previewSize = selectedCameraHelper.getCameraParams().previewSize;
+        mPreviewOutput.setAspectRatio(previewSize.getHeight(), previewSize.getWidth());
+
+        StillCapture previousStillCapture = mStillCapture;
+        StillCapture stillCapture = new StillCapture(selectedCameraHelper,
+                StillCapture.getSupportedMode(selectedCameraHelper.getCameraParams()), STILL_BUFFER_SIZE);
+        stillCapture.start();
+        mStillCapture = stillCapture;
+        if (previousStillCapture != null) {
+            previousStillCapture.close();
         }
+        mAutoController = new AutoController(selectedCameraHelper);
+        mQualityLevelObservable = createQualityLevelObservable(selectedCameraHelper);
 
-        // If there is an auto-magical flash control mode available, use it, otherwise default to
-        // the "on" mode, which is guaranteed to always be available.
-        int[] aeModes = cameraParams.cameraCharacteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_MODES);
-        if (contains(aeModes, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH)) {
-            builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
-        } else {
-            builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+        if (mMetricsLogDisposable != null) {
+            mMetricsLogDisposable.dispose();
+        }
+        mMetricsLogDisposable = selectedCameraHelper.getCameraMetrics().logPeriodically(METRICS_LOG_PERIOD_S, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Levels need full characteristics, they are loaded in background while the device opens.
+     */
+    @NonNull
+    private Observable<QualityLevel> createQualityLevelObservable(@NonNull CameraHelper selectedCameraHelper) {
+        return Observable.fromCallable(() -> selectedCameraHelper.getQualityLevels(ANALYSIS_PIXEL_RATE_BUDGET))
+                .subscribeOn(Schedulers.io())
+                .map(levels -> new QualityGovernor(levels))
+                .doOnNext(qualityGovernor -> {
+                    qualityGovernor.setEnabled(mVideoRecorder == null);
+                    mQualityGovernor = qualityGovernor;
+                })
+                .flatMap(QualityGovernor::getLevelChanges)
+                .doOnNext(level -> Log.i(TAG, "Quality level " + level))
+                .replay(1)
+                .autoConnect();
+    }
+
+    private void prewarmNextCamera() throws Exception {
+        String nextCameraId = mRetainedCamera.getNextCameraId(mCameraSwitcher.getCameraId());
+        if (nextCameraId != null) {
+            // loads params of the next camera too, so the switch doesn't query the camera service
+            mRetainedCamera.getCameraHelper(nextCameraId);
+            mCameraSwitcher.prewarm(nextCameraId);
+        }
+    }
+
+    /**
+     * Preview surface at the smallest preview size covering the view, sized anew whenever the view is measured anew.
+     */
+    @NonNull
+    private Observable<Surface> createPreviewSurfaceObservable() {
+        CameraHelper selectedCameraHelper = cameraHelper;
+        return mPreviewOutput.getViewSizes()
+                .observeOn(AndroidSchedulers.mainThread())
+                .map(viewSize -> selectedCameraHelper.getPreviewSize(viewSize.getWidth(), viewSize.getHeight(), getDisplayRotation()))
+                .distinctUntilChanged()
+                .switchMap(previewSize -> {
+                    Log.d(TAG, "Preview size " + previewSize);
+                    mPreviewOutput.setBufferSize(previewSize);
+                    return mPreviewOutput.getSurfaces();
+                });
+    }
+
+    /**
+     * Failures of the app's own camera handling, the camera is left in the error state like after a device error.
+     */
+    private void onCameraError(@NonNull String message, @NonNull Throwable throwable) {
+        Log.e(TAG, message, throwable);
+        mCameraSession.reportError(throwable);
+    }
+
+    private void onCameraSessionState(@NonNull CameraSessionState state) {
+        Log.d(TAG, "Camera session " + state);
+        switch (state.type) {
+            case CONFIGURED:
+                mCameraLifecycle.setCaptureSession(state.session);
+                break;
+            case ERROR:
+                Log.w(TAG, state.retrying ? "Camera failed, reopening" : "Camera failed", state.error);
+                break;
+            default:
+                break;
         }
+    }
+
+    /**
+     * Outputs of the session of {@code cameraId}, listed anew whenever recording mode, analysis size or preview surface change.
+     */
+    @NonNull
+    private Observable<List<OutputTarget>> createSessionOutputs(@NonNull String cameraId) {
+        return mSelectedCamera
+                .filter(selectedCameraHelper -> selectedCameraHelper.getCameraParams().cameraId.equals(cameraId))
+                .take(1)
+                .switchMap(selectedCameraHelper -> Observable.combineLatest(
+                        mRecordingMode.distinctUntilChanged(),
+                        mQualityLevelObservable.map(level -> level.size).distinctUntilChanged(),
+                        createPreviewSurfaceObservable(),
+                        (recording, analysisSize, previewSurface) -> createSessionOutputs(previewSurface, analysisSize)));
+    }
+
+    @NonNull
+    private List<OutputTarget> createSessionOutputs(@NonNull Surface previewSurface, @NonNull Size analysisSize) {
+        FrameTarget analysisTarget = new FrameTarget(analysisSize.getWidth(), analysisSize.getHeight(), ImageFormat.YUV_420_888,
+                MAX_ANALYSIS_FRAMES_IN_FLIGHT);
+        VideoRecorder videoRecorder = mVideoRecorder;
+        Surface surface = videoRecorder != null ? videoRecorder.getSurface() : mStillCapture.getSurface();
+        return Arrays.asList(new SurfaceTarget(previewSurface), analysisTarget, new SurfaceTarget(surface));
+    }
 
-        // If there is an auto-magical white balance control mode available, use it.
-        int[] awbModes = cameraParams.cameraCharacteristics.get(CameraCharacteristics.CONTROL_AWB_AVAILABLE_MODES);
-        if (contains(awbModes, CaptureRequest.CONTROL_AWB_MODE_AUTO)) {
-            // Allow AWB to run auto-magically if this device supports this
-            builder.set(CaptureRequest.CONTROL_AWB_MODE, CaptureRequest.CONTROL_AWB_MODE_AUTO);
+    /**
+     * A new fps range, metering region or, for ZSL frames, device orientation only re-issues the repeating request of
+     * the configured session.
+     */
+    @NonNull
+    private Observable<CaptureRequestSpec> createPreviewRequests(@NonNull CameraSessionState configured) {
+        List<OutputTarget> outputs = configured.outputs;
+        boolean zsl = mVideoRecorder == null && mStillCapture.getMode() == StillCapture.Mode.ZSL;
+        CameraHelper selectedCameraHelper = cameraHelper;
+        return Observable.combineLatest(
+                mQualityLevelObservable.distinctUntilChanged((previous, level) -> Objects.equals(previous.fpsRange, level.fpsRange)),
+                mAutoController.getRegions(),
+                zsl ? mDeviceOrientation.distinctUntilChanged() : Observable.just(0),
+                (level, regions, deviceOrientation) -> createPreviewRequest(outputs, level,
+                        selectedCameraHelper.getOutputOrientation(deviceOrientation)));
+    }
+
+    @NonNull
+    private CaptureRequestSpec createPreviewRequest(@NonNull List<OutputTarget> outputs, @NonNull QualityLevel qualityLevel,
+                                                    int jpegOrientation) {
+        VideoRecorder videoRecorder = mVideoRecorder;
+        if (videoRecorder != null) {
+            // counted before the preview backpressure, every completed capture went to the encoder surface
+            return new CaptureRequestSpec(CameraDevice.TEMPLATE_RECORD, outputs, this::setupRecording, data -> {
+                if (data.getEvent() == CaptureSessionEvents.ON_COMPLETED) {
+                    videoRecorder.onFrameQueued();
+                }
+            });
+        }
+        // without ZSL the still reader is only a target of still captures
+        boolean zsl = mStillCapture.getMode() == StillCapture.Mode.ZSL;
+        List<OutputTarget> targets = zsl ? outputs : outputs.subList(0, STILL_OUTPUT);
+        AutoController autoController = mAutoController;
+        return new CaptureRequestSpec(CameraDevice.TEMPLATE_PREVIEW, targets, builder -> {
+            autoController.setup(builder);
+            if (qualityLevel.fpsRange != null) {
+                builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, qualityLevel.fpsRange);
+            }
+            if (zsl) {
+                // buffered frames become stills, their results carry the orientation to the saver
+                builder.set(CaptureRequest.JPEG_ORIENTATION, jpegOrientation);
+            }
+        });
+    }
+
+    private void setupRecording(CaptureRequest.Builder builder) {
+        mAutoController.setup(builder);
+        CameraHelper.CameraParams cameraParams = cameraHelper.getCameraParams();
+        builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, new Range<>(cameraParams.videoMinFrameRate, cameraParams.videoMaxFrameRate));
+        if (contains(cameraParams.afModes, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO)) {
+            builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
         }
     }
 
@@ -147,36 +665,118 @@ public class MainActivity extends AppCompatActivity {
         return false;
     }
 
-    private void initTexture() {
-        textureView.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
-            @Override
-            public void onSurfaceTextureAvailable(final SurfaceTexture surface, int width, int height) {
-                mOnSurfaceTextureAvailable.onNext(surface);
+    /**
+     * Per-frame consumers of the analysis stream, the quality governor sees how long the graph takes per frame.
+     */
+    private void initFrameGraph() {
+        mFrameGraph = new FrameGraph(FRAME_GRAPH_THREADS);
+        mFrameGraph.addStage("motion", new StageConfig(0, MOTION_BUDGET_NS, StageConfig.PRIORITY_HIGH), mMotionDetector::process);
+        mFrameGraph.setOnFrameProcessedListener((timestamp, processingNanos) -> {
+            QualityGovernor qualityGovernor = mQualityGovernor;
+            if (qualityGovernor != null) {
+                qualityGovernor.onFrameProcessed(timestamp, processingNanos);
             }
+        });
+        mDisposables.add(mFrameGraph.getErrors().subscribe(pair -> Log.w(TAG, "Frame stage " + pair.param1.name + " failed", pair.param2)));
+    }
 
-            @Override
-            public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
-
+    private void initPreview() {
+        String type = getPreferences(Context.MODE_PRIVATE).getString(PREF_PREVIEW_OUTPUT, PreviewOutput.Type.TEXTURE_VIEW.name());
+        if (PreviewOutput.Type.valueOf(type) == PreviewOutput.Type.SURFACE_VIEW) {
+            mPreviewOutput = new SurfaceViewPreviewOutput(new AutoFitSurfaceView(this));
+        } else {
+            mPreviewOutput = new TexturePreviewOutput(new AutoFitTextureView(this), cameraHelper.getResourceTracker());
+        }
+        previewContainer.addView(mPreviewOutput.getView(),
+                new FrameLayout.LayoutParams(FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT));
+        Size previewSize = cameraHelper.getCameraParams().previewSize;
+        mPreviewOutput.setAspectRatio(previewSize.getHeight(), previewSize.getWidth());
+        mPreviewOutput.getView().setOnTouchListener((view, event) -> {
+            if (event.getActionMasked() == MotionEvent.ACTION_UP) {
+                view.performClick();
+                onPreviewTapped(event.getX(), event.getY());
             }
+            return true;
+        });
+    }
 
-            @Override
-            public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
-                return false;
-            }
+    private void onPreviewTapped(float x, float y) {
+        CaptureSessionHandle captureSession = mCameraSession.getCaptureSession();
+        CaptureRequestSpec previewRequest = mCameraSession.getRepeatingRequest();
+        if (captureSession == null || previewRequest == null) {
+            return;
+        }
+        mDisposables.add(mAutoController.focusAt(captureSession, previewRequest, x, y, mPreviewOutput.getView().getWidth(),
+                mPreviewOutput.getView().getHeight(), getDisplayRotation())
+                .subscribe(() -> Log.d(TAG, "Focused at " + x + "," + y), throwable -> Log.w(TAG, "Tap to focus failed", throwable)));
+    }
 
-            @Override
-            public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+    private int getDisplayRotation() {
+        switch (getWindowManager().getDefaultDisplay().getRotation()) {
+            case Surface.ROTATION_90:
+                return 90;
+            case Surface.ROTATION_180:
+                return 180;
+            case Surface.ROTATION_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
 
-            }
-        });
-        textureView.setAspectRatio(cameraHelper.getCameraParams().previewSize.getHeight(), cameraHelper.getCameraParams().previewSize.getWidth());
 
-    }
+    /**
+     * Camera state kept across configuration changes, so a rotation doesn't close and reopen the device.
+     * Holds only the application context.
+     */
+    private static class RetainedCamera {
+        final CameraSchedulers cameraSchedulers;
+        final CameraSwitcher cameraSwitcher;
+        final CameraBackend cameraBackend;
+        private final Context mContext;
+        private final Map<String, CameraHelper> mCameraHelpers = new HashMap<>();
+        private String[] mCameraIds;
+
+        RetainedCamera(@NonNull Context context) {
+            mContext = context.getApplicationContext();
+            cameraSchedulers = new CameraSchedulers();
+            cameraBackend = new Camera2Backend((CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE), cameraSchedulers,
+                    new ResourceTracker());
+            CameraHelper cameraHelper = new CameraHelper(mContext, cameraSchedulers, cameraBackend);
+            String cameraId = cameraHelper.getCameraParams().cameraId;
+            mCameraHelpers.put(cameraId, cameraHelper);
+            cameraSwitcher = new CameraSwitcher(id -> getCameraHelper(id).openCamera(), cameraId);
+        }
 
+        @NonNull
+        synchronized CameraHelper getCameraHelper(@NonNull String cameraId) {
+            CameraHelper cameraHelper = mCameraHelpers.get(cameraId);
+            if (cameraHelper == null) {
+                cameraHelper = new CameraHelper(mContext, cameraSchedulers, cameraBackend, cameraId);
+                mCameraHelpers.put(cameraId, cameraHelper);
+            }
+            return cameraHelper;
+        }
 
-    private void setupSurface(@NonNull SurfaceTexture surfaceTexture) {
-        surfaceTexture.setDefaultBufferSize(cameraHelper.getCameraParams().previewSize.getWidth(), cameraHelper.getCameraParams().previewSize.getHeight());
-        mSurface = new Surface(surfaceTexture);
+        /**
+         * @return camera following {@code cameraId} in the camera list, null if there is no other one
+         */
+        @Nullable
+        synchronized String getNextCameraId(@NonNull String cameraId) throws Exception {
+            if (mCameraIds == null) {
+                mCameraIds = getCameraHelper(cameraId).getCameraBackend().getCameraIdList();
+            }
+            if (mCameraIds.length < 2) {
+                return null;
+            }
+            int index = Arrays.asList(mCameraIds).indexOf(cameraId);
+            return mCameraIds[(index + 1) % mCameraIds.length];
+        }
+
+        void release() {
+            cameraSwitcher.close();
+            cameraSchedulers.quit();
+        }
     }
 
 
@@ -0,0 +1,56 @@
+package volodymyr.com.camera;
+
+import android.support.annotation.NonNull;
+import android.util.Size;
+import android.view.Surface;
+import android.view.View;
+
+import io.reactivex.Observable;
+
+/**
+ * View the preview stream is drawn into. All methods are called on the main thread, observables emit on it.
+ */
+interface PreviewOutput {
+
+    enum Type {
+        /**
+         * Composited by the GPU like any other view, can be animated and transformed
+         */
+        TEXTURE_VIEW,
+        /**
+         * Handed to the display compositor directly, a GPU pass and usually a frame of latency less
+         */
+        SURFACE_VIEW
+    }
+
+    @NonNull
+    View getView();
+
+    /**
+     * Aspect ratio the view fits into its parent with, as displayed.
+     */
+    void setAspectRatio(int width, int height);
+
+    /**
+     * Measured size of the view, the latest one right away.
+     */
+    @NonNull
+    Observable<Size> getViewSizes();
+
+    /**
+     * Size of the buffers the camera draws, in sensor orientation.
+     */
+    void setBufferSize(@NonNull Size size);
+
+    /**
+     * Surface to draw into once it is ready at the set buffer size, the current one right away. Emits again whenever
+     * the surface is recreated or resized. Owned by the output, not to be released.
+     */
+    @NonNull
+    Observable<Surface> getSurfaces();
+
+    /**
+     * Releases the surface if the output made it, the view is going away.
+     */
+    void release();
+}
@@ -0,0 +1,100 @@
+package volodymyr.com.camera;
+
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.View;
+
+import io.reactivex.Observable;
+import io.reactivex.subjects.BehaviorSubject;
+import io.reactivex.subjects.PublishSubject;
+
+/**
+ * Preview drawn into an {@link AutoFitSurfaceView}. The surface belongs to the view and only counts as ready once the
+ * view applied the fixed buffer size, a session configured before would get buffers of the wrong size.
+ */
+class SurfaceViewPreviewOutput implements PreviewOutput {
+
+    private final AutoFitSurfaceView mSurfaceView;
+    private final BehaviorSubject<Size> mViewSizes = BehaviorSubject.create();
+    private final PublishSubject<Surface> mSurfaces = PublishSubject.create();
+    @Nullable
+    private Surface mReadySurface;
+    @Nullable
+    private Size mBufferSize;
+
+    SurfaceViewPreviewOutput(@NonNull AutoFitSurfaceView surfaceView) {
+        mSurfaceView = surfaceView;
+        surfaceView.setOnMeasuredListener((width, height) -> mViewSizes.onNext(new Size(width, height)));
+        surfaceView.getHolder().addCallback(new SurfaceHolder.Callback() {
+            @Override
+            public void surfaceCreated(SurfaceHolder holder) {
+
+            }
+
+            @Override
+            public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+                onSurfaceChanged(holder, width, height);
+            }
+
+            @Override
+            public void surfaceDestroyed(SurfaceHolder holder) {
+                mReadySurface = null;
+            }
+        });
+    }
+
+    @NonNull
+    @Override
+    public View getView() {
+        return mSurfaceView;
+    }
+
+    @Override
+    public void setAspectRatio(int width, int height) {
+        mSurfaceView.setAspectRatio(width, height);
+    }
+
+    @NonNull
+    @Override
+    public Observable<Size> getViewSizes() {
+        return mViewSizes;
+    }
+
+    @Override
+    public void setBufferSize(@NonNull Size size) {
+        mBufferSize = size;
+        SurfaceHolder holder = mSurfaceView.getHolder();
+        Rect frame = holder.getSurfaceFrame();
+        if (holder.getSurface().isValid() && frame.width() == size.getWidth() && frame.height() == size.getHeight()) {
+            // already at that size, surfaceChanged won't come
+            onSurfaceChanged(holder, size.getWidth(), size.getHeight());
+            return;
+        }
+        mReadySurface = null;
+        holder.setFixedSize(size.getWidth(), size.getHeight());
+    }
+
+    @NonNull
+    @Override
+    public Observable<Surface> getSurfaces() {
+        return Observable.defer(() -> mReadySurface != null ? mSurfaces.startWith(mReadySurface) : mSurfaces);
+    }
+
+    @Override
+    public void release() {
+        mReadySurface = null;
+    }
+
+    private void onSurfaceChanged(@NonNull SurfaceHolder holder, int width, int height) {
+        Size bufferSize = mBufferSize;
+        if (bufferSize == null || width != bufferSize.getWidth() || height != bufferSize.getHeight()) {
+            return;
+        }
+        mReadySurface = holder.getSurface();
+        mSurfaces.onNext(mReadySurface);
+    }
+}
@@ -0,0 +1,115 @@
+package volodymyr.com.camera;
+
+import android.graphics.SurfaceTexture;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Size;
+import android.view.Surface;
+import android.view.TextureView;
+import android.view.View;
+
+import io.reactivex.Observable;
+import io.reactivex.subjects.BehaviorSubject;
+import io.reactivex.subjects.PublishSubject;
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
+
+/**
+ * Preview drawn into an {@link AutoFitTextureView}. The surface of the texture is kept across pause and resume,
+ * a new one is only made for a new texture.
+ */
+class TexturePreviewOutput implements PreviewOutput {
+
+    private final AutoFitTextureView mTextureView;
+    private final ResourceTracker mResourceTracker;
+    private final BehaviorSubject<Size> mViewSizes = BehaviorSubject.create();
+    private final PublishSubject<Surface> mSurfaces = PublishSubject.create();
+    @Nullable
+    private SurfaceTexture mSurfaceTexture;
+    @Nullable
+    private Surface mSurface;
+    @Nullable
+    private Size mBufferSize;
+
+    TexturePreviewOutput(@NonNull AutoFitTextureView textureView, @NonNull ResourceTracker resourceTracker) {
+        mTextureView = textureView;
+        mResourceTracker = resourceTracker;
+        textureView.setOnMeasuredListener((width, height) -> mViewSizes.onNext(new Size(width, height)));
+        textureView.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
+            @Override
+            public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+                setupSurface(surface);
+            }
+
+            @Override
+            public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+
+            }
+
+            @Override
+            public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+                // only happens once the view is detached, after onPause closed the session drawing into it
+                release();
+                return true;
+            }
+
+            @Override
+            public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+
+            }
+        });
+    }
+
+    @NonNull
+    @Override
+    public View getView() {
+        return mTextureView;
+    }
+
+    @Override
+    public void setAspectRatio(int width, int height) {
+        mTextureView.setAspectRatio(width, height);
+    }
+
+    @NonNull
+    @Override
+    public Observable<Size> getViewSizes() {
+        return mViewSizes;
+    }
+
+    @Override
+    public void setBufferSize(@NonNull Size size) {
+        mBufferSize = size;
+        if (mSurfaceTexture != null && mSurface != null) {
+            mSurfaceTexture.setDefaultBufferSize(size.getWidth(), size.getHeight());
+            mSurfaces.onNext(mSurface);
+        }
+    }
+
+    @NonNull
+    @Override
+    public Observable<Surface> getSurfaces() {
+        return Observable.defer(() -> mSurface != null && mBufferSize != null ? mSurfaces.startWith(mSurface) : mSurfaces);
+    }
+
+    @Override
+    public void release() {
+        if (mSurface != null) {
+            mSurface.release();
+            mSurface = null;
+            mResourceTracker.onReleased(ResourceTracker.Resource.SURFACE);
+        }
+    }
+
+    private void setupSurface(@NonNull SurfaceTexture surfaceTexture) {
+        if (surfaceTexture == mSurfaceTexture && mSurface != null) {
+            return;
+        }
+        release();
+        mSurfaceTexture = surfaceTexture;
+        mSurface = new Surface(surfaceTexture);
+        mResourceTracker.onAcquired(ResourceTracker.Resource.SURFACE);
+        if (mBufferSize != null) {
+            setBufferSize(mBufferSize);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package volodymyr.com.camera.camera;
+
+import android.support.annotation.NonNull;
+
+import io.reactivex.FlowableEmitter;
+
+/**
+ * Applies {@link FrameBackpressure} to items pushed from camera callbacks without allocating per item.
+ * Items that are dropped, or still queued when the subscriber cancels, are handed to the {@link Recycler}.
+ * <p>
+ * Camera callbacks can't be paused, so queued items are flushed on the next {@link #onNext(Object)} that sees demand.
+ * The owner must call {@link #clear()} from the emitter's cancellable.
+ */
+public class BackpressureEmitter<T> {
+
+    public interface Recycler<T> {
+        void recycle(@NonNull T item);
+    }
+
+    private final FlowableEmitter<T> mEmitter;
+    private final Recycler<T> mRecycler;
+    private final Object[] mQueue;
+    private int mHead;
+    private int mSize;
+    private long mDroppedCount;
+
+    public BackpressureEmitter(@NonNull FlowableEmitter<T> emitter, @NonNull FrameBackpressure backpressure, @NonNull Recycler<T> recycler) {
+        mEmitter = emitter;
+        mRecycler = recycler;
+        mQueue = new Object[backpressure.capacity];
+    }
+
+    public synchronized void onNext(@NonNull T item) {
+        if (mEmitter.isCancelled()) {
+            mRecycler.recycle(item);
+            return;
+        }
+        drain();
+        if (mSize == 0 && mEmitter.requested() > 0) {
+            mEmitter.onNext(item);
+            return;
+        }
+        if (mQueue.length == 0) {
+            drop(item);
+            return;
+        }
+        if (mSize == mQueue.length) {
+            drop(poll());
+        }
+        mQueue[(mHead + mSize) % mQueue.length] = item;
+        mSize++;
+    }
+
+    /**
+     * Ends the stream. Queued items the subscriber has no demand for are recycled, there is no later callback to deliver them.
+     */
+    public synchronized void onComplete() {
+        drain();
+        clear();
+        mEmitter.onComplete();
+    }
+
+    public synchronized void onError(@NonNull Throwable throwable) {
+        clear();
+        mEmitter.onError(throwable);
+    }
+
+    /**
+     * Drops the oldest undelivered item, if there is one.
+     *
+     * @return true if an item was dropped
+     */
+    public synchronized boolean dropOldest() {
+        if (mSize == 0) {
+            return false;
+        }
+        drop(poll());
+        return true;
+    }
+
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public boolean isCancelled() {
+        return mEmitter.isCancelled();
+    }
+
+    private void drain() {
+        while (mSize > 0 && mEmitter.requested() > 0 && !mEmitter.isCancelled()) {
+            mEmitter.onNext(poll());
+        }
+    }
+
+    public synchronized void clear() {
+        while (mSize > 0) {
+            mRecycler.recycle(poll());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T poll() {
+        T item = (T) mQueue[mHead];
+        mQueue[mHead] = null;
+        mHead = (mHead + 1) % mQueue.length;
+        mSize--;
+        return item;
+    }
+
+    private void drop(T item) {
+        mDroppedCount++;
+        mRecycler.recycle(item);
+    }
+}
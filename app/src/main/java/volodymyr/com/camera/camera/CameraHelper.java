@@ -1,181 +1,330 @@
 package volodymyr.com.camera.camera;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
 import android.hardware.camera2.CameraAccessException;
-import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
-import android.hardware.camera2.CaptureFailure;
-import android.hardware.camera2.CaptureRequest;
-import android.hardware.camera2.CaptureResult;
-import android.hardware.camera2.TotalCaptureResult;
 import android.media.ImageReader;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.Range;
 import android.util.Size;
-import android.view.Surface;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
-import io.reactivex.ObservableEmitter;
-import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import volodymyr.com.camera.camera.backend.CameraBackend;
+import volodymyr.com.camera.camera.backend.CameraDeviceHandle;
+import volodymyr.com.camera.camera.backend.CaptureRequestSpec;
+import volodymyr.com.camera.camera.backend.CaptureSessionHandle;
+import volodymyr.com.camera.camera.backend.ImageReaderFrames;
+import volodymyr.com.camera.camera.backend.OutputTarget;
+import volodymyr.com.camera.camera.backend.ReferenceCount;
 import volodymyr.com.camera.camera.event.CaptureSessionEvents;
 import volodymyr.com.camera.camera.event.CaptureSessionStateEvent;
 import volodymyr.com.camera.camera.event.DeviceStateEvent;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+import volodymyr.com.camera.camera.metrics.CameraMetrics;
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
 import volodymyr.com.camera.camera.pojo.CaptureSessionData;
 import volodymyr.com.camera.camera.pojo.Pair;
 
 import static android.content.Context.CAMERA_SERVICE;
 
-public class CameraHelper {
+public class CameraHelper implements CaptureSessionFactory {
 
     private static final String TAG = CameraHelper.class.getSimpleName();
+    private static final int ANY_LENS_FACING = -1;
     private CameraManager mCameraManager = null;
     private CameraParams mCameraParams;
+    private volatile CameraCharacteristics mCameraCharacteristics;
+    private final CameraSchedulers mCameraSchedulers;
+    private final CameraParamsCache mCameraParamsCache;
+    private final CameraMetrics mCameraMetrics = new CameraMetrics();
+    private final CameraBackend mCameraBackend;
+    private final int mLensFacing;
+    @Nullable
+    private final String mRequestedCameraId;
+
+    /**
+     * Helper for the front camera.
+     *
+     * @param cameraBackend opens the devices, usually shared by the helpers of all cameras, so is its
+     *                      {@link CameraBackend#getResourceTracker()}
+     */
+    public CameraHelper(Context context, @NonNull CameraSchedulers cameraSchedulers, @NonNull CameraBackend cameraBackend) {
+        this(context, cameraSchedulers, cameraBackend, CameraCharacteristics.LENS_FACING_FRONT, null);
+    }
+
+    /**
+     * Helper for camera {@code cameraId} of {@link CameraBackend#getCameraIdList()}.
+     */
+    public CameraHelper(Context context, @NonNull CameraSchedulers cameraSchedulers, @NonNull CameraBackend cameraBackend,
+                        @NonNull String cameraId) {
+        this(context, cameraSchedulers, cameraBackend, ANY_LENS_FACING, cameraId);
+    }
 
-    public CameraHelper(Context context) {
-        mCameraManager = (CameraManager) context.getSystemService(CAMERA_SERVICE);
+    private CameraHelper(Context context, @NonNull CameraSchedulers cameraSchedulers, @NonNull CameraBackend cameraBackend,
+                         int lensFacing, @Nullable String cameraId) {
+        // only the application context is kept, helpers can outlive an activity across configuration changes
+        Context applicationContext = context.getApplicationContext();
+        // characteristics still come from the camera service, the params are cached from them
+        mCameraManager = (CameraManager) applicationContext.getSystemService(CAMERA_SERVICE);
+        mCameraSchedulers = cameraSchedulers;
+        mCameraBackend = cameraBackend;
+        mLensFacing = lensFacing;
+        mRequestedCameraId = cameraId;
+        mCameraParamsCache = new CameraParamsCache(applicationContext, cameraId == null ? String.valueOf(lensFacing) : "id_" + cameraId);
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        mCameraParams = mCameraParamsCache.read();
+        if (mCameraParams != null) {
+            Log.d(TAG, "Camera params loaded from cache in " + (SystemClock.elapsedRealtimeNanos() - start) / 1000 + "us");
+            revalidateCameraParams(mCameraParams);
+            return;
+        }
         try {
-            getCameraId();
+            mCameraParams = loadCameraParams();
+            if (mCameraParams != null) {
+                mCameraParamsCache.write(mCameraParams);
+            }
         } catch (CameraAccessException e) {
             e.printStackTrace();
         }
     }
 
-    private void getCameraId() throws CameraAccessException {
-        Observable.fromIterable(Arrays.asList(mCameraManager.getCameraIdList()))
-                .map((Function<String, Pair<String, CameraCharacteristics>>) s -> new Pair(s, mCameraManager.getCameraCharacteristics(s)))
-                .filter(stringCameraCharacteristicsPair -> {
-                    Integer integer = stringCameraCharacteristicsPair.param2.get(CameraCharacteristics.LENS_FACING);
-                    if (integer != null && integer == CameraCharacteristics.LENS_FACING_FRONT) {
-                        return true;
-                    }
-                    return false;
-                })
-                .subscribe(pair -> mCameraParams = getCameraParams(pair));
+    @Nullable
+    private CameraParams loadCameraParams() throws CameraAccessException {
+        if (mRequestedCameraId != null) {
+            CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(mRequestedCameraId);
+            mCameraCharacteristics = characteristics;
+            return CameraParams.from(mRequestedCameraId, characteristics);
+        }
+        for (String cameraId : mCameraManager.getCameraIdList()) {
+            CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(cameraId);
+            Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == mLensFacing) {
+                mCameraCharacteristics = characteristics;
+                return CameraParams.from(cameraId, characteristics);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks cached params against the camera service in background. Changes are persisted and used from the next start,
+     * the current start keeps going with the cached values it already sized the preview for.
+     */
+    private void revalidateCameraParams(@NonNull CameraParams cachedParams) {
+        Observable.fromCallable(() -> {
+            CameraParams params = loadCameraParams();
+            if (params != null && !params.equals(cachedParams)) {
+                mCameraParamsCache.write(params);
+                Log.i(TAG, "Camera params changed, cache updated for the next start");
+            }
+            return true;
+        })
+                .subscribeOn(Schedulers.io())
+                .subscribe(__ -> {
+                }, throwable -> Log.w(TAG, "Camera params revalidation failed", throwable));
     }
 
-    private CameraParams getCameraParams(Pair<String, CameraCharacteristics> pair) {
-        Size previewSize = CameraStrategy.getPreviewSize(pair.param2);
-        return new CameraParams(pair.param1, pair.param2, previewSize);
+    /**
+     * Full characteristics of the selected camera. Not needed on the start path, so they are only fetched on first use
+     * when params came from cache, preferably call it off the main thread.
+     */
+    @NonNull
+    public CameraCharacteristics getCameraCharacteristics() throws CameraAccessException {
+        CameraCharacteristics characteristics = mCameraCharacteristics;
+        if (characteristics == null) {
+            characteristics = mCameraManager.getCameraCharacteristics(mCameraParams.cameraId);
+            mCameraCharacteristics = characteristics;
+        }
+        return characteristics;
     }
 
     public CameraParams getCameraParams() {
         return mCameraParams;
     }
 
-    @SuppressLint("MissingPermission")
-    public Observable<Pair<DeviceStateEvent, CameraDevice>> openCamera() {
-        return Observable.create(observableEmitter ->
-                mCameraManager.openCamera(mCameraParams.cameraId, new CameraDevice.StateCallback() {
-                    @Override
-                    public void onOpened(@NonNull CameraDevice cameraDevice) {
-                        observableEmitter.onNext(new Pair<>(DeviceStateEvent.ON_OPENED, cameraDevice));
-                    }
-
-                    @Override
-                    public void onClosed(@NonNull CameraDevice cameraDevice) {
-                        observableEmitter.onNext(new Pair<>(DeviceStateEvent.ON_CLOSED, cameraDevice));
-                        observableEmitter.onComplete();
-                    }
-
-                    @Override
-                    public void onDisconnected(@NonNull CameraDevice cameraDevice) {
-                        observableEmitter.onNext(new Pair<>(DeviceStateEvent.ON_DISCONNECTED, cameraDevice));
-                        observableEmitter.onComplete();
-                    }
-
-                    @Override
-                    public void onError(@NonNull CameraDevice camera, int error) {
-                        observableEmitter.onError(new Exception("Exception " + error));
-                    }
-                }, null)
-        );
+    @NonNull
+    public CameraSchedulers getCameraSchedulers() {
+        return mCameraSchedulers;
     }
 
     @NonNull
-    public static Observable<Pair<CaptureSessionStateEvent, CameraCaptureSession>> createCaptureSession(
-            @NonNull CameraDevice cameraDevice,
-            @NonNull List<Surface> surfaceList
-    ) {
-        return Observable.create(observableEmitter -> {
-            cameraDevice.createCaptureSession(surfaceList, new CameraCaptureSession.StateCallback() {
+    public CameraMetrics getCameraMetrics() {
+        return mCameraMetrics;
+    }
 
-                @Override
-                public void onConfigured(@NonNull CameraCaptureSession session) {
-                    observableEmitter.onNext(new Pair<>(CaptureSessionStateEvent.ON_CONFIGURED, session));
-                }
+    @NonNull
+    public CameraBackend getCameraBackend() {
+        return mCameraBackend;
+    }
 
-                @Override
-                public void onConfigureFailed(@NonNull CameraCaptureSession session) {
-                    observableEmitter.onError(new Exception(" Exception " + session.toString()));
-                }
+    @NonNull
+    public ResourceTracker getResourceTracker() {
+        return mCameraBackend.getResourceTracker();
+    }
 
-                @Override
-                public void onReady(@NonNull CameraCaptureSession session) {
-                    observableEmitter.onNext(new Pair<>(CaptureSessionStateEvent.ON_READY, session));
-                }
+    @NonNull
+    public Observable<Pair<DeviceStateEvent, CameraDeviceHandle>> openCamera() {
+        return mCameraBackend.openCamera(mCameraParams.cameraId)
+                .doOnSubscribe(__ -> mCameraMetrics.onOpenRequested())
+                .doOnNext(pair -> {
+                    if (pair.param1 == DeviceStateEvent.ON_OPENED) {
+                        mCameraMetrics.onOpened();
+                    }
+                });
+    }
 
-                @Override
-                public void onActive(@NonNull CameraCaptureSession session) {
-                    observableEmitter.onNext(new Pair<>(CaptureSessionStateEvent.ON_ACTIVE, session));
-                }
+    /**
+     * Largest output size the camera records at a fixed {@code fps} in a constrained high-speed session,
+     * null if it can't. Reads full characteristics, preferably call it off the main thread.
+     */
+    @Nullable
+    public HighSpeedConfig getHighSpeedConfig(int fps) throws CameraAccessException {
+        return CameraStrategy.getHighSpeedConfig(getCameraCharacteristics(), fps);
+    }
 
-                @Override
-                public void onClosed(@NonNull CameraCaptureSession session) {
-                    observableEmitter.onNext(new Pair<>(CaptureSessionStateEvent.ON_CLOSED, session));
-                    observableEmitter.onComplete();
-                }
+    /**
+     * Smallest preview size covering a view of {@code viewWidth}x{@code viewHeight} pixels, from the cached params,
+     * so it is cheap enough for the main thread.
+     *
+     * @param displayRotation clockwise rotation of the display in degrees
+     */
+    @NonNull
+    public Size getPreviewSize(int viewWidth, int viewHeight, int displayRotation) {
+        return CameraStrategy.selectPreviewSize(mCameraParams.previewSizes, viewWidth, viewHeight, mCameraParams.sensorOrientation,
+                displayRotation);
+    }
 
-                @Override
-                public void onSurfacePrepared(@NonNull CameraCaptureSession session, @NonNull Surface surface) {
-                    observableEmitter.onNext(new Pair<>(CaptureSessionStateEvent.ON_SURFACE_PREPARED, session));
-                }
-            }, null);
-        });
+    /**
+     * Rotation for {@link android.hardware.camera2.CaptureRequest#JPEG_ORIENTATION} and the video orientation hint,
+     * see {@link CameraStrategy#getOutputOrientation(int, int, int)}.
+     *
+     * @param deviceOrientation clockwise rotation of the device in degrees, 0 if unknown
+     */
+    public int getOutputOrientation(int deviceOrientation) {
+        return CameraStrategy.getOutputOrientation(mCameraParams.sensorOrientation, mCameraParams.lensFacing, deviceOrientation);
     }
 
-    public Observable<CaptureSessionData> fromSetRepeatingRequest(@NonNull CameraCaptureSession captureSession, @NonNull CaptureRequest request) {
-        return Observable.create(observableEmitter -> captureSession.setRepeatingRequest(request, createCaptureCallback(observableEmitter), null));
+    /**
+     * Analysis sizes and preview fps ranges for {@link QualityGovernor}, from the highest quality within
+     * {@code maxPixelRate} pixels per second down. Sizes don't exceed {@link CameraParams#previewSize}.
+     * Reads full characteristics, preferably call it off the main thread.
+     */
+    @NonNull
+    public List<QualityLevel> getQualityLevels(long maxPixelRate) throws CameraAccessException {
+        return CameraStrategy.getQualityLevels(getCameraCharacteristics(), mCameraParams.previewSize, maxPixelRate);
     }
 
     @NonNull
-    private CameraCaptureSession.CaptureCallback createCaptureCallback(final ObservableEmitter<CaptureSessionData> observableEmitter) {
-        return new CameraCaptureSession.CaptureCallback() {
+    @Override
+    public Observable<Pair<CaptureSessionStateEvent, CaptureSessionHandle>> createCaptureSession(
+            @NonNull CameraDeviceHandle cameraDevice,
+            @NonNull List<OutputTarget> outputs
+    ) {
+        return withConfigureMetrics(cameraDevice.createCaptureSession(outputs));
+    }
 
-            @Override
-            public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, long timestamp, long frameNumber) {
-            }
+    /**
+     * Session for 120 fps and faster capture, see {@link CameraDeviceHandle#createConstrainedHighSpeedCaptureSession(List)}.
+     */
+    @NonNull
+    public Observable<Pair<CaptureSessionStateEvent, CaptureSessionHandle>> createHighSpeedCaptureSession(
+            @NonNull CameraDeviceHandle cameraDevice,
+            @NonNull List<OutputTarget> outputs
+    ) {
+        return withConfigureMetrics(cameraDevice.createConstrainedHighSpeedCaptureSession(outputs));
+    }
 
-            @Override
-            public void onCaptureProgressed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureResult partialResult) {
-            }
+    @NonNull
+    private Observable<Pair<CaptureSessionStateEvent, CaptureSessionHandle>> withConfigureMetrics(
+            @NonNull Observable<Pair<CaptureSessionStateEvent, CaptureSessionHandle>> sessionObservable) {
+        return sessionObservable
+                .doOnSubscribe(__ -> mCameraMetrics.onConfigureRequested())
+                .doOnNext(pair -> {
+                    if (pair.param1 == CaptureSessionStateEvent.ON_CONFIGURED) {
+                        mCameraMetrics.onConfigured();
+                    }
+                });
+    }
 
-            @Override
-            public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
-                if (!observableEmitter.isDisposed()) {
-                    observableEmitter.onNext(new CaptureSessionData(CaptureSessionEvents.ON_COMPLETED, session, request, result));
-                }
-            }
+    /**
+     * Starts {@code request} as the repeating request with backpressure and without per-frame allocations.
+     * Emits {@link CaptureSessionEvents#ON_STARTED}, {@link CaptureSessionEvents#ON_COMPLETED}, {@link CaptureSessionEvents#ON_FAILED}
+     * and, where the backend reports them, {@link CaptureSessionEvents#ON_SEQUENCE_COMPLETED} and
+     * {@link CaptureSessionEvents#ON_SEQUENCE_ABORTED}. Failed frames don't end the stream.
+     * <p>
+     * Emitted {@link CaptureSessionData} are pooled, the subscriber must call {@link CaptureSessionData#release()} on each of them.
+     */
+    @NonNull
+    @Override
+    public Flowable<CaptureSessionData> fromSetRepeatingRequest(@NonNull CaptureSessionHandle captureSession,
+                                                                @NonNull CaptureRequestSpec request,
+                                                                @NonNull FrameBackpressure backpressure) {
+        // recorded on the callback thread, frames the backpressure drops were still delivered by the camera
+        return captureSession.setRepeatingRequest(request.withListener(this::recordFrame), backpressure)
+                .doOnSubscribe(__ -> mCameraMetrics.onRepeatingRequested());
+    }
 
-            @Override
-            public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
-                if (!observableEmitter.isDisposed()) {
-                    observableEmitter.onError(new Exception("" + failure));
-                }
-            }
+    /**
+     * Repeats {@code requests} as one burst, see {@link CaptureSessionHandle#setRepeatingBurst(List, FrameBackpressure)}.
+     * Emitted {@link CaptureSessionData} are pooled, the subscriber must call {@link CaptureSessionData#release()} on each of them.
+     */
+    @NonNull
+    public Flowable<CaptureSessionData> fromSetRepeatingBurst(@NonNull CaptureSessionHandle captureSession,
+                                                              @NonNull List<CaptureRequestSpec> requests,
+                                                              @NonNull FrameBackpressure backpressure) {
+        List<CaptureRequestSpec> recordedRequests = new ArrayList<>(requests.size());
+        for (CaptureRequestSpec request : requests) {
+            recordedRequests.add(request.withListener(this::recordFrame));
+        }
+        return captureSession.setRepeatingBurst(recordedRequests, backpressure)
+                .doOnSubscribe(__ -> mCameraMetrics.onRepeatingRequested());
+    }
 
-            @Override
-            public void onCaptureSequenceCompleted(@NonNull CameraCaptureSession session, int sequenceId, long frameNumber) {
-            }
+    /**
+     * Issues {@code requests} once as a burst, see {@link CaptureSessionHandle#captureBurst(List)}.
+     */
+    @NonNull
+    public Observable<CaptureSessionData> fromCaptureBurst(@NonNull CaptureSessionHandle captureSession,
+                                                           @NonNull List<CaptureRequestSpec> requests) {
+        return captureSession.captureBurst(requests)
+                .doOnNext(data -> {
+                    if (data.getEvent() == CaptureSessionEvents.ON_COMPLETED) {
+                        mCameraMetrics.onOtherCapture(data.getFrameNumber());
+                    }
+                });
+    }
 
-            @Override
-            public void onCaptureSequenceAborted(@NonNull CameraCaptureSession session, int sequenceId) {
-            }
-        };
+    private void recordFrame(@NonNull CaptureSessionData data) {
+        if (data.getEvent() == CaptureSessionEvents.ON_FAILED) {
+            mCameraMetrics.onCaptureFailed(data.getFrameNumber());
+            return;
+        }
+        if (data.getEvent() != CaptureSessionEvents.ON_COMPLETED) {
+            return;
+        }
+        FrameMetadata metadata = data.getMetadata();
+        if (metadata != null) {
+            mCameraMetrics.onFrame(metadata.getFrameNumber(), metadata.getTimestamp(), metadata.getFrameDuration());
+        } else {
+            mCameraMetrics.onFrame(data.getFrameNumber(), data.getTimestamp(), CaptureSessionData.NO_VALUE);
+        }
     }
 
     @NonNull
@@ -186,23 +335,282 @@ public class CameraHelper {
                     subscriber.onNext(reader);
                 }
             };
-            imageReader.setOnImageAvailableListener(listener, null);
+            imageReader.setOnImageAvailableListener(listener, mCameraSchedulers.getImageHandler());
             subscriber.setCancellable(() -> imageReader.setOnImageAvailableListener(null, null)); //remove listener on unsubscribe
         });
     }
 
-    public class CameraParams {
+    /**
+     * Creates reader for still capture, sized to keep {@code maxFramesInFlight} frames acquired
+     * and still let {@link ImageReader#acquireLatestImage()} work.
+     *
+     * @param format {@link ImageFormat#JPEG}, or {@link ImageFormat#YUV_420_888} for frames encoded by the app
+     */
+    @NonNull
+    public static ImageReader createStillImageReader(@NonNull Size size, int format, int maxFramesInFlight) {
+        return ImageReaderFrames.createImageReader(size.getWidth(), size.getHeight(), format, maxFramesInFlight);
+    }
+
+    /**
+     * Emits the latest image of {@code imageReader} as a {@link Frame}, see
+     * {@link ImageReaderFrames#create(ImageReader, ReferenceCount, int, android.os.Handler, ResourceTracker)}.
+     */
+    @NonNull
+    public Flowable<Frame> createFrameFlowable(@NonNull ImageReader imageReader, @NonNull ReferenceCount readerReferences,
+                                               int maxFramesInFlight) {
+        return ImageReaderFrames.create(imageReader, readerReferences, maxFramesInFlight, mCameraSchedulers.getImageHandler(),
+                getResourceTracker());
+    }
+
+    /**
+     * Everything the start path needs to know about the selected camera, small enough to be persisted by {@link CameraParamsCache}.
+     */
+    public static class CameraParams {
+        private static final int DEFAULT_VIDEO_FRAME_RATE = 30;
+
         @NonNull
         public final String cameraId;
-        @NonNull
-        public final CameraCharacteristics cameraCharacteristics;
+        public final int lensFacing;
+        /**
+         * Largest preview size, also the aspect ratio and upper bound of the other outputs
+         */
         @NonNull
         public final Size previewSize;
-
-        private CameraParams(@NonNull String cameraId, @NonNull CameraCharacteristics cameraCharacteristics, @NonNull Size previewSize) {
+        /**
+         * Preview sizes with the aspect ratio of {@link #previewSize} up to it, smallest first
+         */
+        @NonNull
+        public final Size[] previewSizes;
+        @NonNull
+        public final Size stillImageSize;
+        @NonNull
+        public final int[] afModes;
+        @NonNull
+        public final int[] aeModes;
+        @NonNull
+        public final int[] awbModes;
+        /**
+         * 0 for fixed-focus lens, see {@link CameraCharacteristics#LENS_INFO_MINIMUM_FOCUS_DISTANCE}
+         */
+        public final float minFocusDistance;
+        public final float hyperfocalDistance;
+        public final int sensorOrientation;
+        public final int timestampSource;
+        @NonNull
+        public final Size videoSize;
+        /**
+         * AE target fps range used while recording, see {@link CameraCharacteristics#CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES}
+         */
+        public final int videoMinFrameRate;
+        public final int videoMaxFrameRate;
+        /**
+         * Coordinate space of metering regions, empty if unknown, see {@link CameraCharacteristics#SENSOR_INFO_ACTIVE_ARRAY_SIZE}
+         */
+        @NonNull
+        public final Rect activeArraySize;
+        public final int maxAfRegions;
+        public final int maxAeRegions;
+        /**
+         * See {@link CameraCharacteristics#INFO_SUPPORTED_HARDWARE_LEVEL}, it decides which stream combinations are guaranteed
+         */
+        public final int hardwareLevel;
+
+        CameraParams(@NonNull String cameraId, int lensFacing, @NonNull Size previewSize, @NonNull Size[] previewSizes,
+                             @NonNull Size stillImageSize,
+                             @NonNull int[] afModes, @NonNull int[] aeModes, @NonNull int[] awbModes,
+                             float minFocusDistance, float hyperfocalDistance, int sensorOrientation, int timestampSource,
+                             @NonNull Size videoSize, int videoMinFrameRate, int videoMaxFrameRate,
+                             @NonNull Rect activeArraySize, int maxAfRegions, int maxAeRegions, int hardwareLevel) {
             this.cameraId = cameraId;
-            this.cameraCharacteristics = cameraCharacteristics;
+            this.lensFacing = lensFacing;
             this.previewSize = previewSize;
+            this.previewSizes = previewSizes;
+            this.stillImageSize = stillImageSize;
+            this.afModes = afModes;
+            this.aeModes = aeModes;
+            this.awbModes = awbModes;
+            this.minFocusDistance = minFocusDistance;
+            this.hyperfocalDistance = hyperfocalDistance;
+            this.sensorOrientation = sensorOrientation;
+            this.timestampSource = timestampSource;
+            this.videoSize = videoSize;
+            this.videoMinFrameRate = videoMinFrameRate;
+            this.videoMaxFrameRate = videoMaxFrameRate;
+            this.activeArraySize = activeArraySize;
+            this.maxAfRegions = maxAfRegions;
+            this.maxAeRegions = maxAeRegions;
+            this.hardwareLevel = hardwareLevel;
+        }
+
+        @NonNull
+        static CameraParams from(@NonNull String cameraId, @NonNull CameraCharacteristics characteristics) {
+            Size previewSize = CameraStrategy.getPreviewSize(characteristics);
+            Size stillImageSize = CameraStrategy.getStillImageSize(characteristics, previewSize);
+            Range<Integer> videoFpsRange = CameraStrategy.getVideoFpsRange(characteristics);
+            return new CameraParams(
+                    cameraId,
+                    orDefault(characteristics.get(CameraCharacteristics.LENS_FACING), CameraCharacteristics.LENS_FACING_FRONT),
+                    previewSize,
+                    CameraStrategy.getPreviewSizes(characteristics, previewSize),
+                    stillImageSize,
+                    orEmpty(characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES)),
+                    orEmpty(characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_MODES)),
+                    orEmpty(characteristics.get(CameraCharacteristics.CONTROL_AWB_AVAILABLE_MODES)),
+                    orDefault(characteristics.get(CameraCharacteristics.LENS_INFO_MINIMUM_FOCUS_DISTANCE), 0f),
+                    orDefault(characteristics.get(CameraCharacteristics.LENS_INFO_HYPERFOCAL_DISTANCE), 0f),
+                    orDefault(characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION), 0),
+                    orDefault(characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE), CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_UNKNOWN),
+                    CameraStrategy.getVideoSize(characteristics),
+                    videoFpsRange == null ? DEFAULT_VIDEO_FRAME_RATE : videoFpsRange.getLower(),
+                    videoFpsRange == null ? DEFAULT_VIDEO_FRAME_RATE : videoFpsRange.getUpper(),
+                    orDefault(characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE), new Rect()),
+                    orDefault(characteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AF), 0),
+                    orDefault(characteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AE), 0),
+                    orDefault(characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL),
+                            CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY));
+        }
+
+        void writeTo(@NonNull DataOutput out) throws IOException {
+            out.writeUTF(cameraId);
+            out.writeInt(lensFacing);
+            writeSize(out, previewSize);
+            writeSizeArray(out, previewSizes);
+            writeSize(out, stillImageSize);
+            writeIntArray(out, afModes);
+            writeIntArray(out, aeModes);
+            writeIntArray(out, awbModes);
+            out.writeFloat(minFocusDistance);
+            out.writeFloat(hyperfocalDistance);
+            out.writeInt(sensorOrientation);
+            out.writeInt(timestampSource);
+            writeSize(out, videoSize);
+            out.writeInt(videoMinFrameRate);
+            out.writeInt(videoMaxFrameRate);
+            writeRect(out, activeArraySize);
+            out.writeInt(maxAfRegions);
+            out.writeInt(maxAeRegions);
+            out.writeInt(hardwareLevel);
+        }
+
+        @NonNull
+        static CameraParams readFrom(@NonNull DataInput in) throws IOException {
+            return new CameraParams(
+                    in.readUTF(),
+                    in.readInt(),
+                    readSize(in),
+                    readSizeArray(in),
+                    readSize(in),
+                    readIntArray(in),
+                    readIntArray(in),
+                    readIntArray(in),
+                    in.readFloat(),
+                    in.readFloat(),
+                    in.readInt(),
+                    in.readInt(),
+                    readSize(in),
+                    in.readInt(),
+                    in.readInt(),
+                    readRect(in),
+                    in.readInt(),
+                    in.readInt(),
+                    in.readInt());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CameraParams that = (CameraParams) o;
+            return lensFacing == that.lensFacing
+                    && Float.compare(that.minFocusDistance, minFocusDistance) == 0
+                    && Float.compare(that.hyperfocalDistance, hyperfocalDistance) == 0
+                    && sensorOrientation == that.sensorOrientation
+                    && timestampSource == that.timestampSource
+                    && videoMinFrameRate == that.videoMinFrameRate
+                    && videoMaxFrameRate == that.videoMaxFrameRate
+                    && maxAfRegions == that.maxAfRegions
+                    && maxAeRegions == that.maxAeRegions
+                    && hardwareLevel == that.hardwareLevel
+                    && cameraId.equals(that.cameraId)
+                    && previewSize.equals(that.previewSize)
+                    && Arrays.equals(previewSizes, that.previewSizes)
+                    && stillImageSize.equals(that.stillImageSize)
+                    && videoSize.equals(that.videoSize)
+                    && activeArraySize.equals(that.activeArraySize)
+                    && Arrays.equals(afModes, that.afModes)
+                    && Arrays.equals(aeModes, that.aeModes)
+                    && Arrays.equals(awbModes, that.awbModes);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = cameraId.hashCode();
+            result = 31 * result + lensFacing;
+            result = 31 * result + previewSize.hashCode();
+            result = 31 * result + stillImageSize.hashCode();
+            return result;
+        }
+
+        private static void writeSize(DataOutput out, Size size) throws IOException {
+            out.writeInt(size.getWidth());
+            out.writeInt(size.getHeight());
+        }
+
+        private static Size readSize(DataInput in) throws IOException {
+            return new Size(in.readInt(), in.readInt());
+        }
+
+        private static void writeSizeArray(DataOutput out, Size[] sizes) throws IOException {
+            out.writeInt(sizes.length);
+            for (Size size : sizes) {
+                writeSize(out, size);
+            }
+        }
+
+        private static Size[] readSizeArray(DataInput in) throws IOException {
+            Size[] sizes = new Size[in.readInt()];
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = readSize(in);
+            }
+            return sizes;
+        }
+
+        private static void writeRect(DataOutput out, Rect rect) throws IOException {
+            out.writeInt(rect.left);
+            out.writeInt(rect.top);
+            out.writeInt(rect.right);
+            out.writeInt(rect.bottom);
+        }
+
+        private static Rect readRect(DataInput in) throws IOException {
+            return new Rect(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        }
+
+        private static void writeIntArray(DataOutput out, int[] array) throws IOException {
+            out.writeInt(array.length);
+            for (int value : array) {
+                out.writeInt(value);
+            }
+        }
+
+        private static int[] readIntArray(DataInput in) throws IOException {
+            int[] array = new int[in.readInt()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = in.readInt();
+            }
+            return array;
+        }
+
+        private static int[] orEmpty(@Nullable int[] array) {
+            return array == null ? new int[0] : array;
+        }
+
+        private static <T> T orDefault(@Nullable T value, @NonNull T defaultValue) {
+            return value == null ? defaultValue : value;
         }
     }
 
@@ -0,0 +1,74 @@
+package volodymyr.com.camera.camera;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import volodymyr.com.camera.camera.backend.CaptureSessionHandle;
+
+/**
+ * Ties the camera to the resumed state of a screen, so nothing is held while the app is in background.
+ * <p>
+ * On pause everything goes in the order the camera needs it to: camera streams are disposed first, which cancels
+ * repeating request callbacks and closes frames not yet delivered, then the session is closed, whose image readers the
+ * backend closes once the session let go of their surfaces, and last the devices of the {@link CameraSwitcher}.
+ * Devices can be kept open across a configuration change, only the streams and the session of the old screen go.
+ * <p>
+ * Everything else, camera params, output sizes and the preview surface, stays for the next resume, so it only
+ * has to open the device and configure a session. Not thread-safe, meant to be called on the main thread.
+ */
+public class CameraLifecycle {
+
+    private final CameraSwitcher mCameraSwitcher;
+    private final CompositeDisposable mStreams = new CompositeDisposable();
+    @Nullable
+    private volatile CaptureSessionHandle mCaptureSession;
+    private boolean mResumed;
+
+    public CameraLifecycle(@NonNull CameraSwitcher cameraSwitcher) {
+        mCameraSwitcher = cameraSwitcher;
+    }
+
+    public void onResume() {
+        mResumed = true;
+    }
+
+    public boolean isResumed() {
+        return mResumed;
+    }
+
+    /**
+     * Binds a camera stream to the resumed state, it is disposed on pause. Disposed right away while paused.
+     */
+    public void add(@NonNull Disposable stream) {
+        if (mResumed) {
+            mStreams.add(stream);
+        } else {
+            stream.dispose();
+        }
+    }
+
+    /**
+     * @param captureSession session streaming to this screen's outputs, closed on pause. Can be called from any thread.
+     */
+    public void setCaptureSession(@Nullable CaptureSessionHandle captureSession) {
+        mCaptureSession = captureSession;
+    }
+
+    /**
+     * @param keepDevices true when the screen is only recreated, e.g. on rotation, and the next one takes over the devices
+     */
+    public void onPause(boolean keepDevices) {
+        mResumed = false;
+        mStreams.clear();
+        CaptureSessionHandle captureSession = mCaptureSession;
+        mCaptureSession = null;
+        if (captureSession != null) {
+            captureSession.close();
+        }
+        if (!keepDevices) {
+            mCameraSwitcher.closeDevices();
+        }
+    }
+}
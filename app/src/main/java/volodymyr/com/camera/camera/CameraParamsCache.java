@@ -0,0 +1,76 @@
+package volodymyr.com.camera.camera;
+
+import android.content.Context;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Persists {@link CameraHelper.CameraParams} in app storage, so the next start doesn't have to query the camera service
+ * before the preview can be sized. Entries are keyed by the build fingerprint, an OS update invalidates them.
+ */
+class CameraParamsCache {
+
+    private static final String TAG = CameraParamsCache.class.getSimpleName();
+    static final int VERSION = 5;
+
+    private final File mFile;
+    private final String mKey;
+
+    /**
+     * @param key tells apart entries of different cameras
+     */
+    CameraParamsCache(@NonNull Context context, @NonNull String key) {
+        this(new File(context.getFilesDir(), "camera_params_" + key + ".bin"), Build.FINGERPRINT);
+    }
+
+    /**
+     * @param fingerprint build the entry is valid for
+     */
+    CameraParamsCache(@NonNull File file, @NonNull String fingerprint) {
+        mFile = file;
+        mKey = fingerprint;
+    }
+
+    @Nullable
+    CameraHelper.CameraParams read() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (in.readInt() != VERSION || !mKey.equals(in.readUTF())) {
+                return null;
+            }
+            return CameraHelper.CameraParams.readFrom(in);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't read camera params cache", e);
+            return null;
+        }
+    }
+
+    void write(@NonNull CameraHelper.CameraParams cameraParams) {
+        // write to a temporary file first, so a crash in the middle never leaves a truncated cache behind
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(VERSION);
+            out.writeUTF(mKey);
+            cameraParams.writeTo(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't write camera params cache", e);
+            return;
+        }
+        if (!tmpFile.renameTo(mFile)) {
+            Log.w(TAG, "Can't replace camera params cache");
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package volodymyr.com.camera.camera;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Scheduler;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Owns the threads Camera2 callbacks and frame processing run on, so none of them land on the main looper.
+ * <ul>
+ * <li>camera thread - device, session and per-frame capture callbacks</li>
+ * <li>image thread - {@link android.media.ImageReader} availability callbacks</li>
+ * <li>processing pool - heavier per-frame work, subscribed to with {@link #processing()}</li>
+ * </ul>
+ * Cameras streaming at the same time get an instance each from {@link #CameraSchedulers(String, CameraSchedulers)},
+ * so a busy camera thread doesn't delay the callbacks of the others.
+ */
+public class CameraSchedulers {
+
+    private static final String TAG = CameraSchedulers.class.getSimpleName();
+    private static final int PROCESSING_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+
+    private final HandlerThread mCameraThread;
+    private final HandlerThread mImageThread;
+    private final Handler mCameraHandler;
+    private final Handler mImageHandler;
+    private final Scheduler mCameraScheduler;
+    private final Scheduler mImageScheduler;
+    @Nullable
+    private final ExecutorService mProcessingExecutor;
+    private final Scheduler mProcessingScheduler;
+
+    public CameraSchedulers() {
+        this("", Executors.newFixedThreadPool(PROCESSING_THREADS, new ProcessingThreadFactory()));
+    }
+
+    /**
+     * Own camera and image threads for camera {@code cameraId}, sharing the processing pool of {@code shared}.
+     * {@link #quit()} stops only the threads of this instance.
+     */
+    public CameraSchedulers(@NonNull String cameraId, @NonNull CameraSchedulers shared) {
+        this("-" + cameraId, null, shared.mProcessingScheduler);
+    }
+
+    private CameraSchedulers(@NonNull String nameSuffix, @NonNull ExecutorService processingExecutor) {
+        this(nameSuffix, processingExecutor, Schedulers.from(processingExecutor));
+    }
+
+    private CameraSchedulers(@NonNull String nameSuffix, @Nullable ExecutorService processingExecutor, @NonNull Scheduler processingScheduler) {
+        mCameraThread = new HandlerThread("CameraThread" + nameSuffix, Process.THREAD_PRIORITY_DISPLAY);
+        mCameraThread.start();
+        mCameraHandler = new Handler(mCameraThread.getLooper());
+        mCameraScheduler = AndroidSchedulers.from(mCameraThread.getLooper());
+
+        mImageThread = new HandlerThread("CameraImageThread" + nameSuffix, Process.THREAD_PRIORITY_DISPLAY);
+        mImageThread.start();
+        mImageHandler = new Handler(mImageThread.getLooper());
+        mImageScheduler = AndroidSchedulers.from(mImageThread.getLooper());
+
+        mProcessingExecutor = processingExecutor;
+        mProcessingScheduler = processingScheduler;
+    }
+
+    @NonNull
+    public Handler getCameraHandler() {
+        return mCameraHandler;
+    }
+
+    @NonNull
+    public Handler getImageHandler() {
+        return mImageHandler;
+    }
+
+    @NonNull
+    public Scheduler camera() {
+        return mCameraScheduler;
+    }
+
+    @NonNull
+    public Scheduler image() {
+        return mImageScheduler;
+    }
+
+    @NonNull
+    public Scheduler processing() {
+        return mProcessingScheduler;
+    }
+
+    /**
+     * Lets already queued callbacks finish and stops all threads, except a shared processing pool.
+     * The instance can't be used afterwards.
+     */
+    public void quit() {
+        mCameraThread.quitSafely();
+        mImageThread.quitSafely();
+        if (mProcessingExecutor != null) {
+            mProcessingExecutor.shutdown();
+        }
+    }
+
+    private static class ProcessingThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "CameraProcessing-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package volodymyr.com.camera.camera;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.functions.Function;
+import io.reactivex.observables.ConnectableObservable;
+import io.reactivex.subjects.BehaviorSubject;
+import io.reactivex.subjects.Subject;
+import volodymyr.com.camera.camera.backend.CameraDeviceHandle;
+import volodymyr.com.camera.camera.backend.CaptureRequestSpec;
+import volodymyr.com.camera.camera.backend.CaptureSessionHandle;
+import volodymyr.com.camera.camera.backend.OutputTarget;
+import volodymyr.com.camera.camera.event.CaptureSessionStateEvent;
+import volodymyr.com.camera.camera.pojo.CaptureSessionData;
+
+/**
+ * Device and session of the current camera of a {@link CameraSwitcher} as one chain, with its lifecycle published as
+ * {@link CameraSessionState}s.
+ * <p>
+ * The chain opens the device, configures a session with the outputs of the camera and starts the repeating request.
+ * New outputs configure a new session on the open device, a new request only replaces the repeating request of the
+ * current session. A failed open or session, or a disconnected device, is reported as {@link CameraSessionState.Type#ERROR}
+ * and the device is opened again up to {@value #MAX_RETRIES} times with a growing delay, a session that streams resets
+ * the count.
+ * <p>
+ * States are emitted once per transition, on the thread the transition was observed on, usually the camera thread.
+ */
+public class CameraSession {
+
+    public static final int MAX_RETRIES = 3;
+    public static final long RETRY_DELAY_MS = 500;
+    private static final long SESSION_CLOSE_TIMEOUT_MS = 1000;
+
+    private final CameraSwitcher mCameraSwitcher;
+    private final Function<String, ? extends CaptureSessionFactory> mSessionFactories;
+    private final Scheduler mScheduler;
+    private final Subject<CameraSessionState> mStates;
+    private volatile CameraSessionState mState;
+    @Nullable
+    private volatile CaptureRequestSpec mRepeatingRequest;
+
+    /**
+     * @param sessionFactories session factory of a camera by id, e.g. the {@link CameraHelper} for that id
+     * @param scheduler        runs retry delays and timeouts
+     */
+    public CameraSession(@NonNull CameraSwitcher cameraSwitcher,
+                         @NonNull Function<String, ? extends CaptureSessionFactory> sessionFactories,
+                         @NonNull Scheduler scheduler) {
+        mCameraSwitcher = cameraSwitcher;
+        mSessionFactories = sessionFactories;
+        mScheduler = scheduler;
+        mState = CameraSessionState.closed(cameraSwitcher.getCameraId(), null, null);
+        mStates = BehaviorSubject.createDefault(mState).toSerialized();
+    }
+
+    /**
+     * Emits the current state on subscription and every transition after it.
+     */
+    @NonNull
+    public Observable<CameraSessionState> getStates() {
+        return mStates;
+    }
+
+    @NonNull
+    public CameraSessionState getState() {
+        return mState;
+    }
+
+    /**
+     * @return configured session of the current camera, null while there is none
+     */
+    @Nullable
+    public CaptureSessionHandle getCaptureSession() {
+        CameraSessionState state = mState;
+        return state.type == CameraSessionState.Type.CONFIGURED || state.type == CameraSessionState.Type.STREAMING
+                ? state.session
+                : null;
+    }
+
+    /**
+     * @return request repeating in the current session, null until it streams
+     */
+    @Nullable
+    public CaptureRequestSpec getRepeatingRequest() {
+        return mState.type == CameraSessionState.Type.STREAMING ? mRepeatingRequest : null;
+    }
+
+    /**
+     * Runs the camera while subscribed, following camera switches. Disposing closes nothing, the session and devices
+     * are closed by their owners, see {@link CameraLifecycle}. Device and session errors are retried up to
+     * {@link #MAX_RETRIES} times, then the flowable fails with the last one and the state stays
+     * {@link CameraSessionState.Type#ERROR}.
+     * <p>
+     * Emitted {@link CaptureSessionData} are pooled, the subscriber must call {@link CaptureSessionData#release()} on each of them.
+     *
+     * @param outputs  outputs of a camera by id, every emission configures a new session
+     * @param requests repeating requests for a {@link CameraSessionState.Type#CONFIGURED} session, every emission
+     *                 replaces the repeating request
+     */
+    @NonNull
+    public Flowable<CaptureSessionData> start(@NonNull Function<String, Observable<List<OutputTarget>>> outputs,
+                                              @NonNull Function<CameraSessionState, Observable<CaptureRequestSpec>> requests,
+                                              @NonNull FrameBackpressure backpressure) {
+        return mCameraSwitcher.getCurrentCameraId()
+                .toFlowable(BackpressureStrategy.LATEST)
+                .switchMap(cameraId -> {
+                    AtomicInteger failures = new AtomicInteger();
+                    return open(cameraId, outputs, requests, backpressure, failures)
+                            .retryWhen(errors -> errors
+                                    .flatMap(error -> {
+                                        boolean retrying = failures.incrementAndGet() <= MAX_RETRIES;
+                                        setState(CameraSessionState.error(cameraId, error, retrying));
+                                        // given up, the subscriber gets the error and the error state stays until the next start
+                                        return retrying
+                                                ? Flowable.timer(RETRY_DELAY_MS * failures.get(), TimeUnit.MILLISECONDS, mScheduler)
+                                                : Flowable.<Long>error(error);
+                                    }));
+                }, 1)
+                .doFinally(() -> {
+                    CameraSessionState state = mState;
+                    if (state.type != CameraSessionState.Type.ERROR || state.retrying) {
+                        setState(CameraSessionState.closed(state.cameraId, null, null));
+                    }
+                });
+    }
+
+    /**
+     * Reports a failure outside the chain, like the app's own setup of the current camera, as an
+     * {@link CameraSessionState.Type#ERROR} that is not retried. The chain isn't touched, a later transition replaces it.
+     */
+    public void reportError(@NonNull Throwable error) {
+        setState(CameraSessionState.error(mState.cameraId, error, false));
+    }
+
+    /**
+     * Closes the current session and switches to {@code cameraId} once the session let go of its outputs, or after a
+     * timeout. Outputs like the preview surface can't be part of two sessions at once.
+     */
+    @NonNull
+    public Completable switchTo(@NonNull String cameraId) {
+        return Completable.defer(() -> {
+            CaptureSessionHandle session = getCaptureSession();
+            if (session == null) {
+                mCameraSwitcher.switchTo(cameraId);
+                return Completable.complete();
+            }
+            // connected before the close, the backend may report it right away
+            ConnectableObservable<CameraSessionState> closed = mStates
+                    .filter(state -> (state.session == session && state.type == CameraSessionState.Type.CLOSED)
+                            || state.type == CameraSessionState.Type.ERROR)
+                    .take(1)
+                    .timeout(SESSION_CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS, mScheduler)
+                    .onErrorResumeNext(Observable.<CameraSessionState>empty())
+                    .replay();
+            closed.connect();
+            session.close();
+            return closed.ignoreElements()
+                    .doOnComplete(() -> mCameraSwitcher.switchTo(cameraId));
+        });
+    }
+
+    @NonNull
+    private Flowable<CaptureSessionData> open(@NonNull String cameraId,
+                                              @NonNull Function<String, Observable<List<OutputTarget>>> outputs,
+                                              @NonNull Function<CameraSessionState, Observable<CaptureRequestSpec>> requests,
+                                              @NonNull FrameBackpressure backpressure, @NonNull AtomicInteger failures) {
+        return Flowable.defer(() -> {
+            setState(CameraSessionState.opening(cameraId));
+            CaptureSessionFactory sessionFactory = mSessionFactories.apply(cameraId);
+            // a pre-warmed device, or the one kept open across recreation, is handed out without waiting for an open
+            return mCameraSwitcher.getDevice(cameraId)
+                    .toFlowable(BackpressureStrategy.LATEST)
+                    .switchMap(pair -> {
+                        switch (pair.param1) {
+                            case ON_OPENED:
+                                return configure(cameraId, pair.param2, sessionFactory, outputs, requests, backpressure, failures);
+                            case ON_DISCONNECTED:
+                                return Flowable.error(new IllegalStateException("Camera " + cameraId + " disconnected"));
+                            default:
+                                setState(CameraSessionState.closed(cameraId, pair.param2, null));
+                                return Flowable.empty();
+                        }
+                    }, 1);
+        });
+    }
+
+    @NonNull
+    private Flowable<CaptureSessionData> configure(@NonNull String cameraId, @NonNull CameraDeviceHandle device,
+                                                   @NonNull CaptureSessionFactory sessionFactory,
+                                                   @NonNull Function<String, Observable<List<OutputTarget>>> outputs,
+                                                   @NonNull Function<CameraSessionState, Observable<CaptureRequestSpec>> requests,
+                                                   @NonNull FrameBackpressure backpressure, @NonNull AtomicInteger failures) throws Exception {
+        // the new session replaces the previous one of the device
+        return outputs.apply(cameraId)
+                .toFlowable(BackpressureStrategy.LATEST)
+                .switchMap(sessionOutputs -> sessionFactory.createCaptureSession(device, sessionOutputs)
+                        .filter(pair -> pair.param1 == CaptureSessionStateEvent.ON_CONFIGURED
+                                || pair.param1 == CaptureSessionStateEvent.ON_CLOSED)
+                        .toFlowable(BackpressureStrategy.LATEST)
+                        .switchMap(pair -> {
+                            if (pair.param1 == CaptureSessionStateEvent.ON_CLOSED) {
+                                setState(CameraSessionState.closed(cameraId, device, pair.param2));
+                                return Flowable.empty();
+                            }
+                            CameraSessionState configured = CameraSessionState.configured(cameraId, device, pair.param2, sessionOutputs);
+                            setState(configured);
+                            return stream(configured, sessionFactory, requests, backpressure, failures);
+                        }, 1), 1);
+    }
+
+    @NonNull
+    private Flowable<CaptureSessionData> stream(@NonNull CameraSessionState configured,
+                                                @NonNull CaptureSessionFactory sessionFactory,
+                                                @NonNull Function<CameraSessionState, Observable<CaptureRequestSpec>> requests,
+                                                @NonNull FrameBackpressure backpressure, @NonNull AtomicInteger failures) throws Exception {
+        AtomicBoolean streaming = new AtomicBoolean();
+        return requests.apply(configured)
+                .toFlowable(BackpressureStrategy.LATEST)
+                .switchMap(request -> {
+                    mRepeatingRequest = request;
+                    return sessionFactory.fromSetRepeatingRequest(configured.session, request, backpressure)
+                            .doOnNext(__ -> {
+                                // the first capture event tells the request runs, later requests are no transition
+                                if (!streaming.get() && streaming.compareAndSet(false, true)) {
+                                    failures.set(0);
+                                    setState(CameraSessionState.streaming(configured));
+                                }
+                            });
+                }, 1);
+    }
+
+    private void setState(@NonNull CameraSessionState state) {
+        mState = state;
+        mStates.onNext(state);
+    }
+}
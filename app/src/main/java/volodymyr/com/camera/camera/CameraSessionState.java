@@ -0,0 +1,101 @@
+package volodymyr.com.camera.camera;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+import volodymyr.com.camera.camera.backend.CameraDeviceHandle;
+import volodymyr.com.camera.camera.backend.CaptureSessionHandle;
+import volodymyr.com.camera.camera.backend.OutputTarget;
+
+/**
+ * State of the camera a {@link CameraSession} streams from, emitted once per transition.
+ */
+public class CameraSessionState {
+
+    public enum Type {
+        /**
+         * Device is being opened, or handed out by the {@link CameraSwitcher} if it is open already
+         */
+        OPENING,
+        /**
+         * Session configured with the current outputs, its repeating request not started yet
+         */
+        CONFIGURED,
+        /**
+         * Repeating request of the session is running
+         */
+        STREAMING,
+        /**
+         * Device closed, or, if {@link #session} is set, the session closed while the device stays open
+         */
+        CLOSED,
+        /**
+         * Device or session failed, it is opened again if {@link #retrying}
+         */
+        ERROR
+    }
+
+    @NonNull
+    public final Type type;
+    @NonNull
+    public final String cameraId;
+    @Nullable
+    public final CameraDeviceHandle device;
+    @Nullable
+    public final CaptureSessionHandle session;
+    /**
+     * Outputs the session was configured with, set along with {@link #session}
+     */
+    @Nullable
+    public final List<OutputTarget> outputs;
+    @Nullable
+    public final Throwable error;
+    public final boolean retrying;
+
+    private CameraSessionState(@NonNull Type type, @NonNull String cameraId, @Nullable CameraDeviceHandle device,
+                               @Nullable CaptureSessionHandle session, @Nullable List<OutputTarget> outputs,
+                               @Nullable Throwable error, boolean retrying) {
+        this.type = type;
+        this.cameraId = cameraId;
+        this.device = device;
+        this.session = session;
+        this.outputs = outputs;
+        this.error = error;
+        this.retrying = retrying;
+    }
+
+    @NonNull
+    static CameraSessionState opening(@NonNull String cameraId) {
+        return new CameraSessionState(Type.OPENING, cameraId, null, null, null, null, false);
+    }
+
+    @NonNull
+    static CameraSessionState configured(@NonNull String cameraId, @NonNull CameraDeviceHandle device,
+                                         @NonNull CaptureSessionHandle session, @NonNull List<OutputTarget> outputs) {
+        return new CameraSessionState(Type.CONFIGURED, cameraId, device, session, outputs, null, false);
+    }
+
+    @NonNull
+    static CameraSessionState streaming(@NonNull CameraSessionState configured) {
+        return new CameraSessionState(Type.STREAMING, configured.cameraId, configured.device, configured.session,
+                configured.outputs, null, false);
+    }
+
+    @NonNull
+    static CameraSessionState closed(@NonNull String cameraId, @Nullable CameraDeviceHandle device,
+                                     @Nullable CaptureSessionHandle session) {
+        return new CameraSessionState(Type.CLOSED, cameraId, device, session, null, null, false);
+    }
+
+    @NonNull
+    static CameraSessionState error(@NonNull String cameraId, @NonNull Throwable error, boolean retrying) {
+        return new CameraSessionState(Type.ERROR, cameraId, null, null, null, error, retrying);
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + cameraId + (error == null ? "" : " " + error + (retrying ? ", retrying" : ""));
+    }
+}
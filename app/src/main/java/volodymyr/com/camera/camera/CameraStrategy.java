@@ -3,20 +3,21 @@ package volodymyr.com.camera.camera;
 import android.annotation.TargetApi;
 import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
-import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.MediaCodec;
+import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.Range;
 import android.util.Size;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
-import io.reactivex.Observable;
-
 @TargetApi(21)
 class CameraStrategy {
     private static final String TAG = CameraStrategy.class.getSimpleName();
@@ -24,8 +25,17 @@ class CameraStrategy {
     private static final int MAX_PREVIEW_HEIGHT = 1920;
     private static final int MAX_STILL_IMAGE_WIDTH = 1920;
     private static final int MAX_STILL_IMAGE_HEIGHT = 1920;
-
-
+    private static final int MAX_VIDEO_WIDTH = 1920;
+    private static final int MAX_VIDEO_HEIGHT = 1080;
+    private static final int MAX_VIDEO_FRAME_RATE = 30;
+    static final int MAX_PREVIEW_FRAME_RATE = 30;
+    private static final int MIN_PREVIEW_FRAME_RATE = 15;
+    private static final int MIN_ANALYSIS_WIDTH = 320;
+    /**
+     * Highest pixel rate of a quality level relative to the level above it
+     */
+    private static final float QUALITY_STEP = 0.75f;
+    private static final Comparator<Size> AREA_COMPARATOR = new CompareSizesByArea();
 
     static Size getPreviewSize(@NonNull CameraCharacteristics characteristics) {
         StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
@@ -34,20 +44,80 @@ class CameraStrategy {
         if (outputSizes.length == 0) {
             throw new IllegalStateException("No supported sizes for SurfaceTexture");
         }
-        List<Size> filteredOutputSizes = Observable.fromArray(outputSizes)
-                .filter(size -> size.getWidth() <= MAX_PREVIEW_WIDTH && size.getHeight() <= MAX_PREVIEW_HEIGHT)
-                .toList()
-                .blockingGet();
+        return selectLargest(outputSizes, MAX_PREVIEW_WIDTH, MAX_PREVIEW_HEIGHT, null);
+    }
 
-        if (filteredOutputSizes.size() == 0) {
-            return outputSizes[0];
+    /**
+     * Sizes having the aspect ratio of {@code previewSize} and fitting into it, smallest first, for
+     * {@link #selectPreviewSize(Size[], int, int, int, int)} to pick from once the preview view is measured.
+     * A {@link android.view.SurfaceView} takes the same sizes, both are consumed by the GPU or the display compositor.
+     */
+    @NonNull
+    static Size[] getPreviewSizes(@NonNull CameraCharacteristics characteristics, @NonNull Size previewSize) {
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        return selectWithAspectRatio(map.getOutputSizes(SurfaceTexture.class), previewSize);
+    }
+
+    /**
+     * {@code sizes} having the aspect ratio of {@code maxSize} and fitting into it, smallest first. Never empty,
+     * {@code maxSize} itself is the fallback.
+     */
+    @NonNull
+    static Size[] selectWithAspectRatio(@NonNull Size[] sizes, @NonNull Size maxSize) {
+        List<Size> selected = new ArrayList<>();
+        for (Size size : sizes) {
+            if (size.getWidth() <= maxSize.getWidth() && size.getHeight() <= maxSize.getHeight()
+                    && size.getWidth() == size.getHeight() * maxSize.getWidth() / maxSize.getHeight()) {
+                selected.add(size);
+            }
         }
+        if (selected.isEmpty()) {
+            selected.add(maxSize);
+        }
+        Collections.sort(selected, AREA_COMPARATOR);
+        return selected.toArray(new Size[selected.size()]);
+    }
 
-        return Collections.max(filteredOutputSizes, new CompareSizesByArea());
+    /**
+     * Smallest of {@code sizes}, sorted smallest first, covering a {@code viewWidth}x{@code viewHeight} view, so the
+     * preview is never upscaled and the sensor doesn't stream pixels the display throws away. The view is measured in
+     * display orientation, buffers are in sensor orientation. Views bigger than every size get the largest one.
+     *
+     * @param displayRotation clockwise rotation of the display in degrees
+     */
+    @NonNull
+    static Size selectPreviewSize(@NonNull Size[] sizes, int viewWidth, int viewHeight, int sensorOrientation, int displayRotation) {
+        boolean swapped = (sensorOrientation - displayRotation + 360) % 180 != 0;
+        int width = swapped ? viewHeight : viewWidth;
+        int height = swapped ? viewWidth : viewHeight;
+        for (Size size : sizes) {
+            if (size.getWidth() >= width && size.getHeight() >= height) {
+                return size;
+            }
+        }
+        return sizes[sizes.length - 1];
+    }
+
+    /**
+     * Clockwise rotation that shows sensor output upright on a device held at {@code deviceOrientation}, as
+     * {@link android.hardware.camera2.CaptureRequest#JPEG_ORIENTATION} and the MP4 orientation hint expect it.
+     * Front cameras are mirrored, so the device rotation counts the other way for them.
+     *
+     * @param deviceOrientation clockwise rotation of the device from its natural orientation in degrees, as reported by
+     *                          {@link android.view.OrientationEventListener}, rounded to a multiple of 90 here
+     */
+    static int getOutputOrientation(int sensorOrientation, int lensFacing, int deviceOrientation) {
+        int rotation = (deviceOrientation + 45) / 90 * 90;
+        if (lensFacing == CameraCharacteristics.LENS_FACING_FRONT) {
+            rotation = -rotation;
+        }
+        return ((sensorOrientation + rotation) % 360 + 360) % 360;
     }
 
     /**
      * Please note that aspect ratios should be the same for {@link #getPreviewSize(CameraCharacteristics)} and {@link #getStillImageSize(CameraCharacteristics, Size)}
+     * <p>
+     * Sizes the camera also streams as YUV are preferred, ZSL buffers YUV frames at the still size.
      */
     static Size getStillImageSize(@NonNull CameraCharacteristics characteristics, @NonNull Size previewSize) {
         StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
@@ -55,17 +125,200 @@ class CameraStrategy {
         if (outputSizes.length == 0) {
             throw new IllegalStateException("No supported sizes for JPEG");
         }
-        List<Size> filteredOutputSizes = Observable.fromArray(outputSizes)
-                .filter(size -> size.getWidth() == size.getHeight() * previewSize.getWidth() / previewSize.getHeight())
-                .filter(size -> size.getWidth() <= MAX_STILL_IMAGE_WIDTH && size.getHeight() <= MAX_STILL_IMAGE_HEIGHT)
-                .toList()
-                .blockingGet();
+        Size[] yuvSizes = intersect(outputSizes, map.getOutputSizes(ImageFormat.YUV_420_888));
+        return selectLargest(yuvSizes.length > 0 ? yuvSizes : outputSizes, MAX_STILL_IMAGE_WIDTH, MAX_STILL_IMAGE_HEIGHT, previewSize);
+    }
+
+    static Size getVideoSize(@NonNull CameraCharacteristics characteristics) {
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] outputSizes = map.getOutputSizes(MediaCodec.class);
+        if (outputSizes.length == 0) {
+            throw new IllegalStateException("No supported sizes for MediaCodec");
+        }
+        return selectLargest(outputSizes, MAX_VIDEO_WIDTH, MAX_VIDEO_HEIGHT, null);
+    }
+
+    /**
+     * AE target fps range for recording: the highest frame rate up to {@link #MAX_VIDEO_FRAME_RATE}, fixed ranges preferred
+     * so the encoder gets a constant frame rate.
+     */
+    @Nullable
+    static Range<Integer> getVideoFpsRange(@NonNull CameraCharacteristics characteristics) {
+        Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) {
+            return null;
+        }
+        Range<Integer> best = null;
+        for (Range<Integer> range : ranges) {
+            if (range.getUpper() > MAX_VIDEO_FRAME_RATE) {
+                continue;
+            }
+            if (best == null
+                    || range.getUpper() > best.getUpper()
+                    || range.getUpper().equals(best.getUpper()) && range.getLower() > best.getLower()) {
+                best = range;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Ladder for {@link QualityGovernor}, see {@link #buildQualityLevels(Size[], Range[], Size, long)}.
+     */
+    @NonNull
+    static List<QualityLevel> getQualityLevels(@NonNull CameraCharacteristics characteristics, @NonNull Size maxSize, long maxPixelRate) {
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Range<Integer>[] fpsRanges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        return buildQualityLevels(map.getOutputSizes(ImageFormat.YUV_420_888), fpsRanges, maxSize, maxPixelRate);
+    }
+
+    /**
+     * Combines {@code sizes} having the aspect ratio of {@code maxSize} and fitting into it with the steadiest fps range of
+     * every frame rate in [{@link #MIN_PREVIEW_FRAME_RATE}, {@link #MAX_PREVIEW_FRAME_RATE}]. Levels go from the highest
+     * pixel rate within {@code maxPixelRate} down, each one at most {@link #QUALITY_STEP} of the previous one, so every step
+     * makes a noticeable difference in load. Falls back to the cheapest combination when none fits the budget.
+     */
+    @NonNull
+    static List<QualityLevel> buildQualityLevels(@NonNull Size[] sizes, @Nullable Range<Integer>[] fpsRanges,
+                                                 @NonNull Size maxSize, long maxPixelRate) {
+        List<Range<Integer>> steadiestRanges = new ArrayList<>();
+        if (fpsRanges != null) {
+            for (Range<Integer> range : fpsRanges) {
+                if (range.getUpper() < MIN_PREVIEW_FRAME_RATE || range.getUpper() > MAX_PREVIEW_FRAME_RATE) {
+                    continue;
+                }
+                addSteadiest(steadiestRanges, range);
+            }
+        }
+        if (steadiestRanges.isEmpty()) {
+            steadiestRanges.add(null);
+        }
+        List<QualityLevel> candidates = new ArrayList<>();
+        for (Size size : sizes) {
+            if (size.getWidth() > maxSize.getWidth() || size.getHeight() > maxSize.getHeight() || size.getWidth() < MIN_ANALYSIS_WIDTH
+                    || size.getWidth() != size.getHeight() * maxSize.getWidth() / maxSize.getHeight()) {
+                continue;
+            }
+            for (Range<Integer> range : steadiestRanges) {
+                candidates.add(new QualityLevel(size, range));
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates.add(new QualityLevel(maxSize, steadiestRanges.get(0)));
+        }
+        Collections.sort(candidates, (lhs, rhs) -> Long.signum(rhs.getPixelRate() - lhs.getPixelRate()));
 
-        if (filteredOutputSizes.size() == 0) {
-            return outputSizes[0];
+        List<QualityLevel> levels = new ArrayList<>();
+        for (QualityLevel candidate : candidates) {
+            if (candidate.getPixelRate() > maxPixelRate) {
+                continue;
+            }
+            if (levels.isEmpty() || candidate.getPixelRate() <= levels.get(levels.size() - 1).getPixelRate() * QUALITY_STEP) {
+                levels.add(candidate);
+            }
         }
+        if (levels.isEmpty()) {
+            levels.add(candidates.get(candidates.size() - 1));
+        }
+        return levels;
+    }
 
-        return Collections.max(filteredOutputSizes, new CompareSizesByArea());
+    /**
+     * Keeps one range per frame rate, the one with the highest lower bound.
+     */
+    private static void addSteadiest(@NonNull List<Range<Integer>> ranges, @NonNull Range<Integer> range) {
+        for (int i = 0; i < ranges.size(); i++) {
+            if (ranges.get(i).getUpper().equals(range.getUpper())) {
+                if (range.getLower() > ranges.get(i).getLower()) {
+                    ranges.set(i, range);
+                }
+                return;
+            }
+        }
+        ranges.add(range);
+    }
+
+    /**
+     * Largest high-speed video size recording at a fixed {@code fps}, null if the camera has no such size.
+     */
+    @Nullable
+    static HighSpeedConfig getHighSpeedConfig(@NonNull CameraCharacteristics characteristics, int fps) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M || !hasHighSpeedCapability(characteristics)) {
+            return null;
+        }
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        HighSpeedConfig best = null;
+        for (Size size : map.getHighSpeedVideoSizes()) {
+            Range<Integer> fixedRange = null;
+            Range<Integer> variableRange = null;
+            for (Range<Integer> range : map.getHighSpeedVideoFpsRangesFor(size)) {
+                if (range.getUpper() != fps) {
+                    continue;
+                }
+                if (range.getLower() == fps) {
+                    fixedRange = range;
+                } else {
+                    variableRange = range;
+                }
+            }
+            if (fixedRange != null && (best == null || AREA_COMPARATOR.compare(size, best.size) > 0)) {
+                best = new HighSpeedConfig(size, fixedRange, variableRange == null ? fixedRange : variableRange);
+            }
+        }
+        return best;
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static boolean hasHighSpeedCapability(@NonNull CameraCharacteristics characteristics) {
+        int[] capabilities = characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        if (capabilities == null) {
+            return false;
+        }
+        for (int capability : capabilities) {
+            if (capability == CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_CONSTRAINED_HIGH_SPEED_VIDEO) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Largest by area of {@code sizes} fitting into {@code maxWidth}x{@code maxHeight} and, if {@code aspectRatio} is given,
+     * having its aspect ratio. Falls back to the first size when none matches.
+     */
+    @NonNull
+    static Size selectLargest(@NonNull Size[] sizes, int maxWidth, int maxHeight, @Nullable Size aspectRatio) {
+        Size largest = null;
+        for (Size size : sizes) {
+            if (size.getWidth() > maxWidth || size.getHeight() > maxHeight) {
+                continue;
+            }
+            if (aspectRatio != null && size.getWidth() != size.getHeight() * aspectRatio.getWidth() / aspectRatio.getHeight()) {
+                continue;
+            }
+            if (largest == null || AREA_COMPARATOR.compare(size, largest) > 0) {
+                largest = size;
+            }
+        }
+        return largest == null ? sizes[0] : largest;
+    }
+
+    /**
+     * {@code sizes} also found in {@code others}, in their order.
+     */
+    @NonNull
+    static Size[] intersect(@NonNull Size[] sizes, @Nullable Size[] others) {
+        if (others == null) {
+            return new Size[0];
+        }
+        List<Size> common = new ArrayList<>();
+        List<Size> otherList = Arrays.asList(others);
+        for (Size size : sizes) {
+            if (otherList.contains(size)) {
+                common.add(size);
+            }
+        }
+        return common.toArray(new Size[common.size()]);
     }
 
     /**
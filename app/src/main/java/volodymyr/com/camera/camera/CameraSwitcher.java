@@ -0,0 +1,282 @@
+package volodymyr.com.camera.camera;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Function;
+import io.reactivex.observables.ConnectableObservable;
+import io.reactivex.subjects.BehaviorSubject;
+import volodymyr.com.camera.camera.backend.CameraDeviceHandle;
+import volodymyr.com.camera.camera.event.DeviceStateEvent;
+import volodymyr.com.camera.camera.pojo.Pair;
+
+/**
+ * Keeps camera devices open across camera switches and activity recreation, so neither has to wait for a cold open.
+ * <p>
+ * A device opened through {@link #getDevice(String)} stays open after its subscribers are gone, until it is closed by
+ * {@link #closeDevices()}, {@link #close()} or by a switch. On {@link #switchTo(String)} the previous device is kept open as pre-warmed when two
+ * devices can be open at once, otherwise it is closed before the next one opens. Whether they can is found out by the first
+ * {@link #prewarm(String)}: a failed open, or the current device evicted by it, turns pre-warming off for the lifetime
+ * of the switcher and the evicted device is reopened.
+ * <p>
+ * Holds no activity references, so it can be kept across configuration changes.
+ */
+public class CameraSwitcher {
+
+    private enum Concurrency {
+        UNKNOWN,
+        SUPPORTED,
+        UNSUPPORTED
+    }
+
+    private final Function<String, Observable<Pair<DeviceStateEvent, CameraDeviceHandle>>> mOpener;
+    private final BehaviorSubject<String> mCurrentCameraId;
+    private final Map<String, DeviceEntry> mDevices = new HashMap<>();
+    private Concurrency mConcurrency = Concurrency.UNKNOWN;
+    private boolean mClosed;
+
+    /**
+     * @param opener opens a camera by id, e.g. {@link CameraHelper#openCamera()} of the helper for that id
+     */
+    public CameraSwitcher(@NonNull Function<String, Observable<Pair<DeviceStateEvent, CameraDeviceHandle>>> opener,
+                          @NonNull String initialCameraId) {
+        mOpener = opener;
+        mCurrentCameraId = BehaviorSubject.createDefault(initialCameraId);
+    }
+
+    /**
+     * Emits the current camera id on subscription and after every switch, completes once the switcher is closed.
+     */
+    @NonNull
+    public Observable<String> getCurrentCameraId() {
+        return mCurrentCameraId;
+    }
+
+    @NonNull
+    public String getCameraId() {
+        return mCurrentCameraId.getValue();
+    }
+
+    /**
+     * Device state events of {@code cameraId}, opening it unless it is already open. Late subscribers get the last event,
+     * so a pre-warmed or retained device is handed out right away.
+     */
+    @NonNull
+    public Observable<Pair<DeviceStateEvent, CameraDeviceHandle>> getDevice(@NonNull String cameraId) {
+        return Observable.defer(() -> {
+            synchronized (this) {
+                if (mClosed) {
+                    return Observable.error(new IllegalStateException("Camera switcher is closed"));
+                }
+                DeviceEntry entry = mDevices.get(cameraId);
+                return entry == null ? open(cameraId, false).events : entry.events;
+            }
+        });
+    }
+
+    /**
+     * Device state events of the current camera, follows switches.
+     */
+    @NonNull
+    public Observable<Pair<DeviceStateEvent, CameraDeviceHandle>> getDeviceEvents() {
+        return mCurrentCameraId.switchMap(this::getDevice);
+    }
+
+    public void switchTo(@NonNull String cameraId) {
+        List<DeviceEntry> closing = new ArrayList<>();
+        synchronized (this) {
+            String previousCameraId = mCurrentCameraId.getValue();
+            if (mClosed || cameraId.equals(previousCameraId)) {
+                return;
+            }
+            // at most the previous device is kept, and only if it was proven it can stay open next to another one
+            Iterator<DeviceEntry> iterator = mDevices.values().iterator();
+            while (iterator.hasNext()) {
+                DeviceEntry entry = iterator.next();
+                boolean keep = entry.cameraId.equals(cameraId)
+                        || mConcurrency == Concurrency.SUPPORTED && entry.cameraId.equals(previousCameraId);
+                if (!keep) {
+                    iterator.remove();
+                    closing.add(entry);
+                }
+            }
+        }
+        for (DeviceEntry entry : closing) {
+            entry.close();
+        }
+        mCurrentCameraId.onNext(cameraId);
+    }
+
+    /**
+     * Opens {@code cameraId} ahead of a switch to it. Does nothing if the device is open already or pre-warming turned
+     * out not to be supported.
+     */
+    public void prewarm(@NonNull String cameraId) {
+        synchronized (this) {
+            if (mClosed || mConcurrency == Concurrency.UNSUPPORTED || mDevices.containsKey(cameraId)) {
+                return;
+            }
+            try {
+                open(cameraId, true);
+            } catch (Exception e) {
+                mConcurrency = Concurrency.UNSUPPORTED;
+            }
+        }
+    }
+
+    synchronized boolean isOpen(@NonNull String cameraId) {
+        DeviceEntry entry = mDevices.get(cameraId);
+        return entry != null && entry.device != null;
+    }
+
+    /**
+     * Closes all devices, e.g. while the app is in background, so other apps can open them. The current camera stays
+     * selected and the next {@link #getDevice(String)} opens it again.
+     */
+    public void closeDevices() {
+        List<DeviceEntry> closing;
+        synchronized (this) {
+            closing = new ArrayList<>(mDevices.values());
+            mDevices.clear();
+        }
+        for (DeviceEntry entry : closing) {
+            entry.close();
+        }
+    }
+
+    /**
+     * Closes all devices. The instance can't be used afterwards.
+     */
+    public void close() {
+        List<DeviceEntry> closing;
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            closing = new ArrayList<>(mDevices.values());
+            mDevices.clear();
+        }
+        for (DeviceEntry entry : closing) {
+            entry.close();
+        }
+        mCurrentCameraId.onComplete();
+    }
+
+    /**
+     * Has to be called holding the lock.
+     */
+    @NonNull
+    private DeviceEntry open(@NonNull String cameraId, boolean prewarm) throws Exception {
+        DeviceEntry entry = new DeviceEntry(cameraId, prewarm);
+        ConnectableObservable<Pair<DeviceStateEvent, CameraDeviceHandle>> events = mOpener.apply(cameraId)
+                .doOnNext(pair -> onDeviceEvent(entry, pair))
+                .doOnError(__ -> onDeviceError(entry))
+                .replay(1);
+        entry.events = events;
+        mDevices.put(cameraId, entry);
+        entry.connection = events.connect();
+        return entry;
+    }
+
+    private void onDeviceEvent(@NonNull DeviceEntry entry, @NonNull Pair<DeviceStateEvent, CameraDeviceHandle> pair) {
+        if (pair.param1 == DeviceStateEvent.ON_OPENED) {
+            boolean removed;
+            synchronized (this) {
+                entry.device = pair.param2;
+                removed = mDevices.get(entry.cameraId) != entry;
+                if (!removed && entry.prewarm && mConcurrency == Concurrency.UNKNOWN && mDevices.size() > 1) {
+                    mConcurrency = Concurrency.SUPPORTED;
+                }
+            }
+            if (removed) {
+                // closed while it was opening
+                pair.param2.close();
+            }
+            return;
+        }
+        List<DeviceEntry> closing = new ArrayList<>();
+        boolean reopen = false;
+        synchronized (this) {
+            if (!remove(entry)) {
+                return;
+            }
+            if (pair.param1 == DeviceStateEvent.ON_DISCONNECTED && mConcurrency == Concurrency.UNKNOWN && !mDevices.isEmpty()) {
+                // another device of ours took the camera resources, give up pre-warming and get the current device back
+                mConcurrency = Concurrency.UNSUPPORTED;
+                closeAllButCurrent(closing);
+                reopen = entry.cameraId.equals(mCurrentCameraId.getValue());
+            }
+        }
+        for (DeviceEntry closingEntry : closing) {
+            closingEntry.close();
+        }
+        if (reopen) {
+            mCurrentCameraId.onNext(entry.cameraId);
+        }
+    }
+
+    private void onDeviceError(@NonNull DeviceEntry entry) {
+        synchronized (this) {
+            if (remove(entry) && entry.prewarm) {
+                mConcurrency = Concurrency.UNSUPPORTED;
+            }
+        }
+    }
+
+    /**
+     * Has to be called holding the lock.
+     */
+    private boolean remove(@NonNull DeviceEntry entry) {
+        if (mDevices.get(entry.cameraId) != entry) {
+            return false;
+        }
+        mDevices.remove(entry.cameraId);
+        return true;
+    }
+
+    /**
+     * Has to be called holding the lock.
+     */
+    private void closeAllButCurrent(@NonNull List<DeviceEntry> closing) {
+        Iterator<DeviceEntry> iterator = mDevices.values().iterator();
+        while (iterator.hasNext()) {
+            DeviceEntry entry = iterator.next();
+            if (!entry.cameraId.equals(mCurrentCameraId.getValue())) {
+                iterator.remove();
+                closing.add(entry);
+            }
+        }
+    }
+
+    private static class DeviceEntry {
+        final String cameraId;
+        final boolean prewarm;
+        Observable<Pair<DeviceStateEvent, CameraDeviceHandle>> events;
+        Disposable connection;
+        volatile CameraDeviceHandle device;
+
+        DeviceEntry(@NonNull String cameraId, boolean prewarm) {
+            this.cameraId = cameraId;
+            this.prewarm = prewarm;
+        }
+
+        void close() {
+            CameraDeviceHandle device = this.device;
+            if (device != null) {
+                // subscribers still get ON_CLOSED, the connection completes with it
+                device.close();
+            } else {
+                // still opening, the backend closes the device once it is opened into a disposed emitter
+                connection.dispose();
+            }
+        }
+    }
+}
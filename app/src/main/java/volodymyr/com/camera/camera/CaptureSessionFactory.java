@@ -0,0 +1,36 @@
+package volodymyr.com.camera.camera;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import volodymyr.com.camera.camera.backend.CameraDeviceHandle;
+import volodymyr.com.camera.camera.backend.CaptureRequestSpec;
+import volodymyr.com.camera.camera.backend.CaptureSessionHandle;
+import volodymyr.com.camera.camera.backend.OutputTarget;
+import volodymyr.com.camera.camera.event.CaptureSessionStateEvent;
+import volodymyr.com.camera.camera.pojo.CaptureSessionData;
+import volodymyr.com.camera.camera.pojo.Pair;
+
+/**
+ * Session calls {@link CameraSession} makes for a camera, {@link CameraHelper} adds its metrics to them.
+ */
+public interface CaptureSessionFactory {
+
+    /**
+     * See {@link CameraDeviceHandle#createCaptureSession(List)}.
+     */
+    @NonNull
+    Observable<Pair<CaptureSessionStateEvent, CaptureSessionHandle>> createCaptureSession(@NonNull CameraDeviceHandle cameraDevice,
+                                                                                        @NonNull List<OutputTarget> outputs);
+
+    /**
+     * See {@link CaptureSessionHandle#setRepeatingRequest(CaptureRequestSpec, FrameBackpressure)}.
+     */
+    @NonNull
+    Flowable<CaptureSessionData> fromSetRepeatingRequest(@NonNull CaptureSessionHandle captureSession,
+                                                         @NonNull CaptureRequestSpec request,
+                                                         @NonNull FrameBackpressure backpressure);
+}
@@ -0,0 +1,51 @@
+package volodymyr.com.camera.camera;
+
+import android.support.annotation.NonNull;
+
+/**
+ * What to do with per-frame events when the subscriber can't keep up with the camera.
+ */
+public class FrameBackpressure {
+
+    public enum Mode {
+        /**
+         * Keep only the most recent undelivered event.
+         */
+        LATEST,
+        /**
+         * Drop events while there is no demand.
+         */
+        DROP,
+        /**
+         * Keep up to {@link #capacity} undelivered events, dropping the oldest one on overflow.
+         */
+        BUFFER
+    }
+
+    @NonNull
+    public final Mode mode;
+    public final int capacity;
+
+    private FrameBackpressure(@NonNull Mode mode, int capacity) {
+        this.mode = mode;
+        this.capacity = capacity;
+    }
+
+    @NonNull
+    public static FrameBackpressure latest() {
+        return new FrameBackpressure(Mode.LATEST, 1);
+    }
+
+    @NonNull
+    public static FrameBackpressure drop() {
+        return new FrameBackpressure(Mode.DROP, 0);
+    }
+
+    @NonNull
+    public static FrameBackpressure buffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        return new FrameBackpressure(Mode.BUFFER, capacity);
+    }
+}
@@ -0,0 +1,30 @@
+package volodymyr.com.camera.camera;
+
+import android.support.annotation.NonNull;
+import android.util.Range;
+import android.util.Size;
+
+/**
+ * Output size and fps ranges for a constrained high-speed session, see {@link CameraHelper#getHighSpeedConfig(int)}.
+ */
+public class HighSpeedConfig {
+    @NonNull
+    public final Size size;
+    /**
+     * Fixed range, to be used while recording.
+     */
+    @NonNull
+    public final Range<Integer> recordingFpsRange;
+    /**
+     * Range for preview only, lets the camera lower the rate in low light. Same as {@link #recordingFpsRange} when the
+     * camera has no variable range for the size.
+     */
+    @NonNull
+    public final Range<Integer> previewFpsRange;
+
+    HighSpeedConfig(@NonNull Size size, @NonNull Range<Integer> recordingFpsRange, @NonNull Range<Integer> previewFpsRange) {
+        this.size = size;
+        this.recordingFpsRange = recordingFpsRange;
+        this.previewFpsRange = previewFpsRange;
+    }
+}
@@ -0,0 +1,175 @@
+package volodymyr.com.camera.camera;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.subjects.BehaviorSubject;
+
+/**
+ * Steps down the {@link QualityLevel} ladder when frame processing falls behind and back up once there is headroom again.
+ * <p>
+ * Processed frames are evaluated in windows of {@link #WINDOW_NANOS} sensor time. A window is overloaded when more than
+ * {@link #MAX_SKIP_RATIO} of the camera frames never reached processing, or when processing took more than {@link #MAX_LOAD}
+ * of the frame interval on average. One overloaded window steps down a level, so falling behind is corrected within a second.
+ * <p>
+ * Stepping up needs {@link #MIN_UP_WINDOWS} healthy windows in a row and a load that stays under {@link #MAX_LOAD_AFTER_UP}
+ * when scaled to the pixel rate of the next level. An upgrade undone by the first window after it doubles the healthy windows
+ * needed for the next attempt, so the governor doesn't oscillate between two levels. The window right after any change is
+ * skipped, it still has frames of the previous level in flight.
+ * <p>
+ * {@link #onFrameProcessed(long, long)} has to be called from a single thread at a time, the rest is thread-safe.
+ */
+public class QualityGovernor {
+
+    static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    static final float MAX_SKIP_RATIO = 0.05f;
+    static final float MAX_LOAD = 0.8f;
+    static final float MAX_LOAD_AFTER_UP = 0.6f;
+    static final int MIN_UP_WINDOWS = 3;
+    static final int MAX_UP_WINDOWS = 48;
+    private static final long NOT_SET = -1;
+
+    private final List<QualityLevel> mLevels;
+    private final BehaviorSubject<QualityLevel> mLevelSubject;
+    private int mLevelIndex;
+    private boolean mEnabled = true;
+    private boolean mSettling;
+    private boolean mUpgraded;
+    private int mUpWindows = MIN_UP_WINDOWS;
+    private int mHealthyWindows;
+
+    private long mWindowStart = NOT_SET;
+    private long mLastTimestamp = NOT_SET;
+    private long mMinInterval = Long.MAX_VALUE;
+    private int mIntervals;
+    private long mProcessingNanos;
+    private int mFrames;
+
+    /**
+     * @param levels ladder from the highest quality down, see {@link CameraHelper#getQualityLevels(long)}. Starts at the first level.
+     */
+    public QualityGovernor(@NonNull List<QualityLevel> levels) {
+        if (levels.isEmpty()) {
+            throw new IllegalArgumentException("No quality levels");
+        }
+        mLevels = new ArrayList<>(levels);
+        mLevelSubject = BehaviorSubject.createDefault(mLevels.get(0));
+    }
+
+    /**
+     * Emits the current level on subscription and every change afterwards, on the thread that processed the frame
+     * causing the change.
+     */
+    @NonNull
+    public Observable<QualityLevel> getLevelChanges() {
+        return mLevelSubject;
+    }
+
+    @NonNull
+    public synchronized QualityLevel getLevel() {
+        return mLevels.get(mLevelIndex);
+    }
+
+    /**
+     * Holds the current level while disabled, e.g. while recording, when a change would reconfigure the session.
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        mHealthyWindows = 0;
+        resetWindow();
+    }
+
+    /**
+     * Records a frame whose processing has finished.
+     *
+     * @param frameTimestamp  sensor timestamp of the frame, used to find the frames that never reached processing
+     * @param processingNanos time spent processing the frame
+     */
+    public void onFrameProcessed(long frameTimestamp, long processingNanos) {
+        QualityLevel level = null;
+        synchronized (this) {
+            if (!mEnabled) {
+                return;
+            }
+            if (mLastTimestamp != NOT_SET && frameTimestamp <= mLastTimestamp) {
+                // new session, timestamps don't continue the old ones
+                resetWindow();
+            }
+            if (mWindowStart == NOT_SET) {
+                mWindowStart = frameTimestamp;
+            } else {
+                long interval = frameTimestamp - mLastTimestamp;
+                mMinInterval = Math.min(mMinInterval, interval);
+                mIntervals++;
+            }
+            mLastTimestamp = frameTimestamp;
+            mProcessingNanos += processingNanos;
+            mFrames++;
+            if (frameTimestamp - mWindowStart >= WINDOW_NANOS) {
+                int levelIndex = mLevelIndex;
+                evaluateWindow();
+                resetWindow();
+                if (levelIndex != mLevelIndex) {
+                    level = mLevels.get(mLevelIndex);
+                }
+            }
+        }
+        if (level != null) {
+            mLevelSubject.onNext(level);
+        }
+    }
+
+    private void evaluateWindow() {
+        if (mSettling) {
+            mSettling = false;
+            return;
+        }
+        QualityLevel level = mLevels.get(mLevelIndex);
+        long frameInterval = TimeUnit.SECONDS.toNanos(1) / level.getMaxFrameRate();
+        // the shortest gap is the camera's own cadence, longer gaps are frames skipped while processing was busy
+        float skipped = mIntervals == 0 ? 0 : Math.max(0, (float) (mLastTimestamp - mWindowStart) / mMinInterval - mIntervals);
+        float skipRatio = skipped / (skipped + mIntervals);
+        float load = (float) mProcessingNanos / mFrames / frameInterval;
+        boolean overloaded = skipRatio > MAX_SKIP_RATIO || load > MAX_LOAD;
+        boolean upgraded = mUpgraded;
+        mUpgraded = false;
+
+        if (overloaded) {
+            mHealthyWindows = 0;
+            if (upgraded) {
+                mUpWindows = Math.min(mUpWindows * 2, MAX_UP_WINDOWS);
+            }
+            if (mLevelIndex < mLevels.size() - 1) {
+                changeLevel(mLevelIndex + 1);
+            }
+            return;
+        }
+        if (mLevelIndex == 0 || ++mHealthyWindows < mUpWindows) {
+            return;
+        }
+        QualityLevel next = mLevels.get(mLevelIndex - 1);
+        if (load * next.getPixelRate() / level.getPixelRate() < MAX_LOAD_AFTER_UP) {
+            mHealthyWindows = 0;
+            mUpgraded = true;
+            changeLevel(mLevelIndex - 1);
+        }
+    }
+
+    private void changeLevel(int levelIndex) {
+        mLevelIndex = levelIndex;
+        mSettling = true;
+    }
+
+    private void resetWindow() {
+        mWindowStart = NOT_SET;
+        mLastTimestamp = NOT_SET;
+        mMinInterval = Long.MAX_VALUE;
+        mIntervals = 0;
+        mProcessingNanos = 0;
+        mFrames = 0;
+    }
+}
@@ -0,0 +1,40 @@
+package volodymyr.com.camera.camera;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Range;
+import android.util.Size;
+
+/**
+ * One step of the {@link QualityGovernor} ladder: size of the analysis output and AE target fps range of the repeating request.
+ */
+public class QualityLevel {
+    @NonNull
+    public final Size size;
+    /**
+     * Null to leave the AE target fps range to the camera
+     */
+    @Nullable
+    public final Range<Integer> fpsRange;
+
+    QualityLevel(@NonNull Size size, @Nullable Range<Integer> fpsRange) {
+        this.size = size;
+        this.fpsRange = fpsRange;
+    }
+
+    /**
+     * @return pixels per second at the highest frame rate of the level, levels are ordered by it
+     */
+    public long getPixelRate() {
+        return (long) size.getWidth() * size.getHeight() * getMaxFrameRate();
+    }
+
+    public int getMaxFrameRate() {
+        return fpsRange == null ? CameraStrategy.MAX_PREVIEW_FRAME_RATE : fpsRange.getUpper();
+    }
+
+    @Override
+    public String toString() {
+        return size + "@" + (fpsRange == null ? "auto" : fpsRange.toString());
+    }
+}
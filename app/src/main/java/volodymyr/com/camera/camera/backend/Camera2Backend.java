@@ -0,0 +1,96 @@
+package volodymyr.com.camera.camera.backend;
+
+import android.annotation.SuppressLint;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.support.annotation.NonNull;
+
+import io.reactivex.Observable;
+import volodymyr.com.camera.camera.CameraSchedulers;
+import volodymyr.com.camera.camera.event.DeviceStateEvent;
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
+import volodymyr.com.camera.camera.pojo.Pair;
+
+/**
+ * {@link CameraBackend} on top of {@link CameraManager}. All callbacks run on {@link CameraSchedulers} threads.
+ */
+public class Camera2Backend implements CameraBackend {
+
+    private final CameraManager mCameraManager;
+    private final CameraSchedulers mCameraSchedulers;
+    private final ResourceTracker mResourceTracker;
+
+    public Camera2Backend(@NonNull CameraManager cameraManager, @NonNull CameraSchedulers cameraSchedulers,
+                          @NonNull ResourceTracker resourceTracker) {
+        mCameraManager = cameraManager;
+        mCameraSchedulers = cameraSchedulers;
+        mResourceTracker = resourceTracker;
+    }
+
+    @NonNull
+    @Override
+    public String[] getCameraIdList() throws Exception {
+        return mCameraManager.getCameraIdList();
+    }
+
+    @NonNull
+    @Override
+    public ResourceTracker getResourceTracker() {
+        return mResourceTracker;
+    }
+
+    @SuppressLint("MissingPermission")
+    @NonNull
+    @Override
+    public Observable<Pair<DeviceStateEvent, CameraDeviceHandle>> openCamera(@NonNull String cameraId) {
+        return Observable.create(observableEmitter ->
+                mCameraManager.openCamera(cameraId, new CameraDevice.StateCallback() {
+                    private Camera2DeviceHandle mHandle;
+                    private boolean mOpened;
+
+                    @Override
+                    public void onOpened(@NonNull CameraDevice cameraDevice) {
+                        mOpened = true;
+                        mResourceTracker.onAcquired(ResourceTracker.Resource.DEVICE);
+                        if (observableEmitter.isDisposed()) {
+                            // nobody is left to close it
+                            cameraDevice.close();
+                            return;
+                        }
+                        observableEmitter.onNext(new Pair<>(DeviceStateEvent.ON_OPENED, handle(cameraDevice)));
+                    }
+
+                    @Override
+                    public void onClosed(@NonNull CameraDevice cameraDevice) {
+                        if (mOpened) {
+                            mOpened = false;
+                            mResourceTracker.onReleased(ResourceTracker.Resource.DEVICE);
+                        }
+                        observableEmitter.onNext(new Pair<>(DeviceStateEvent.ON_CLOSED, handle(cameraDevice)));
+                        observableEmitter.onComplete();
+                    }
+
+                    @Override
+                    public void onDisconnected(@NonNull CameraDevice cameraDevice) {
+                        // a disconnected device still holds its resources until it is closed, and nobody closes it after completion
+                        cameraDevice.close();
+                        observableEmitter.onNext(new Pair<>(DeviceStateEvent.ON_DISCONNECTED, handle(cameraDevice)));
+                        observableEmitter.onComplete();
+                    }
+
+                    @Override
+                    public void onError(@NonNull CameraDevice camera, int error) {
+                        camera.close();
+                        observableEmitter.onError(new Exception("Exception " + error));
+                    }
+
+                    private Camera2DeviceHandle handle(CameraDevice cameraDevice) {
+                        if (mHandle == null) {
+                            mHandle = new Camera2DeviceHandle(cameraDevice, mCameraSchedulers, mResourceTracker);
+                        }
+                        return mHandle;
+                    }
+                }, mCameraSchedulers.getCameraHandler())
+        );
+    }
+}
@@ -0,0 +1,170 @@
+package volodymyr.com.camera.camera.backend;
+
+import android.annotation.TargetApi;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.media.ImageReader;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.view.Surface;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.Observable;
+import volodymyr.com.camera.camera.CameraSchedulers;
+import volodymyr.com.camera.camera.event.CaptureSessionStateEvent;
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
+import volodymyr.com.camera.camera.pojo.Pair;
+
+/**
+ * {@link CameraDeviceHandle} wrapping {@link CameraDevice}. Every {@link FrameTarget} of a session gets its own
+ * {@link ImageReader}, which lives until the session is closed and the last frame taken from it is released.
+ */
+public class Camera2DeviceHandle implements CameraDeviceHandle {
+
+    private final CameraDevice mCameraDevice;
+    private final CameraSchedulers mCameraSchedulers;
+    private final ResourceTracker mResourceTracker;
+
+    Camera2DeviceHandle(@NonNull CameraDevice cameraDevice, @NonNull CameraSchedulers cameraSchedulers,
+                        @NonNull ResourceTracker resourceTracker) {
+        mCameraDevice = cameraDevice;
+        mCameraSchedulers = cameraSchedulers;
+        mResourceTracker = resourceTracker;
+    }
+
+    @NonNull
+    public CameraDevice unwrap() {
+        return mCameraDevice;
+    }
+
+    @NonNull
+    @Override
+    public String getId() {
+        return mCameraDevice.getId();
+    }
+
+    @NonNull
+    @Override
+    public Observable<Pair<CaptureSessionStateEvent, CaptureSessionHandle>> createCaptureSession(@NonNull List<OutputTarget> outputs) {
+        return createSession(outputs, false);
+    }
+
+    @NonNull
+    @Override
+    public Observable<Pair<CaptureSessionStateEvent, CaptureSessionHandle>> createConstrainedHighSpeedCaptureSession(@NonNull List<OutputTarget> outputs) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return Observable.error(new UnsupportedOperationException("High-speed sessions need API 23"));
+        }
+        for (OutputTarget output : outputs) {
+            if (!(output instanceof SurfaceTarget)) {
+                return Observable.error(new IllegalArgumentException("High-speed sessions support only preview and encoder surfaces"));
+            }
+        }
+        return createSession(outputs, true);
+    }
+
+    @Override
+    public void close() {
+        mCameraDevice.close();
+    }
+
+    @NonNull
+    ResourceTracker getResourceTracker() {
+        return mResourceTracker;
+    }
+
+    @NonNull
+    private Observable<Pair<CaptureSessionStateEvent, CaptureSessionHandle>> createSession(@NonNull List<OutputTarget> outputs, boolean highSpeed) {
+        return Observable.create(observableEmitter -> {
+            Map<FrameTarget, SharedImageReader> imageReaders = new HashMap<>();
+            List<Surface> surfaceList = new ArrayList<>(outputs.size());
+            for (OutputTarget output : outputs) {
+                if (output instanceof SurfaceTarget) {
+                    surfaceList.add(((SurfaceTarget) output).surface);
+                } else if (output instanceof FrameTarget) {
+                    SharedImageReader imageReader = new SharedImageReader(ImageReaderFrames.createImageReader((FrameTarget) output),
+                            mResourceTracker);
+                    imageReaders.put((FrameTarget) output, imageReader);
+                    surfaceList.add(imageReader.imageReader.getSurface());
+                }
+            }
+            CameraCaptureSession.StateCallback callback = new CameraCaptureSession.StateCallback() {
+                private Camera2SessionHandle mHandle;
+
+                @Override
+                public void onConfigured(@NonNull CameraCaptureSession session) {
+                    mResourceTracker.onAcquired(ResourceTracker.Resource.SESSION);
+                    observableEmitter.onNext(new Pair<>(CaptureSessionStateEvent.ON_CONFIGURED, handle(session)));
+                }
+
+                @Override
+                public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                    closeImageReaders(imageReaders);
+                    observableEmitter.onError(new Exception(" Exception " + session.toString()));
+                }
+
+                @Override
+                public void onReady(@NonNull CameraCaptureSession session) {
+                    observableEmitter.onNext(new Pair<>(CaptureSessionStateEvent.ON_READY, handle(session)));
+                }
+
+                @Override
+                public void onActive(@NonNull CameraCaptureSession session) {
+                    observableEmitter.onNext(new Pair<>(CaptureSessionStateEvent.ON_ACTIVE, handle(session)));
+                }
+
+                @Override
+                public void onClosed(@NonNull CameraCaptureSession session) {
+                    mResourceTracker.onReleased(ResourceTracker.Resource.SESSION);
+                    observableEmitter.onNext(new Pair<>(CaptureSessionStateEvent.ON_CLOSED, handle(session)));
+                    // readers go only after the session let go of their surfaces, and the last frame is released
+                    closeImageReaders(imageReaders);
+                    observableEmitter.onComplete();
+                }
+
+                @Override
+                public void onSurfacePrepared(@NonNull CameraCaptureSession session, @NonNull Surface surface) {
+                    observableEmitter.onNext(new Pair<>(CaptureSessionStateEvent.ON_SURFACE_PREPARED, handle(session)));
+                }
+
+                private Camera2SessionHandle handle(CameraCaptureSession session) {
+                    if (mHandle == null) {
+                        mHandle = new Camera2SessionHandle(Camera2DeviceHandle.this, session, imageReaders, mCameraSchedulers);
+                    }
+                    return mHandle;
+                }
+            };
+            try {
+                if (highSpeed) {
+                    createHighSpeedSession(surfaceList, callback);
+                } else {
+                    mCameraDevice.createCaptureSession(surfaceList, callback, mCameraSchedulers.getCameraHandler());
+                }
+            } catch (CameraAccessException | RuntimeException e) {
+                // no callback is coming to close them
+                closeImageReaders(imageReaders);
+                throw e;
+            }
+        });
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void createHighSpeedSession(@NonNull List<Surface> surfaceList, @NonNull CameraCaptureSession.StateCallback callback)
+            throws CameraAccessException {
+        mCameraDevice.createConstrainedHighSpeedCaptureSession(surfaceList, callback, mCameraSchedulers.getCameraHandler());
+    }
+
+    /**
+     * Gives up the session's references, each reader closes once its frames are closed too.
+     */
+    private static void closeImageReaders(Map<FrameTarget, SharedImageReader> imageReaders) {
+        for (SharedImageReader imageReader : imageReaders.values()) {
+            imageReader.close();
+        }
+    }
+}
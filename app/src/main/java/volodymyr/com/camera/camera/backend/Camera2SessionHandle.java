@@ -0,0 +1,305 @@
+package volodymyr.com.camera.camera.backend;
+
+import android.annotation.TargetApi;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraConstrainedHighSpeedCaptureSession;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.TotalCaptureResult;
+import android.media.ImageReader;
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+import volodymyr.com.camera.camera.BackpressureEmitter;
+import volodymyr.com.camera.camera.CameraSchedulers;
+import volodymyr.com.camera.camera.FrameBackpressure;
+import volodymyr.com.camera.camera.event.CaptureSessionEvents;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.pojo.CaptureSessionData;
+import volodymyr.com.camera.camera.pojo.CaptureSessionDataPool;
+
+/**
+ * {@link CaptureSessionHandle} wrapping {@link CameraCaptureSession}.
+ */
+public class Camera2SessionHandle implements CaptureSessionHandle {
+
+    private static final int CAPTURE_SESSION_DATA_POOL_SIZE = 16;
+
+    private final Camera2DeviceHandle mDevice;
+    private final CameraCaptureSession mCaptureSession;
+    private final Map<FrameTarget, SharedImageReader> mImageReaders;
+    private final CameraSchedulers mCameraSchedulers;
+
+    Camera2SessionHandle(@NonNull Camera2DeviceHandle device, @NonNull CameraCaptureSession captureSession,
+                         @NonNull Map<FrameTarget, SharedImageReader> imageReaders, @NonNull CameraSchedulers cameraSchedulers) {
+        mDevice = device;
+        mCaptureSession = captureSession;
+        mImageReaders = imageReaders;
+        mCameraSchedulers = cameraSchedulers;
+    }
+
+    @NonNull
+    public CameraCaptureSession unwrap() {
+        return mCaptureSession;
+    }
+
+    @NonNull
+    @Override
+    public CameraDeviceHandle getDevice() {
+        return mDevice;
+    }
+
+    @NonNull
+    @Override
+    public Flowable<CaptureSessionData> setRepeatingRequest(@NonNull CaptureRequestSpec request, @NonNull FrameBackpressure backpressure) {
+        return Flowable.create(flowableEmitter -> {
+            CaptureSessionDataPool pool = new CaptureSessionDataPool(CAPTURE_SESSION_DATA_POOL_SIZE);
+            BackpressureEmitter<CaptureSessionData> emitter = new BackpressureEmitter<>(flowableEmitter, backpressure, CaptureSessionData::release);
+            flowableEmitter.setCancellable(emitter::clear);
+            CameraCaptureSession.CaptureCallback callback = createCaptureCallback(emitter, pool, Collections.singletonList(request));
+            if (isHighSpeed()) {
+                mCaptureSession.setRepeatingBurst(createHighSpeedRequestList(buildRequest(request)), callback, mCameraSchedulers.getCameraHandler());
+            } else {
+                mCaptureSession.setRepeatingRequest(buildRequest(request), callback, mCameraSchedulers.getCameraHandler());
+            }
+        }, BackpressureStrategy.MISSING);
+    }
+
+    @NonNull
+    @Override
+    public Flowable<CaptureSessionData> setRepeatingBurst(@NonNull List<CaptureRequestSpec> requests, @NonNull FrameBackpressure backpressure) {
+        return Flowable.create(flowableEmitter -> {
+            CaptureSessionDataPool pool = new CaptureSessionDataPool(CAPTURE_SESSION_DATA_POOL_SIZE);
+            BackpressureEmitter<CaptureSessionData> emitter = new BackpressureEmitter<>(flowableEmitter, backpressure, CaptureSessionData::release);
+            flowableEmitter.setCancellable(emitter::clear);
+            mCaptureSession.setRepeatingBurst(buildBurst(requests), createCaptureCallback(emitter, pool, requests), mCameraSchedulers.getCameraHandler());
+        }, BackpressureStrategy.MISSING);
+    }
+
+    @NonNull
+    @Override
+    public Observable<CaptureSessionData> captureBurst(@NonNull List<CaptureRequestSpec> requests) {
+        return Observable.create(observableEmitter -> mCaptureSession.captureBurst(buildBurst(requests), new CameraCaptureSession.CaptureCallback() {
+            @Override
+            public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, long timestamp, long frameNumber) {
+                observableEmitter.onNext(new CaptureSessionData(CaptureSessionEvents.ON_STARTED, session, request, null)
+                        .setFrame(timestamp, frameNumber)
+                        .setBurstIndex(getBurstIndex(request)));
+            }
+
+            @Override
+            public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+                observableEmitter.onNext(new CaptureSessionData(CaptureSessionEvents.ON_COMPLETED, session, request, result)
+                        .readMetadata(result)
+                        .setBurstIndex(getBurstIndex(request)));
+            }
+
+            @Override
+            public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+                observableEmitter.onError(new Exception("Burst capture " + getBurstIndex(request) + " failed " + failure.getReason()));
+            }
+
+            @Override
+            public void onCaptureSequenceCompleted(@NonNull CameraCaptureSession session, int sequenceId, long frameNumber) {
+                observableEmitter.onNext(new CaptureSessionData(CaptureSessionEvents.ON_SEQUENCE_COMPLETED, session, null, null)
+                        .setSequence(sequenceId, frameNumber));
+                observableEmitter.onComplete();
+            }
+
+            @Override
+            public void onCaptureSequenceAborted(@NonNull CameraCaptureSession session, int sequenceId) {
+                observableEmitter.onError(new Exception("Burst sequence " + sequenceId + " aborted"));
+            }
+        }, mCameraSchedulers.getCameraHandler()));
+    }
+
+    @NonNull
+    @Override
+    public Single<CaptureSessionData> capture(@NonNull CaptureRequestSpec request) {
+        return Single.create(singleEmitter -> mCaptureSession.capture(buildRequest(request), new CameraCaptureSession.CaptureCallback() {
+            @Override
+            public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+                singleEmitter.onSuccess(new CaptureSessionData(CaptureSessionEvents.ON_COMPLETED, session, request, result)
+                        .readMetadata(result));
+            }
+
+            @Override
+            public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+                singleEmitter.onError(new Exception("Capture failed " + failure.getReason()));
+            }
+
+            @Override
+            public void onCaptureSequenceAborted(@NonNull CameraCaptureSession session, int sequenceId) {
+                // the session closed before the request got a result, a terminated emitter would hand the error to the plugins
+                if (!singleEmitter.isDisposed()) {
+                    singleEmitter.onError(new Exception("Capture sequence " + sequenceId + " aborted"));
+                }
+            }
+        }, mCameraSchedulers.getCameraHandler()));
+    }
+
+    @NonNull
+    @Override
+    public Flowable<Frame> getFrames(@NonNull FrameTarget target) {
+        SharedImageReader imageReader = mImageReaders.get(target);
+        if (imageReader == null) {
+            return Flowable.error(new IllegalArgumentException("Target is not an output of this session"));
+        }
+        return ImageReaderFrames.create(imageReader.imageReader, imageReader, target.maxFramesInFlight,
+                mCameraSchedulers.getImageHandler(), mDevice.getResourceTracker());
+    }
+
+    @Override
+    public void stopRepeating() throws CameraAccessException {
+        mCaptureSession.stopRepeating();
+    }
+
+    @Override
+    public void close() {
+        mCaptureSession.close();
+    }
+
+    @NonNull
+    private CaptureRequest buildRequest(@NonNull CaptureRequestSpec request) throws CameraAccessException {
+        return createRequestBuilder(request).build();
+    }
+
+    @NonNull
+    private CaptureRequest.Builder createRequestBuilder(@NonNull CaptureRequestSpec request) throws CameraAccessException {
+        CaptureRequest.Builder builder = mCaptureSession.getDevice().createCaptureRequest(request.template);
+        for (OutputTarget target : request.targets) {
+            if (target instanceof SurfaceTarget) {
+                builder.addTarget(((SurfaceTarget) target).surface);
+            } else if (target instanceof FrameTarget) {
+                SharedImageReader imageReader = mImageReaders.get(target);
+                if (imageReader == null) {
+                    throw new IllegalArgumentException("Target is not an output of this session");
+                }
+                builder.addTarget(imageReader.imageReader.getSurface());
+            }
+        }
+        if (request.configurator != null) {
+            request.configurator.configure(builder);
+        }
+        return builder;
+    }
+
+    /**
+     * Builds the requests of a burst, each tagged with its position. A high-speed session expands every request
+     * to its high-speed list, which then shares the position.
+     */
+    @NonNull
+    private List<CaptureRequest> buildBurst(@NonNull List<CaptureRequestSpec> requests) throws CameraAccessException {
+        List<CaptureRequest> burst = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            CaptureRequest.Builder builder = createRequestBuilder(requests.get(i));
+            builder.setTag(new BurstTag(i));
+            if (isHighSpeed()) {
+                burst.addAll(createHighSpeedRequestList(builder.build()));
+            } else {
+                burst.add(builder.build());
+            }
+        }
+        return burst;
+    }
+
+    private boolean isHighSpeed() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && mCaptureSession instanceof CameraConstrainedHighSpeedCaptureSession;
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    @NonNull
+    private List<CaptureRequest> createHighSpeedRequestList(@NonNull CaptureRequest request) throws CameraAccessException {
+        return ((CameraConstrainedHighSpeedCaptureSession) mCaptureSession).createHighSpeedRequestList(request);
+    }
+
+    private static int getBurstIndex(@NonNull CaptureRequest request) {
+        Object tag = request.getTag();
+        return tag instanceof BurstTag ? ((BurstTag) tag).index : (int) CaptureSessionData.NO_VALUE;
+    }
+
+    /**
+     * @param requests requests of the repeating request or burst, their listeners see every event before backpressure
+     */
+    @NonNull
+    private static CameraCaptureSession.CaptureCallback createCaptureCallback(final BackpressureEmitter<CaptureSessionData> emitter,
+                                                                              final CaptureSessionDataPool pool,
+                                                                              final List<CaptureRequestSpec> requests) {
+        return new CameraCaptureSession.CaptureCallback() {
+
+            @Override
+            public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, long timestamp, long frameNumber) {
+                if (!emitter.isCancelled()) {
+                    emitFrame(pool.obtain()
+                            .set(CaptureSessionEvents.ON_STARTED, session, request, null)
+                            .setFrame(timestamp, frameNumber)
+                            .setBurstIndex(getBurstIndex(request)));
+                }
+            }
+
+            @Override
+            public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+                if (!emitter.isCancelled()) {
+                    // every consumer of the frame reads from this, the result is queried once per frame
+                    emitFrame(pool.obtain()
+                            .set(CaptureSessionEvents.ON_COMPLETED, session, request, result)
+                            .readMetadata(result)
+                            .setBurstIndex(getBurstIndex(request)));
+                }
+            }
+
+            @Override
+            public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+                // a single frame is lost, the session is fine, device and session errors come through their own callbacks
+                if (!emitter.isCancelled()) {
+                    emitFrame(pool.obtain()
+                            .set(CaptureSessionEvents.ON_FAILED, session, request, null)
+                            .setFrame(CaptureSessionData.NO_VALUE, failure.getFrameNumber())
+                            .setBurstIndex(getBurstIndex(request)));
+                }
+            }
+
+            private void emitFrame(@NonNull CaptureSessionData data) {
+                int burstIndex = data.getBurstIndex();
+                requests.get(burstIndex == CaptureSessionData.NO_VALUE ? 0 : burstIndex).notifyListener(data);
+                emitter.onNext(data);
+            }
+
+            @Override
+            public void onCaptureSequenceCompleted(@NonNull CameraCaptureSession session, int sequenceId, long frameNumber) {
+                if (!emitter.isCancelled()) {
+                    emitter.onNext(pool.obtain()
+                            .set(CaptureSessionEvents.ON_SEQUENCE_COMPLETED, session, null, null)
+                            .setSequence(sequenceId, frameNumber));
+                }
+            }
+
+            @Override
+            public void onCaptureSequenceAborted(@NonNull CameraCaptureSession session, int sequenceId) {
+                if (!emitter.isCancelled()) {
+                    emitter.onNext(pool.obtain()
+                            .set(CaptureSessionEvents.ON_SEQUENCE_ABORTED, session, null, null)
+                            .setSequence(sequenceId, CaptureSessionData.NO_VALUE));
+                }
+            }
+        };
+    }
+
+    private static class BurstTag {
+        final int index;
+
+        BurstTag(int index) {
+            this.index = index;
+        }
+    }
+}
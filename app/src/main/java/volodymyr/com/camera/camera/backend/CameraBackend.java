@@ -0,0 +1,30 @@
+package volodymyr.com.camera.camera.backend;
+
+import android.support.annotation.NonNull;
+
+import io.reactivex.Observable;
+import volodymyr.com.camera.camera.event.DeviceStateEvent;
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
+import volodymyr.com.camera.camera.pojo.Pair;
+
+/**
+ * Source of camera devices. {@link Camera2Backend} talks to the real hardware,
+ * {@link volodymyr.com.camera.camera.backend.sim.SimulatedCameraBackend} produces synthetic frames on the JVM.
+ */
+public interface CameraBackend {
+
+    @NonNull
+    String[] getCameraIdList() throws Exception;
+
+    /**
+     * Emits device state events of the camera, completes once it is closed or disconnected.
+     */
+    @NonNull
+    Observable<Pair<DeviceStateEvent, CameraDeviceHandle>> openCamera(@NonNull String cameraId);
+
+    /**
+     * Counts devices, sessions, image readers and images of this backend while they are alive.
+     */
+    @NonNull
+    ResourceTracker getResourceTracker();
+}
@@ -0,0 +1,35 @@
+package volodymyr.com.camera.camera.backend;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+import io.reactivex.Observable;
+import volodymyr.com.camera.camera.event.CaptureSessionStateEvent;
+import volodymyr.com.camera.camera.pojo.Pair;
+
+/**
+ * Opened camera device, see {@link android.hardware.camera2.CameraDevice}.
+ */
+public interface CameraDeviceHandle {
+
+    @NonNull
+    String getId();
+
+    /**
+     * Emits session state events, completes once the session is closed.
+     * A new session replaces the previous one.
+     */
+    @NonNull
+    Observable<Pair<CaptureSessionStateEvent, CaptureSessionHandle>> createCaptureSession(@NonNull List<OutputTarget> outputs);
+
+    /**
+     * Session for 120 fps and faster capture, outputs are limited to one or two surfaces of a size from
+     * {@link volodymyr.com.camera.camera.HighSpeedConfig}. Repeating requests of such a session are expanded to the
+     * high-speed burst by the backend, their configurator has to set the fps range of the config.
+     */
+    @NonNull
+    Observable<Pair<CaptureSessionStateEvent, CaptureSessionHandle>> createConstrainedHighSpeedCaptureSession(@NonNull List<OutputTarget> outputs);
+
+    void close();
+}
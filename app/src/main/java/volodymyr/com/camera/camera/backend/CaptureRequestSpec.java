@@ -0,0 +1,76 @@
+package volodymyr.com.camera.camera.backend;
+
+import android.hardware.camera2.CaptureRequest;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import volodymyr.com.camera.camera.pojo.CaptureSessionData;
+
+/**
+ * Backend independent description of a capture request.
+ */
+public class CaptureRequestSpec {
+
+    /**
+     * Applies Camera2 specific settings, ignored by backends without a {@link CaptureRequest.Builder}.
+     */
+    public interface Configurator {
+        void configure(@NonNull CaptureRequest.Builder builder);
+    }
+
+    /**
+     * Sees every event of the request on the callback thread, before the backpressure of a repeating request drops any.
+     * The data is only valid during the call.
+     */
+    public interface Listener {
+        void onCaptureEvent(@NonNull CaptureSessionData data);
+    }
+
+    /**
+     * One of {@link android.hardware.camera2.CameraDevice} templates
+     */
+    public final int template;
+    @NonNull
+    public final List<OutputTarget> targets;
+    @Nullable
+    public final Configurator configurator;
+    @Nullable
+    public final Listener listener;
+
+    public CaptureRequestSpec(int template, @NonNull List<OutputTarget> targets, @Nullable Configurator configurator) {
+        this(template, targets, configurator, null);
+    }
+
+    public CaptureRequestSpec(int template, @NonNull List<OutputTarget> targets, @Nullable Configurator configurator,
+                              @Nullable Listener listener) {
+        this.template = template;
+        this.targets = Collections.unmodifiableList(new ArrayList<>(targets));
+        this.configurator = configurator;
+        this.listener = listener;
+    }
+
+    /**
+     * @return the same request, with {@code listener} called after the one it already has
+     */
+    @NonNull
+    public CaptureRequestSpec withListener(@NonNull Listener listener) {
+        Listener previous = this.listener;
+        return new CaptureRequestSpec(template, targets, configurator, previous == null ? listener : data -> {
+            previous.onCaptureEvent(data);
+            listener.onCaptureEvent(data);
+        });
+    }
+
+    /**
+     * Calls the listener of the request, if it has one.
+     */
+    public void notifyListener(@NonNull CaptureSessionData data) {
+        if (listener != null) {
+            listener.onCaptureEvent(data);
+        }
+    }
+}
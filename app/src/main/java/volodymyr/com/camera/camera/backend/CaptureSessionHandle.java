@@ -0,0 +1,63 @@
+package volodymyr.com.camera.camera.backend;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+import volodymyr.com.camera.camera.FrameBackpressure;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.pojo.CaptureSessionData;
+
+/**
+ * Configured capture session, see {@link android.hardware.camera2.CameraCaptureSession}.
+ */
+public interface CaptureSessionHandle {
+
+    @NonNull
+    CameraDeviceHandle getDevice();
+
+    /**
+     * Starts {@code request} as the repeating request, replacing the current one, and emits its capture events.
+     * Emitted {@link CaptureSessionData} are pooled, the subscriber must release each of them.
+     */
+    @NonNull
+    Flowable<CaptureSessionData> setRepeatingRequest(@NonNull CaptureRequestSpec request, @NonNull FrameBackpressure backpressure);
+
+    /**
+     * Repeats {@code requests} back to back as one burst, replacing the current repeating request. Events of the requests
+     * carry their position in the burst, see {@link CaptureSessionData#getBurstIndex()}.
+     * Emitted {@link CaptureSessionData} are pooled, the subscriber must release each of them.
+     */
+    @NonNull
+    Flowable<CaptureSessionData> setRepeatingBurst(@NonNull List<CaptureRequestSpec> requests, @NonNull FrameBackpressure backpressure);
+
+    /**
+     * Issues {@code requests} once as a burst, without a round trip between them. Emits the start and completion of every
+     * request with its {@link CaptureSessionData#getBurstIndex()}, then
+     * {@link volodymyr.com.camera.camera.event.CaptureSessionEvents#ON_SEQUENCE_COMPLETED} and completes.
+     * Fails if a capture fails or the sequence is aborted. Events are not pooled.
+     */
+    @NonNull
+    Observable<CaptureSessionData> captureBurst(@NonNull List<CaptureRequestSpec> requests);
+
+    /**
+     * Issues a single capture and emits its {@link volodymyr.com.camera.camera.event.CaptureSessionEvents#ON_COMPLETED} event.
+     * Fails if the capture fails or its sequence is aborted, e.g. by the session closing first. The event is not pooled.
+     */
+    @NonNull
+    Single<CaptureSessionData> capture(@NonNull CaptureRequestSpec request);
+
+    /**
+     * Frames written to {@code target} by the requests of this session. {@code target} must be one of the session outputs.
+     * Delivered frames must be closed by the subscriber.
+     */
+    @NonNull
+    Flowable<Frame> getFrames(@NonNull FrameTarget target);
+
+    void stopRepeating() throws Exception;
+
+    void close();
+}
@@ -0,0 +1,111 @@
+package volodymyr.com.camera.camera.backend;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.FlowableEmitter;
+import volodymyr.com.camera.camera.BackpressureEmitter;
+import volodymyr.com.camera.camera.FrameBackpressure;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
+
+/**
+ * Queueing policy of the frame producers of all backends, for one subscription.
+ * <p>
+ * At most {@code maxFramesInFlight} frames are acquired at a time. When the limit is reached the oldest frame not yet
+ * delivered to the subscriber is closed to make room, frames already held by the subscriber are never taken away, the
+ * new frame is skipped instead. Frames dropped or not delivered because of cancellation are closed here, delivered
+ * frames must be closed by the subscriber. Acquired frames are counted as {@link ResourceTracker.Resource#IMAGE} until
+ * they are closed.
+ * <p>
+ * Usage from the producer callback: {@link #tryAcquire()}, and if it allowed the frame, acquire its buffers and
+ * {@link #onNext(Runnable, FrameFactory)}. The owner must call {@link #clear()} from the emitter's cancellable.
+ */
+public class FrameQueue {
+
+    /**
+     * Wraps acquired buffers into a frame.
+     */
+    public interface FrameFactory {
+        /**
+         * @param onClose has to be the {@code onClose} of the created frame
+         */
+        @NonNull
+        Frame create(@NonNull Runnable onClose);
+    }
+
+    private final BackpressureEmitter<Frame> mEmitter;
+    private final int mMaxFramesInFlight;
+    private final ResourceTracker mResourceTracker;
+    private final AtomicInteger mFramesInFlight = new AtomicInteger();
+    private final AtomicLong mSkippedFrames = new AtomicLong();
+
+    public FrameQueue(@NonNull FlowableEmitter<Frame> emitter, int maxFramesInFlight, @NonNull ResourceTracker resourceTracker) {
+        if (maxFramesInFlight <= 0) {
+            throw new IllegalArgumentException("maxFramesInFlight must be positive: " + maxFramesInFlight);
+        }
+        mEmitter = new BackpressureEmitter<>(emitter, FrameBackpressure.buffer(maxFramesInFlight), Frame::close);
+        mMaxFramesInFlight = maxFramesInFlight;
+        mResourceTracker = resourceTracker;
+    }
+
+    /**
+     * Makes room for one more frame, closing the oldest undelivered one if the limit is reached.
+     *
+     * @return false if the next frame has to be left to the producer, because the subscriber cancelled or holds every
+     * acquired frame
+     */
+    public boolean tryAcquire() {
+        if (mEmitter.isCancelled()) {
+            return false;
+        }
+        if (mFramesInFlight.get() >= mMaxFramesInFlight && !mEmitter.dropOldest()) {
+            mSkippedFrames.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Delivers or queues the frame of buffers acquired after {@link #tryAcquire()} allowed it.
+     *
+     * @param release gives the buffers back to the producer once the frame is closed
+     */
+    public void onNext(@NonNull Runnable release, @NonNull FrameFactory frameFactory) {
+        mFramesInFlight.incrementAndGet();
+        mResourceTracker.onAcquired(ResourceTracker.Resource.IMAGE);
+        mEmitter.onNext(frameFactory.create(() -> {
+            // buffers go back first, so a producer seeing the free slot also finds free buffers
+            release.run();
+            mFramesInFlight.decrementAndGet();
+            mResourceTracker.onReleased(ResourceTracker.Resource.IMAGE);
+        }));
+    }
+
+    /**
+     * Closes frames not delivered yet.
+     */
+    public void clear() {
+        mEmitter.clear();
+    }
+
+    public boolean isCancelled() {
+        return mEmitter.isCancelled();
+    }
+
+    /**
+     * @return frames acquired and not closed yet, delivered or not
+     */
+    public int getFramesInFlight() {
+        return mFramesInFlight.get();
+    }
+
+    /**
+     * @return frames lost to the policy, closed undelivered to make room or skipped while the subscriber held them all
+     */
+    public long getDroppedFrames() {
+        return mEmitter.getDroppedCount() + mSkippedFrames.get();
+    }
+}
@@ -0,0 +1,24 @@
+package volodymyr.com.camera.camera.backend;
+
+/**
+ * Output whose frames are read back by the app, see {@link CaptureSessionHandle#getFrames(FrameTarget)}.
+ */
+public class FrameTarget implements OutputTarget {
+    public final int width;
+    public final int height;
+    /**
+     * One of {@link android.graphics.ImageFormat} constants
+     */
+    public final int format;
+    public final int maxFramesInFlight;
+
+    public FrameTarget(int width, int height, int format, int maxFramesInFlight) {
+        if (maxFramesInFlight <= 0) {
+            throw new IllegalArgumentException("maxFramesInFlight must be positive: " + maxFramesInFlight);
+        }
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.maxFramesInFlight = maxFramesInFlight;
+    }
+}
@@ -0,0 +1,81 @@
+package volodymyr.com.camera.camera.backend;
+
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
+
+/**
+ * Turns {@link ImageReader} images into {@link Frame}s.
+ */
+public final class ImageReaderFrames {
+
+    private ImageReaderFrames() {
+    }
+
+    /**
+     * Creates reader sized to keep {@code maxFramesInFlight} frames acquired and still let {@link ImageReader#acquireLatestImage()} work.
+     */
+    @NonNull
+    public static ImageReader createImageReader(int width, int height, int format, int maxFramesInFlight) {
+        return ImageReader.newInstance(width, height, format, maxFramesInFlight + 2);
+    }
+
+    @NonNull
+    static ImageReader createImageReader(@NonNull FrameTarget target) {
+        return createImageReader(target.width, target.height, target.format, target.maxFramesInFlight);
+    }
+
+    /**
+     * Emits the latest image of {@code imageReader} as a {@link Frame}, skipping stale images. Frames are limited to
+     * {@code maxFramesInFlight} and queued as {@link FrameQueue} describes.
+     *
+     * @param readerReferences closes {@code imageReader}, every frame holds a reference until it is closed
+     */
+    @NonNull
+    public static Flowable<Frame> create(@NonNull ImageReader imageReader, @NonNull ReferenceCount readerReferences,
+                                         int maxFramesInFlight, @NonNull Handler handler, @NonNull ResourceTracker resourceTracker) {
+        if (maxFramesInFlight <= 0 || maxFramesInFlight > imageReader.getMaxImages() - 2) {
+            throw new IllegalArgumentException("maxFramesInFlight must be in [1, maxImages - 2]: " + maxFramesInFlight);
+        }
+        return Flowable.create(flowableEmitter -> {
+            FrameQueue frameQueue = new FrameQueue(flowableEmitter, maxFramesInFlight, resourceTracker);
+            ImageReader.OnImageAvailableListener listener = reader -> {
+                // the reader may be closing, the image is gone with it then
+                if (!readerReferences.retain()) {
+                    return;
+                }
+                // when the subscriber holds every frame the image is left to be skipped by acquireLatestImage
+                Image image = frameQueue.tryAcquire() ? reader.acquireLatestImage() : null;
+                if (image == null) {
+                    readerReferences.release();
+                    return;
+                }
+                frameQueue.onNext(() -> {
+                    image.close();
+                    readerReferences.release();
+                }, onClose -> toFrame(image, onClose));
+            };
+            imageReader.setOnImageAvailableListener(listener, handler);
+            flowableEmitter.setCancellable(() -> {
+                imageReader.setOnImageAvailableListener(null, null);
+                frameQueue.clear();
+            });
+        }, BackpressureStrategy.MISSING);
+    }
+
+    @NonNull
+    private static Frame toFrame(@NonNull Image image, @NonNull Runnable onClose) {
+        Image.Plane[] imagePlanes = image.getPlanes();
+        Frame.Plane[] planes = new Frame.Plane[imagePlanes.length];
+        for (int i = 0; i < imagePlanes.length; i++) {
+            planes[i] = new Frame.Plane(imagePlanes[i].getBuffer(), imagePlanes[i].getRowStride(), imagePlanes[i].getPixelStride());
+        }
+        return new Frame(image.getFormat(), image.getWidth(), image.getHeight(), image.getTimestamp(), planes, onClose);
+    }
+}
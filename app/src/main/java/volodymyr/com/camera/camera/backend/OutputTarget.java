@@ -0,0 +1,8 @@
+package volodymyr.com.camera.camera.backend;
+
+/**
+ * Output stream of a capture session, either a {@link SurfaceTarget} owned by the caller
+ * or a {@link FrameTarget} whose frames are delivered by the session.
+ */
+public interface OutputTarget {
+}
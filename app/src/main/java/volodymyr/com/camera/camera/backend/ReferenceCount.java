@@ -0,0 +1,68 @@
+package volodymyr.com.camera.camera.backend;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a resource, like an {@link android.media.ImageReader}, open while its owner or any frame taken from it needs it.
+ * <p>
+ * The owner holds the first reference and gives it up with {@link #close()}, every frame takes one with
+ * {@link #retain()} and gives it back with {@link #release()}. The resource is released by whoever drops the last one,
+ * so it never goes away under a frame a worker still reads, and nothing can be taken from it afterwards.
+ */
+public class ReferenceCount {
+
+    private final AtomicInteger mReferences = new AtomicInteger(1);
+    private final AtomicBoolean mClosed = new AtomicBoolean();
+    private final Runnable mOnReleased;
+
+    /**
+     * @param onReleased releases the resource, called once on the thread dropping the last reference
+     */
+    public ReferenceCount(@NonNull Runnable onReleased) {
+        mOnReleased = onReleased;
+    }
+
+    /**
+     * @return false if the owner closed it, the caller must not use the resource then
+     */
+    public boolean retain() {
+        while (!mClosed.get()) {
+            int references = mReferences.get();
+            if (references == 0) {
+                return false;
+            }
+            if (mReferences.compareAndSet(references, references + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gives back a reference of {@link #retain()}.
+     */
+    public void release() {
+        int references = mReferences.decrementAndGet();
+        if (references == 0) {
+            mOnReleased.run();
+        } else if (references < 0) {
+            throw new IllegalStateException("Released more often than retained");
+        }
+    }
+
+    /**
+     * Gives up the owner's reference, further calls do nothing.
+     */
+    public void close() {
+        if (mClosed.compareAndSet(false, true)) {
+            release();
+        }
+    }
+
+    public boolean isReleased() {
+        return mReferences.get() == 0;
+    }
+}
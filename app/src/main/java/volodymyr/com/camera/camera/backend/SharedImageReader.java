@@ -0,0 +1,24 @@
+package volodymyr.com.camera.camera.backend;
+
+import android.media.ImageReader;
+import android.support.annotation.NonNull;
+
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
+
+/**
+ * {@link ImageReader} of a session output, closed once the session and every frame taken from it let go of it.
+ */
+class SharedImageReader extends ReferenceCount {
+
+    @NonNull
+    final ImageReader imageReader;
+
+    SharedImageReader(@NonNull ImageReader imageReader, @NonNull ResourceTracker resourceTracker) {
+        super(() -> {
+            imageReader.close();
+            resourceTracker.onReleased(ResourceTracker.Resource.IMAGE_READER);
+        });
+        this.imageReader = imageReader;
+        resourceTracker.onAcquired(ResourceTracker.Resource.IMAGE_READER);
+    }
+}
@@ -0,0 +1,16 @@
+package volodymyr.com.camera.camera.backend;
+
+import android.support.annotation.NonNull;
+import android.view.Surface;
+
+/**
+ * Surface provided by the caller, e.g. preview. Backends that can't render into surfaces ignore it.
+ */
+public class SurfaceTarget implements OutputTarget {
+    @NonNull
+    public final Surface surface;
+
+    public SurfaceTarget(@NonNull Surface surface) {
+        this.surface = surface;
+    }
+}
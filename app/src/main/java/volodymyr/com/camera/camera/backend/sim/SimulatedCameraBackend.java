@@ -0,0 +1,65 @@
+package volodymyr.com.camera.camera.backend.sim;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import volodymyr.com.camera.camera.backend.CameraBackend;
+import volodymyr.com.camera.camera.backend.CameraDeviceHandle;
+import volodymyr.com.camera.camera.event.DeviceStateEvent;
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
+import volodymyr.com.camera.camera.pojo.Pair;
+
+/**
+ * {@link CameraBackend} without hardware. Opened cameras produce synthetic YUV_420_888 frames and capture events
+ * at {@link SimulatedCameraConfig#fps} on the given scheduler, a {@link io.reactivex.schedulers.TestScheduler}
+ * makes the stream fully deterministic.
+ */
+public class SimulatedCameraBackend implements CameraBackend {
+
+    private final SimulatedCameraConfig mConfig;
+    private final Scheduler mScheduler;
+    private final String[] mCameraIds;
+    private final ResourceTracker mResourceTracker;
+
+    public SimulatedCameraBackend(@NonNull SimulatedCameraConfig config, @NonNull Scheduler scheduler, @NonNull String... cameraIds) {
+        this(config, scheduler, new ResourceTracker(), cameraIds);
+    }
+
+    public SimulatedCameraBackend(@NonNull SimulatedCameraConfig config, @NonNull Scheduler scheduler,
+                                  @NonNull ResourceTracker resourceTracker, @NonNull String... cameraIds) {
+        mConfig = config;
+        mScheduler = scheduler;
+        mResourceTracker = resourceTracker;
+        mCameraIds = cameraIds.length == 0 ? new String[]{"0"} : cameraIds.clone();
+    }
+
+    @NonNull
+    @Override
+    public String[] getCameraIdList() {
+        return mCameraIds.clone();
+    }
+
+    /**
+     * Simulated frames count as images and their targets as image readers, like on a real device.
+     */
+    @NonNull
+    @Override
+    public ResourceTracker getResourceTracker() {
+        return mResourceTracker;
+    }
+
+    @NonNull
+    @Override
+    public Observable<Pair<DeviceStateEvent, CameraDeviceHandle>> openCamera(@NonNull String cameraId) {
+        if (!Arrays.asList(mCameraIds).contains(cameraId)) {
+            return Observable.error(new IllegalArgumentException("No simulated camera " + cameraId));
+        }
+        return Observable.create(observableEmitter -> {
+            SimulatedDevice device = new SimulatedDevice(cameraId, mConfig, mScheduler, mResourceTracker, observableEmitter);
+            mScheduler.scheduleDirect(device::open);
+        });
+    }
+}
@@ -0,0 +1,93 @@
+package volodymyr.com.camera.camera.backend.sim;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import volodymyr.com.camera.camera.replay.FrameRecording;
+
+/**
+ * Parameters of the synthetic frame stream produced by {@link SimulatedCameraBackend}, or of the replay of a recorded one.
+ */
+public class SimulatedCameraConfig {
+    /**
+     * Replay speed without any delay between recorded frames, for throughput runs
+     */
+    public static final float MAX_SPEED = Float.POSITIVE_INFINITY;
+
+    public final int width;
+    public final int height;
+    public final int fps;
+    /**
+     * Every frame interval is randomly shifted by up to this many nanoseconds in either direction.
+     */
+    public final long jitterNanos;
+    /**
+     * Extra bytes at the end of every plane row, to exercise row stride handling.
+     */
+    public final int rowPadding;
+    /**
+     * 1 for planar chroma (I420 like), 2 for interleaved chroma (NV21 like).
+     */
+    public final int chromaPixelStride;
+    /**
+     * Frames to replay instead of synthetic ones, null for synthetic frames
+     */
+    @Nullable
+    public final FrameRecording recording;
+    /**
+     * Replay pace relative to the recorded timestamps, 2 plays twice as fast
+     */
+    public final float speed;
+
+    public SimulatedCameraConfig(int width, int height, int fps) {
+        this(width, height, fps, 0, 0, 1);
+    }
+
+    public SimulatedCameraConfig(int width, int height, int fps, long jitterNanos, int rowPadding, int chromaPixelStride) {
+        if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0) {
+            throw new IllegalArgumentException("Size must be positive and even: " + width + "x" + height);
+        }
+        if (fps <= 0) {
+            throw new IllegalArgumentException("fps must be positive: " + fps);
+        }
+        if (chromaPixelStride != 1 && chromaPixelStride != 2) {
+            throw new IllegalArgumentException("chromaPixelStride must be 1 or 2: " + chromaPixelStride);
+        }
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.jitterNanos = jitterNanos;
+        this.rowPadding = rowPadding;
+        this.chromaPixelStride = chromaPixelStride;
+        this.recording = null;
+        this.speed = 1;
+    }
+
+    /**
+     * Replays {@code recording} once, with its recorded timestamps, frame numbers and plane layout. Every frame target of a
+     * session has to match the format and size of the recorded frames. The repeating request completes after the last frame.
+     *
+     * @param speed pace relative to the recorded timing, {@link #MAX_SPEED} for no delay between frames
+     */
+    public SimulatedCameraConfig(@NonNull FrameRecording recording, float speed) {
+        if (recording.size() == 0) {
+            throw new IllegalArgumentException("Recording has no frames");
+        }
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be positive: " + speed);
+        }
+        this.width = recording.getWidth(0);
+        this.height = recording.getHeight(0);
+        long duration = recording.getDurationNanos();
+        this.fps = duration == 0 ? 30 : (int) Math.max(1, Math.round((recording.size() - 1) * 1e9 / duration));
+        this.jitterNanos = 0;
+        this.rowPadding = 0;
+        this.chromaPixelStride = 1;
+        this.recording = recording;
+        this.speed = speed;
+    }
+
+    public long getFrameIntervalNanos() {
+        return 1_000_000_000L / fps;
+    }
+}
@@ -0,0 +1,126 @@
+package volodymyr.com.camera.camera.backend.sim;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.Scheduler;
+import volodymyr.com.camera.camera.backend.CameraDeviceHandle;
+import volodymyr.com.camera.camera.backend.CaptureSessionHandle;
+import volodymyr.com.camera.camera.backend.OutputTarget;
+import volodymyr.com.camera.camera.event.CaptureSessionStateEvent;
+import volodymyr.com.camera.camera.event.DeviceStateEvent;
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
+import volodymyr.com.camera.camera.pojo.Pair;
+
+class SimulatedDevice implements CameraDeviceHandle {
+
+    private final String mId;
+    private final SimulatedCameraConfig mConfig;
+    private final Scheduler mScheduler;
+    private final ResourceTracker mResourceTracker;
+    private final ObservableEmitter<Pair<DeviceStateEvent, CameraDeviceHandle>> mDeviceEmitter;
+    private SimulatedSession mSession;
+    private boolean mOpened;
+    private boolean mClosed;
+
+    SimulatedDevice(@NonNull String id, @NonNull SimulatedCameraConfig config, @NonNull Scheduler scheduler,
+                    @NonNull ResourceTracker resourceTracker,
+                    @NonNull ObservableEmitter<Pair<DeviceStateEvent, CameraDeviceHandle>> deviceEmitter) {
+        mId = id;
+        mConfig = config;
+        mScheduler = scheduler;
+        mResourceTracker = resourceTracker;
+        mDeviceEmitter = deviceEmitter;
+    }
+
+    /**
+     * Completes the open, a device opened into a disposed emitter is closed right away like {@link
+     * volodymyr.com.camera.camera.backend.Camera2Backend} does.
+     */
+    void open() {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mOpened = true;
+        }
+        mResourceTracker.onAcquired(ResourceTracker.Resource.DEVICE);
+        if (mDeviceEmitter.isDisposed()) {
+            close();
+            return;
+        }
+        mDeviceEmitter.onNext(new Pair<>(DeviceStateEvent.ON_OPENED, this));
+    }
+
+    @NonNull
+    ResourceTracker getResourceTracker() {
+        return mResourceTracker;
+    }
+
+    @NonNull
+    @Override
+    public String getId() {
+        return mId;
+    }
+
+    @NonNull
+    @Override
+    public Observable<Pair<CaptureSessionStateEvent, CaptureSessionHandle>> createCaptureSession(@NonNull List<OutputTarget> outputs) {
+        return Observable.create(observableEmitter -> {
+            SimulatedSession session;
+            synchronized (this) {
+                if (mClosed) {
+                    observableEmitter.onError(new IllegalStateException("Device " + mId + " is closed"));
+                    return;
+                }
+                if (mSession != null) {
+                    mSession.close();
+                }
+                session = new SimulatedSession(this, outputs, mConfig, mScheduler, observableEmitter);
+                mSession = session;
+            }
+            mResourceTracker.onAcquired(ResourceTracker.Resource.SESSION);
+            mScheduler.scheduleDirect(() -> {
+                observableEmitter.onNext(new Pair<>(CaptureSessionStateEvent.ON_CONFIGURED, session));
+                observableEmitter.onNext(new Pair<>(CaptureSessionStateEvent.ON_READY, session));
+            });
+        });
+    }
+
+    /**
+     * The simulated camera has no high-speed limits, the session runs like a regular one at {@link SimulatedCameraConfig} fps.
+     */
+    @NonNull
+    @Override
+    public Observable<Pair<CaptureSessionStateEvent, CaptureSessionHandle>> createConstrainedHighSpeedCaptureSession(@NonNull List<OutputTarget> outputs) {
+        return createCaptureSession(outputs);
+    }
+
+    @Override
+    public void close() {
+        SimulatedSession session;
+        boolean opened;
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            opened = mOpened;
+            session = mSession;
+            mSession = null;
+        }
+        if (session != null) {
+            session.close();
+        }
+        mScheduler.scheduleDirect(() -> {
+            if (opened) {
+                mResourceTracker.onReleased(ResourceTracker.Resource.DEVICE);
+            }
+            mDeviceEmitter.onNext(new Pair<>(DeviceStateEvent.ON_CLOSED, this));
+            mDeviceEmitter.onComplete();
+        });
+    }
+}
@@ -0,0 +1,207 @@
+package volodymyr.com.camera.camera.backend.sim;
+
+import android.graphics.ImageFormat;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import volodymyr.com.camera.camera.backend.FrameQueue;
+import volodymyr.com.camera.camera.backend.FrameTarget;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
+import volodymyr.com.camera.camera.replay.FrameRecording;
+
+/**
+ * Synthetic frames of one {@link FrameTarget}. Behaves like an {@link android.media.ImageReader} with
+ * {@code maxFramesInFlight + 2} images: buffers are preallocated, reused once frames are closed,
+ * and frames are queued and dropped by the same {@link FrameQueue} policy.
+ * <p>
+ * Replayed frames are views of the recording instead, the in-flight limit applies the same way.
+ */
+class SimulatedFrameSource {
+
+    static final int NO_REPLAY = -1;
+    private static final int CHROMA_NEUTRAL = 128;
+    /**
+     * Replayed frames are views of the mapped recording, there is nothing to give back
+     */
+    private static final Runnable NO_RELEASE = () -> {
+    };
+
+    private final FrameTarget mTarget;
+    @Nullable
+    private final FrameRecording mRecording;
+    private final ArrayDeque<Frame.Plane[]> mFreePlanes = new ArrayDeque<>();
+    private final byte[] mPattern;
+    private final ResourceTracker mResourceTracker;
+    private FrameQueue mFrameQueue;
+    /**
+     * Dropped by the queues of previous subscriptions and for lack of buffers
+     */
+    private long mDroppedFrames;
+    private boolean mClosed;
+
+    SimulatedFrameSource(@NonNull FrameTarget target, @NonNull SimulatedCameraConfig config, @NonNull ResourceTracker resourceTracker) {
+        if (target.width % 2 != 0 || target.height % 2 != 0) {
+            throw new IllegalArgumentException("Simulated frame size must be even: " + target.width + "x" + target.height);
+        }
+        mTarget = target;
+        mRecording = config.recording;
+        if (mRecording != null) {
+            if (target.format != mRecording.getFormat(0) || target.width != mRecording.getWidth(0) || target.height != mRecording.getHeight(0)) {
+                throw new IllegalArgumentException("Target " + target.width + "x" + target.height + " doesn't match the recorded frames "
+                        + mRecording.getWidth(0) + "x" + mRecording.getHeight(0));
+            }
+        } else {
+            for (int i = 0; i < target.maxFramesInFlight + 2; i++) {
+                mFreePlanes.add(target.format == ImageFormat.YUV_420_888 ? allocateYuv(target, config) : allocatePlain(target, config));
+            }
+        }
+        mPattern = new byte[target.width + 256];
+        for (int i = 0; i < mPattern.length; i++) {
+            mPattern[i] = (byte) i;
+        }
+        mResourceTracker = resourceTracker;
+        mResourceTracker.onAcquired(ResourceTracker.Resource.IMAGE_READER);
+    }
+
+    @NonNull
+    Flowable<Frame> frames() {
+        return Flowable.create(flowableEmitter -> {
+            FrameQueue frameQueue = new FrameQueue(flowableEmitter, mTarget.maxFramesInFlight, mResourceTracker);
+            synchronized (this) {
+                mFrameQueue = frameQueue;
+            }
+            flowableEmitter.setCancellable(() -> {
+                synchronized (SimulatedFrameSource.this) {
+                    if (mFrameQueue == frameQueue) {
+                        mFrameQueue = null;
+                    }
+                    mDroppedFrames += frameQueue.getDroppedFrames();
+                }
+                frameQueue.clear();
+            });
+        }, BackpressureStrategy.MISSING);
+    }
+
+    /**
+     * Writes the next frame, called by the session for every request targeting this source.
+     *
+     * @param replayIndex recorded frame to replay, {@link #NO_REPLAY} for a synthetic frame
+     */
+    void produce(long frameNumber, long timestamp, int replayIndex) {
+        FrameQueue frameQueue;
+        synchronized (this) {
+            frameQueue = mFrameQueue;
+        }
+        if (frameQueue == null || !frameQueue.tryAcquire()) {
+            return;
+        }
+        if (mRecording != null) {
+            frameQueue.onNext(NO_RELEASE, onClose -> mRecording.getFrame(replayIndex, timestamp, onClose));
+            return;
+        }
+        Frame.Plane[] planes = takeFreePlanes();
+        if (planes == null) {
+            onDropped();
+            return;
+        }
+        fillLuma(planes[0], frameNumber);
+        frameQueue.onNext(() -> returnFreePlanes(planes),
+                onClose -> new Frame(mTarget.format, mTarget.width, mTarget.height, timestamp, planes, onClose));
+    }
+
+    synchronized long getDroppedFrames() {
+        return mDroppedFrames + (mFrameQueue == null ? 0 : mFrameQueue.getDroppedFrames());
+    }
+
+    void close() {
+        FrameQueue frameQueue;
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            frameQueue = mFrameQueue;
+            mFrameQueue = null;
+            if (frameQueue != null) {
+                mDroppedFrames += frameQueue.getDroppedFrames();
+            }
+        }
+        if (frameQueue != null) {
+            frameQueue.clear();
+        }
+        mResourceTracker.onReleased(ResourceTracker.Resource.IMAGE_READER);
+    }
+
+    private synchronized void onDropped() {
+        mDroppedFrames++;
+    }
+
+    @Nullable
+    private synchronized Frame.Plane[] takeFreePlanes() {
+        return mFreePlanes.poll();
+    }
+
+    private synchronized void returnFreePlanes(@NonNull Frame.Plane[] planes) {
+        for (Frame.Plane plane : planes) {
+            plane.buffer.clear();
+        }
+        mFreePlanes.add(planes);
+    }
+
+    /**
+     * Diagonal gradient moving by one pixel per frame.
+     */
+    private void fillLuma(@NonNull Frame.Plane plane, long frameNumber) {
+        ByteBuffer buffer = plane.buffer;
+        int shift = (int) (frameNumber & 0xff);
+        for (int y = 0; y < mTarget.height; y++) {
+            buffer.position(y * plane.rowStride);
+            buffer.put(mPattern, (y + shift) & 0xff, mTarget.width);
+        }
+        buffer.clear();
+    }
+
+    @NonNull
+    private static Frame.Plane[] allocateYuv(@NonNull FrameTarget target, @NonNull SimulatedCameraConfig config) {
+        int lumaRowStride = target.width + config.rowPadding;
+        Frame.Plane luma = new Frame.Plane(ByteBuffer.allocateDirect(lumaRowStride * target.height), lumaRowStride, 1);
+        int chromaHeight = target.height / 2;
+        if (config.chromaPixelStride == 1) {
+            int chromaRowStride = target.width / 2 + config.rowPadding;
+            Frame.Plane u = new Frame.Plane(filled(chromaRowStride * chromaHeight), chromaRowStride, 1);
+            Frame.Plane v = new Frame.Plane(filled(chromaRowStride * chromaHeight), chromaRowStride, 1);
+            return new Frame.Plane[]{luma, u, v};
+        }
+        // interleaved VU in a single allocation, U and V planes are views shifted by one byte, as on most devices
+        int chromaRowStride = target.width + config.rowPadding;
+        ByteBuffer interleaved = filled(chromaRowStride * chromaHeight);
+        ByteBuffer vBuffer = interleaved.duplicate();
+        vBuffer.limit(interleaved.capacity() - 1);
+        ByteBuffer uBuffer = ((ByteBuffer) interleaved.duplicate().position(1)).slice();
+        return new Frame.Plane[]{
+                luma,
+                new Frame.Plane(uBuffer, chromaRowStride, 2),
+                new Frame.Plane(vBuffer.slice(), chromaRowStride, 2)};
+    }
+
+    @NonNull
+    private static Frame.Plane[] allocatePlain(@NonNull FrameTarget target, @NonNull SimulatedCameraConfig config) {
+        int rowStride = target.width + config.rowPadding;
+        return new Frame.Plane[]{new Frame.Plane(ByteBuffer.allocateDirect(rowStride * target.height), rowStride, 1)};
+    }
+
+    @NonNull
+    private static ByteBuffer filled(int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put(i, (byte) CHROMA_NEUTRAL);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,329 @@
+package volodymyr.com.camera.camera.backend.sim;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import volodymyr.com.camera.camera.BackpressureEmitter;
+import volodymyr.com.camera.camera.FrameBackpressure;
+import volodymyr.com.camera.camera.backend.CameraDeviceHandle;
+import volodymyr.com.camera.camera.backend.CaptureRequestSpec;
+import volodymyr.com.camera.camera.backend.CaptureSessionHandle;
+import volodymyr.com.camera.camera.backend.FrameTarget;
+import volodymyr.com.camera.camera.backend.OutputTarget;
+import volodymyr.com.camera.camera.event.CaptureSessionEvents;
+import volodymyr.com.camera.camera.event.CaptureSessionStateEvent;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
+import volodymyr.com.camera.camera.pojo.CaptureSessionData;
+import volodymyr.com.camera.camera.pojo.CaptureSessionDataPool;
+import volodymyr.com.camera.camera.pojo.Pair;
+import volodymyr.com.camera.camera.replay.FrameRecording;
+
+class SimulatedSession implements CaptureSessionHandle {
+
+    private static final int CAPTURE_SESSION_DATA_POOL_SIZE = 16;
+
+    private final SimulatedDevice mDevice;
+    private final SimulatedCameraConfig mConfig;
+    private final Scheduler mScheduler;
+    private final ObservableEmitter<Pair<CaptureSessionStateEvent, CaptureSessionHandle>> mSessionEmitter;
+    private final Map<FrameTarget, SimulatedFrameSource> mFrameSources = new HashMap<>();
+    // fixed seed, so the jitter pattern is the same on every run
+    private final Random mRandom = new Random(0);
+    private final AtomicLong mFrameNumber = new AtomicLong();
+    private final AtomicInteger mSequenceId = new AtomicInteger();
+    private Scheduler.Worker mRepeatingWorker;
+    private int mReplayIndex;
+    private boolean mClosed;
+
+    SimulatedSession(@NonNull SimulatedDevice device, @NonNull List<OutputTarget> outputs, @NonNull SimulatedCameraConfig config,
+                     @NonNull Scheduler scheduler, @NonNull ObservableEmitter<Pair<CaptureSessionStateEvent, CaptureSessionHandle>> sessionEmitter) {
+        mDevice = device;
+        mConfig = config;
+        mScheduler = scheduler;
+        mSessionEmitter = sessionEmitter;
+        for (OutputTarget output : outputs) {
+            if (output instanceof FrameTarget) {
+                mFrameSources.put((FrameTarget) output, new SimulatedFrameSource((FrameTarget) output, config, device.getResourceTracker()));
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public CameraDeviceHandle getDevice() {
+        return mDevice;
+    }
+
+    @NonNull
+    @Override
+    public Flowable<CaptureSessionData> setRepeatingRequest(@NonNull CaptureRequestSpec request, @NonNull FrameBackpressure backpressure) {
+        return repeat(Collections.singletonList(request), false, backpressure);
+    }
+
+    @NonNull
+    @Override
+    public Flowable<CaptureSessionData> setRepeatingBurst(@NonNull List<CaptureRequestSpec> requests, @NonNull FrameBackpressure backpressure) {
+        return repeat(requests, true, backpressure);
+    }
+
+    @NonNull
+    @Override
+    public Single<CaptureSessionData> capture(@NonNull CaptureRequestSpec request) {
+        return Single.create(singleEmitter -> {
+            List<SimulatedFrameSource> frameSources = getFrameSources(request);
+            mScheduler.scheduleDirect(() -> {
+                FramePosition position = new FramePosition();
+                if (!next(position)) {
+                    singleEmitter.onError(new IllegalStateException("Replay is over"));
+                    return;
+                }
+                for (SimulatedFrameSource frameSource : frameSources) {
+                    frameSource.produce(position.frameNumber, position.timestamp, position.replayIndex);
+                }
+                singleEmitter.onSuccess(new CaptureSessionData(CaptureSessionEvents.ON_COMPLETED, null, null, null)
+                        .setFrame(position.timestamp, position.frameNumber));
+            });
+        });
+    }
+
+    @NonNull
+    @Override
+    public Observable<CaptureSessionData> captureBurst(@NonNull List<CaptureRequestSpec> requests) {
+        return Observable.create(observableEmitter -> {
+            List<List<SimulatedFrameSource>> frameSources = new ArrayList<>();
+            for (CaptureRequestSpec request : requests) {
+                frameSources.add(getFrameSources(request));
+            }
+            int sequenceId = mSequenceId.getAndIncrement();
+            Scheduler.Worker worker = mScheduler.createWorker();
+            observableEmitter.setCancellable(worker::dispose);
+            worker.schedule(new Runnable() {
+                private final FramePosition mPosition = new FramePosition();
+                private int mIndex;
+
+                @Override
+                public void run() {
+                    if (!next(mPosition)) {
+                        observableEmitter.onError(new IllegalStateException("Replay is over"));
+                        return;
+                    }
+                    long frameNumber = mPosition.frameNumber;
+                    long timestamp = mPosition.timestamp;
+                    observableEmitter.onNext(new CaptureSessionData(CaptureSessionEvents.ON_STARTED, null, null, null)
+                            .setFrame(timestamp, frameNumber)
+                            .setBurstIndex(mIndex));
+                    for (SimulatedFrameSource frameSource : frameSources.get(mIndex)) {
+                        frameSource.produce(frameNumber, timestamp, mPosition.replayIndex);
+                    }
+                    observableEmitter.onNext(new CaptureSessionData(CaptureSessionEvents.ON_COMPLETED, null, null, null)
+                            .setFrame(timestamp, frameNumber)
+                            .setBurstIndex(mIndex));
+                    if (++mIndex < frameSources.size()) {
+                        worker.schedule(this, nextFrameInterval(mPosition), TimeUnit.NANOSECONDS);
+                        return;
+                    }
+                    observableEmitter.onNext(new CaptureSessionData(CaptureSessionEvents.ON_SEQUENCE_COMPLETED, null, null, null)
+                            .setSequence(sequenceId, frameNumber));
+                    observableEmitter.onComplete();
+                }
+            });
+        });
+    }
+
+    @NonNull
+    @Override
+    public Flowable<Frame> getFrames(@NonNull FrameTarget target) {
+        SimulatedFrameSource frameSource = mFrameSources.get(target);
+        if (frameSource == null) {
+            return Flowable.error(new IllegalArgumentException("Target is not an output of this session"));
+        }
+        return frameSource.frames();
+    }
+
+    /**
+     * @return frames of {@code target} dropped because the consumer held all buffers
+     */
+    long getDroppedFrames(@NonNull FrameTarget target) {
+        SimulatedFrameSource frameSource = mFrameSources.get(target);
+        return frameSource == null ? 0 : frameSource.getDroppedFrames();
+    }
+
+    @Override
+    public synchronized void stopRepeating() {
+        if (mRepeatingWorker != null) {
+            mRepeatingWorker.dispose();
+            mRepeatingWorker = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+        }
+        stopRepeating();
+        for (SimulatedFrameSource frameSource : mFrameSources.values()) {
+            frameSource.close();
+        }
+        mScheduler.scheduleDirect(() -> {
+            mDevice.getResourceTracker().onReleased(ResourceTracker.Resource.SESSION);
+            mSessionEmitter.onNext(new Pair<>(CaptureSessionStateEvent.ON_CLOSED, this));
+            mSessionEmitter.onComplete();
+        });
+    }
+
+    /**
+     * Produces a frame per interval for the requests in turn, tagging events with the burst index if {@code burst} is set.
+     */
+    @NonNull
+    private Flowable<CaptureSessionData> repeat(@NonNull List<CaptureRequestSpec> requests, boolean burst,
+                                                @NonNull FrameBackpressure backpressure) {
+        return Flowable.create(flowableEmitter -> {
+            List<List<SimulatedFrameSource>> frameSources = new ArrayList<>();
+            for (CaptureRequestSpec request : requests) {
+                frameSources.add(getFrameSources(request));
+            }
+            CaptureSessionDataPool pool = new CaptureSessionDataPool(CAPTURE_SESSION_DATA_POOL_SIZE);
+            BackpressureEmitter<CaptureSessionData> emitter = new BackpressureEmitter<>(flowableEmitter, backpressure, CaptureSessionData::release);
+            Scheduler.Worker worker = mScheduler.createWorker();
+            flowableEmitter.setCancellable(() -> {
+                worker.dispose();
+                emitter.clear();
+            });
+            synchronized (this) {
+                if (mClosed) {
+                    worker.dispose();
+                    flowableEmitter.onError(new IllegalStateException("Session is closed"));
+                    return;
+                }
+                if (mRepeatingWorker != null) {
+                    mRepeatingWorker.dispose();
+                }
+                mRepeatingWorker = worker;
+            }
+            worker.schedule(new Runnable() {
+                private final FramePosition mPosition = new FramePosition();
+                private int mIndex;
+
+                @Override
+                public void run() {
+                    if (emitter.isCancelled()) {
+                        return;
+                    }
+                    if (!next(mPosition)) {
+                        emitter.onComplete();
+                        return;
+                    }
+                    long frameNumber = mPosition.frameNumber;
+                    long timestamp = mPosition.timestamp;
+                    int burstIndex = burst ? mIndex : (int) CaptureSessionData.NO_VALUE;
+                    CaptureRequestSpec request = requests.get(mIndex);
+                    emitFrame(request, pool.obtain()
+                            .set(CaptureSessionEvents.ON_STARTED, null, null, null)
+                            .setFrame(timestamp, frameNumber)
+                            .setBurstIndex(burstIndex));
+                    for (SimulatedFrameSource frameSource : frameSources.get(mIndex)) {
+                        frameSource.produce(frameNumber, timestamp, mPosition.replayIndex);
+                    }
+                    emitFrame(request, pool.obtain()
+                            .set(CaptureSessionEvents.ON_COMPLETED, null, null, null)
+                            .setFrame(timestamp, frameNumber)
+                            .setBurstIndex(burstIndex));
+                    mIndex = (mIndex + 1) % frameSources.size();
+                    worker.schedule(this, nextFrameInterval(mPosition), TimeUnit.NANOSECONDS);
+                }
+
+                private void emitFrame(@NonNull CaptureRequestSpec request, @NonNull CaptureSessionData data) {
+                    // like the camera callback, the listener sees the event before backpressure
+                    request.notifyListener(data);
+                    emitter.onNext(data);
+                }
+            });
+        }, BackpressureStrategy.MISSING);
+    }
+
+    @NonNull
+    private List<SimulatedFrameSource> getFrameSources(@NonNull CaptureRequestSpec request) {
+        List<SimulatedFrameSource> frameSources = new ArrayList<>();
+        for (OutputTarget target : request.targets) {
+            if (target instanceof FrameTarget) {
+                SimulatedFrameSource frameSource = mFrameSources.get(target);
+                if (frameSource == null) {
+                    throw new IllegalArgumentException("Target is not an output of this session");
+                }
+                frameSources.add(frameSource);
+            }
+        }
+        return frameSources;
+    }
+
+    /**
+     * Moves {@code position} to the next frame of the stream: scheduler time and a running frame number for synthetic
+     * frames, the recorded timestamp and frame number for a replay.
+     *
+     * @return false once every recorded frame was replayed
+     */
+    private boolean next(@NonNull FramePosition position) {
+        FrameRecording recording = mConfig.recording;
+        if (recording == null) {
+            position.frameNumber = mFrameNumber.getAndIncrement();
+            position.timestamp = mScheduler.now(TimeUnit.NANOSECONDS);
+            return true;
+        }
+        int index;
+        synchronized (this) {
+            if (mReplayIndex == recording.size()) {
+                return false;
+            }
+            index = mReplayIndex++;
+        }
+        long recordedFrameNumber = recording.getFrameNumber(index);
+        long frameNumber = mFrameNumber.getAndIncrement();
+        // recorded numbers keep the gaps of frames the device dropped
+        position.frameNumber = recordedFrameNumber == FrameMetadata.NO_VALUE ? frameNumber : recordedFrameNumber;
+        position.timestamp = recording.getTimestamp(index);
+        position.replayIndex = index;
+        return true;
+    }
+
+    private long nextFrameInterval(@NonNull FramePosition position) {
+        FrameRecording recording = mConfig.recording;
+        if (recording != null) {
+            int index = position.replayIndex;
+            return index + 1 < recording.size()
+                    ? (long) ((recording.getTimestamp(index + 1) - recording.getTimestamp(index)) / mConfig.speed)
+                    : 0;
+        }
+        long interval = mConfig.getFrameIntervalNanos();
+        if (mConfig.jitterNanos > 0) {
+            interval += (long) ((mRandom.nextDouble() * 2 - 1) * mConfig.jitterNanos);
+        }
+        return Math.max(0, interval);
+    }
+
+    private static class FramePosition {
+        long frameNumber;
+        long timestamp;
+        int replayIndex = SimulatedFrameSource.NO_REPLAY;
+    }
+}
@@ -0,0 +1,279 @@
+package volodymyr.com.camera.camera.control;
+
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.MeteringRectangle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.Observable;
+import io.reactivex.subjects.BehaviorSubject;
+import volodymyr.com.camera.camera.CameraHelper;
+import volodymyr.com.camera.camera.backend.CaptureRequestSpec;
+import volodymyr.com.camera.camera.backend.CaptureSessionHandle;
+import volodymyr.com.camera.camera.event.CaptureSessionEvents;
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+import volodymyr.com.camera.camera.metrics.CameraMetrics;
+import volodymyr.com.camera.camera.pojo.CaptureSessionData;
+
+/**
+ * Runs AF and AE for still capture and tap-to-focus on top of the repeating request of one camera.
+ * <p>
+ * {@link #setup(CaptureRequest.Builder)} sets the 3A modes and the current metering regions, so every request of the
+ * camera has to be built with it and the repeating request re-issued when {@link #getRegions()} changes. Results of the
+ * repeating request are fed through {@link #onCaptureSessionData(CaptureSessionData)}, their 3A states are only read
+ * while a sequence runs. Triggers are single captures with the settings of the repeating request they are given.
+ */
+public class AutoController {
+
+    private static final String TAG = AutoController.class.getSimpleName();
+    private static final long PRECAPTURE_TIMEOUT_MS = 1000;
+    private static final long FOCUS_TIMEOUT_MS = 2000;
+    private static final MeteringRectangle[] NO_REGIONS = new MeteringRectangle[0];
+
+    private final CameraHelper.CameraParams mCameraParams;
+    private final CameraMetrics mCameraMetrics;
+    private final boolean mFocusable;
+    @Nullable
+    private final MeteringRegions mMeteringRegions;
+    private final BehaviorSubject<MeteringRectangle[]> mRegions = BehaviorSubject.createDefault(NO_REGIONS);
+    // id of the last finished sequence, replayed so a sequence finishing before its waiter subscribed isn't missed
+    private final BehaviorSubject<Integer> mFinished = BehaviorSubject.createDefault(0);
+    private final PrecaptureSequence mSequence = new PrecaptureSequence();
+    private volatile boolean mRunning;
+    private int mSequenceId;
+    private CaptureSessionHandle mSession;
+    private CaptureRequestSpec mRepeatingRequest;
+
+    public AutoController(@NonNull CameraHelper cameraHelper) {
+        mCameraParams = cameraHelper.getCameraParams();
+        mCameraMetrics = cameraHelper.getCameraMetrics();
+        // a fixed-focus lens has a minimum focus distance of 0
+        mFocusable = mCameraParams.minFocusDistance > 0
+                && (contains(mCameraParams.afModes, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE)
+                || contains(mCameraParams.afModes, CaptureRequest.CONTROL_AF_MODE_AUTO));
+        boolean regionsSupported = !mCameraParams.activeArraySize.isEmpty()
+                && (mCameraParams.maxAfRegions > 0 || mCameraParams.maxAeRegions > 0);
+        mMeteringRegions = regionsSupported
+                ? new MeteringRegions(mCameraParams.activeArraySize, mCameraParams.previewSize, mCameraParams.sensorOrientation,
+                mCameraParams.lensFacing == CameraCharacteristics.LENS_FACING_FRONT)
+                : null;
+    }
+
+    /**
+     * Sets 3A modes the camera supports and the metering regions of the last tap.
+     */
+    public void setup(@NonNull CaptureRequest.Builder builder) {
+        builder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO);
+        MeteringRectangle[] regions = mRegions.getValue();
+        if (mFocusable) {
+            // continuous AF ignores a new trigger while locked, a tap has to scan the region in AUTO mode
+            boolean tapped = regions.length > 0 && mCameraParams.maxAfRegions > 0;
+            if (!tapped && contains(mCameraParams.afModes, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE)) {
+                builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            } else if (contains(mCameraParams.afModes, CaptureRequest.CONTROL_AF_MODE_AUTO)) {
+                builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_AUTO);
+            }
+            if (tapped) {
+                builder.set(CaptureRequest.CONTROL_AF_REGIONS, regions);
+            }
+        }
+        // ON is always available, auto flash only where there is a flash
+        if (contains(mCameraParams.aeModes, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH)) {
+            builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+        } else {
+            builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+        }
+        if (regions.length > 0 && mCameraParams.maxAeRegions > 0) {
+            builder.set(CaptureRequest.CONTROL_AE_REGIONS, regions);
+        }
+        if (contains(mCameraParams.awbModes, CaptureRequest.CONTROL_AWB_MODE_AUTO)) {
+            builder.set(CaptureRequest.CONTROL_AWB_MODE, CaptureRequest.CONTROL_AWB_MODE_AUTO);
+        }
+    }
+
+    /**
+     * Current metering regions, empty for the camera's defaults. Emits the current value on subscription.
+     */
+    @NonNull
+    public Observable<MeteringRectangle[]> getRegions() {
+        return mRegions;
+    }
+
+    /**
+     * Has to be called with every event of the repeating request before it is released.
+     */
+    public void onCaptureSessionData(@NonNull CaptureSessionData data) {
+        if (!mRunning || data.getEvent() != CaptureSessionEvents.ON_COMPLETED) {
+            return;
+        }
+        FrameMetadata metadata = data.getMetadata();
+        int afState = metadata == null ? FrameMetadata.NO_VALUE : metadata.getAfState();
+        int aeState = metadata == null ? FrameMetadata.NO_VALUE : metadata.getAeState();
+        PrecaptureSequence.Action action;
+        int sequenceId;
+        CaptureSessionHandle session;
+        CaptureRequestSpec repeatingRequest;
+        synchronized (mSequence) {
+            action = mSequence.onResult(data.getFrameNumber(), afState, aeState);
+            mRunning = mSequence.isRunning();
+            sequenceId = mSequenceId;
+            session = mSession;
+            repeatingRequest = mRepeatingRequest;
+        }
+        switch (action) {
+            case TRIGGER_AF:
+                trigger(session, repeatingRequest,
+                        builder -> builder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_START));
+                break;
+            case TRIGGER_AE_PRECAPTURE:
+                trigger(session, repeatingRequest,
+                        builder -> builder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START));
+                break;
+            case READY:
+                mFinished.onNext(sequenceId);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Completes once focus and exposure are ready for a still capture, right away if both have converged. Stops waiting
+     * after {@value #PRECAPTURE_TIMEOUT_MS}ms and completes anyway, a late picture is worse than a slightly soft one.
+     * Call {@link #finishCapture(CaptureSessionHandle, CaptureRequestSpec)} once the picture is taken.
+     */
+    @NonNull
+    public Completable prepareCapture(@NonNull CaptureSessionHandle session, @NonNull CaptureRequestSpec repeatingRequest) {
+        return run(session, repeatingRequest, false, PRECAPTURE_TIMEOUT_MS)
+                .doOnSubscribe(__ -> mCameraMetrics.onCaptureReadyRequested())
+                .doOnComplete(mCameraMetrics::onCaptureReady);
+    }
+
+    /**
+     * @return whether focus and exposure of a frame with {@code metadata} are ready for a still as they are, so
+     * {@link #prepareCapture(CaptureSessionHandle, CaptureRequestSpec)} would complete without a trigger
+     */
+    public boolean isConverged(@NonNull FrameMetadata metadata) {
+        return PrecaptureSequence.isConverged(mFocusable, metadata.getAfState(), metadata.getAeState());
+    }
+
+    /**
+     * Lets continuous AF follow the scene again after a capture. Focus locked by a tap stays locked.
+     */
+    public void finishCapture(@NonNull CaptureSessionHandle session, @NonNull CaptureRequestSpec repeatingRequest) {
+        boolean unlock;
+        synchronized (mSequence) {
+            unlock = mSequence.isAfTriggered() && mRegions.getValue().length == 0;
+        }
+        if (unlock) {
+            trigger(session, repeatingRequest,
+                    builder -> builder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_CANCEL));
+        }
+    }
+
+    /**
+     * Meters and focuses on a point of the preview view, completes once focus is locked on it or after
+     * {@value #FOCUS_TIMEOUT_MS}ms. The region stays in effect until {@link #resetRegions()}.
+     *
+     * @param displayRotation rotation of the display from its natural orientation in degrees
+     */
+    @NonNull
+    public Completable focusAt(@NonNull CaptureSessionHandle session, @NonNull CaptureRequestSpec repeatingRequest,
+                               float viewX, float viewY, int viewWidth, int viewHeight, int displayRotation) {
+        MeteringRegions meteringRegions = mMeteringRegions;
+        if (meteringRegions == null) {
+            return Completable.complete();
+        }
+        return Completable.defer(() -> {
+            mRegions.onNext(new MeteringRectangle[]{meteringRegions.toSensor(viewX, viewY, viewWidth, viewHeight, displayRotation)});
+            if (!mFocusable || mCameraParams.maxAfRegions == 0) {
+                return Completable.complete();
+            }
+            return run(session, repeatingRequest, true, FOCUS_TIMEOUT_MS)
+                    .doOnSubscribe(__ -> mCameraMetrics.onFocusRequested())
+                    .doOnComplete(mCameraMetrics::onFocused);
+        });
+    }
+
+    /**
+     * Returns metering and focus to the camera's defaults.
+     */
+    public void resetRegions() {
+        if (mRegions.getValue().length > 0) {
+            mRegions.onNext(NO_REGIONS);
+        }
+    }
+
+    @NonNull
+    private Completable run(@NonNull CaptureSessionHandle session, @NonNull CaptureRequestSpec repeatingRequest,
+                            boolean focusOnly, long timeoutMs) {
+        return Completable.defer(() -> {
+            int sequenceId;
+            synchronized (mSequence) {
+                // a new sequence replaces a running one, whose waiter times out
+                sequenceId = ++mSequenceId;
+                mSession = session;
+                mRepeatingRequest = repeatingRequest;
+                if (focusOnly) {
+                    mSequence.startFocus();
+                } else {
+                    mSequence.startPrecapture(mFocusable);
+                }
+                mRunning = true;
+            }
+            return mFinished
+                    .filter(finishedId -> finishedId == sequenceId)
+                    .firstElement()
+                    .ignoreElement()
+                    .timeout(timeoutMs, TimeUnit.MILLISECONDS, Completable.fromAction(() -> {
+                        Log.w(TAG, "3A didn't converge in " + timeoutMs + "ms");
+                        stop(sequenceId);
+                    }))
+                    .doOnDispose(() -> stop(sequenceId));
+        });
+    }
+
+    private void stop(int sequenceId) {
+        synchronized (mSequence) {
+            if (mSequenceId == sequenceId) {
+                mSequence.reset();
+                mRunning = false;
+            }
+        }
+    }
+
+    private void trigger(@Nullable CaptureSessionHandle session, @Nullable CaptureRequestSpec repeatingRequest,
+                         @NonNull CaptureRequestSpec.Configurator trigger) {
+        if (session == null || repeatingRequest == null) {
+            return;
+        }
+        CaptureRequestSpec.Configurator configurator = repeatingRequest.configurator;
+        CaptureRequestSpec request = new CaptureRequestSpec(repeatingRequest.template, repeatingRequest.targets, builder -> {
+            if (configurator != null) {
+                configurator.configure(builder);
+            }
+            trigger.configure(builder);
+        });
+        session.capture(request)
+                .subscribe(data -> {
+                    mCameraMetrics.onOtherCapture(data.getFrameNumber());
+                    synchronized (mSequence) {
+                        mSequence.onTriggered(data.getFrameNumber());
+                    }
+                }, throwable -> Log.w(TAG, "3A trigger failed", throwable));
+    }
+
+    private static boolean contains(@NonNull int[] modes, int mode) {
+        for (int value : modes) {
+            if (value == mode) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
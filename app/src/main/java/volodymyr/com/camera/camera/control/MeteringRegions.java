@@ -0,0 +1,99 @@
+package volodymyr.com.camera.camera.control;
+
+import android.graphics.Rect;
+import android.hardware.camera2.params.MeteringRectangle;
+import android.support.annotation.NonNull;
+import android.util.Size;
+
+/**
+ * Maps a point of the preview view to a metering region in sensor active array coordinates.
+ * <p>
+ * The view is expected to show the whole preview stream, as {@link volodymyr.com.camera.AutoFitTextureView} does, which
+ * the camera crops from the center of the active array to the preview aspect ratio. The preview of a front camera is
+ * mirrored.
+ */
+public class MeteringRegions {
+
+    /**
+     * Side of the square region as a fraction of the shorter side of the preview crop
+     */
+    private static final float REGION_FRACTION = 0.15f;
+
+    private final Rect mCrop;
+    private final int mSensorOrientation;
+    private final boolean mMirrored;
+
+    /**
+     * @param previewSize preview stream size in sensor orientation
+     */
+    public MeteringRegions(@NonNull Rect activeArraySize, @NonNull Size previewSize, int sensorOrientation, boolean mirrored) {
+        mCrop = getCrop(activeArraySize, previewSize);
+        mSensorOrientation = sensorOrientation;
+        mMirrored = mirrored;
+    }
+
+    /**
+     * @param displayRotation rotation of the display from its natural orientation in degrees
+     */
+    @NonNull
+    public MeteringRectangle toSensor(float viewX, float viewY, int viewWidth, int viewHeight, int displayRotation) {
+        float x = clamp(viewX / viewWidth, 0, 1);
+        float y = clamp(viewY / viewHeight, 0, 1);
+        int rotation;
+        if (mMirrored) {
+            x = 1 - x;
+            rotation = (mSensorOrientation + displayRotation) % 360;
+        } else {
+            rotation = (mSensorOrientation - displayRotation + 360) % 360;
+        }
+        // the view shows the sensor image rotated clockwise by rotation, turn the point back
+        float sensorX;
+        float sensorY;
+        switch (rotation) {
+            case 90:
+                sensorX = y;
+                sensorY = 1 - x;
+                break;
+            case 180:
+                sensorX = 1 - x;
+                sensorY = 1 - y;
+                break;
+            case 270:
+                sensorX = 1 - y;
+                sensorY = x;
+                break;
+            default:
+                sensorX = x;
+                sensorY = y;
+                break;
+        }
+        int size = Math.max(1, (int) (Math.min(mCrop.width(), mCrop.height()) * REGION_FRACTION));
+        int left = mCrop.left + Math.round(sensorX * mCrop.width()) - size / 2;
+        int top = mCrop.top + Math.round(sensorY * mCrop.height()) - size / 2;
+        left = (int) clamp(left, mCrop.left, mCrop.right - size);
+        top = (int) clamp(top, mCrop.top, mCrop.bottom - size);
+        return new MeteringRectangle(left, top, size, size, MeteringRectangle.METERING_WEIGHT_MAX);
+    }
+
+    /**
+     * Part of the active array the preview stream is taken from, in active array coordinates.
+     */
+    @NonNull
+    static Rect getCrop(@NonNull Rect activeArraySize, @NonNull Size previewSize) {
+        int width = activeArraySize.width();
+        int height = activeArraySize.height();
+        // compare aspect ratios without dividing
+        if ((long) width * previewSize.getHeight() > (long) height * previewSize.getWidth()) {
+            int cropWidth = (int) ((long) height * previewSize.getWidth() / previewSize.getHeight());
+            int left = (width - cropWidth) / 2;
+            return new Rect(left, 0, left + cropWidth, height);
+        }
+        int cropHeight = (int) ((long) width * previewSize.getHeight() / previewSize.getWidth());
+        int top = (height - cropHeight) / 2;
+        return new Rect(0, top, width, top + cropHeight);
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
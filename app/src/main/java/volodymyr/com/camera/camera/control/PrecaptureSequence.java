@@ -0,0 +1,166 @@
+package volodymyr.com.camera.camera.control;
+
+import android.hardware.camera2.CaptureResult;
+import android.support.annotation.NonNull;
+
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+
+/**
+ * Decides from the AF and AE states of capture results which trigger a still capture still needs. Converged states are
+ * taken as they are, so a camera that is already focused and exposed gets no trigger at all.
+ * <p>
+ * After a trigger was requested, results are only looked at once the frame number of the trigger request is known and
+ * only for later frames, older results still show the state from before the trigger. Missing states, as with a LEGACY
+ * camera, count as converged. Not thread-safe.
+ */
+class PrecaptureSequence {
+
+    enum Action {
+        NONE,
+        TRIGGER_AF,
+        TRIGGER_AE_PRECAPTURE,
+        READY
+    }
+
+    private enum Step {
+        IDLE,
+        START,
+        AF_LOCKING,
+        AE_STARTING,
+        AE_RUNNING
+    }
+
+    private static final long TRIGGER_PENDING = Long.MAX_VALUE;
+
+    private Step mStep = Step.IDLE;
+    private boolean mFocus;
+    private boolean mForceFocus;
+    private boolean mPrecapture;
+    private boolean mAfTriggered;
+    private long mTriggerFrameNumber = FrameMetadata.NO_VALUE;
+
+    /**
+     * Locks focus unless it already is, then runs the AE precapture sequence unless exposure has converged.
+     *
+     * @param focus false for a fixed-focus lens or AF off
+     */
+    void startPrecapture(boolean focus) {
+        start(focus, false, true);
+    }
+
+    /**
+     * Scans and locks focus even if it was locked already, e.g. on new regions. Exposure isn't touched.
+     */
+    void startFocus() {
+        start(true, true, false);
+    }
+
+    boolean isRunning() {
+        return mStep != Step.IDLE;
+    }
+
+    /**
+     * @return whether the last sequence locked focus with a trigger, which keeps it locked until cancelled
+     */
+    boolean isAfTriggered() {
+        return mAfTriggered;
+    }
+
+    /**
+     * @param frameNumber frame number of the trigger request, results of earlier frames are ignored
+     */
+    void onTriggered(long frameNumber) {
+        if (mTriggerFrameNumber == TRIGGER_PENDING) {
+            mTriggerFrameNumber = frameNumber;
+        }
+    }
+
+    /**
+     * @param afState one of {@link CaptureResult#CONTROL_AF_STATE} values, {@link FrameMetadata#NO_VALUE} if missing
+     * @param aeState one of {@link CaptureResult#CONTROL_AE_STATE} values, {@link FrameMetadata#NO_VALUE} if missing
+     */
+    @NonNull
+    Action onResult(long frameNumber, int afState, int aeState) {
+        if (mStep == Step.IDLE || frameNumber <= mTriggerFrameNumber && mTriggerFrameNumber != FrameMetadata.NO_VALUE) {
+            return Action.NONE;
+        }
+        switch (mStep) {
+            case START:
+                if (mFocus && (mForceFocus || !isFocusConverged(afState))) {
+                    mStep = Step.AF_LOCKING;
+                    mAfTriggered = true;
+                    mTriggerFrameNumber = TRIGGER_PENDING;
+                    return Action.TRIGGER_AF;
+                }
+                return checkExposure(aeState);
+            case AF_LOCKING:
+                return afState == FrameMetadata.NO_VALUE || isFocusLocked(afState) ? checkExposure(aeState) : Action.NONE;
+            case AE_STARTING:
+                // only results after the trigger frame get here, converged means the sequence finished within that frame
+                if (aeState == CaptureResult.CONTROL_AE_STATE_CONVERGED || aeState == CaptureResult.CONTROL_AE_STATE_LOCKED) {
+                    return finish();
+                }
+                if (aeState == FrameMetadata.NO_VALUE || aeState == CaptureResult.CONTROL_AE_STATE_PRECAPTURE
+                        || aeState == CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED) {
+                    mStep = Step.AE_RUNNING;
+                }
+                return Action.NONE;
+            case AE_RUNNING:
+                return aeState == CaptureResult.CONTROL_AE_STATE_PRECAPTURE ? Action.NONE : finish();
+            default:
+                return Action.NONE;
+        }
+    }
+
+    void reset() {
+        mStep = Step.IDLE;
+        mTriggerFrameNumber = FrameMetadata.NO_VALUE;
+    }
+
+    private void start(boolean focus, boolean forceFocus, boolean precapture) {
+        mStep = Step.START;
+        mFocus = focus;
+        mForceFocus = forceFocus;
+        mPrecapture = precapture;
+        mAfTriggered = false;
+        mTriggerFrameNumber = FrameMetadata.NO_VALUE;
+    }
+
+    @NonNull
+    private Action checkExposure(int aeState) {
+        if (!mPrecapture || isExposureConverged(aeState)) {
+            return finish();
+        }
+        mStep = Step.AE_STARTING;
+        mTriggerFrameNumber = TRIGGER_PENDING;
+        return Action.TRIGGER_AE_PRECAPTURE;
+    }
+
+    @NonNull
+    private Action finish() {
+        mStep = Step.IDLE;
+        mTriggerFrameNumber = FrameMetadata.NO_VALUE;
+        return Action.READY;
+    }
+
+    /**
+     * @return whether a frame with these states needs no sequence for a still, as {@link #startPrecapture(boolean)} would
+     * find it
+     */
+    static boolean isConverged(boolean focus, int afState, int aeState) {
+        return (!focus || isFocusConverged(afState)) && isExposureConverged(aeState);
+    }
+
+    private static boolean isExposureConverged(int aeState) {
+        return aeState == FrameMetadata.NO_VALUE || aeState == CaptureResult.CONTROL_AE_STATE_CONVERGED
+                || aeState == CaptureResult.CONTROL_AE_STATE_LOCKED;
+    }
+
+    private static boolean isFocusConverged(int afState) {
+        return afState == FrameMetadata.NO_VALUE || isFocusLocked(afState) || afState == CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED;
+    }
+
+    private static boolean isFocusLocked(int afState) {
+        return afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED || afState == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED;
+    }
+}
@@ -4,6 +4,10 @@ public enum CaptureSessionEvents {
     ON_STARTED,
     ON_PROGRESSED,
     ON_COMPLETED,
+    /**
+     * Request of a repeating stream produced no result, the stream goes on with the next frame
+     */
+    ON_FAILED,
     ON_SEQUENCE_COMPLETED,
     ON_SEQUENCE_ABORTED
 }
\ No newline at end of file
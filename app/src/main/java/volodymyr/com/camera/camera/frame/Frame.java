@@ -0,0 +1,92 @@
+package volodymyr.com.camera.camera.frame;
+
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Image data of a single camera frame. Planes wrap the producer's buffers directly, nothing is copied,
+ * so the buffers must not be touched after {@link #close()}.
+ * <p>
+ * Every frame has to be closed exactly once by whoever holds it last, otherwise the producer runs out of buffers.
+ */
+public class Frame implements AutoCloseable {
+
+    public static class Plane {
+        @NonNull
+        public final ByteBuffer buffer;
+        public final int rowStride;
+        public final int pixelStride;
+
+        public Plane(@NonNull ByteBuffer buffer, int rowStride, int pixelStride) {
+            this.buffer = buffer;
+            this.rowStride = rowStride;
+            this.pixelStride = pixelStride;
+        }
+    }
+
+    private final int mFormat;
+    private final int mWidth;
+    private final int mHeight;
+    private final long mTimestamp;
+    @NonNull
+    private final Plane[] mPlanes;
+    @NonNull
+    private final Runnable mOnClose;
+    private final AtomicBoolean mClosed = new AtomicBoolean();
+
+    public Frame(int format, int width, int height, long timestamp, @NonNull Plane[] planes, @NonNull Runnable onClose) {
+        mFormat = format;
+        mWidth = width;
+        mHeight = height;
+        mTimestamp = timestamp;
+        mPlanes = planes;
+        mOnClose = onClose;
+    }
+
+    /**
+     * @return one of {@link android.graphics.ImageFormat} constants
+     */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return sensor timestamp of the frame in nanoseconds, same as {@link android.hardware.camera2.CaptureResult#SENSOR_TIMESTAMP}
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public int getPlaneCount() {
+        return mPlanes.length;
+    }
+
+    @NonNull
+    public Plane getPlane(int index) {
+        return mPlanes[index];
+    }
+
+    public boolean isClosed() {
+        return mClosed.get();
+    }
+
+    /**
+     * Returns the underlying buffers to the producer. Safe to call more than once.
+     */
+    @Override
+    public void close() {
+        if (mClosed.compareAndSet(false, true)) {
+            mOnClose.run();
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package volodymyr.com.camera.camera.frame;
+
+import android.graphics.ImageFormat;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts {@link ImageFormat#YUV_420_888} frames to NV21, ARGB and downscaled luma.
+ * <p>
+ * Planes are read a row at a time with bulk {@link ByteBuffer#get(byte[], int, int)}, so any row and pixel stride works
+ * without per-pixel buffer calls. Outputs passed back in are reused when they are big enough, steady conversion
+ * allocates no pixel buffers. Rows are split into stripes converted in parallel on the pool, without a pool the calling
+ * thread converts the whole frame. Safe to use from several threads as long as they don't share outputs.
+ */
+public class YuvConverter {
+
+    private static final int MIN_ROWS_PER_TASK = 32;
+    private static final int TASKS_PER_THREAD = 4;
+    // BT.601 full range, as camera2 YUV frames are encoded, in 16.16 fixed point
+    private static final int R_FROM_V = 91881;
+    private static final int G_FROM_U = 22554;
+    private static final int G_FROM_V = 46802;
+    private static final int B_FROM_U = 116130;
+    private static final int HALF = 1 << 15;
+
+    private interface RowKernel {
+        void convert(int fromRow, int toRow);
+    }
+
+    @Nullable
+    private final ForkJoinPool mPool;
+    private final ThreadLocal<Rows> mRows = new ThreadLocal<Rows>() {
+        @Override
+        protected Rows initialValue() {
+            return new Rows();
+        }
+    };
+
+    /**
+     * @param pool runs the row stripes, null converts on the calling thread
+     */
+    public YuvConverter(@Nullable ForkJoinPool pool) {
+        mPool = pool;
+    }
+
+    public static int getNv21Size(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    /**
+     * @param out reused if it holds at least {@link #getNv21Size(int, int)} bytes
+     * @return full resolution luma followed by interleaved V and U at half resolution
+     */
+    @NonNull
+    public byte[] toNv21(@NonNull Frame frame, @Nullable byte[] out) {
+        checkFormat(frame);
+        int size = getNv21Size(frame.getWidth(), frame.getHeight());
+        byte[] nv21 = out != null && out.length >= size ? out : new byte[size];
+        // stripes start on even rows, so every chroma row belongs to exactly one of them
+        run(frame.getHeight(), 2, (fromRow, toRow) -> convertNv21(frame, nv21, fromRow, toRow));
+        return nv21;
+    }
+
+    /**
+     * @param out reused if it holds at least width * height pixels
+     * @return opaque {@link android.graphics.Bitmap.Config#ARGB_8888} pixels, row after row
+     */
+    @NonNull
+    public int[] toArgb(@NonNull Frame frame, @Nullable int[] out) {
+        checkFormat(frame);
+        int size = frame.getWidth() * frame.getHeight();
+        int[] argb = out != null && out.length >= size ? out : new int[size];
+        run(frame.getHeight(), 1, (fromRow, toRow) -> convertArgb(frame, argb, fromRow, toRow));
+        return argb;
+    }
+
+    /**
+     * Luma averaged over {@code factor} x {@code factor} blocks, {@code width / factor} by {@code height / factor}
+     * pixels. Partial blocks at the right and bottom edges are left out.
+     *
+     * @param out reused if it is big enough
+     */
+    @NonNull
+    public byte[] toLuma(@NonNull Frame frame, int factor, @Nullable byte[] out) {
+        checkFormat(frame);
+        if (factor <= 0) {
+            throw new IllegalArgumentException("factor must be positive: " + factor);
+        }
+        int outHeight = frame.getHeight() / factor;
+        int size = frame.getWidth() / factor * outHeight;
+        byte[] luma = out != null && out.length >= size ? out : new byte[size];
+        run(outHeight, 1, (fromRow, toRow) -> convertLuma(frame, factor, luma, fromRow, toRow));
+        return luma;
+    }
+
+    /**
+     * Every {@code factor}-th pixel of an NV21 image, which is enough for a thumbnail. Width and height of the result,
+     * {@code width / factor} and {@code height / factor}, are rounded down to even so its chroma has no partial pixels.
+     */
+    @NonNull
+    public static byte[] scaleNv21(@NonNull byte[] nv21, int width, int height, int factor) {
+        if (factor <= 0) {
+            throw new IllegalArgumentException("factor must be positive: " + factor);
+        }
+        int outWidth = width / factor & ~1;
+        int outHeight = height / factor & ~1;
+        byte[] out = new byte[getNv21Size(outWidth, outHeight)];
+        for (int y = 0; y < outHeight; y++) {
+            int row = y * factor * width;
+            for (int x = 0; x < outWidth; x++) {
+                out[y * outWidth + x] = nv21[row + x * factor];
+            }
+        }
+        // chroma of the sampled luma at 2x, 2y is the one at x * factor, y * factor
+        int chromaStride = 2 * ((width + 1) / 2);
+        for (int y = 0; y < outHeight / 2; y++) {
+            int row = width * height + y * factor * chromaStride;
+            int outRow = outWidth * outHeight + y * outWidth;
+            for (int x = 0; x < outWidth / 2; x++) {
+                out[outRow + 2 * x] = nv21[row + 2 * x * factor];
+                out[outRow + 2 * x + 1] = nv21[row + 2 * x * factor + 1];
+            }
+        }
+        return out;
+    }
+
+    private void run(int rowCount, int rowAlignment, @NonNull RowKernel kernel) {
+        if (mPool == null || rowCount <= MIN_ROWS_PER_TASK) {
+            kernel.convert(0, rowCount);
+            return;
+        }
+        int rowsPerTask = Math.max(MIN_ROWS_PER_TASK, rowCount / (mPool.getParallelism() * TASKS_PER_THREAD));
+        mPool.invoke(new RowTask(kernel, 0, rowCount, rowsPerTask, rowAlignment));
+    }
+
+    private void convertNv21(@NonNull Frame frame, @NonNull byte[] out, int fromRow, int toRow) {
+        int width = frame.getWidth();
+        Rows rows = mRows.get();
+        Frame.Plane yPlane = frame.getPlane(0);
+        ByteBuffer yBuffer = yPlane.buffer.duplicate();
+        for (int row = fromRow; row < toRow; row++) {
+            if (yPlane.pixelStride == 1) {
+                readRow(yBuffer, yPlane, row, width, out, row * width);
+                continue;
+            }
+            byte[] y = rows.y(yPlane, width);
+            readRow(yBuffer, yPlane, row, width, y, 0);
+            for (int x = 0, offset = row * width; x < width; x++) {
+                out[offset + x] = y[x * yPlane.pixelStride];
+            }
+        }
+
+        int chromaWidth = (width + 1) / 2;
+        Frame.Plane uPlane = frame.getPlane(1);
+        Frame.Plane vPlane = frame.getPlane(2);
+        ByteBuffer uBuffer = uPlane.buffer.duplicate();
+        ByteBuffer vBuffer = vPlane.buffer.duplicate();
+        byte[] u = rows.u(uPlane, chromaWidth);
+        byte[] v = rows.v(vPlane, chromaWidth);
+        int uStride = uPlane.pixelStride;
+        int vStride = vPlane.pixelStride;
+        for (int row = fromRow / 2; row < (toRow + 1) / 2; row++) {
+            readRow(uBuffer, uPlane, row, chromaWidth, u, 0);
+            readRow(vBuffer, vPlane, row, chromaWidth, v, 0);
+            int offset = width * frame.getHeight() + row * chromaWidth * 2;
+            for (int x = 0; x < chromaWidth; x++) {
+                out[offset++] = v[x * vStride];
+                out[offset++] = u[x * uStride];
+            }
+        }
+    }
+
+    private void convertArgb(@NonNull Frame frame, @NonNull int[] out, int fromRow, int toRow) {
+        int width = frame.getWidth();
+        int chromaWidth = (width + 1) / 2;
+        Rows rows = mRows.get();
+        Frame.Plane yPlane = frame.getPlane(0);
+        Frame.Plane uPlane = frame.getPlane(1);
+        Frame.Plane vPlane = frame.getPlane(2);
+        ByteBuffer yBuffer = yPlane.buffer.duplicate();
+        ByteBuffer uBuffer = uPlane.buffer.duplicate();
+        ByteBuffer vBuffer = vPlane.buffer.duplicate();
+        byte[] y = rows.y(yPlane, width);
+        byte[] u = rows.u(uPlane, chromaWidth);
+        byte[] v = rows.v(vPlane, chromaWidth);
+        int yStride = yPlane.pixelStride;
+        int uStride = uPlane.pixelStride;
+        int vStride = vPlane.pixelStride;
+        for (int row = fromRow; row < toRow; row++) {
+            readRow(yBuffer, yPlane, row, width, y, 0);
+            // a chroma row serves two luma rows
+            if (row == fromRow || (row & 1) == 0) {
+                readRow(uBuffer, uPlane, row / 2, chromaWidth, u, 0);
+                readRow(vBuffer, vPlane, row / 2, chromaWidth, v, 0);
+            }
+            int offset = row * width;
+            for (int x = 0; x < width; x++) {
+                int luma = y[x * yStride] & 0xff;
+                int cb = (u[(x >> 1) * uStride] & 0xff) - 128;
+                int cr = (v[(x >> 1) * vStride] & 0xff) - 128;
+                int r = clamp(luma + ((R_FROM_V * cr + HALF) >> 16));
+                int g = clamp(luma - ((G_FROM_U * cb + G_FROM_V * cr + HALF) >> 16));
+                int b = clamp(luma + ((B_FROM_U * cb + HALF) >> 16));
+                out[offset + x] = 0xff000000 | r << 16 | g << 8 | b;
+            }
+        }
+    }
+
+    private void convertLuma(@NonNull Frame frame, int factor, @NonNull byte[] out, int fromRow, int toRow) {
+        int outWidth = frame.getWidth() / factor;
+        int width = outWidth * factor;
+        int area = factor * factor;
+        Rows rows = mRows.get();
+        Frame.Plane yPlane = frame.getPlane(0);
+        ByteBuffer yBuffer = yPlane.buffer.duplicate();
+        byte[] y = rows.y(yPlane, width);
+        int[] sums = rows.sums(outWidth);
+        int yStride = yPlane.pixelStride;
+        for (int row = fromRow; row < toRow; row++) {
+            for (int x = 0; x < outWidth; x++) {
+                sums[x] = 0;
+            }
+            for (int k = 0; k < factor; k++) {
+                readRow(yBuffer, yPlane, row * factor + k, width, y, 0);
+                for (int x = 0, position = 0; x < outWidth; x++) {
+                    int sum = 0;
+                    for (int i = 0; i < factor; i++, position += yStride) {
+                        sum += y[position] & 0xff;
+                    }
+                    sums[x] += sum;
+                }
+            }
+            int offset = row * outWidth;
+            for (int x = 0; x < outWidth; x++) {
+                out[offset + x] = (byte) ((sums[x] + area / 2) / area);
+            }
+        }
+    }
+
+    /**
+     * Reads the first {@code width} pixels of {@code row}, pixel i lands at {@code dst[offset + i * pixelStride]}.
+     * Stops at the last pixel, since the last row of a plane usually lacks the trailing padding.
+     */
+    private static void readRow(@NonNull ByteBuffer buffer, @NonNull Frame.Plane plane, int row, int width,
+                                @NonNull byte[] dst, int offset) {
+        buffer.position(row * plane.rowStride);
+        buffer.get(dst, offset, (width - 1) * plane.pixelStride + 1);
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    private static void checkFormat(@NonNull Frame frame) {
+        if (frame.getFormat() != ImageFormat.YUV_420_888 || frame.getPlaneCount() != 3) {
+            throw new IllegalArgumentException("Not a YUV_420_888 frame: format " + frame.getFormat()
+                    + ", " + frame.getPlaneCount() + " planes");
+        }
+    }
+
+    /**
+     * Row buffers of a thread, grown to the largest frame converted on it.
+     */
+    private static class Rows {
+        private byte[] mY = new byte[0];
+        private byte[] mU = new byte[0];
+        private byte[] mV = new byte[0];
+        private int[] mSums = new int[0];
+
+        byte[] y(@NonNull Frame.Plane plane, int width) {
+            int length = (width - 1) * plane.pixelStride + 1;
+            if (mY.length < length) {
+                mY = new byte[length];
+            }
+            return mY;
+        }
+
+        byte[] u(@NonNull Frame.Plane plane, int width) {
+            int length = (width - 1) * plane.pixelStride + 1;
+            if (mU.length < length) {
+                mU = new byte[length];
+            }
+            return mU;
+        }
+
+        byte[] v(@NonNull Frame.Plane plane, int width) {
+            int length = (width - 1) * plane.pixelStride + 1;
+            if (mV.length < length) {
+                mV = new byte[length];
+            }
+            return mV;
+        }
+
+        int[] sums(int width) {
+            if (mSums.length < width) {
+                mSums = new int[width];
+            }
+            return mSums;
+        }
+    }
+
+    private static class RowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final RowKernel mKernel;
+        private final int mFromRow;
+        private final int mToRow;
+        private final int mRowsPerTask;
+        private final int mRowAlignment;
+
+        RowTask(@NonNull RowKernel kernel, int fromRow, int toRow, int rowsPerTask, int rowAlignment) {
+            mKernel = kernel;
+            mFromRow = fromRow;
+            mToRow = toRow;
+            mRowsPerTask = rowsPerTask;
+            mRowAlignment = rowAlignment;
+        }
+
+        @Override
+        protected void compute() {
+            int rowCount = mToRow - mFromRow;
+            if (rowCount <= mRowsPerTask) {
+                mKernel.convert(mFromRow, mToRow);
+                return;
+            }
+            int middle = mFromRow + rowCount / 2 / mRowAlignment * mRowAlignment;
+            invokeAll(new RowTask(mKernel, mFromRow, middle, mRowsPerTask, mRowAlignment),
+                    new RowTask(mKernel, middle, mToRow, mRowsPerTask, mRowAlignment));
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package volodymyr.com.camera.camera.gallery;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Maybe;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+import volodymyr.com.camera.camera.metrics.LatencyHistogram;
+
+/**
+ * Thumbnails of captured stills and videos for browsing them, in a memory LRU limited by bitmap bytes in front of a
+ * {@link ThumbnailDiskCache}.
+ * <p>
+ * A memory hit is returned on the calling thread. Everything else, disk reads included, runs on a pool of
+ * {@value #DECODE_THREADS} background threads, and a load disposed before its turn, e.g. for a row scrolled out of
+ * view, never reads anything. Misses are decoded with {@link ThumbnailDecoder} and written to the disk cache, so the
+ * full image is decoded once per file. Files are expected not to change once captured, a changed file is only noticed
+ * after it left the memory cache.
+ */
+public class ThumbnailCache {
+
+    private static final String TAG = ThumbnailCache.class.getSimpleName();
+    private static final int DECODE_THREADS = 2;
+    private static final int DISK_QUALITY = 85;
+
+    private final int mTargetSize;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final ThumbnailDiskCache mDiskCache;
+    private final ExecutorService mDecodeExecutor;
+    private final Scheduler mDecodeScheduler;
+    private final LatencyHistogram mDecodeTime = new LatencyHistogram("thumbnail_decode");
+    private final AtomicLong mMemoryHits = new AtomicLong();
+    private final AtomicLong mDiskHits = new AtomicLong();
+
+    /**
+     * @param targetSize     shorter side of the thumbnails in pixels
+     * @param maxMemoryBytes bitmap bytes kept in memory, e.g. an eighth of {@link Runtime#maxMemory()}
+     */
+    public ThumbnailCache(@NonNull File directory, int targetSize, int maxMemoryBytes, long maxDiskBytes) {
+        mTargetSize = targetSize;
+        mMemoryCache = new LruCache<String, Bitmap>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        mDiskCache = new ThumbnailDiskCache(directory, maxDiskBytes);
+        mDecodeExecutor = Executors.newFixedThreadPool(DECODE_THREADS, new DecodeThreadFactory());
+        mDecodeScheduler = Schedulers.from(mDecodeExecutor);
+    }
+
+    /**
+     * @return thumbnail of {@code file} if it is in memory, never touches the disk
+     */
+    @Nullable
+    public Bitmap getCached(@NonNull File file) {
+        return mMemoryCache.get(memoryKey(file));
+    }
+
+    /**
+     * Emits the thumbnail of {@code file}, right away if it is in memory, otherwise from the decode pool.
+     * Completes empty if the file is gone or can't be decoded.
+     */
+    @NonNull
+    public Maybe<Bitmap> load(@NonNull File file) {
+        return Maybe.defer(() -> {
+            String key = memoryKey(file);
+            Bitmap bitmap = mMemoryCache.get(key);
+            if (bitmap != null) {
+                mMemoryHits.incrementAndGet();
+                return Maybe.just(bitmap);
+            }
+            return Maybe.fromCallable(() -> loadInBackground(file, key))
+                    .subscribeOn(mDecodeScheduler);
+        });
+    }
+
+    /**
+     * Gives memory back, see {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mMemoryCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            mMemoryCache.trimToSize(mMemoryCache.maxSize() / 2);
+        }
+    }
+
+    public long getMemoryHits() {
+        return mMemoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return mDiskHits.get();
+    }
+
+    /**
+     * @return nanoseconds spent decoding thumbnails from captured files, one record per decode
+     */
+    @NonNull
+    public LatencyHistogram getDecodeTime() {
+        return mDecodeTime;
+    }
+
+    @NonNull
+    public ThumbnailDiskCache getDiskCache() {
+        return mDiskCache;
+    }
+
+    /**
+     * Stops the decode pool, loads not started yet never complete. The instance can't be used afterwards.
+     */
+    public void close() {
+        mDecodeExecutor.shutdownNow();
+        mMemoryCache.evictAll();
+    }
+
+    @Nullable
+    private Bitmap loadInBackground(@NonNull File file, @NonNull String key) throws IOException {
+        // another load of the same file may have finished while this one was queued
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            mMemoryHits.incrementAndGet();
+            return bitmap;
+        }
+        if (!file.isFile()) {
+            return null;
+        }
+        String diskKey = key + "@" + file.lastModified();
+        File cachedFile = mDiskCache.get(diskKey);
+        if (cachedFile != null) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            bitmap = BitmapFactory.decodeFile(cachedFile.getPath(), options);
+            if (bitmap != null) {
+                mDiskHits.incrementAndGet();
+            }
+        }
+        if (bitmap == null) {
+            long start = System.nanoTime();
+            bitmap = ThumbnailDecoder.decode(file, mTargetSize);
+            mDecodeTime.record(System.nanoTime() - start);
+            if (bitmap == null) {
+                return null;
+            }
+            store(diskKey, bitmap);
+        }
+        mMemoryCache.put(key, bitmap);
+        return bitmap;
+    }
+
+    private void store(@NonNull String diskKey, @NonNull Bitmap bitmap) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, DISK_QUALITY, output);
+        try {
+            mDiskCache.put(diskKey, output.toByteArray());
+        } catch (IOException e) {
+            // still shown from memory, only decoded again next time
+            Log.w(TAG, "Thumbnail not stored", e);
+        }
+    }
+
+    @NonNull
+    private String memoryKey(@NonNull File file) {
+        return file.getPath() + "#" + mTargetSize;
+    }
+
+    private static class DecodeThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "ThumbnailDecode-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
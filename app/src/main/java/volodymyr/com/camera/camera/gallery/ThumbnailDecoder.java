@@ -0,0 +1,175 @@
+package volodymyr.com.camera.camera.gallery;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.media.ThumbnailUtils;
+import android.provider.MediaStore;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Decodes thumbnails of captured media without ever holding the full-resolution image.
+ * <p>
+ * A JPEG is decoded from its embedded Exif thumbnail when that one nearly covers the requested size, otherwise from the
+ * file with the largest power-of-two {@code inSampleSize} that still covers it, so a 12 MP still at a 256 px thumbnail
+ * decodes an eighth of its width and height. Only the JPEG header is read to find the sample size. Thumbnails are
+ * 16 bits per pixel, with the Exif orientation applied. Videos are decoded from a frame near their start.
+ */
+public final class ThumbnailDecoder {
+
+    // camera Exif thumbnails are at most 320x240, a 240 px one is close enough to a 256 px target
+    private static final int MIN_EMBEDDED_PERCENT = 75;
+
+    private ThumbnailDecoder() {
+    }
+
+    /**
+     * @param targetSize shorter side the thumbnail should have at least, it is at most twice that, an embedded Exif
+     *                   thumbnail may fall short of it by a quarter
+     * @return null if the file can't be decoded
+     */
+    @Nullable
+    public static Bitmap decode(@NonNull File file, int targetSize) throws IOException {
+        if (isVideo(file)) {
+            return decodeVideo(file, targetSize);
+        }
+        ExifInterface exif = new ExifInterface(file.getPath());
+        int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        Bitmap bitmap = null;
+        if (exif.hasThumbnail()) {
+            byte[] thumbnail = exif.getThumbnail();
+            int[] size = thumbnail == null ? null : readJpegSize(thumbnail);
+            if (size != null && isEmbeddedLargeEnough(size[0], size[1], targetSize)) {
+                bitmap = BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length,
+                        decodeOptions(size[0], size[1], targetSize));
+            }
+        }
+        if (bitmap == null) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(file.getPath(), options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            bitmap = BitmapFactory.decodeFile(file.getPath(), decodeOptions(options.outWidth, options.outHeight, targetSize));
+        }
+        return bitmap == null ? null : rotate(bitmap, orientation);
+    }
+
+    /**
+     * @return largest power of two the {@code width} x {@code height} image can be divided by with its shorter side
+     * still at least {@code targetSize}
+     */
+    public static int computeSampleSize(int width, int height, int targetSize) {
+        int shorterSide = Math.min(width, height);
+        int sampleSize = 1;
+        while (shorterSide / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Upscaling an embedded thumbnail a little looks better than decoding the full image takes, it is used down to
+     * {@link #MIN_EMBEDDED_PERCENT} of the target size.
+     */
+    static boolean isEmbeddedLargeEnough(int width, int height, int targetSize) {
+        return Math.min(width, height) * 100 >= targetSize * MIN_EMBEDDED_PERCENT;
+    }
+
+    /**
+     * Reads the frame header, so unlike a bounds-only decode it needs no Bitmap machinery.
+     *
+     * @return width and height, null if there is no frame header before the scan data
+     */
+    @Nullable
+    static int[] readJpegSize(@NonNull byte[] jpeg) {
+        if (jpeg.length < 2 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != 0xD8) {
+            return null;
+        }
+        int offset = 2;
+        while (offset + 4 <= jpeg.length) {
+            if ((jpeg[offset] & 0xFF) != 0xFF) {
+                return null;
+            }
+            int marker = jpeg[offset + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // fill byte
+                offset++;
+                continue;
+            }
+            if (marker == 0xDA || marker == 0xD9) {
+                return null;
+            }
+            int length = (jpeg[offset + 2] & 0xFF) << 8 | (jpeg[offset + 3] & 0xFF);
+            boolean frameHeader = marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+            if (frameHeader && offset + 9 <= jpeg.length) {
+                int height = (jpeg[offset + 5] & 0xFF) << 8 | (jpeg[offset + 6] & 0xFF);
+                int width = (jpeg[offset + 7] & 0xFF) << 8 | (jpeg[offset + 8] & 0xFF);
+                return new int[]{width, height};
+            }
+            offset += 2 + length;
+        }
+        return null;
+    }
+
+    static boolean isVideo(@NonNull File file) {
+        String name = file.getName().toLowerCase(Locale.US);
+        return name.endsWith(".mp4") || name.endsWith(".3gp") || name.endsWith(".webm");
+    }
+
+    @Nullable
+    private static Bitmap decodeVideo(@NonNull File file, int targetSize) {
+        Bitmap frame = ThumbnailUtils.createVideoThumbnail(file.getPath(), MediaStore.Images.Thumbnails.MINI_KIND);
+        if (frame == null) {
+            return null;
+        }
+        int shorterSide = Math.min(frame.getWidth(), frame.getHeight());
+        if (shorterSide <= targetSize) {
+            return frame;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(frame, frame.getWidth() * targetSize / shorterSide,
+                frame.getHeight() * targetSize / shorterSide, true);
+        frame.recycle();
+        return scaled;
+    }
+
+    @NonNull
+    private static BitmapFactory.Options decodeOptions(int width, int height, int targetSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = computeSampleSize(width, height, targetSize);
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return options;
+    }
+
+    @NonNull
+    private static Bitmap rotate(@NonNull Bitmap bitmap, int orientation) {
+        int degrees;
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                degrees = 90;
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                degrees = 180;
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                degrees = 270;
+                break;
+            default:
+                return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+}
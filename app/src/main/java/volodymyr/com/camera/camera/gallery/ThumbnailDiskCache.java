@@ -0,0 +1,145 @@
+package volodymyr.com.camera.camera.gallery;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encoded thumbnails in a directory, limited to {@code maxBytes} by evicting the least recently used.
+ * <p>
+ * Files are named by a hash of their key and written under a temporary name first, so a crash never leaves a truncated
+ * thumbnail behind. Use order is kept in memory and in the file modification times, which order the files when the
+ * cache is opened again. Thread-safe.
+ */
+public class ThumbnailDiskCache {
+
+    private static final String SUFFIX = ".jpg";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    /**
+     * File sizes by name, least recently used first
+     */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+
+    public ThumbnailDiskCache(@NonNull File directory, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, (first, second) -> Long.compare(first.lastModified(), second.lastModified()));
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                mEntries.put(file.getName(), file.length());
+                mSize += file.length();
+            } else {
+                // left over from a crash while writing
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        trim();
+    }
+
+    /**
+     * @return thumbnail file of {@code key}, null if it isn't cached
+     */
+    @Nullable
+    public synchronized File get(@NonNull String key) {
+        String name = fileName(key);
+        if (mEntries.get(name) == null) {
+            return null;
+        }
+        File file = new File(mDirectory, name);
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Stores {@code data} as the thumbnail of {@code key}, replacing the previous one.
+     */
+    public void put(@NonNull String key, @NonNull byte[] data) throws IOException {
+        String name = fileName(key);
+        // written outside the lock, only the rename and the index update are serialized
+        File temp = File.createTempFile(name, TEMP_SUFFIX, mDirectory);
+        try (FileOutputStream output = new FileOutputStream(temp)) {
+            output.write(data);
+        }
+        synchronized (this) {
+            if (!temp.renameTo(new File(mDirectory, name))) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+                throw new IOException("Can't store thumbnail " + name);
+            }
+            Long previousSize = mEntries.put(name, (long) data.length);
+            mSize += data.length - (previousSize == null ? 0 : previousSize);
+            trim();
+        }
+    }
+
+    /**
+     * @return bytes of all cached thumbnails
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public synchronized int getCount() {
+        return mEntries.size();
+    }
+
+    public synchronized void clear() {
+        for (String name : mEntries.keySet()) {
+            //noinspection ResultOfMethodCallIgnored
+            new File(mDirectory, name).delete();
+        }
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    private synchronized void trim() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            //noinspection ResultOfMethodCallIgnored
+            new File(mDirectory, eldest.getKey()).delete();
+            mSize -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    @NonNull
+    static String fileName(@NonNull String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2 + SUFFIX.length());
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
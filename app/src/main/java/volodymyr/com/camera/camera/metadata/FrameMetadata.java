@@ -0,0 +1,169 @@
+package volodymyr.com.camera.camera.metadata;
+
+import android.hardware.camera2.CaptureResult;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Capture result values of a single frame, read once from the result with {@link #readFrom(CaptureResult)} or from a
+ * {@link FrameMetadataRing}. Every key costs a metadata lookup, so consumers of a frame share one instance instead of
+ * querying the result again. Values the result didn't report are {@link #NO_VALUE}. Mutable, so one instance can be
+ * reused for any number of frames.
+ */
+public class FrameMetadata {
+    public static final int NO_VALUE = -1;
+
+    long frameNumber = NO_VALUE;
+    long timestamp = NO_VALUE;
+    long exposureTime = NO_VALUE;
+    long frameDuration = NO_VALUE;
+    int sensitivity = NO_VALUE;
+    int afState = NO_VALUE;
+    int aeState = NO_VALUE;
+    int awbState = NO_VALUE;
+    float focusDistance = NO_VALUE;
+    float aperture = NO_VALUE;
+    float focalLength = NO_VALUE;
+    int jpegOrientation = NO_VALUE;
+
+    /**
+     * Reads every field from {@code result}, the result isn't referenced afterwards.
+     */
+    public FrameMetadata readFrom(@NonNull CaptureResult result) {
+        frameNumber = result.getFrameNumber();
+        timestamp = longValue(result.get(CaptureResult.SENSOR_TIMESTAMP));
+        exposureTime = longValue(result.get(CaptureResult.SENSOR_EXPOSURE_TIME));
+        frameDuration = longValue(result.get(CaptureResult.SENSOR_FRAME_DURATION));
+        sensitivity = intValue(result.get(CaptureResult.SENSOR_SENSITIVITY));
+        afState = intValue(result.get(CaptureResult.CONTROL_AF_STATE));
+        aeState = intValue(result.get(CaptureResult.CONTROL_AE_STATE));
+        awbState = intValue(result.get(CaptureResult.CONTROL_AWB_STATE));
+        focusDistance = floatValue(result.get(CaptureResult.LENS_FOCUS_DISTANCE));
+        aperture = floatValue(result.get(CaptureResult.LENS_APERTURE));
+        focalLength = floatValue(result.get(CaptureResult.LENS_FOCAL_LENGTH));
+        jpegOrientation = intValue(result.get(CaptureResult.JPEG_ORIENTATION));
+        return this;
+    }
+
+    public FrameMetadata setFrame(long frameNumber, long timestamp) {
+        this.frameNumber = frameNumber;
+        this.timestamp = timestamp;
+        return this;
+    }
+
+    public FrameMetadata setExposure(long exposureTime, long frameDuration, int sensitivity) {
+        this.exposureTime = exposureTime;
+        this.frameDuration = frameDuration;
+        this.sensitivity = sensitivity;
+        return this;
+    }
+
+    public FrameMetadata set3aStates(int afState, int aeState, int awbState) {
+        this.afState = afState;
+        this.aeState = aeState;
+        this.awbState = awbState;
+        return this;
+    }
+
+    public FrameMetadata setLens(float focusDistance, float aperture, float focalLength) {
+        this.focusDistance = focusDistance;
+        this.aperture = aperture;
+        this.focalLength = focalLength;
+        return this;
+    }
+
+    public FrameMetadata setJpegOrientation(int jpegOrientation) {
+        this.jpegOrientation = jpegOrientation;
+        return this;
+    }
+
+    public long getFrameNumber() {
+        return frameNumber;
+    }
+
+    /**
+     * @return {@link android.hardware.camera2.CaptureResult#SENSOR_TIMESTAMP}
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return {@link android.hardware.camera2.CaptureResult#SENSOR_EXPOSURE_TIME} in nanoseconds
+     */
+    public long getExposureTime() {
+        return exposureTime;
+    }
+
+    /**
+     * @return {@link android.hardware.camera2.CaptureResult#SENSOR_FRAME_DURATION} in nanoseconds
+     */
+    public long getFrameDuration() {
+        return frameDuration;
+    }
+
+    /**
+     * @return {@link android.hardware.camera2.CaptureResult#SENSOR_SENSITIVITY}, the ISO
+     */
+    public int getSensitivity() {
+        return sensitivity;
+    }
+
+    /**
+     * @return one of {@link android.hardware.camera2.CaptureResult#CONTROL_AF_STATE} values
+     */
+    public int getAfState() {
+        return afState;
+    }
+
+    /**
+     * @return one of {@link android.hardware.camera2.CaptureResult#CONTROL_AE_STATE} values
+     */
+    public int getAeState() {
+        return aeState;
+    }
+
+    /**
+     * @return one of {@link android.hardware.camera2.CaptureResult#CONTROL_AWB_STATE} values
+     */
+    public int getAwbState() {
+        return awbState;
+    }
+
+    /**
+     * @return {@link android.hardware.camera2.CaptureResult#LENS_FOCUS_DISTANCE} in diopters
+     */
+    public float getFocusDistance() {
+        return focusDistance;
+    }
+
+    public float getAperture() {
+        return aperture;
+    }
+
+    /**
+     * @return focal length in millimeters
+     */
+    public float getFocalLength() {
+        return focalLength;
+    }
+
+    /**
+     * @return {@link android.hardware.camera2.CaptureResult#JPEG_ORIENTATION} in degrees
+     */
+    public int getJpegOrientation() {
+        return jpegOrientation;
+    }
+
+    private static long longValue(@Nullable Long value) {
+        return value == null ? NO_VALUE : value;
+    }
+
+    private static int intValue(@Nullable Integer value) {
+        return value == null ? NO_VALUE : value;
+    }
+
+    private static float floatValue(@Nullable Float value) {
+        return value == null ? NO_VALUE : value;
+    }
+}
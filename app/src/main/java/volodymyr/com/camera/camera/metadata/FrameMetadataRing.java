@@ -0,0 +1,137 @@
+package volodymyr.com.camera.camera.metadata;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Metadata of the last {@code capacity} frames, kept as one primitive array per field instead of the capture results
+ * themselves. An entry takes about 50 bytes. Lookups by frame number or sensor timestamp copy an entry into a caller's
+ * {@link FrameMetadata}.
+ * <p>
+ * Thread-safe. Lookups scan from the newest entry back, they usually hit within the last few.
+ */
+public class FrameMetadataRing {
+
+    private final long[] mFrameNumbers;
+    private final long[] mTimestamps;
+    private final long[] mExposureTimes;
+    private final long[] mFrameDurations;
+    private final int[] mSensitivities;
+    private final byte[] mAfStates;
+    private final byte[] mAeStates;
+    private final byte[] mAwbStates;
+    private final float[] mFocusDistances;
+    private final float[] mApertures;
+    private final float[] mFocalLengths;
+    private final short[] mJpegOrientations;
+    private int mHead;
+    private int mSize;
+
+    public FrameMetadataRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mFrameNumbers = new long[capacity];
+        mTimestamps = new long[capacity];
+        mExposureTimes = new long[capacity];
+        mFrameDurations = new long[capacity];
+        mSensitivities = new int[capacity];
+        mAfStates = new byte[capacity];
+        mAeStates = new byte[capacity];
+        mAwbStates = new byte[capacity];
+        mFocusDistances = new float[capacity];
+        mApertures = new float[capacity];
+        mFocalLengths = new float[capacity];
+        mJpegOrientations = new short[capacity];
+    }
+
+    public int getCapacity() {
+        return mFrameNumbers.length;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Copies {@code metadata}, pushing out the oldest entry when full.
+     */
+    public synchronized void add(@NonNull FrameMetadata metadata) {
+        int slot = claimSlot();
+        mFrameNumbers[slot] = metadata.frameNumber;
+        mTimestamps[slot] = metadata.timestamp;
+        mExposureTimes[slot] = metadata.exposureTime;
+        mFrameDurations[slot] = metadata.frameDuration;
+        mSensitivities[slot] = metadata.sensitivity;
+        mAfStates[slot] = (byte) metadata.afState;
+        mAeStates[slot] = (byte) metadata.aeState;
+        mAwbStates[slot] = (byte) metadata.awbState;
+        mFocusDistances[slot] = metadata.focusDistance;
+        mApertures[slot] = metadata.aperture;
+        mFocalLengths[slot] = metadata.focalLength;
+        mJpegOrientations[slot] = (short) metadata.jpegOrientation;
+    }
+
+    /**
+     * @return false if there is no entry for {@code frameNumber}, {@code out} is left untouched then
+     */
+    public synchronized boolean findByFrameNumber(long frameNumber, @NonNull FrameMetadata out) {
+        return copy(indexOf(mFrameNumbers, frameNumber), out);
+    }
+
+    /**
+     * @return false if there is no entry for {@code timestamp}, {@code out} is left untouched then
+     */
+    public synchronized boolean findByTimestamp(long timestamp, @NonNull FrameMetadata out) {
+        return copy(indexOf(mTimestamps, timestamp), out);
+    }
+
+    public synchronized boolean containsTimestamp(long timestamp) {
+        return indexOf(mTimestamps, timestamp) >= 0;
+    }
+
+    public synchronized void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    private int claimSlot() {
+        int capacity = mFrameNumbers.length;
+        if (mSize == capacity) {
+            mHead = (mHead + 1) % capacity;
+            mSize--;
+        }
+        int slot = (mHead + mSize) % capacity;
+        mSize++;
+        return slot;
+    }
+
+    private int indexOf(@NonNull long[] values, long value) {
+        int capacity = values.length;
+        for (int i = mSize - 1; i >= 0; i--) {
+            int slot = (mHead + i) % capacity;
+            if (values[slot] == value) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean copy(int slot, @NonNull FrameMetadata out) {
+        if (slot < 0) {
+            return false;
+        }
+        out.frameNumber = mFrameNumbers[slot];
+        out.timestamp = mTimestamps[slot];
+        out.exposureTime = mExposureTimes[slot];
+        out.frameDuration = mFrameDurations[slot];
+        out.sensitivity = mSensitivities[slot];
+        out.afState = mAfStates[slot];
+        out.aeState = mAeStates[slot];
+        out.awbState = mAwbStates[slot];
+        out.focusDistance = mFocusDistances[slot];
+        out.aperture = mApertures[slot];
+        out.focalLength = mFocalLengths[slot];
+        out.jpegOrientation = mJpegOrientations[slot];
+        return true;
+    }
+}
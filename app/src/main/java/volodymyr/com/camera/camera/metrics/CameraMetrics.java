@@ -0,0 +1,251 @@
+package volodymyr.com.camera.camera.metrics;
+
+import android.hardware.camera2.CaptureResult;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Start-up and per-frame timings of the camera pipeline. All durations are recorded in nanoseconds.
+ * <ul>
+ * <li>open - {@code openCamera} call until {@code onOpened}</li>
+ * <li>configure - {@code createCaptureSession} call until {@code onConfigured}</li>
+ * <li>first frame - repeating request until its first {@code onCaptureCompleted}</li>
+ * <li>start - {@code openCamera} call until the first {@code onCaptureCompleted}</li>
+ * <li>frame interval - difference of consecutive {@link CaptureResult#SENSOR_TIMESTAMP}</li>
+ * <li>frame duration - {@link CaptureResult#SENSOR_FRAME_DURATION}</li>
+ * <li>switch - switch to this camera requested until its first {@code onCaptureCompleted}</li>
+ * <li>recreate - activity recreated with the device kept open until the first {@code onCaptureCompleted}</li>
+ * <li>resume - app back from background until the first {@code onCaptureCompleted}</li>
+ * <li>capture ready - shutter press until focus and exposure are ready for the still capture</li>
+ * <li>focus - tap to focus until focus is locked</li>
+ * </ul>
+ * Frame number gaps in the repeating stream are counted as dropped frames. Frame numbers are shared by every request
+ * of the session, so the ones of other captures, like 3A triggers and stills, and of frames the camera reported as
+ * failed, which are counted on their own, are left out. Per-frame methods are expected to be called from a single
+ * callback thread, in frame number order as the camera delivers results, snapshots can be taken from any thread.
+ */
+public class CameraMetrics {
+
+    private static final String TAG = CameraMetrics.class.getSimpleName();
+    private static final long NOT_SET = -1;
+    // other captures between two frames of the repeating request, a few triggers and stills at most
+    private static final int OTHER_FRAMES_CAPACITY = 16;
+
+    private final LatencyHistogram mOpen = new LatencyHistogram("open");
+    private final LatencyHistogram mConfigure = new LatencyHistogram("configure");
+    private final LatencyHistogram mFirstFrame = new LatencyHistogram("first_frame");
+    private final LatencyHistogram mStart = new LatencyHistogram("start");
+    private final LatencyHistogram mFrameInterval = new LatencyHistogram("frame_interval");
+    private final LatencyHistogram mFrameDuration = new LatencyHistogram("frame_duration");
+    private final LatencyHistogram mSwitch = new LatencyHistogram("switch");
+    private final LatencyHistogram mRecreate = new LatencyHistogram("recreate");
+    private final LatencyHistogram mResume = new LatencyHistogram("resume");
+    private final LatencyHistogram mCaptureReady = new LatencyHistogram("capture_ready");
+    private final LatencyHistogram mFocus = new LatencyHistogram("focus");
+    private final LatencyHistogram[] mHistograms = {mOpen, mConfigure, mFirstFrame, mStart, mFrameInterval, mFrameDuration, mSwitch,
+            mRecreate, mResume, mCaptureReady, mFocus};
+
+    private volatile long mOpenRequestedAt = NOT_SET;
+    private volatile long mConfigureRequestedAt = NOT_SET;
+    private volatile long mRepeatingRequestedAt = NOT_SET;
+    private volatile long mSwitchRequestedAt = NOT_SET;
+    private volatile long mRecreatedAt = NOT_SET;
+    private volatile long mResumedAt = NOT_SET;
+    private volatile long mCaptureReadyRequestedAt = NOT_SET;
+    private volatile long mFocusRequestedAt = NOT_SET;
+    private volatile long mDroppedFrames;
+    private volatile long mFailedFrames;
+    private long mLastFrameNumber = NOT_SET;
+    private final long[] mOtherFrameNumbers = new long[OTHER_FRAMES_CAPACITY];
+    private int mOtherFramesHead;
+    private long mLastTimestamp = NOT_SET;
+
+    public CameraMetrics() {
+        Arrays.fill(mOtherFrameNumbers, NOT_SET);
+    }
+
+    public void onOpenRequested() {
+        mOpenRequestedAt = SystemClock.elapsedRealtimeNanos();
+    }
+
+    public void onOpened() {
+        recordSince(mOpen, mOpenRequestedAt);
+    }
+
+    public void onConfigureRequested() {
+        mConfigureRequestedAt = SystemClock.elapsedRealtimeNanos();
+    }
+
+    public void onConfigured() {
+        recordSince(mConfigure, mConfigureRequestedAt);
+    }
+
+    public void onSwitchRequested() {
+        mSwitchRequestedAt = SystemClock.elapsedRealtimeNanos();
+    }
+
+    public void onRecreated() {
+        mRecreatedAt = SystemClock.elapsedRealtimeNanos();
+    }
+
+    public void onResumed() {
+        mResumedAt = SystemClock.elapsedRealtimeNanos();
+    }
+
+    public void onCaptureReadyRequested() {
+        mCaptureReadyRequestedAt = SystemClock.elapsedRealtimeNanos();
+    }
+
+    public void onCaptureReady() {
+        recordSince(mCaptureReady, mCaptureReadyRequestedAt);
+        mCaptureReadyRequestedAt = NOT_SET;
+    }
+
+    public void onFocusRequested() {
+        mFocusRequestedAt = SystemClock.elapsedRealtimeNanos();
+    }
+
+    public void onFocused() {
+        recordSince(mFocus, mFocusRequestedAt);
+        mFocusRequestedAt = NOT_SET;
+    }
+
+    public void onRepeatingRequested() {
+        mRepeatingRequestedAt = SystemClock.elapsedRealtimeNanos();
+        mLastFrameNumber = NOT_SET;
+        mLastTimestamp = NOT_SET;
+        Arrays.fill(mOtherFrameNumbers, NOT_SET);
+    }
+
+    /**
+     * Records a completed frame of the repeating request, {@code -1} for values the result didn't have.
+     */
+    public void onFrame(long frameNumber, long sensorTimestamp, long frameDuration) {
+        if (mLastFrameNumber == NOT_SET) {
+            recordSince(mFirstFrame, mRepeatingRequestedAt);
+            // the device may stay open for several sessions, start and the rest are recorded once per request
+            recordSince(mStart, mOpenRequestedAt);
+            recordSince(mSwitch, mSwitchRequestedAt);
+            recordSince(mRecreate, mRecreatedAt);
+            recordSince(mResume, mResumedAt);
+            mOpenRequestedAt = NOT_SET;
+            mSwitchRequestedAt = NOT_SET;
+            mRecreatedAt = NOT_SET;
+            mResumedAt = NOT_SET;
+        } else if (frameNumber > mLastFrameNumber + 1) {
+            mDroppedFrames += frameNumber - mLastFrameNumber - 1 - takeOtherFrames(mLastFrameNumber, frameNumber);
+        }
+        if (sensorTimestamp != NOT_SET && mLastTimestamp != NOT_SET) {
+            mFrameInterval.record(sensorTimestamp - mLastTimestamp);
+        }
+        if (frameDuration != NOT_SET) {
+            mFrameDuration.record(frameDuration);
+        }
+        mLastFrameNumber = frameNumber;
+        mLastTimestamp = sensorTimestamp;
+    }
+
+    /**
+     * Records a request of the repeating stream that produced no result.
+     */
+    public void onCaptureFailed(long frameNumber) {
+        mFailedFrames++;
+        addOtherFrame(frameNumber);
+    }
+
+    /**
+     * Records the frame number of a capture outside the repeating request, so its gap in the stream isn't taken for a
+     * dropped frame. Has to be called before the result of the next repeating frame is recorded.
+     */
+    public void onOtherCapture(long frameNumber) {
+        addOtherFrame(frameNumber);
+    }
+
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    public long getFailedFrames() {
+        return mFailedFrames;
+    }
+
+    @NonNull
+    public LatencyHistogram[] getHistograms() {
+        return mHistograms.clone();
+    }
+
+    /**
+     * @return snapshot of all metrics as JSON, durations in microseconds
+     */
+    @NonNull
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"dropped_frames\":").append(mDroppedFrames)
+                .append(",\"failed_frames\":").append(mFailedFrames);
+        for (LatencyHistogram histogram : mHistograms) {
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            json.append(",\"").append(snapshot.name).append("\":{")
+                    .append("\"count\":").append(snapshot.count)
+                    .append(",\"mean_us\":").append(toMicros(snapshot.getMean()))
+                    .append(",\"p50_us\":").append(toMicros(snapshot.getPercentile(50)))
+                    .append(",\"p90_us\":").append(toMicros(snapshot.getPercentile(90)))
+                    .append(",\"p99_us\":").append(toMicros(snapshot.getPercentile(99)))
+                    .append(",\"max_us\":").append(toMicros(snapshot.max))
+                    .append('}');
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Writes {@link #toJson()} to logcat every {@code period} until disposed.
+     */
+    @NonNull
+    public Disposable logPeriodically(long period, @NonNull TimeUnit unit) {
+        return Observable.interval(period, period, unit)
+                .subscribe(__ -> Log.i(TAG, toJson()));
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        mDroppedFrames = 0;
+        mFailedFrames = 0;
+    }
+
+    private void addOtherFrame(long frameNumber) {
+        mOtherFrameNumbers[mOtherFramesHead] = frameNumber;
+        mOtherFramesHead = (mOtherFramesHead + 1) % mOtherFrameNumbers.length;
+    }
+
+    /**
+     * @return other frames between the two frame numbers, they are forgotten
+     */
+    private int takeOtherFrames(long afterFrameNumber, long beforeFrameNumber) {
+        int count = 0;
+        for (int i = 0; i < mOtherFrameNumbers.length; i++) {
+            long frameNumber = mOtherFrameNumbers[i];
+            if (frameNumber > afterFrameNumber && frameNumber < beforeFrameNumber) {
+                mOtherFrameNumbers[i] = NOT_SET;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void recordSince(@NonNull LatencyHistogram histogram, long start) {
+        if (start != NOT_SET) {
+            histogram.record(SystemClock.elapsedRealtimeNanos() - start);
+        }
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,78 @@
+package volodymyr.com.camera.camera.metrics;
+
+import android.support.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts native camera resources that are alive. Every acquired resource has to be released exactly once, so after a
+ * full teardown all live counts are back at zero and a count that keeps growing across pause and resume is a leak.
+ * Thread-safe.
+ */
+public class ResourceTracker {
+
+    public enum Resource {
+        DEVICE,
+        SESSION,
+        SURFACE,
+        IMAGE_READER,
+        /**
+         * Image acquired from a reader and not closed yet, i.e. a {@link volodymyr.com.camera.camera.frame.Frame} in flight
+         */
+        IMAGE
+    }
+
+    private static final Resource[] RESOURCES = Resource.values();
+
+    private final AtomicIntegerArray mLive = new AtomicIntegerArray(RESOURCES.length);
+    private final AtomicLongArray mAcquired = new AtomicLongArray(RESOURCES.length);
+
+    public void onAcquired(@NonNull Resource resource) {
+        mLive.incrementAndGet(resource.ordinal());
+        mAcquired.incrementAndGet(resource.ordinal());
+    }
+
+    public void onReleased(@NonNull Resource resource) {
+        mLive.decrementAndGet(resource.ordinal());
+    }
+
+    /**
+     * @return resources acquired and not released yet, negative if some were released twice
+     */
+    public int getLiveCount(@NonNull Resource resource) {
+        return mLive.get(resource.ordinal());
+    }
+
+    /**
+     * @return resources acquired since the tracker was created
+     */
+    public long getAcquiredCount(@NonNull Resource resource) {
+        return mAcquired.get(resource.ordinal());
+    }
+
+    public boolean hasLiveResources() {
+        for (Resource resource : RESOURCES) {
+            if (getLiveCount(resource) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Live counts, e.g. {@code device=1 session=1 surface=1 image_reader=3 image=2}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Resource resource : RESOURCES) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(resource.name().toLowerCase(Locale.US)).append('=').append(getLiveCount(resource));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,65 @@
+package volodymyr.com.camera.camera.motion;
+
+/**
+ * Sensitivity and cost settings of a {@link MotionDetector}.
+ */
+public class MotionConfig {
+    /**
+     * Every 8th pixel in both directions, 240x135 samples of a 1080p frame.
+     */
+    private static final int DEFAULT_SAMPLE_STRIDE = 8;
+    private static final int DEFAULT_BLOCK_SIZE = 8;
+    private static final int DEFAULT_PIXEL_THRESHOLD = 24;
+    private static final float DEFAULT_MIN_CHANGED_FRACTION = 0.2f;
+    private static final int DEFAULT_STATIC_FRAMES_PER_STEP = 15;
+    private static final int DEFAULT_MAX_SKIP_INTERVAL = 8;
+
+    /**
+     * Distance in pixels between luma samples, horizontally and vertically.
+     */
+    public final int sampleStride;
+    /**
+     * Side of a comparison block in samples.
+     */
+    public final int blockSize;
+    /**
+     * Luma difference above which a sample counts as changed, sensor noise stays below it.
+     */
+    public final int pixelThreshold;
+    /**
+     * Part of the samples of a block that have to change for the block to move.
+     */
+    public final float minChangedFraction;
+    /**
+     * Static frames analysed in a row before the skip interval doubles.
+     */
+    public final int staticFramesPerStep;
+    /**
+     * Largest skip interval, 4 analyses every 4th frame of a static scene. 1 analyses every frame.
+     */
+    public final int maxSkipInterval;
+
+    public MotionConfig() {
+        this(DEFAULT_SAMPLE_STRIDE, DEFAULT_BLOCK_SIZE, DEFAULT_PIXEL_THRESHOLD, DEFAULT_MIN_CHANGED_FRACTION,
+                DEFAULT_STATIC_FRAMES_PER_STEP, DEFAULT_MAX_SKIP_INTERVAL);
+    }
+
+    public MotionConfig(int sampleStride, int blockSize, int pixelThreshold, float minChangedFraction, int staticFramesPerStep,
+                        int maxSkipInterval) {
+        if (sampleStride <= 0 || blockSize <= 0 || staticFramesPerStep <= 0 || maxSkipInterval <= 0) {
+            throw new IllegalArgumentException("Strides, sizes and intervals must be positive");
+        }
+        if (pixelThreshold < 0 || pixelThreshold > 255) {
+            throw new IllegalArgumentException("pixelThreshold must be within 0..255: " + pixelThreshold);
+        }
+        if (!(minChangedFraction > 0 && minChangedFraction <= 1)) {
+            throw new IllegalArgumentException("minChangedFraction must be within (0, 1]: " + minChangedFraction);
+        }
+        this.sampleStride = sampleStride;
+        this.blockSize = blockSize;
+        this.pixelThreshold = pixelThreshold;
+        this.minChangedFraction = minChangedFraction;
+        this.staticFramesPerStep = staticFramesPerStep;
+        this.maxSkipInterval = maxSkipInterval;
+    }
+}
@@ -0,0 +1,307 @@
+package volodymyr.com.camera.camera.motion;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Observable;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metrics.LatencyHistogram;
+
+/**
+ * Detects motion in the luma plane of analysis frames, cheap enough to run on the whole stream.
+ * <p>
+ * Luma is sampled every {@link MotionConfig#sampleStride} pixels in both directions into a small buffer, which is
+ * compared with the samples of the previously analysed frame block by block. A block moves when enough of its samples
+ * changed by more than the pixel threshold, connected moving blocks are the regions of a {@link MotionEvent}.
+ * While the scene stays static frames are skipped, the interval doubling up to {@link MotionConfig#maxSkipInterval},
+ * the first motion goes back to analysing every frame.
+ * <p>
+ * Buffers are allocated once per frame size, analysis allocates nothing unless it emits an event. Frames are not closed
+ * here. Not thread-safe, meant to be fed from the analysis thread, cost metrics can be read from any thread.
+ */
+public class MotionDetector {
+
+    private final MotionConfig mConfig;
+    private final Subject<MotionEvent> mMotionEvents = PublishSubject.<MotionEvent>create().toSerialized();
+    private final LatencyHistogram mAnalysisTime = new LatencyHistogram("motion_analysis");
+    private final AtomicLong mAnalysedFrames = new AtomicLong();
+    private final AtomicLong mSkippedFrames = new AtomicLong();
+
+    private int mWidth;
+    private int mHeight;
+    private int mSamplesX;
+    private int mSamplesY;
+    private int mBlocksX;
+    private int mBlocksY;
+    private byte[] mRow = new byte[0];
+    private byte[] mSamples = new byte[0];
+    private byte[] mReference = new byte[0];
+    private boolean mHasReference;
+    /**
+     * Changed samples of every block
+     */
+    private int[] mChanged = new int[0];
+    /**
+     * Changed samples a block needs to move, edge blocks have fewer samples
+     */
+    private int[] mMinChanged = new int[0];
+    private boolean[] mVisited = new boolean[0];
+    private int[] mStack = new int[0];
+
+    private int mSkipInterval = 1;
+    private int mSkipped;
+    private int mStaticFrames;
+    private volatile boolean mResetRequested;
+
+    public MotionDetector(@NonNull MotionConfig config) {
+        mConfig = config;
+    }
+
+    /**
+     * Emitted on the analysis thread, subscribers should hand off anything slow.
+     */
+    @NonNull
+    public Observable<MotionEvent> getMotionEvents() {
+        return mMotionEvents;
+    }
+
+    /**
+     * Compares {@code frame} with the previously analysed one, unless it is skipped because the scene is static.
+     *
+     * @return false if the frame was skipped
+     */
+    public boolean process(@NonNull Frame frame) {
+        if (mResetRequested) {
+            mResetRequested = false;
+            mHasReference = false;
+            mSkipInterval = 1;
+            mSkipped = 0;
+            mStaticFrames = 0;
+        }
+        if (mSkipped + 1 < mSkipInterval) {
+            mSkipped++;
+            mSkippedFrames.incrementAndGet();
+            return false;
+        }
+        mSkipped = 0;
+        long start = System.nanoTime();
+        MotionEvent event = analyse(frame);
+        mAnalysisTime.record(System.nanoTime() - start);
+        mAnalysedFrames.incrementAndGet();
+        if (event != null) {
+            mStaticFrames = 0;
+            mSkipInterval = 1;
+            mMotionEvents.onNext(event);
+        } else if (++mStaticFrames >= mConfig.staticFramesPerStep) {
+            mStaticFrames = 0;
+            mSkipInterval = Math.min(mConfig.maxSkipInterval, mSkipInterval * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the reference frame, e.g. when the camera switches, so the next frame doesn't read as motion.
+     * Can be called from any thread, takes effect with the next frame.
+     */
+    public void reset() {
+        mResetRequested = true;
+    }
+
+    /**
+     * @return frames analysed every {@code n}th, 1 while there is motion
+     */
+    public int getSkipInterval() {
+        return mSkipInterval;
+    }
+
+    /**
+     * @return nanoseconds spent analysing a frame, skipped frames and event subscribers excluded
+     */
+    @NonNull
+    public LatencyHistogram getAnalysisTime() {
+        return mAnalysisTime;
+    }
+
+    public long getAnalysedFrames() {
+        return mAnalysedFrames.get();
+    }
+
+    public long getSkippedFrames() {
+        return mSkippedFrames.get();
+    }
+
+    @Nullable
+    private MotionEvent analyse(@NonNull Frame frame) {
+        if (frame.getFormat() != ImageFormat.YUV_420_888) {
+            throw new IllegalArgumentException("Not a YUV_420_888 frame: format " + frame.getFormat());
+        }
+        if (frame.getWidth() != mWidth || frame.getHeight() != mHeight) {
+            resize(frame.getWidth(), frame.getHeight());
+        }
+        sample(frame.getPlane(0));
+        MotionEvent event = mHasReference ? compare(frame.getTimestamp()) : null;
+        byte[] reference = mReference;
+        mReference = mSamples;
+        mSamples = reference;
+        mHasReference = true;
+        return event;
+    }
+
+    private void resize(int width, int height) {
+        int stride = mConfig.sampleStride;
+        int blockSize = mConfig.blockSize;
+        mWidth = width;
+        mHeight = height;
+        mSamplesX = (width + stride - 1) / stride;
+        mSamplesY = (height + stride - 1) / stride;
+        mBlocksX = (mSamplesX + blockSize - 1) / blockSize;
+        mBlocksY = (mSamplesY + blockSize - 1) / blockSize;
+        mRow = new byte[width];
+        mSamples = new byte[mSamplesX * mSamplesY];
+        mReference = new byte[mSamplesX * mSamplesY];
+        mHasReference = false;
+        int blockCount = mBlocksX * mBlocksY;
+        mChanged = new int[blockCount];
+        mMinChanged = new int[blockCount];
+        mVisited = new boolean[blockCount];
+        mStack = new int[blockCount];
+        for (int by = 0; by < mBlocksY; by++) {
+            int rows = Math.min(blockSize, mSamplesY - by * blockSize);
+            for (int bx = 0; bx < mBlocksX; bx++) {
+                int columns = Math.min(blockSize, mSamplesX - bx * blockSize);
+                mMinChanged[by * mBlocksX + bx] = Math.max(1, (int) Math.ceil(mConfig.minChangedFraction * rows * columns));
+            }
+        }
+    }
+
+    private void sample(@NonNull Frame.Plane plane) {
+        ByteBuffer buffer = plane.buffer.duplicate();
+        int step = mConfig.sampleStride * plane.pixelStride;
+        int length = (mSamplesX - 1) * step + 1;
+        if (mRow.length < length) {
+            mRow = new byte[length];
+        }
+        byte[] row = mRow;
+        byte[] samples = mSamples;
+        for (int sy = 0, offset = 0; sy < mSamplesY; sy++) {
+            // one bulk read per sampled row, then every step-th byte of it
+            buffer.position(sy * mConfig.sampleStride * plane.rowStride);
+            buffer.get(row, 0, length);
+            for (int position = 0; position < length; position += step) {
+                samples[offset++] = row[position];
+            }
+        }
+    }
+
+    @Nullable
+    private MotionEvent compare(long timestamp) {
+        int blockSize = mConfig.blockSize;
+        int threshold = mConfig.pixelThreshold;
+        int blockCount = mBlocksX * mBlocksY;
+        int[] changed = mChanged;
+        byte[] samples = mSamples;
+        byte[] reference = mReference;
+        Arrays.fill(changed, 0, blockCount, 0);
+        int changedSamples = 0;
+        for (int sy = 0; sy < mSamplesY; sy++) {
+            int blockRow = sy / blockSize * mBlocksX;
+            int rowStart = sy * mSamplesX;
+            for (int bx = 0; bx < mBlocksX; bx++) {
+                int from = rowStart + bx * blockSize;
+                int to = Math.min(from + blockSize, rowStart + mSamplesX);
+                int count = 0;
+                for (int i = from; i < to; i++) {
+                    int difference = (samples[i] & 0xff) - (reference[i] & 0xff);
+                    if (difference > threshold || difference < -threshold) {
+                        count++;
+                    }
+                }
+                changed[blockRow + bx] += count;
+                changedSamples += count;
+            }
+        }
+        List<MotionEvent.Region> regions = null;
+        Arrays.fill(mVisited, 0, blockCount, false);
+        for (int block = 0; block < blockCount; block++) {
+            if (!mVisited[block] && changed[block] >= mMinChanged[block]) {
+                if (regions == null) {
+                    regions = new ArrayList<>();
+                }
+                regions.add(region(block));
+            }
+        }
+        if (regions == null) {
+            return null;
+        }
+        Collections.sort(regions, (first, second) -> Integer.compare(area(second.bounds), area(first.bounds)));
+        return new MotionEvent(timestamp, (float) changedSamples / (mSamplesX * mSamplesY), regions);
+    }
+
+    /**
+     * Flood fills the moving blocks 4-connected to {@code start}.
+     */
+    @NonNull
+    private MotionEvent.Region region(int start) {
+        int blockSize = mConfig.blockSize;
+        int[] stack = mStack;
+        int size = 0;
+        int left = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        int right = 0;
+        int bottom = 0;
+        int changedSamples = 0;
+        int samples = 0;
+        mVisited[start] = true;
+        stack[size++] = start;
+        while (size > 0) {
+            int block = stack[--size];
+            int bx = block % mBlocksX;
+            int by = block / mBlocksX;
+            left = Math.min(left, bx);
+            top = Math.min(top, by);
+            right = Math.max(right, bx);
+            bottom = Math.max(bottom, by);
+            changedSamples += mChanged[block];
+            samples += Math.min(blockSize, mSamplesX - bx * blockSize) * Math.min(blockSize, mSamplesY - by * blockSize);
+            if (bx > 0) {
+                size = push(stack, size, block - 1);
+            }
+            if (bx + 1 < mBlocksX) {
+                size = push(stack, size, block + 1);
+            }
+            if (by > 0) {
+                size = push(stack, size, block - mBlocksX);
+            }
+            if (by + 1 < mBlocksY) {
+                size = push(stack, size, block + mBlocksX);
+            }
+        }
+        int blockPixels = blockSize * mConfig.sampleStride;
+        Rect bounds = new Rect(left * blockPixels, top * blockPixels,
+                Math.min(mWidth, (right + 1) * blockPixels), Math.min(mHeight, (bottom + 1) * blockPixels));
+        return new MotionEvent.Region(bounds, (float) changedSamples / samples);
+    }
+
+    private int push(@NonNull int[] stack, int size, int block) {
+        if (!mVisited[block] && mChanged[block] >= mMinChanged[block]) {
+            mVisited[block] = true;
+            stack[size++] = block;
+        }
+        return size;
+    }
+
+    private static int area(@NonNull Rect rect) {
+        return rect.width() * rect.height();
+    }
+}
@@ -0,0 +1,49 @@
+package volodymyr.com.camera.camera.motion;
+
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * Motion found by {@link MotionDetector} between an analysed frame and the previously analysed one.
+ */
+public class MotionEvent {
+
+    /**
+     * Connected moving blocks.
+     */
+    public static class Region {
+        /**
+         * Bounds of the blocks in frame pixels.
+         */
+        @NonNull
+        public final Rect bounds;
+        /**
+         * Part of the samples within the blocks that changed, 0..1.
+         */
+        public final float score;
+
+        public Region(@NonNull Rect bounds, float score) {
+            this.bounds = bounds;
+            this.score = score;
+        }
+    }
+
+    public final long timestamp;
+    /**
+     * Part of all samples of the frame that changed, 0..1.
+     */
+    public final float score;
+    /**
+     * Largest region first.
+     */
+    @NonNull
+    public final List<Region> regions;
+
+    public MotionEvent(long timestamp, float score, @NonNull List<Region> regions) {
+        this.timestamp = timestamp;
+        this.score = score;
+        this.regions = regions;
+    }
+}
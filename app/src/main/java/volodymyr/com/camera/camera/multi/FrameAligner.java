@@ -0,0 +1,128 @@
+package volodymyr.com.camera.camera.multi;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import volodymyr.com.camera.camera.frame.Frame;
+
+/**
+ * Groups frames of several streams into sets whose sensor timestamps are at most {@code toleranceNanos} apart.
+ * <p>
+ * Every stream has to deliver its frames in timestamp order. Of several queued frames of a stream the one closest to the
+ * newest head of all streams is matched. Frames that can't be matched anymore are closed: the oldest head once it is
+ * further than the tolerance from the newest one, and the oldest frame of a stream whose queue is full.
+ * Not thread-safe.
+ */
+class FrameAligner {
+
+    private final List<ArrayDeque<Frame>> mQueues;
+    private final long mToleranceNanos;
+    private final int mMaxQueued;
+    private long mDroppedCount;
+
+    /**
+     * @param maxQueued frames kept per stream while waiting for the others, has to stay below the frames in flight of the
+     *                  stream so it can deliver a newer frame
+     */
+    FrameAligner(int streamCount, long toleranceNanos, int maxQueued) {
+        if (streamCount <= 0 || maxQueued <= 0) {
+            throw new IllegalArgumentException("streamCount and maxQueued must be positive: " + streamCount + ", " + maxQueued);
+        }
+        mQueues = new ArrayList<>(streamCount);
+        for (int i = 0; i < streamCount; i++) {
+            mQueues.add(new ArrayDeque<>(maxQueued));
+        }
+        mToleranceNanos = toleranceNanos;
+        mMaxQueued = maxQueued;
+    }
+
+    /**
+     * @return frames of all streams indexed by stream, or null if {@code frame} didn't complete a set
+     */
+    @Nullable
+    Frame[] offer(int stream, @NonNull Frame frame) {
+        ArrayDeque<Frame> queue = mQueues.get(stream);
+        if (queue.size() == mMaxQueued) {
+            drop(queue.pollFirst());
+        }
+        queue.addLast(frame);
+        while (true) {
+            int oldest = -1;
+            long oldestTimestamp = Long.MAX_VALUE;
+            long newestTimestamp = Long.MIN_VALUE;
+            for (int i = 0; i < mQueues.size(); i++) {
+                Frame head = mQueues.get(i).peekFirst();
+                if (head == null) {
+                    return null;
+                }
+                if (head.getTimestamp() < oldestTimestamp) {
+                    oldest = i;
+                    oldestTimestamp = head.getTimestamp();
+                }
+                newestTimestamp = Math.max(newestTimestamp, head.getTimestamp());
+            }
+            if (skipToClosest(newestTimestamp)) {
+                continue;
+            }
+            if (newestTimestamp - oldestTimestamp <= mToleranceNanos) {
+                Frame[] frames = new Frame[mQueues.size()];
+                for (int i = 0; i < frames.length; i++) {
+                    frames[i] = mQueues.get(i).pollFirst();
+                }
+                return frames;
+            }
+            drop(mQueues.get(oldest).pollFirst());
+        }
+    }
+
+    long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    int getStreamCount() {
+        return mQueues.size();
+    }
+
+    /**
+     * Closes all queued frames.
+     */
+    void clear() {
+        for (ArrayDeque<Frame> queue : mQueues) {
+            while (!queue.isEmpty()) {
+                queue.pollFirst().close();
+            }
+        }
+    }
+
+    /**
+     * Drops heads followed by a frame at least as close to {@code timestamp}.
+     *
+     * @return true if a head was dropped
+     */
+    private boolean skipToClosest(long timestamp) {
+        boolean skipped = false;
+        for (ArrayDeque<Frame> queue : mQueues) {
+            if (queue.size() < 2) {
+                continue;
+            }
+            Iterator<Frame> iterator = queue.iterator();
+            long head = iterator.next().getTimestamp();
+            long next = iterator.next().getTimestamp();
+            if (Math.abs(next - timestamp) <= Math.abs(head - timestamp)) {
+                drop(queue.pollFirst());
+                skipped = true;
+            }
+        }
+        return skipped;
+    }
+
+    private void drop(@NonNull Frame frame) {
+        mDroppedCount++;
+        frame.close();
+    }
+}
@@ -0,0 +1,45 @@
+package volodymyr.com.camera.camera.multi;
+
+import android.support.annotation.NonNull;
+
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+
+/**
+ * Frames of several cameras taken at about the same time, indexed like the sources of {@link MultiCameraCapture}.
+ * Closing the set closes all of its frames.
+ */
+public class FrameSet implements AutoCloseable {
+    @NonNull
+    public final Frame[] frames;
+    /**
+     * Capture metadata of each frame, null where the result wasn't reported before the set was emitted
+     */
+    @NonNull
+    public final FrameMetadata[] metadata;
+
+    FrameSet(@NonNull Frame[] frames, @NonNull FrameMetadata[] metadata) {
+        this.frames = frames;
+        this.metadata = metadata;
+    }
+
+    /**
+     * @return nanoseconds between the earliest and the latest frame of the set
+     */
+    public long getTimestampSpread() {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (Frame frame : frames) {
+            min = Math.min(min, frame.getTimestamp());
+            max = Math.max(max, frame.getTimestamp());
+        }
+        return max - min;
+    }
+
+    @Override
+    public void close() {
+        for (Frame frame : frames) {
+            frame.close();
+        }
+    }
+}
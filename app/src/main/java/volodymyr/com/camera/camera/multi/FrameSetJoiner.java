@@ -0,0 +1,134 @@
+package volodymyr.com.camera.camera.multi;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+import volodymyr.com.camera.camera.metadata.FrameMetadataRing;
+
+/**
+ * Aligns frames of several streams with a {@link FrameAligner} and joins the metadata of their capture results,
+ * whichever of the two arrives last.
+ * <p>
+ * Results usually come after their frames, an aligned set missing some of them is held until they arrived or the next
+ * set is aligned, then it is emitted with what it has. Sets are emitted outside the lock, so the threads of other
+ * streams aren't held up by the sink. Thread-safe.
+ */
+class FrameSetJoiner {
+
+    interface Sink {
+        void onFrameSet(@NonNull FrameSet frameSet);
+    }
+
+    private final FrameAligner mAligner;
+    private final Sink mSink;
+    private final FrameMetadataRing[] mMetadataRings;
+    @Nullable
+    private FrameSet mPending;
+    private boolean mCleared;
+
+    /**
+     * @param resultsPerStream capture results kept per stream for frames that arrive after them
+     */
+    FrameSetJoiner(@NonNull FrameAligner aligner, int resultsPerStream, @NonNull Sink sink) {
+        mAligner = aligner;
+        mSink = sink;
+        mMetadataRings = new FrameMetadataRing[aligner.getStreamCount()];
+        for (int i = 0; i < mMetadataRings.length; i++) {
+            mMetadataRings[i] = new FrameMetadataRing(resultsPerStream);
+        }
+    }
+
+    void onFrame(int stream, @NonNull Frame frame) {
+        FrameSet late;
+        FrameSet complete = null;
+        synchronized (this) {
+            if (mCleared) {
+                frame.close();
+                return;
+            }
+            Frame[] frames = mAligner.offer(stream, frame);
+            if (frames == null) {
+                return;
+            }
+            // its results didn't come within a set interval, they may have failed
+            late = mPending;
+            mPending = null;
+            FrameMetadata[] metadata = new FrameMetadata[frames.length];
+            for (int i = 0; i < frames.length; i++) {
+                FrameMetadata frameMetadata = new FrameMetadata();
+                if (mMetadataRings[i].findByTimestamp(frames[i].getTimestamp(), frameMetadata)) {
+                    metadata[i] = frameMetadata;
+                }
+            }
+            FrameSet frameSet = new FrameSet(frames, metadata);
+            if (isComplete(frameSet)) {
+                complete = frameSet;
+            } else {
+                mPending = frameSet;
+            }
+        }
+        emit(late);
+        emit(complete);
+    }
+
+    void onMetadata(int stream, @NonNull FrameMetadata metadata) {
+        FrameSet complete = null;
+        synchronized (this) {
+            mMetadataRings[stream].add(metadata);
+            FrameSet pending = mPending;
+            if (pending == null || pending.metadata[stream] != null) {
+                return;
+            }
+            FrameMetadata frameMetadata = new FrameMetadata();
+            if (mMetadataRings[stream].findByTimestamp(pending.frames[stream].getTimestamp(), frameMetadata)) {
+                pending.metadata[stream] = frameMetadata;
+                if (isComplete(pending)) {
+                    complete = pending;
+                    mPending = null;
+                }
+            }
+        }
+        emit(complete);
+    }
+
+    /**
+     * Emits the set still waiting for results, the streams ended.
+     */
+    void flush() {
+        FrameSet pending;
+        synchronized (this) {
+            pending = mPending;
+            mPending = null;
+        }
+        emit(pending);
+    }
+
+    /**
+     * Closes all queued frames, frames offered afterwards are closed right away.
+     */
+    synchronized void clear() {
+        mCleared = true;
+        mAligner.clear();
+        if (mPending != null) {
+            mPending.close();
+            mPending = null;
+        }
+    }
+
+    private void emit(@Nullable FrameSet frameSet) {
+        if (frameSet != null) {
+            mSink.onFrameSet(frameSet);
+        }
+    }
+
+    private static boolean isComplete(@NonNull FrameSet frameSet) {
+        for (FrameMetadata metadata : frameSet.metadata) {
+            if (metadata == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
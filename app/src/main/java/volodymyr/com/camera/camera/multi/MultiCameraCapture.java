@@ -0,0 +1,192 @@
+package volodymyr.com.camera.camera.multi;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Size;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.disposables.Disposable;
+import volodymyr.com.camera.camera.BackpressureEmitter;
+import volodymyr.com.camera.camera.CameraHelper;
+import volodymyr.com.camera.camera.CameraSchedulers;
+import volodymyr.com.camera.camera.FrameBackpressure;
+import volodymyr.com.camera.camera.backend.Camera2Backend;
+import volodymyr.com.camera.camera.backend.CameraBackend;
+import volodymyr.com.camera.camera.backend.CameraDeviceHandle;
+import volodymyr.com.camera.camera.backend.CaptureRequestSpec;
+import volodymyr.com.camera.camera.backend.FrameTarget;
+import volodymyr.com.camera.camera.backend.OutputTarget;
+import volodymyr.com.camera.camera.event.CaptureSessionEvents;
+import volodymyr.com.camera.camera.event.CaptureSessionStateEvent;
+import volodymyr.com.camera.camera.event.DeviceStateEvent;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.pojo.Pair;
+
+/**
+ * Streams several cameras at once and merges their frames into {@link FrameSet}s aligned by sensor timestamp, e.g. for
+ * stereo or depth. Every source runs on its own backend, sources from {@link Source#from(Context, CameraHelper)} get
+ * their own {@link CameraSchedulers#CameraSchedulers(String, CameraSchedulers)} so their callbacks run on separate
+ * threads and only the alignment is serialized.
+ * <p>
+ * Capture results usually arrive after their frames, an aligned set whose results are missing waits for them until
+ * the next set is aligned.
+ * <p>
+ * All devices are opened in parallel. Which cameras can stream together is only known by trying, a device that can't be
+ * opened next to the others fails the stream, e.g. with {@link android.hardware.camera2.CameraAccessException#MAX_CAMERAS_IN_USE}.
+ * Timestamps are only comparable between cameras sharing a time base, see
+ * {@link android.hardware.camera2.CameraCharacteristics#SENSOR_INFO_TIMESTAMP_SOURCE}.
+ */
+public class MultiCameraCapture {
+
+    private static final int MAX_FRAMES_IN_FLIGHT = 3;
+    private static final int RESULTS_PER_SOURCE = 8;
+
+    public static class Source {
+        @NonNull
+        final CameraBackend backend;
+        @NonNull
+        final String cameraId;
+        @NonNull
+        final FrameTarget target;
+        // threads owned by the source, see quit()
+        @Nullable
+        final CameraSchedulers schedulers;
+
+        public Source(@NonNull CameraBackend backend, @NonNull String cameraId, @NonNull FrameTarget target) {
+            this(backend, cameraId, target, null);
+        }
+
+        private Source(@NonNull CameraBackend backend, @NonNull String cameraId, @NonNull FrameTarget target,
+                       @Nullable CameraSchedulers schedulers) {
+            this.backend = backend;
+            this.cameraId = cameraId;
+            this.target = target;
+            this.schedulers = schedulers;
+        }
+
+        /**
+         * Preview sized YUV frames of the camera of {@code cameraHelper}, on a backend with camera and image threads of
+         * its own, the helper's backend would run every camera on one camera thread.
+         */
+        @NonNull
+        public static Source from(@NonNull Context context, @NonNull CameraHelper cameraHelper) {
+            CameraHelper.CameraParams cameraParams = cameraHelper.getCameraParams();
+            CameraSchedulers schedulers = new CameraSchedulers(cameraParams.cameraId, cameraHelper.getCameraSchedulers());
+            CameraManager cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            CameraBackend backend = new Camera2Backend(cameraManager, schedulers, cameraHelper.getResourceTracker());
+            Size size = cameraParams.previewSize;
+            return new Source(backend, cameraParams.cameraId,
+                    new FrameTarget(size.getWidth(), size.getHeight(), ImageFormat.YUV_420_888, MAX_FRAMES_IN_FLIGHT),
+                    schedulers);
+        }
+    }
+
+    private final List<Source> mSources;
+    private final long mToleranceNanos;
+    private final int mMaxQueued;
+
+    /**
+     * @param toleranceNanos largest difference of sensor timestamps within a set, about half a frame interval is
+     *                       a good start for cameras that aren't hardware synchronized
+     */
+    public MultiCameraCapture(@NonNull List<Source> sources, long toleranceNanos) {
+        if (sources.size() < 2) {
+            throw new IllegalArgumentException("At least two sources are needed: " + sources.size());
+        }
+        mSources = new ArrayList<>(sources);
+        mToleranceNanos = toleranceNanos;
+        int maxQueued = Integer.MAX_VALUE;
+        for (Source source : sources) {
+            maxQueued = Math.min(maxQueued, source.target.maxFramesInFlight - 1);
+        }
+        mMaxQueued = Math.max(1, maxQueued);
+    }
+
+    /**
+     * Opens all cameras and emits aligned sets, a slow subscriber gets the latest one. Every set has to be closed.
+     * Cancelling closes all devices.
+     */
+    @NonNull
+    public Flowable<FrameSet> getFrameSets() {
+        return Flowable.create(emitter -> {
+            BackpressureEmitter<FrameSet> setEmitter = new BackpressureEmitter<>(emitter, FrameBackpressure.latest(), FrameSet::close);
+            FrameSetJoiner joiner = new FrameSetJoiner(new FrameAligner(mSources.size(), mToleranceNanos, mMaxQueued),
+                    RESULTS_PER_SOURCE, setEmitter::onNext);
+            List<Flowable<Pair<Integer, Frame>>> streams = new ArrayList<>();
+            for (int i = 0; i < mSources.size(); i++) {
+                streams.add(stream(i, joiner));
+            }
+            Disposable disposable = Flowable.merge(streams)
+                    .subscribe(pair -> joiner.onFrame(pair.param1, pair.param2), setEmitter::onError, () -> {
+                        joiner.flush();
+                        emitter.onComplete();
+                    });
+            emitter.setCancellable(() -> {
+                disposable.dispose();
+                joiner.clear();
+                setEmitter.clear();
+            });
+        }, BackpressureStrategy.MISSING);
+    }
+
+    /**
+     * Stops the threads of sources from {@link Source#from(Context, CameraHelper)}, once no frame sets are streamed
+     * anymore. The instance can't be used afterwards.
+     */
+    public void quit() {
+        for (Source source : mSources) {
+            if (source.schedulers != null) {
+                source.schedulers.quit();
+            }
+        }
+    }
+
+    /**
+     * Frames of source {@code index} tagged with the index, while the metadata of its capture results goes to
+     * {@code joiner}.
+     */
+    @NonNull
+    private Flowable<Pair<Integer, Frame>> stream(int index, @NonNull FrameSetJoiner joiner) {
+        Source source = mSources.get(index);
+        List<OutputTarget> outputs = Collections.singletonList(source.target);
+        CaptureRequestSpec request = new CaptureRequestSpec(CameraDevice.TEMPLATE_PREVIEW, outputs, null);
+        return Flowable.defer(() -> {
+            AtomicReference<CameraDeviceHandle> device = new AtomicReference<>();
+            return source.backend.openCamera(source.cameraId)
+                    .filter(pair -> pair.param1 == DeviceStateEvent.ON_OPENED)
+                    .map(pair -> pair.param2)
+                    .doOnNext(device::set)
+                    .switchMap(cameraDevice -> cameraDevice.createCaptureSession(outputs))
+                    .filter(pair -> pair.param1 == CaptureSessionStateEvent.ON_CONFIGURED)
+                    .map(pair -> pair.param2)
+                    .toFlowable(BackpressureStrategy.LATEST)
+                    .switchMap(session -> session.getFrames(source.target)
+                            .map(frame -> new Pair<>(index, frame))
+                            .mergeWith(session.setRepeatingRequest(request, FrameBackpressure.latest())
+                                    .doOnNext(data -> {
+                                        if (data.getEvent() == CaptureSessionEvents.ON_COMPLETED && data.getMetadata() != null) {
+                                            joiner.onMetadata(index, data.getMetadata());
+                                        }
+                                        data.release();
+                                    })
+                                    .ignoreElements()
+                                    .<Pair<Integer, Frame>>toFlowable()))
+                    .doFinally(() -> {
+                        CameraDeviceHandle cameraDevice = device.get();
+                        if (cameraDevice != null) {
+                            cameraDevice.close();
+                        }
+                    });
+        });
+    }
+}
@@ -4,19 +4,158 @@ package volodymyr.com.camera.camera.pojo;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import volodymyr.com.camera.camera.event.CaptureSessionEvents;
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
 
+/**
+ * Single capture callback event. Instances obtained from a {@link CaptureSessionDataPool} are reused,
+ * the receiver has to call {@link #release()} once it is done with the event and must not keep references to it.
+ */
 public class CaptureSessionData {
-    final CaptureSessionEvents event;
-    final CameraCaptureSession session;
-    final CaptureRequest request;
-    final CaptureResult result;
+    public static final long NO_VALUE = -1;
+
+    @Nullable
+    private final CaptureSessionDataPool mPool;
+    private final FrameMetadata mMetadata = new FrameMetadata();
+    private boolean mHasMetadata;
+    private boolean mReleased;
+
+    CaptureSessionEvents event;
+    CameraCaptureSession session;
+    CaptureRequest request;
+    CaptureResult result;
+    long timestamp = NO_VALUE;
+    long frameNumber = NO_VALUE;
+    int sequenceId = (int) NO_VALUE;
+    int burstIndex = (int) NO_VALUE;
 
     public CaptureSessionData(CaptureSessionEvents event, CameraCaptureSession session, CaptureRequest request, CaptureResult result) {
+        mPool = null;
+        set(event, session, request, result);
+    }
+
+    CaptureSessionData(@Nullable CaptureSessionDataPool pool) {
+        mPool = pool;
+    }
+
+    public CaptureSessionData set(CaptureSessionEvents event, CameraCaptureSession session, CaptureRequest request, CaptureResult result) {
         this.event = event;
         this.session = session;
         this.request = request;
         this.result = result;
+        return this;
+    }
+
+    public CaptureSessionData setFrame(long timestamp, long frameNumber) {
+        this.timestamp = timestamp;
+        this.frameNumber = frameNumber;
+        return this;
+    }
+
+    public CaptureSessionData setSequence(int sequenceId, long frameNumber) {
+        this.sequenceId = sequenceId;
+        this.frameNumber = frameNumber;
+        return this;
+    }
+
+    /**
+     * Reads the values consumers of the event need from {@code result}, once for all of them, and sets the frame of
+     * the event from it.
+     */
+    public CaptureSessionData readMetadata(@NonNull CaptureResult result) {
+        mMetadata.readFrom(result);
+        mHasMetadata = true;
+        return setFrame(mMetadata.getTimestamp(), mMetadata.getFrameNumber());
+    }
+
+    public CaptureSessionData setBurstIndex(int burstIndex) {
+        this.burstIndex = burstIndex;
+        return this;
+    }
+
+    public CaptureSessionEvents getEvent() {
+        return event;
+    }
+
+    public CameraCaptureSession getSession() {
+        return session;
+    }
+
+    public CaptureRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return result for {@link CaptureSessionEvents#ON_COMPLETED}, {@code null} for the other events
+     */
+    @Nullable
+    public CaptureResult getResult() {
+        return result;
+    }
+
+    /**
+     * Values of {@link #getResult()}, read by the backend. Consumers should use them instead of querying the result,
+     * every query is a metadata lookup.
+     *
+     * @return metadata for {@link CaptureSessionEvents#ON_COMPLETED} of backends reporting results, {@code null} otherwise.
+     * Owned by the event, copy it to keep it past {@link #release()}.
+     */
+    @Nullable
+    public FrameMetadata getMetadata() {
+        return mHasMetadata ? mMetadata : null;
+    }
+
+    /**
+     * @return start of exposure timestamp for {@link CaptureSessionEvents#ON_STARTED} and
+     * {@link CaptureSessionEvents#ON_COMPLETED}, {@link #NO_VALUE} otherwise
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getFrameNumber() {
+        return frameNumber;
+    }
+
+    /**
+     * @return sequence id for {@link CaptureSessionEvents#ON_SEQUENCE_COMPLETED} and {@link CaptureSessionEvents#ON_SEQUENCE_ABORTED}
+     */
+    public int getSequenceId() {
+        return sequenceId;
+    }
+
+    /**
+     * @return position of the request in its burst for {@link CaptureSessionEvents#ON_STARTED} and
+     * {@link CaptureSessionEvents#ON_COMPLETED} of burst captures, {@link #NO_VALUE} otherwise
+     */
+    public int getBurstIndex() {
+        return burstIndex;
+    }
+
+    /**
+     * Returns pooled instance back to its pool. Does nothing for instances created with the public constructor.
+     */
+    public void release() {
+        if (mPool == null) {
+            return;
+        }
+        if (mReleased) {
+            throw new IllegalStateException("CaptureSessionData released twice");
+        }
+        mReleased = true;
+        set(null, null, null, null);
+        mHasMetadata = false;
+        timestamp = NO_VALUE;
+        frameNumber = NO_VALUE;
+        sequenceId = (int) NO_VALUE;
+        burstIndex = (int) NO_VALUE;
+        mPool.recycle(this);
+    }
+
+    void markObtained() {
+        mReleased = false;
     }
 }
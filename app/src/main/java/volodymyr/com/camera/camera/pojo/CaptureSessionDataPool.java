@@ -0,0 +1,47 @@
+package volodymyr.com.camera.camera.pojo;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Fixed size pool of {@link CaptureSessionData}. Once the pool is warmed up, obtaining and releasing events doesn't allocate.
+ */
+public class CaptureSessionDataPool {
+
+    private final CaptureSessionData[] mFree;
+    private int mFreeCount;
+    private int mAllocatedCount;
+
+    public CaptureSessionDataPool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mFree = new CaptureSessionData[capacity];
+    }
+
+    @NonNull
+    public synchronized CaptureSessionData obtain() {
+        CaptureSessionData data;
+        if (mFreeCount > 0) {
+            data = mFree[--mFreeCount];
+            mFree[mFreeCount] = null;
+        } else {
+            mAllocatedCount++;
+            data = new CaptureSessionData(this);
+        }
+        data.markObtained();
+        return data;
+    }
+
+    synchronized void recycle(@NonNull CaptureSessionData data) {
+        if (mFreeCount < mFree.length) {
+            mFree[mFreeCount++] = data;
+        }
+    }
+
+    /**
+     * @return how many instances the pool had to create since it was constructed
+     */
+    public synchronized int getAllocatedCount() {
+        return mAllocatedCount;
+    }
+}
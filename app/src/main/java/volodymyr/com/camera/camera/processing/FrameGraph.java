@@ -0,0 +1,330 @@
+package volodymyr.com.camera.camera.processing;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Observable;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metrics.LatencyHistogram;
+import volodymyr.com.camera.camera.pojo.Pair;
+
+/**
+ * Runs several {@link FrameProcessor}s on every analysis frame, without copying it and without ever holding up the
+ * delivery of frames.
+ * <p>
+ * {@link #onFrame(Frame)} only decides which stages take the frame and queues them on a shared worker pool, highest
+ * {@link StageConfig#priority} first. The frame is reference counted and closed once the last stage is done with it.
+ * A stage runs on one frame at a time: a frame arriving while it is busy is skipped for that stage instead of queued,
+ * so a slow stage holds at most one frame and never delays the others. A stage is further limited to its
+ * {@link StageConfig#maxFps} and throttled to every 2nd, 4th, ... up to every {@value #MAX_THROTTLE}th frame while
+ * its average processing time is over {@link StageConfig#budgetNanos}.
+ * <p>
+ * {@link #onFrame(Frame)} has to be called from a single thread at a time, the rest is thread-safe.
+ */
+public class FrameGraph {
+
+    public static final int MAX_THROTTLE = 8;
+    /**
+     * Part of the {@link StageConfig#maxFps} interval a frame may come early, so 15 fps out of 30 fps takes every other
+     * frame despite timestamp jitter
+     */
+    private static final float RATE_TOLERANCE = 0.1f;
+    /**
+     * Weight of the latest processing time in the average the throttle follows
+     */
+    private static final int AVERAGE_WEIGHT = 4;
+
+    /**
+     * Called once all stages that took a frame are done with it.
+     */
+    public interface OnFrameProcessedListener {
+        /**
+         * @param processingNanos time from {@link #onFrame(Frame)} until the last stage finished, queueing included
+         */
+        void onFrameProcessed(long frameTimestamp, long processingNanos);
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final List<Stage> mStages = new CopyOnWriteArrayList<>();
+    private final Subject<Pair<Stage, Throwable>> mErrors = PublishSubject.<Pair<Stage, Throwable>>create().toSerialized();
+    private final AtomicLong mSequence = new AtomicLong();
+    private final Object mListenerLock = new Object();
+    @Nullable
+    private volatile OnFrameProcessedListener mOnFrameProcessedListener;
+    private volatile boolean mClosed;
+
+    /**
+     * @param threads workers shared by all stages
+     */
+    public FrameGraph(int threads) {
+        mExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+                new WorkerThreadFactory());
+    }
+
+    @NonNull
+    public Stage addStage(@NonNull String name, @NonNull StageConfig config, @NonNull FrameProcessor processor) {
+        Stage stage = new Stage(name, config, processor);
+        mStages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Stops delivering frames to {@code stage}, a frame it is processing is still finished.
+     */
+    public void removeStage(@NonNull Stage stage) {
+        stage.mRemoved = true;
+        mStages.remove(stage);
+    }
+
+    @NonNull
+    public List<Stage> getStages() {
+        return mStages;
+    }
+
+    /**
+     * Failures of {@link FrameProcessor#process(Frame)}, emitted on the worker thread. The stage keeps getting frames.
+     */
+    @NonNull
+    public Observable<Pair<Stage, Throwable>> getErrors() {
+        return mErrors;
+    }
+
+    /**
+     * @param listener called for frames that at least one stage processed, one call at a time
+     */
+    public void setOnFrameProcessedListener(@Nullable OnFrameProcessedListener listener) {
+        mOnFrameProcessedListener = listener;
+    }
+
+    /**
+     * Hands {@code frame} to the stages that take it, the graph owns it afterwards and closes it.
+     */
+    public void onFrame(@NonNull Frame frame) {
+        if (mClosed) {
+            frame.close();
+            return;
+        }
+        SharedFrame sharedFrame = new SharedFrame(frame, mSequence.getAndIncrement(), System.nanoTime());
+        for (Stage stage : mStages) {
+            if (!stage.accept(frame.getTimestamp())) {
+                continue;
+            }
+            sharedFrame.retain();
+            try {
+                mExecutor.execute(new Job(stage, sharedFrame));
+            } catch (RejectedExecutionException e) {
+                // closed meanwhile
+                stage.mBusy.set(false);
+                sharedFrame.release();
+            }
+        }
+        // the reference of the dispatch, frames no stage took are closed right away
+        sharedFrame.release();
+    }
+
+    /**
+     * Stops the workers, frames still queued are closed. The instance can't be used afterwards.
+     */
+    public void close() {
+        mClosed = true;
+        for (Runnable runnable : mExecutor.shutdownNow()) {
+            Job job = (Job) runnable;
+            job.stage.mBusy.set(false);
+            job.frame.release();
+        }
+    }
+
+    /**
+     * A {@link FrameProcessor} registered with its config, and its statistics.
+     */
+    public static class Stage {
+
+        @NonNull
+        public final String name;
+        @NonNull
+        public final StageConfig config;
+        private final FrameProcessor mProcessor;
+        private final long mMinIntervalNanos;
+        private final LatencyHistogram mLatency;
+        private final AtomicBoolean mBusy = new AtomicBoolean();
+        private final AtomicLong mProcessedFrames = new AtomicLong();
+        private final AtomicLong mSkippedFrames = new AtomicLong();
+        private final AtomicLong mFailedFrames = new AtomicLong();
+        private volatile boolean mRemoved;
+        private volatile int mThrottle = 1;
+        // touched only by the delivering thread
+        private boolean mHasLastTimestamp;
+        private long mLastTimestamp;
+        private int mThrottleCount;
+        // touched only by the worker running the stage, one at a time
+        private long mAverageNanos;
+
+        Stage(@NonNull String name, @NonNull StageConfig config, @NonNull FrameProcessor processor) {
+            this.name = name;
+            this.config = config;
+            mProcessor = processor;
+            mMinIntervalNanos = config.maxFps > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / config.maxFps * (1 - RATE_TOLERANCE)) : 0;
+            mLatency = new LatencyHistogram("stage_" + name);
+        }
+
+        /**
+         * @return nanoseconds the stage spent processing a frame
+         */
+        @NonNull
+        public LatencyHistogram getLatency() {
+            return mLatency;
+        }
+
+        public long getProcessedFrames() {
+            return mProcessedFrames.get();
+        }
+
+        /**
+         * @return frames the stage missed because it was busy or over budget, frames left out for {@link StageConfig#maxFps}
+         * are not counted
+         */
+        public long getSkippedFrames() {
+            return mSkippedFrames.get();
+        }
+
+        public long getFailedFrames() {
+            return mFailedFrames.get();
+        }
+
+        /**
+         * @return the stage gets every {@code n}th frame it asked for, 1 while it is within budget
+         */
+        public int getThrottle() {
+            return mThrottle;
+        }
+
+        boolean accept(long timestamp) {
+            if (mRemoved) {
+                return false;
+            }
+            if (mHasLastTimestamp && timestamp - mLastTimestamp < mMinIntervalNanos) {
+                return false;
+            }
+            if (++mThrottleCount < mThrottle || !mBusy.compareAndSet(false, true)) {
+                mSkippedFrames.incrementAndGet();
+                return false;
+            }
+            mThrottleCount = 0;
+            mHasLastTimestamp = true;
+            mLastTimestamp = timestamp;
+            return true;
+        }
+
+        void onProcessed(long nanos) {
+            mLatency.record(nanos);
+            mProcessedFrames.incrementAndGet();
+            long budget = config.budgetNanos;
+            if (budget > 0) {
+                mAverageNanos = mAverageNanos == 0 ? nanos : mAverageNanos + (nanos - mAverageNanos) / AVERAGE_WEIGHT;
+                // smallest power of two that brings the time per delivered frame within budget
+                long needed = (mAverageNanos + budget - 1) / budget;
+                int throttle = 1;
+                while (throttle < needed && throttle < MAX_THROTTLE) {
+                    throttle *= 2;
+                }
+                mThrottle = throttle;
+            }
+            mBusy.set(false);
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + getProcessedFrames() + " processed, " + getSkippedFrames() + " skipped, "
+                    + getFailedFrames() + " failed, throttle " + getThrottle();
+        }
+    }
+
+    private class SharedFrame {
+        final Frame frame;
+        final long sequence;
+        final long dispatchTime;
+        final AtomicInteger references = new AtomicInteger(1);
+        volatile boolean processed;
+
+        SharedFrame(@NonNull Frame frame, long sequence, long dispatchTime) {
+            this.frame = frame;
+            this.sequence = sequence;
+            this.dispatchTime = dispatchTime;
+        }
+
+        void retain() {
+            processed = true;
+            references.incrementAndGet();
+        }
+
+        void release() {
+            if (references.decrementAndGet() != 0) {
+                return;
+            }
+            long timestamp = frame.getTimestamp();
+            frame.close();
+            OnFrameProcessedListener listener = mOnFrameProcessedListener;
+            if (processed && listener != null) {
+                synchronized (mListenerLock) {
+                    listener.onFrameProcessed(timestamp, System.nanoTime() - dispatchTime);
+                }
+            }
+        }
+    }
+
+    private class Job implements Runnable, Comparable<Job> {
+        final Stage stage;
+        final SharedFrame frame;
+
+        Job(@NonNull Stage stage, @NonNull SharedFrame frame) {
+            this.stage = stage;
+            this.frame = frame;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                stage.mProcessor.process(frame.frame);
+            } catch (Throwable throwable) {
+                stage.mFailedFrames.incrementAndGet();
+                mErrors.onNext(new Pair<>(stage, throwable));
+            } finally {
+                stage.onProcessed(System.nanoTime() - start);
+                frame.release();
+            }
+        }
+
+        @Override
+        public int compareTo(@NonNull Job other) {
+            if (stage.config.priority != other.stage.config.priority) {
+                return stage.config.priority > other.stage.config.priority ? -1 : 1;
+            }
+            return Long.compare(frame.sequence, other.frame.sequence);
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "FrameGraph-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
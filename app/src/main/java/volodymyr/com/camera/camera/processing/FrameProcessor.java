@@ -0,0 +1,17 @@
+package volodymyr.com.camera.camera.processing;
+
+import android.support.annotation.NonNull;
+
+import volodymyr.com.camera.camera.frame.Frame;
+
+/**
+ * Per-frame consumer registered with a {@link FrameGraph}.
+ */
+public interface FrameProcessor {
+
+    /**
+     * Called for one frame at a time, though not always on the same thread. {@code frame} is shared with the other
+     * stages: planes must not be modified, and the frame must neither be closed nor used after returning.
+     */
+    void process(@NonNull Frame frame) throws Exception;
+}
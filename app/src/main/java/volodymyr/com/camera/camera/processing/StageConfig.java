@@ -0,0 +1,34 @@
+package volodymyr.com.camera.camera.processing;
+
+/**
+ * Rate, budget and priority a {@link FrameProcessor} is registered with.
+ */
+public class StageConfig {
+
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 5;
+    public static final int PRIORITY_HIGH = 10;
+
+    /**
+     * Frames per second the stage wants at most, 0 for every frame.
+     */
+    public final float maxFps;
+    /**
+     * Processing time per delivered frame the stage may take on average, 0 for no limit. A stage over budget gets only
+     * every 2nd, 4th, ... frame, so its share of the workers stays within the budget.
+     */
+    public final long budgetNanos;
+    /**
+     * Stages with a higher priority get a worker first when frames of several stages are waiting.
+     */
+    public final int priority;
+
+    public StageConfig(float maxFps, long budgetNanos, int priority) {
+        if (!(maxFps >= 0) || budgetNanos < 0) {
+            throw new IllegalArgumentException("maxFps and budgetNanos must not be negative");
+        }
+        this.maxFps = maxFps;
+        this.budgetNanos = budgetNanos;
+        this.priority = priority;
+    }
+}
@@ -0,0 +1,163 @@
+package volodymyr.com.camera.camera.record;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes encoded samples to an MP4 on its own thread.
+ * <p>
+ * Samples are copied into a fixed set of reusable buffers, so the encoder output buffer can be released right away.
+ * When all of them wait for the disk {@link #offer(ByteBuffer, MediaCodec.BufferInfo)} fails instead of blocking,
+ * a slow disk never backs up into the encoder and the camera. The file is finalized and the muxer released on the
+ * same thread once the queued samples are written, so {@link #stop(long)} can give up waiting without racing it.
+ */
+class MuxerWriter {
+
+    private static final String TAG = MuxerWriter.class.getSimpleName();
+    private static final int INITIAL_SAMPLE_CAPACITY = 256 * 1024;
+
+    private final MediaMuxer mMuxer;
+    private final BlockingQueue<Sample> mFreeSamples;
+    private final BlockingQueue<Sample> mPendingSamples;
+    private final Sample mEndOfStream = new Sample();
+    private Thread mThread;
+    private int mTrackIndex = -1;
+    private volatile IOException mWriteError;
+
+    MuxerWriter(@NonNull String path, int orientationHint, int capacity) throws IOException {
+        mMuxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        mMuxer.setOrientationHint(orientationHint);
+        mFreeSamples = new ArrayBlockingQueue<>(capacity);
+        mPendingSamples = new ArrayBlockingQueue<>(capacity + 1);
+        for (int i = 0; i < capacity; i++) {
+            mFreeSamples.add(new Sample());
+        }
+    }
+
+    /**
+     * Starts the muxer with the encoder output format, called once the encoder reports it.
+     */
+    void start(@NonNull MediaFormat format) {
+        mTrackIndex = mMuxer.addTrack(format);
+        mMuxer.start();
+        mThread = new Thread(this::writeLoop, "VideoMuxerWriter");
+        mThread.start();
+    }
+
+    boolean isStarted() {
+        return mThread != null;
+    }
+
+    /**
+     * Queues a copy of {@code data} between its position and limit.
+     *
+     * @return false when the write queue is full and the sample was not taken
+     */
+    boolean offer(@NonNull ByteBuffer data, @NonNull MediaCodec.BufferInfo info) {
+        Sample sample = mFreeSamples.poll();
+        if (sample == null) {
+            return false;
+        }
+        sample.copyFrom(data, info);
+        mPendingSamples.add(sample);
+        return true;
+    }
+
+    int getQueueDepth() {
+        return mPendingSamples.size();
+    }
+
+    /**
+     * Writes the queued samples and finalizes the file.
+     *
+     * @param timeoutMs time to wait for the writes, the file is still finalized afterwards if they take longer
+     */
+    void stop(long timeoutMs) throws IOException {
+        if (mThread == null) {
+            mMuxer.release();
+            return;
+        }
+        mPendingSamples.add(mEndOfStream);
+        try {
+            mThread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (mThread.isAlive()) {
+            throw new IOException("Muxer did not finish writing in " + timeoutMs + "ms, the file is finalized later");
+        }
+        if (mWriteError != null) {
+            throw mWriteError;
+        }
+    }
+
+    private void writeLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            writeSamples();
+        } finally {
+            try {
+                mMuxer.stop();
+            } catch (IllegalStateException e) {
+                // thrown when no sample was written
+                if (mWriteError == null) {
+                    mWriteError = new IOException("Muxer stop failed", e);
+                }
+            } finally {
+                mMuxer.release();
+            }
+        }
+    }
+
+    private void writeSamples() {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        while (true) {
+            Sample sample;
+            try {
+                sample = mPendingSamples.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (sample == mEndOfStream) {
+                return;
+            }
+            if (mWriteError == null) {
+                try {
+                    info.set(0, sample.buffer.limit(), sample.presentationTimeUs, sample.flags);
+                    mMuxer.writeSampleData(mTrackIndex, sample.buffer, info);
+                } catch (IllegalStateException | IllegalArgumentException e) {
+                    Log.e(TAG, "Sample write failed, dropping the rest of the recording", e);
+                    mWriteError = new IOException(e);
+                }
+            }
+            mFreeSamples.add(sample);
+        }
+    }
+
+    private static class Sample {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(0);
+        long presentationTimeUs;
+        int flags;
+
+        void copyFrom(@NonNull ByteBuffer data, @NonNull MediaCodec.BufferInfo info) {
+            if (buffer.capacity() < data.remaining()) {
+                // grown rarely, key frames are the largest samples and repeat every I-frame interval
+                buffer = ByteBuffer.allocateDirect(Math.max(INITIAL_SAMPLE_CAPACITY, data.remaining() * 3 / 2));
+            }
+            buffer.clear();
+            buffer.put(data);
+            buffer.flip();
+            presentationTimeUs = info.presentationTimeUs;
+            flags = info.flags;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package volodymyr.com.camera.camera.record;
+
+import android.support.annotation.NonNull;
+
+import volodymyr.com.camera.camera.CameraHelper;
+
+/**
+ * Encoder settings of a recording.
+ */
+public class VideoConfig {
+    public static final String MIME_TYPE = "video/avc";
+    /**
+     * Compressed bits per pixel per frame, about 8 Mbit/s for 1080p30 H.264.
+     */
+    private static final float BITS_PER_PIXEL = 0.13f;
+    private static final int I_FRAME_INTERVAL_S = 1;
+
+    public final int width;
+    public final int height;
+    public final int frameRate;
+    public final int bitRate;
+    public final int iFrameIntervalSec;
+    /**
+     * Clockwise rotation written to the MP4, so players show the video upright.
+     */
+    public final int orientationHint;
+
+    public VideoConfig(int width, int height, int frameRate, int bitRate, int iFrameIntervalSec, int orientationHint) {
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+        this.bitRate = bitRate;
+        this.iFrameIntervalSec = iFrameIntervalSec;
+        this.orientationHint = orientationHint;
+    }
+
+    /**
+     * @param orientationHint see {@link CameraHelper#getOutputOrientation(int)}, taken when the recording starts
+     */
+    @NonNull
+    public static VideoConfig from(@NonNull CameraHelper.CameraParams params, int orientationHint) {
+        int width = params.videoSize.getWidth();
+        int height = params.videoSize.getHeight();
+        int frameRate = params.videoMaxFrameRate;
+        return new VideoConfig(width, height, frameRate, (int) (BITS_PER_PIXEL * width * height * frameRate),
+                I_FRAME_INTERVAL_S, orientationHint);
+    }
+}
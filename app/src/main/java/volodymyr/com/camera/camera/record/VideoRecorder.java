@@ -0,0 +1,207 @@
+package volodymyr.com.camera.camera.record;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * H.264 recording fed by the camera through the encoder input {@link Surface}.
+ * <p>
+ * Encoded output is drained on its own thread and handed to a bounded {@link MuxerWriter}. When the writer falls behind,
+ * encoded frames are dropped up to the next key frame, which is requested right away, so the file stays decodable.
+ * <p>
+ * Usage: {@link #prepare()}, add {@link #getSurface()} to the session and the recording request, {@link #start()},
+ * report frames with {@link #onFrameQueued()}, {@link #stop()}. An instance records once.
+ */
+public class VideoRecorder {
+
+    private static final String TAG = VideoRecorder.class.getSimpleName();
+    private static final long DRAIN_TIMEOUT_US = 10_000;
+    private static final long STOP_TIMEOUT_MS = 2_000;
+    // an interrupted drain loop returns after its current dequeue, which waits DRAIN_TIMEOUT_US at most
+    private static final long INTERRUPT_TIMEOUT_MS = 100;
+    private static final int WRITE_QUEUE_CAPACITY = 30;
+
+    private final VideoConfig mConfig;
+    private final File mOutputFile;
+    private final AtomicLong mQueuedFrames = new AtomicLong();
+    private final AtomicLong mEncodedFrames = new AtomicLong();
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private MediaCodec mEncoder;
+    private Surface mInputSurface;
+    private MuxerWriter mWriter;
+    private Thread mDrainThread;
+    private boolean mWaitingForKeyFrame;
+
+    public VideoRecorder(@NonNull VideoConfig config, @NonNull File outputFile) {
+        mConfig = config;
+        mOutputFile = outputFile;
+    }
+
+    /**
+     * Configures the encoder and creates its input surface.
+     */
+    public void prepare() throws IOException {
+        mEncoder = MediaCodec.createEncoderByType(VideoConfig.MIME_TYPE);
+        MediaCodecInfo.VideoCapabilities capabilities = mEncoder.getCodecInfo()
+                .getCapabilitiesForType(VideoConfig.MIME_TYPE)
+                .getVideoCapabilities();
+        MediaFormat format = MediaFormat.createVideoFormat(VideoConfig.MIME_TYPE, mConfig.width, mConfig.height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, capabilities.getBitrateRange().clamp(mConfig.bitRate));
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, mConfig.frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, mConfig.iFrameIntervalSec);
+        mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mInputSurface = mEncoder.createInputSurface();
+        mWriter = new MuxerWriter(mOutputFile.getAbsolutePath(), mConfig.orientationHint, WRITE_QUEUE_CAPACITY);
+    }
+
+    @NonNull
+    public Surface getSurface() {
+        if (mInputSurface == null) {
+            throw new IllegalStateException("Recorder is not prepared");
+        }
+        return mInputSurface;
+    }
+
+    @NonNull
+    public VideoConfig getConfig() {
+        return mConfig;
+    }
+
+    @NonNull
+    public File getOutputFile() {
+        return mOutputFile;
+    }
+
+    public void start() {
+        mEncoder.start();
+        mDrainThread = new Thread(this::drainLoop, "VideoEncoderDrain");
+        mDrainThread.start();
+    }
+
+    /**
+     * Counts a capture completed with the encoder surface as a target, see {@link #getEncoderQueueDepth()}. Call it
+     * from the request's {@link volodymyr.com.camera.camera.backend.CaptureRequestSpec.Listener}, the capture stream
+     * itself may drop events under backpressure.
+     */
+    public void onFrameQueued() {
+        mQueuedFrames.incrementAndGet();
+    }
+
+    /**
+     * Frames sent to the encoder surface that have not come out of the encoder yet.
+     */
+    public long getEncoderQueueDepth() {
+        return Math.max(0, mQueuedFrames.get() - mEncodedFrames.get());
+    }
+
+    /**
+     * Encoded frames waiting to be written to the file.
+     */
+    public int getWriterQueueDepth() {
+        return mWriter == null ? 0 : mWriter.getQueueDepth();
+    }
+
+    public long getDroppedFrames() {
+        return mDroppedFrames.get();
+    }
+
+    /**
+     * Ends the stream, waits for the encoder to drain and finalizes the file. The camera should no longer target
+     * the encoder surface.
+     */
+    public void stop() throws IOException {
+        try {
+            if (mDrainThread != null) {
+                mEncoder.signalEndOfInputStream();
+                joinDrainThread(STOP_TIMEOUT_MS);
+                if (mDrainThread.isAlive()) {
+                    Log.w(TAG, "Encoder did not reach end of stream in " + STOP_TIMEOUT_MS + "ms");
+                    mDrainThread.interrupt();
+                    // the encoder can't be stopped under a running dequeue
+                    joinDrainThread(INTERRUPT_TIMEOUT_MS);
+                }
+                if (!mDrainThread.isAlive()) {
+                    mEncoder.stop();
+                }
+            }
+        } finally {
+            mEncoder.release();
+            mInputSurface.release();
+            mWriter.stop(STOP_TIMEOUT_MS);
+            Log.d(TAG, "Recorded " + mEncodedFrames.get() + " frames, dropped " + mDroppedFrames.get() + " to " + mOutputFile);
+        }
+    }
+
+    private void joinDrainThread(long timeoutMs) {
+        try {
+            mDrainThread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        try {
+            drainEncoder();
+        } catch (IllegalStateException e) {
+            // the encoder was released under a drain that didn't stop in time, the file ends at the last written frame
+            Log.w(TAG, "Encoder drain stopped", e);
+        }
+    }
+
+    private void drainEncoder() {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        while (!Thread.currentThread().isInterrupted()) {
+            int index = mEncoder.dequeueOutputBuffer(info, DRAIN_TIMEOUT_US);
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                mWriter.start(mEncoder.getOutputFormat());
+                continue;
+            }
+            if (index < 0) {
+                continue;
+            }
+            if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0) {
+                // codec config is part of the output format given to the muxer
+                ByteBuffer buffer = mEncoder.getOutputBuffer(index);
+                buffer.position(info.offset);
+                buffer.limit(info.offset + info.size);
+                onEncodedFrame(buffer, info);
+            }
+            mEncoder.releaseOutputBuffer(index, false);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                return;
+            }
+        }
+    }
+
+    private void onEncodedFrame(@NonNull ByteBuffer buffer, @NonNull MediaCodec.BufferInfo info) {
+        mEncodedFrames.incrementAndGet();
+        boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        if (mWaitingForKeyFrame && !keyFrame) {
+            mDroppedFrames.incrementAndGet();
+            return;
+        }
+        if (!mWriter.isStarted() || !mWriter.offer(buffer, info)) {
+            mDroppedFrames.incrementAndGet();
+            if (!mWaitingForKeyFrame) {
+                mWaitingForKeyFrame = true;
+                Bundle parameters = new Bundle();
+                parameters.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+                mEncoder.setParameters(parameters);
+            }
+            return;
+        }
+        mWaitingForKeyFrame = false;
+    }
+}
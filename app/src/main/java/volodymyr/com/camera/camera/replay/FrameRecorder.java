@@ -0,0 +1,142 @@
+package volodymyr.com.camera.camera.replay;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+
+/**
+ * Appends frames and their capture metadata to a file in {@link RecordingFormat}, for {@link FrameRecording} to replay.
+ * <p>
+ * The file is written through memory-mapped chunks, so a frame costs one copy of its planes into the page cache and no
+ * write call. Chunks are mapped ahead in {@value #CHUNK_SIZE} byte steps, {@link #close()} cuts the file back to the
+ * recorded size. Frames are not closed here, the caller still owns them. Thread-safe.
+ */
+public class FrameRecorder implements AutoCloseable {
+
+    private static final int CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private MappedByteBuffer mChunk;
+    private long mChunkStart;
+    private long mSize;
+    private int mFrameCount;
+    private boolean mClosed;
+
+    public FrameRecorder(@NonNull File file) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        ByteBuffer header = reserve(RecordingFormat.FILE_HEADER_SIZE);
+        header.putInt(RecordingFormat.MAGIC).putInt(RecordingFormat.VERSION);
+    }
+
+    /**
+     * @param metadata capture result values of the frame, null if they aren't known
+     */
+    public synchronized void write(@NonNull Frame frame, @Nullable FrameMetadata metadata) throws IOException {
+        if (mClosed) {
+            throw new IOException("Recorder is closed");
+        }
+        int planeCount = frame.getPlaneCount();
+        int dataOffset = RecordingFormat.align(RecordingFormat.RECORD_HEADER_SIZE + planeCount * RecordingFormat.PLANE_HEADER_SIZE);
+        int recordSize = dataOffset;
+        for (int i = 0; i < planeCount; i++) {
+            recordSize += RecordingFormat.align(frame.getPlane(i).buffer.limit());
+        }
+        ByteBuffer record = reserve(recordSize);
+        int start = record.position();
+        record.putInt(start + RecordingFormat.RECORD_SIZE, recordSize)
+                .putInt(start + RecordingFormat.FORMAT, frame.getFormat())
+                .putInt(start + RecordingFormat.WIDTH, frame.getWidth())
+                .putInt(start + RecordingFormat.HEIGHT, frame.getHeight())
+                .putLong(start + RecordingFormat.TIMESTAMP, frame.getTimestamp())
+                .putInt(start + RecordingFormat.PLANE_COUNT, planeCount);
+        writeMetadata(record, start, metadata == null ? new FrameMetadata() : metadata);
+        for (int i = 0; i < planeCount; i++) {
+            Frame.Plane plane = frame.getPlane(i);
+            // the whole buffer up to its limit, row padding included, so strides replay unchanged
+            ByteBuffer data = plane.buffer.duplicate();
+            data.rewind();
+            int planeHeader = start + RecordingFormat.RECORD_HEADER_SIZE + i * RecordingFormat.PLANE_HEADER_SIZE;
+            record.putInt(planeHeader + RecordingFormat.PLANE_ROW_STRIDE, plane.rowStride)
+                    .putInt(planeHeader + RecordingFormat.PLANE_PIXEL_STRIDE, plane.pixelStride)
+                    .putInt(planeHeader + RecordingFormat.PLANE_LENGTH, data.remaining())
+                    .putInt(planeHeader + RecordingFormat.PLANE_DATA_OFFSET, dataOffset);
+            record.position(start + dataOffset);
+            record.put(data);
+            dataOffset += RecordingFormat.align(data.limit());
+        }
+        record.position(start + recordSize);
+        mFrameCount++;
+    }
+
+    public synchronized int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return bytes recorded so far, header included
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            if (mChunk != null) {
+                mChunk.force();
+                mChunk = null;
+            }
+            mChannel.truncate(mSize);
+        } finally {
+            mFile.close();
+        }
+    }
+
+    /**
+     * @return mapped buffer positioned at the start of {@code size} free bytes, records never span two chunks
+     */
+    @NonNull
+    private ByteBuffer reserve(int size) throws IOException {
+        if (mChunk == null || mChunk.remaining() < size) {
+            if (mChunk != null) {
+                mChunk.force();
+            }
+            mChunkStart = mSize;
+            mChunk = mChannel.map(FileChannel.MapMode.READ_WRITE, mChunkStart, Math.max(CHUNK_SIZE, size));
+            mChunk.order(RecordingFormat.BYTE_ORDER);
+        }
+        mChunk.position((int) (mSize - mChunkStart));
+        mSize += size;
+        return mChunk;
+    }
+
+    private static void writeMetadata(@NonNull ByteBuffer record, int start, @NonNull FrameMetadata metadata) {
+        record.putLong(start + RecordingFormat.FRAME_NUMBER, metadata.getFrameNumber())
+                .putLong(start + RecordingFormat.EXPOSURE_TIME, metadata.getExposureTime())
+                .putLong(start + RecordingFormat.FRAME_DURATION, metadata.getFrameDuration())
+                .putInt(start + RecordingFormat.SENSITIVITY, metadata.getSensitivity())
+                .putInt(start + RecordingFormat.AF_STATE, metadata.getAfState())
+                .putInt(start + RecordingFormat.AE_STATE, metadata.getAeState())
+                .putInt(start + RecordingFormat.AWB_STATE, metadata.getAwbState())
+                .putFloat(start + RecordingFormat.FOCUS_DISTANCE, metadata.getFocusDistance())
+                .putFloat(start + RecordingFormat.APERTURE, metadata.getAperture())
+                .putFloat(start + RecordingFormat.FOCAL_LENGTH, metadata.getFocalLength())
+                .putInt(start + RecordingFormat.JPEG_ORIENTATION, metadata.getJpegOrientation());
+    }
+}
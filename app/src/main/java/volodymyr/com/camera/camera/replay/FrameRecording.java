@@ -0,0 +1,211 @@
+package volodymyr.com.camera.camera.replay;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+
+/**
+ * Frames written by {@link FrameRecorder}, memory-mapped read-only. Planes of replayed frames are views of the mapping,
+ * so reading a frame copies nothing and the page cache keeps a recording that is replayed over and over in memory.
+ * <p>
+ * Opening only indexes record offsets and timestamps. The mapping is released once the recording and all of its frames
+ * are garbage collected. Thread-safe.
+ */
+public class FrameRecording {
+
+    /**
+     * Largest region mapped at once, a single mapping is limited to {@link Integer#MAX_VALUE} bytes
+     */
+    private static final int MAX_REGION_SIZE = 1 << 30;
+
+    private final List<MappedByteBuffer> mRegions;
+    private final int[] mRegionIndices;
+    private final int[] mOffsets;
+    private final long[] mTimestamps;
+
+    private FrameRecording(@NonNull List<MappedByteBuffer> regions, @NonNull int[] regionIndices, @NonNull int[] offsets,
+                           @NonNull long[] timestamps) {
+        mRegions = regions;
+        mRegionIndices = regionIndices;
+        mOffsets = offsets;
+        mTimestamps = timestamps;
+    }
+
+    @NonNull
+    public static FrameRecording open(@NonNull File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            ByteBuffer header = read(channel, 0, RecordingFormat.FILE_HEADER_SIZE);
+            if (header == null || header.getInt(0) != RecordingFormat.MAGIC) {
+                throw new IOException("Not a frame recording: " + file);
+            }
+            if (header.getInt(4) != RecordingFormat.VERSION) {
+                throw new IOException("Unsupported recording version " + header.getInt(4) + ": " + file);
+            }
+            // records are indexed through positional reads of their headers, then mapped in regions ending on record bounds
+            List<MappedByteBuffer> regions = new ArrayList<>();
+            int[] regionIndices = new int[16];
+            int[] offsets = new int[16];
+            long[] timestamps = new long[16];
+            int count = 0;
+            long regionStart = RecordingFormat.FILE_HEADER_SIZE;
+            long position = regionStart;
+            while (position < size) {
+                ByteBuffer recordHeader = read(channel, position, RecordingFormat.TIMESTAMP + 8);
+                int recordSize = recordHeader == null ? 0 : recordHeader.getInt(RecordingFormat.RECORD_SIZE);
+                if (recordSize < RecordingFormat.RECORD_HEADER_SIZE || position + recordSize > size) {
+                    // cut off while recording, what came before is still good
+                    break;
+                }
+                if (position + recordSize - regionStart > MAX_REGION_SIZE) {
+                    regions.add(map(channel, regionStart, position - regionStart));
+                    regionStart = position;
+                }
+                if (count == offsets.length) {
+                    regionIndices = Arrays.copyOf(regionIndices, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                    timestamps = Arrays.copyOf(timestamps, count * 2);
+                }
+                regionIndices[count] = regions.size();
+                offsets[count] = (int) (position - regionStart);
+                timestamps[count] = recordHeader.getLong(RecordingFormat.TIMESTAMP);
+                count++;
+                position += recordSize;
+            }
+            if (position > regionStart) {
+                regions.add(map(channel, regionStart, position - regionStart));
+            }
+            return new FrameRecording(regions, Arrays.copyOf(regionIndices, count), Arrays.copyOf(offsets, count),
+                    Arrays.copyOf(timestamps, count));
+        }
+    }
+
+    public int size() {
+        return mTimestamps.length;
+    }
+
+    /**
+     * @return sensor timestamp of frame {@code index} in nanoseconds
+     */
+    public long getTimestamp(int index) {
+        return mTimestamps[index];
+    }
+
+    /**
+     * @return nanoseconds from the first to the last frame
+     */
+    public long getDurationNanos() {
+        return mTimestamps.length < 2 ? 0 : mTimestamps[mTimestamps.length - 1] - mTimestamps[0];
+    }
+
+    /**
+     * @return frame number the device gave frame {@code index}, {@link FrameMetadata#NO_VALUE} if recorded without metadata
+     */
+    public long getFrameNumber(int index) {
+        return record(index).getLong(RecordingFormat.FRAME_NUMBER);
+    }
+
+    public int getFormat(int index) {
+        return record(index).getInt(RecordingFormat.FORMAT);
+    }
+
+    public int getWidth(int index) {
+        return record(index).getInt(RecordingFormat.WIDTH);
+    }
+
+    public int getHeight(int index) {
+        return record(index).getInt(RecordingFormat.HEIGHT);
+    }
+
+    /**
+     * @return index of the frame with {@code timestamp}, negative if there is none
+     */
+    public int indexOf(long timestamp) {
+        int index = Arrays.binarySearch(mTimestamps, timestamp);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * Frame {@code index} with read-only planes backed by the mapping.
+     *
+     * @param timestamp timestamp the frame is replayed with, e.g. shifted to the replaying clock
+     * @param onClose   run when the frame is closed
+     */
+    @NonNull
+    public Frame getFrame(int index, long timestamp, @NonNull Runnable onClose) {
+        ByteBuffer record = record(index);
+        int planeCount = record.getInt(RecordingFormat.PLANE_COUNT);
+        Frame.Plane[] planes = new Frame.Plane[planeCount];
+        for (int i = 0; i < planeCount; i++) {
+            int planeHeader = RecordingFormat.RECORD_HEADER_SIZE + i * RecordingFormat.PLANE_HEADER_SIZE;
+            int dataOffset = record.getInt(planeHeader + RecordingFormat.PLANE_DATA_OFFSET);
+            ByteBuffer data = record.duplicate();
+            data.position(dataOffset);
+            data.limit(dataOffset + record.getInt(planeHeader + RecordingFormat.PLANE_LENGTH));
+            planes[i] = new Frame.Plane(data.slice().asReadOnlyBuffer(), record.getInt(planeHeader + RecordingFormat.PLANE_ROW_STRIDE),
+                    record.getInt(planeHeader + RecordingFormat.PLANE_PIXEL_STRIDE));
+        }
+        return new Frame(record.getInt(RecordingFormat.FORMAT), record.getInt(RecordingFormat.WIDTH), record.getInt(RecordingFormat.HEIGHT),
+                timestamp, planes, onClose);
+    }
+
+    /**
+     * Reads the recorded capture metadata of frame {@code index} into {@code out}.
+     *
+     * @return false if the frame was recorded without metadata, {@code out} then only has the timestamp
+     */
+    public boolean getMetadata(int index, @NonNull FrameMetadata out) {
+        ByteBuffer record = record(index);
+        long frameNumber = record.getLong(RecordingFormat.FRAME_NUMBER);
+        out.setFrame(frameNumber, mTimestamps[index])
+                .setExposure(record.getLong(RecordingFormat.EXPOSURE_TIME), record.getLong(RecordingFormat.FRAME_DURATION),
+                        record.getInt(RecordingFormat.SENSITIVITY))
+                .set3aStates(record.getInt(RecordingFormat.AF_STATE), record.getInt(RecordingFormat.AE_STATE),
+                        record.getInt(RecordingFormat.AWB_STATE))
+                .setLens(record.getFloat(RecordingFormat.FOCUS_DISTANCE), record.getFloat(RecordingFormat.APERTURE),
+                        record.getFloat(RecordingFormat.FOCAL_LENGTH))
+                .setJpegOrientation(record.getInt(RecordingFormat.JPEG_ORIENTATION));
+        return frameNumber != FrameMetadata.NO_VALUE;
+    }
+
+    /**
+     * @return view of record {@code index}, starting at the record
+     */
+    @NonNull
+    private ByteBuffer record(int index) {
+        ByteBuffer record = mRegions.get(mRegionIndices[index]).duplicate();
+        record.position(mOffsets[index]);
+        return record.slice().order(RecordingFormat.BYTE_ORDER);
+    }
+
+    private static MappedByteBuffer map(@NonNull FileChannel channel, long position, long size) throws IOException {
+        MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        region.order(RecordingFormat.BYTE_ORDER);
+        return region;
+    }
+
+    /**
+     * @return {@code size} bytes at {@code position}, null if the file ends before
+     */
+    private static ByteBuffer read(@NonNull FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(RecordingFormat.BYTE_ORDER);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return null;
+            }
+        }
+        return buffer;
+    }
+}
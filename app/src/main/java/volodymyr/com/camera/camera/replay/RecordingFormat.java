@@ -0,0 +1,60 @@
+package volodymyr.com.camera.camera.replay;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the files written by {@link FrameRecorder}. All values are little-endian, so recordings made on a device
+ * replay on a desktop as they are.
+ * <pre>
+ * file header   int magic, int version
+ * frame record  int record size, int format, int width, int height, long timestamp,
+ *               long frame number, long exposure time, long frame duration, int sensitivity,
+ *               int AF state, int AE state, int AWB state, float focus distance, float aperture, float focal length,
+ *               int JPEG orientation, int plane count, int reserved,
+ *               plane count times (int row stride, int pixel stride, int length, int data offset),
+ *               plane data, each starting at its offset from the record start, 8 byte aligned
+ * </pre>
+ * Metadata values a frame didn't have are {@link volodymyr.com.camera.camera.metadata.FrameMetadata#NO_VALUE}.
+ */
+final class RecordingFormat {
+
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    /**
+     * "CREC" read as little-endian int
+     */
+    static final int MAGIC = 0x43455243;
+    static final int VERSION = 1;
+    static final int FILE_HEADER_SIZE = 8;
+
+    static final int RECORD_SIZE = 0;
+    static final int FORMAT = 4;
+    static final int WIDTH = 8;
+    static final int HEIGHT = 12;
+    static final int TIMESTAMP = 16;
+    static final int FRAME_NUMBER = 24;
+    static final int EXPOSURE_TIME = 32;
+    static final int FRAME_DURATION = 40;
+    static final int SENSITIVITY = 48;
+    static final int AF_STATE = 52;
+    static final int AE_STATE = 56;
+    static final int AWB_STATE = 60;
+    static final int FOCUS_DISTANCE = 64;
+    static final int APERTURE = 68;
+    static final int FOCAL_LENGTH = 72;
+    static final int JPEG_ORIENTATION = 76;
+    static final int PLANE_COUNT = 80;
+    static final int RECORD_HEADER_SIZE = 88;
+
+    static final int PLANE_ROW_STRIDE = 0;
+    static final int PLANE_PIXEL_STRIDE = 4;
+    static final int PLANE_LENGTH = 8;
+    static final int PLANE_DATA_OFFSET = 12;
+    static final int PLANE_HEADER_SIZE = 16;
+
+    private RecordingFormat() {
+    }
+
+    static int align(int size) {
+        return (size + 7) & ~7;
+    }
+}
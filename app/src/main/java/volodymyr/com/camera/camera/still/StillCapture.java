@@ -0,0 +1,314 @@
+package volodymyr.com.camera.camera.still;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CaptureRequest;
+import android.media.ImageReader;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Maybe;
+import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Predicate;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
+import volodymyr.com.camera.camera.CameraHelper;
+import volodymyr.com.camera.camera.backend.CaptureRequestSpec;
+import volodymyr.com.camera.camera.backend.CaptureSessionHandle;
+import volodymyr.com.camera.camera.backend.ReferenceCount;
+import volodymyr.com.camera.camera.backend.SurfaceTarget;
+import volodymyr.com.camera.camera.event.CaptureSessionEvents;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.frame.YuvConverter;
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
+import volodymyr.com.camera.camera.pojo.CaptureSessionData;
+import volodymyr.com.camera.camera.storage.ExifBuilder;
+
+/**
+ * Still capture at {@link CameraHelper.CameraParams#stillImageSize}.
+ * <p>
+ * In {@link Mode#ZSL} the still surface is a YUV stream of the repeating request and the last frames are kept in a
+ * {@link ZslRingBuffer}, so the shutter encodes the buffered frame closest to the press instead of waiting for a new
+ * capture, unless 3A hadn't converged on it. Only the shutter pays for the JPEG encode, a JPEG stream in the repeating request would have the camera
+ * encode every frame and cap the preview frame rate by its stall duration.
+ * In {@link Mode#REGULAR} the still surface is a JPEG stream, the shutter issues a
+ * {@link CameraDevice#TEMPLATE_STILL_CAPTURE} request and waits for its frame.
+ */
+public class StillCapture {
+
+    private static final String TAG = StillCapture.class.getSimpleName();
+    private static final long CAPTURE_TIMEOUT_MS = 3000;
+    // a frame follows its capture result or the previous frame closely, one that didn't come by then was lost
+    private static final long FRAME_TIMEOUT_MS = 1000;
+    private static final int JPEG_QUALITY = 95;
+    // longer side of the Exif thumbnail of ZSL stills, large enough for gallery thumbnails
+    private static final int THUMBNAIL_MAX_SIZE = 512;
+    private static final int THUMBNAIL_QUALITY = 80;
+    private static final Runnable NO_RELEASE = () -> {
+    };
+
+    public enum Mode {
+        ZSL,
+        REGULAR
+    }
+
+    private final CameraHelper mCameraHelper;
+    private final Mode mMode;
+    private final ImageReader mImageReader;
+    /**
+     * Closes the reader once {@link #close()} was called and frames taken for encoding are done
+     */
+    private final ReferenceCount mReaderReferences;
+    private final ZslRingBuffer mRingBuffer;
+    private final boolean mRealtimeTimestamps;
+    private final YuvConverter mYuvConverter = new YuvConverter(null);
+    private final Subject<Long> mFrameAdded = PublishSubject.<Long>create().toSerialized();
+    private Disposable mFramesDisposable;
+    private volatile long mLastShutterLatencyNanos = -1;
+
+    /**
+     * @param capacity frames kept in the ring buffer, bounds the memory held by still capture to roughly
+     *                 {@code capacity} YUV buffers in {@link Mode#ZSL}, or JPEG buffers otherwise, of
+     *                 {@link CameraHelper.CameraParams#stillImageSize}
+     */
+    public StillCapture(@NonNull CameraHelper cameraHelper, @NonNull Mode mode, int capacity) {
+        mCameraHelper = cameraHelper;
+        mMode = mode;
+        mRingBuffer = new ZslRingBuffer(capacity);
+        // one frame more than the ring holds, so a new frame can be acquired before the oldest one is pushed out
+        mImageReader = CameraHelper.createStillImageReader(cameraHelper.getCameraParams().stillImageSize,
+                mode == Mode.ZSL ? ImageFormat.YUV_420_888 : ImageFormat.JPEG, capacity + 1);
+        cameraHelper.getResourceTracker().onAcquired(ResourceTracker.Resource.IMAGE_READER);
+        mReaderReferences = new ReferenceCount(() -> {
+            mImageReader.close();
+            mCameraHelper.getResourceTracker().onReleased(ResourceTracker.Resource.IMAGE_READER);
+        });
+        mRealtimeTimestamps = cameraHelper.getCameraParams().timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+    }
+
+    /**
+     * ZSL needs a full size YUV stream next to the preview and analysis streams, a combination only guaranteed from
+     * {@link CameraCharacteristics#INFO_SUPPORTED_HARDWARE_LEVEL_FULL} on, other cameras take stills from a JPEG stream.
+     */
+    @NonNull
+    public static Mode getSupportedMode(@NonNull CameraHelper.CameraParams cameraParams) {
+        int hardwareLevel = cameraParams.hardwareLevel;
+        return hardwareLevel == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_FULL
+                || hardwareLevel == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_3
+                ? Mode.ZSL
+                : Mode.REGULAR;
+    }
+
+    @NonNull
+    public Mode getMode() {
+        return mMode;
+    }
+
+    @NonNull
+    public Surface getSurface() {
+        return mImageReader.getSurface();
+    }
+
+    /**
+     * Starts filling the ring buffer from the still surface.
+     */
+    public void start() {
+        mFramesDisposable = mCameraHelper.createFrameFlowable(mImageReader, mReaderReferences, mRingBuffer.getCapacity() + 1)
+                .subscribe(frame -> {
+                    mRingBuffer.addFrame(frame);
+                    mFrameAdded.onNext(frame.getTimestamp());
+                });
+    }
+
+    /**
+     * Feeds capture results of the repeating request, so buffered frames can be matched with their metadata.
+     * Has to be called before the data is released.
+     */
+    public void onCaptureSessionData(@NonNull CaptureSessionData captureSessionData) {
+        if (mMode != Mode.ZSL || captureSessionData.getEvent() != CaptureSessionEvents.ON_COMPLETED) {
+            return;
+        }
+        FrameMetadata metadata = captureSessionData.getMetadata();
+        if (metadata != null) {
+            mRingBuffer.addMetadata(metadata);
+        }
+    }
+
+    /**
+     * {@link Mode#ZSL} only, returns the buffered frame of a shutter press without waiting for anything. Completes empty
+     * if there is none, or if its capture result is missing or {@code converged} rejects it, e.g. focus was still
+     * moving, then the frame is dropped and the caller prepares 3A and uses
+     * {@link #takePicture(CaptureSessionHandle, long, int)}.
+     *
+     * @param pressTime {@link SystemClock#elapsedRealtimeNanos()} of the press
+     */
+    @NonNull
+    public Maybe<StillImage> takeBufferedPicture(long pressTime, @NonNull Predicate<FrameMetadata> converged) {
+        return Maybe.fromCallable(() -> {
+            // without a realtime time base the newest frame is the closest one
+            ZslRingBuffer.Entry entry = mRingBuffer.takeClosest(mRealtimeTimestamps ? pressTime : Long.MAX_VALUE);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.metadata == null || !converged.test(entry.metadata)) {
+                entry.frame.close();
+                return null;
+            }
+            return toStillImage(encodeJpeg(entry.frame), entry.metadata, pressTime);
+        })
+                // the encode takes tens of milliseconds, keep it off the calling thread
+                .subscribeOn(Schedulers.computation());
+    }
+
+    /**
+     * Returns a still image captured after the call, e.g. once 3A is ready. In {@link Mode#ZSL} it is the first frame
+     * buffered afterwards, otherwise a still capture request. Completes empty if there is no frame to return.
+     *
+     * @param pressTime       {@link SystemClock#elapsedRealtimeNanos()} of the press, taken before anything the capture
+     *                        waited for, like 3A, so the shutter latency covers the wait
+     * @param jpegOrientation {@link CaptureRequest#JPEG_ORIENTATION} of the still, see
+     *                        {@link CameraHelper#getOutputOrientation(int)}. Buffered ZSL frames carry the orientation
+     *                        of the repeating request, it only applies to them if their capture result is missing.
+     */
+    @NonNull
+    public Maybe<StillImage> takePicture(@NonNull CaptureSessionHandle captureSession, long pressTime, int jpegOrientation) {
+        if (mMode == Mode.ZSL) {
+            return Maybe.defer(() -> {
+                long startTime = SystemClock.elapsedRealtimeNanos();
+                // without a realtime time base the next frame is the best guess of one exposed after the call
+                return mFrameAdded.filter(timestamp -> !mRealtimeTimestamps || timestamp >= startTime)
+                        .firstElement()
+                        .timeout(FRAME_TIMEOUT_MS, TimeUnit.MILLISECONDS, Maybe.<Long>empty())
+                        // the encode takes tens of milliseconds, keep it off the image thread
+                        .observeOn(Schedulers.computation())
+                        .flatMap(timestamp -> {
+                            ZslRingBuffer.Entry entry = mRingBuffer.take(timestamp);
+                            if (entry == null) {
+                                return Maybe.empty();
+                            }
+                            FrameMetadata metadata = entry.metadata != null
+                                    ? entry.metadata
+                                    : new FrameMetadata().setJpegOrientation(jpegOrientation);
+                            return Maybe.just(toStillImage(encodeJpeg(entry.frame), metadata, pressTime));
+                        });
+            });
+        }
+        return Maybe.defer(() -> captureSession.capture(createStillRequest(jpegOrientation))
+                .toMaybe()
+                .flatMap(captureSessionData -> {
+                    mCameraHelper.getCameraMetrics().onOtherCapture(captureSessionData.getFrameNumber());
+                    long timestamp = captureSessionData.getTimestamp();
+                    FrameMetadata metadata = captureSessionData.getMetadata();
+                    if (timestamp == CaptureSessionData.NO_VALUE || metadata == null) {
+                        return Maybe.empty();
+                    }
+                    mRingBuffer.addMetadata(metadata);
+                    // frame may already be there, so check once right away and then on every new frame
+                    return mFrameAdded.mergeWith(Observable.just(timestamp))
+                            .filter(__ -> mRingBuffer.contains(timestamp))
+                            .firstElement()
+                            // e.g. after onCaptureBufferLost, there is no frame to return rather than a failed shutter
+                            .timeout(FRAME_TIMEOUT_MS, TimeUnit.MILLISECONDS, Maybe.<Long>empty())
+                            .map(__ -> {
+                                ZslRingBuffer.Entry entry = mRingBuffer.take(timestamp);
+                                return toStillImage(entry.frame, entry.metadata, pressTime);
+                            });
+                })
+                .timeout(CAPTURE_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * @return latency of the last returned still image, -1 if there was none yet
+     */
+    public long getLastShutterLatencyNanos() {
+        return mLastShutterLatencyNanos;
+    }
+
+    public long getFootprintBytes() {
+        return mRingBuffer.getFootprintBytes();
+    }
+
+    /**
+     * Closes the buffered frames, e.g. when the app goes to background, so their images aren't held while paused.
+     */
+    public void clearBuffer() {
+        mRingBuffer.clear();
+    }
+
+    public void close() {
+        if (mFramesDisposable != null) {
+            mFramesDisposable.dispose();
+        }
+        mRingBuffer.clear();
+        mReaderReferences.close();
+    }
+
+    @NonNull
+    private CaptureRequestSpec createStillRequest(int jpegOrientation) {
+        return new CaptureRequestSpec(CameraDevice.TEMPLATE_STILL_CAPTURE, Collections.singletonList(new SurfaceTarget(mImageReader.getSurface())),
+                builder -> {
+                    builder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO);
+                    builder.set(CaptureRequest.JPEG_ORIENTATION, jpegOrientation);
+                });
+    }
+
+    /**
+     * Encodes a buffered YUV frame and closes it. The orientation stays in the metadata, pixels aren't rotated.
+     */
+    @NonNull
+    private Frame encodeJpeg(@NonNull Frame yuv) {
+        int width = yuv.getWidth();
+        int height = yuv.getHeight();
+        long timestamp = yuv.getTimestamp();
+        byte[] nv21;
+        try {
+            nv21 = mYuvConverter.toNv21(yuv, null);
+        } finally {
+            // the reader gets its buffer back before the slower encode
+            yuv.close();
+        }
+        int factor = (Math.max(width, height) + THUMBNAIL_MAX_SIZE - 1) / THUMBNAIL_MAX_SIZE;
+        byte[] thumbnail = compress(YuvConverter.scaleNv21(nv21, width, height, factor),
+                width / factor & ~1, height / factor & ~1, THUMBNAIL_QUALITY);
+        byte[] image = compress(nv21, width, height, JPEG_QUALITY);
+        // YuvImage writes no Exif, ImageSaver carries the thumbnail of this one over like a camera one
+        ByteBuffer exif = new ExifBuilder().setThumbnail(ByteBuffer.wrap(thumbnail)).build();
+        ByteBuffer jpeg = ByteBuffer.allocate(image.length + exif.remaining());
+        jpeg.put(image, 0, 2).put(exif).put(image, 2, image.length - 2).flip();
+        Frame.Plane[] planes = {new Frame.Plane(jpeg, 0, 1)};
+        return new Frame(ImageFormat.JPEG, width, height, timestamp, planes, NO_RELEASE);
+    }
+
+    @NonNull
+    private static byte[] compress(@NonNull byte[] nv21, int width, int height, int quality) {
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream(width * height / 4);
+        if (!new YuvImage(nv21, ImageFormat.NV21, width, height, null).compressToJpeg(new Rect(0, 0, width, height), quality, jpeg)) {
+            throw new IllegalStateException("JPEG encode failed");
+        }
+        return jpeg.toByteArray();
+    }
+
+    @NonNull
+    private StillImage toStillImage(@NonNull Frame frame, @Nullable FrameMetadata metadata, long pressTime) {
+        long latency = SystemClock.elapsedRealtimeNanos() - pressTime;
+        long frameOffset = frame.getTimestamp() - pressTime;
+        mLastShutterLatencyNanos = latency;
+        Log.d(TAG, "Still image " + mMode + ": shutter latency " + TimeUnit.NANOSECONDS.toMicros(latency) + "us, frame offset "
+                + (mRealtimeTimestamps ? TimeUnit.NANOSECONDS.toMillis(frameOffset) + "ms" : "unknown"));
+        return new StillImage(frame, metadata, latency, frameOffset);
+    }
+}
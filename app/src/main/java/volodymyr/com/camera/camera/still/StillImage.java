@@ -0,0 +1,38 @@
+package volodymyr.com.camera.camera.still;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+
+/**
+ * Captured JPEG together with its capture metadata and shutter timing. Has to be closed once the JPEG is consumed.
+ */
+public class StillImage implements AutoCloseable {
+    @NonNull
+    public final Frame frame;
+    @Nullable
+    public final FrameMetadata metadata;
+    /**
+     * Time from the shutter press until the image was handed to the caller.
+     */
+    public final long shutterLatencyNanos;
+    /**
+     * Sensor timestamp of the frame minus the shutter press time, negative if the frame was exposed before the press.
+     * Only meaningful if the sensor timestamps share the time base with {@link android.os.SystemClock#elapsedRealtimeNanos()}.
+     */
+    public final long frameOffsetNanos;
+
+    StillImage(@NonNull Frame frame, @Nullable FrameMetadata metadata, long shutterLatencyNanos, long frameOffsetNanos) {
+        this.frame = frame;
+        this.metadata = metadata;
+        this.shutterLatencyNanos = shutterLatencyNanos;
+        this.frameOffsetNanos = frameOffsetNanos;
+    }
+
+    @Override
+    public void close() {
+        frame.close();
+    }
+}
@@ -0,0 +1,157 @@
+package volodymyr.com.camera.camera.still;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+import volodymyr.com.camera.camera.metadata.FrameMetadataRing;
+
+/**
+ * Keeps the last {@code capacity} frames together with the metadata of their capture results,
+ * joined by sensor timestamp. Frames pushed out of the buffer are closed.
+ */
+public class ZslRingBuffer {
+
+    private static final int RESULTS_PER_FRAME = 4;
+
+    public static class Entry {
+        @NonNull
+        public final Frame frame;
+        @Nullable
+        public final FrameMetadata metadata;
+
+        Entry(@NonNull Frame frame, @Nullable FrameMetadata metadata) {
+            this.frame = frame;
+            this.metadata = metadata;
+        }
+    }
+
+    private final Frame[] mFrames;
+    private int mHead;
+    private int mSize;
+
+    // results arrive independently of frames and usually a bit earlier, keep a few more of them
+    private final FrameMetadataRing mMetadata;
+
+    public ZslRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mFrames = new Frame[capacity];
+        mMetadata = new FrameMetadataRing(capacity * RESULTS_PER_FRAME);
+    }
+
+    public int getCapacity() {
+        return mFrames.length;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public synchronized void addFrame(@NonNull Frame frame) {
+        if (mSize == mFrames.length) {
+            mFrames[mHead].close();
+            mFrames[mHead] = null;
+            mHead = (mHead + 1) % mFrames.length;
+            mSize--;
+        }
+        mFrames[(mHead + mSize) % mFrames.length] = frame;
+        mSize++;
+    }
+
+    /**
+     * Keeps a copy of {@code metadata}.
+     */
+    public void addMetadata(@NonNull FrameMetadata metadata) {
+        mMetadata.add(metadata);
+    }
+
+    public synchronized boolean contains(long timestamp) {
+        return indexOf(timestamp) >= 0;
+    }
+
+    /**
+     * Removes the frame closest to {@code timestamp}, preferring frames whose capture result has already arrived.
+     * The caller owns the returned frame and has to close it.
+     *
+     * @return {@code null} if the buffer is empty
+     */
+    @Nullable
+    public synchronized Entry takeClosest(long timestamp) {
+        int closest = -1;
+        long closestDistance = Long.MAX_VALUE;
+        boolean closestHasResult = false;
+        for (int i = 0; i < mSize; i++) {
+            long frameTimestamp = mFrames[(mHead + i) % mFrames.length].getTimestamp();
+            long distance = Math.abs(frameTimestamp - timestamp);
+            boolean hasResult = mMetadata.containsTimestamp(frameTimestamp);
+            if ((hasResult && !closestHasResult) || (hasResult == closestHasResult && distance < closestDistance)) {
+                closest = i;
+                closestDistance = distance;
+                closestHasResult = hasResult;
+            }
+        }
+        return closest < 0 ? null : remove(closest);
+    }
+
+    /**
+     * Removes the frame with exactly {@code timestamp}. The caller owns the returned frame and has to close it.
+     *
+     * @return {@code null} if there is no such frame
+     */
+    @Nullable
+    public synchronized Entry take(long timestamp) {
+        int index = indexOf(timestamp);
+        return index < 0 ? null : remove(index);
+    }
+
+    /**
+     * @return bytes currently held by the buffered frames
+     */
+    public synchronized long getFootprintBytes() {
+        long bytes = 0;
+        for (int i = 0; i < mSize; i++) {
+            Frame frame = mFrames[(mHead + i) % mFrames.length];
+            for (int plane = 0; plane < frame.getPlaneCount(); plane++) {
+                bytes += frame.getPlane(plane).buffer.capacity();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Closes all buffered frames and forgets all results.
+     */
+    public synchronized void clear() {
+        while (mSize > 0) {
+            mFrames[mHead].close();
+            mFrames[mHead] = null;
+            mHead = (mHead + 1) % mFrames.length;
+            mSize--;
+        }
+        mMetadata.clear();
+    }
+
+    private int indexOf(long timestamp) {
+        for (int i = 0; i < mSize; i++) {
+            if (mFrames[(mHead + i) % mFrames.length].getTimestamp() == timestamp) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Entry remove(int index) {
+        Frame frame = mFrames[(mHead + index) % mFrames.length];
+        // shift the newer frames one slot back to keep the ring contiguous
+        for (int i = index; i < mSize - 1; i++) {
+            mFrames[(mHead + i) % mFrames.length] = mFrames[(mHead + i + 1) % mFrames.length];
+        }
+        mFrames[(mHead + mSize - 1) % mFrames.length] = null;
+        mSize--;
+        FrameMetadata metadata = new FrameMetadata();
+        return new Entry(frame, mMetadata.findByTimestamp(frame.getTimestamp(), metadata) ? metadata : null);
+    }
+}
@@ -0,0 +1,269 @@
+package volodymyr.com.camera.camera.storage;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Builds a JPEG APP1 Exif segment with the basic capture metadata and an optional JPEG thumbnail in IFD1. Unset values
+ * are left out.
+ */
+public class ExifBuilder {
+
+    static final int APP1_MARKER = 0xFFE1;
+    static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    static final int TAG_MAKE = 0x010F;
+    static final int TAG_MODEL = 0x0110;
+    static final int TAG_COMPRESSION = 0x0103;
+    static final int TAG_ORIENTATION = 0x0112;
+    static final int TAG_DATE_TIME = 0x0132;
+    static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+    static final int TAG_EXIF_IFD_POINTER = 0x8769;
+    static final int TAG_EXPOSURE_TIME = 0x829A;
+    static final int TAG_F_NUMBER = 0x829D;
+    static final int TAG_ISO_SPEED_RATINGS = 0x8827;
+    static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    static final int TAG_FOCAL_LENGTH = 0x920A;
+
+    private static final short TYPE_ASCII = 2;
+    private static final short TYPE_SHORT = 3;
+    private static final short TYPE_LONG = 4;
+    private static final short TYPE_RATIONAL = 5;
+    private static final int TIFF_HEADER_SIZE = 8;
+    private static final int ENTRY_SIZE = 12;
+    private static final int MAX_SEGMENT_LENGTH = 0xFFFF;
+    private static final short COMPRESSION_JPEG = 6;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final List<Entry> mIfd0 = new ArrayList<>();
+    private final List<Entry> mExifIfd = new ArrayList<>();
+    @Nullable
+    private ByteBuffer mThumbnail;
+
+    @NonNull
+    public ExifBuilder setMake(@NonNull String make) {
+        mIfd0.add(ascii(TAG_MAKE, make));
+        return this;
+    }
+
+    @NonNull
+    public ExifBuilder setModel(@NonNull String model) {
+        mIfd0.add(ascii(TAG_MODEL, model));
+        return this;
+    }
+
+    /**
+     * @param degrees clockwise rotation needed to show the image upright, one of 0, 90, 180, 270
+     */
+    @NonNull
+    public ExifBuilder setOrientation(int degrees) {
+        int orientation;
+        switch ((degrees % 360 + 360) % 360) {
+            case 90:
+                orientation = 6;
+                break;
+            case 180:
+                orientation = 3;
+                break;
+            case 270:
+                orientation = 8;
+                break;
+            default:
+                orientation = 1;
+        }
+        mIfd0.add(new Entry(TAG_ORIENTATION, TYPE_SHORT, 1, ByteBuffer.allocate(2).putShort((short) orientation).array()));
+        return this;
+    }
+
+    @NonNull
+    public ExifBuilder setDateTime(long timeMillis) {
+        String dateTime = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US).format(new Date(timeMillis));
+        mIfd0.add(ascii(TAG_DATE_TIME, dateTime));
+        mExifIfd.add(ascii(TAG_DATE_TIME_ORIGINAL, dateTime));
+        return this;
+    }
+
+    @NonNull
+    public ExifBuilder setExposureTimeNanos(long exposureTimeNanos) {
+        mExifIfd.add(rational(TAG_EXPOSURE_TIME, exposureTimeNanos / 1000, 1_000_000));
+        return this;
+    }
+
+    @NonNull
+    public ExifBuilder setFNumber(float fNumber) {
+        mExifIfd.add(rational(TAG_F_NUMBER, Math.round(fNumber * 100), 100));
+        return this;
+    }
+
+    @NonNull
+    public ExifBuilder setFocalLength(float focalLengthMm) {
+        mExifIfd.add(rational(TAG_FOCAL_LENGTH, Math.round(focalLengthMm * 100), 100));
+        return this;
+    }
+
+    @NonNull
+    public ExifBuilder setIso(int iso) {
+        mExifIfd.add(new Entry(TAG_ISO_SPEED_RATINGS, TYPE_SHORT, 1,
+                ByteBuffer.allocate(2).putShort((short) Math.min(iso, 0xFFFF)).array()));
+        return this;
+    }
+
+    /**
+     * @param jpeg thumbnail, its remaining bytes are copied on {@link #build()}, left out then if the segment would
+     *             outgrow the 64 KB a JPEG segment can hold
+     */
+    @NonNull
+    public ExifBuilder setThumbnail(@NonNull ByteBuffer jpeg) {
+        mThumbnail = jpeg.duplicate();
+        return this;
+    }
+
+    /**
+     * @return APP1 segment including its marker, flipped for reading
+     */
+    @NonNull
+    public ByteBuffer build() {
+        List<Entry> ifd0 = new ArrayList<>(mIfd0);
+        List<Entry> exifIfd = new ArrayList<>(mExifIfd);
+        int ifd0Size = ifdSize(ifd0, !exifIfd.isEmpty());
+        if (!exifIfd.isEmpty()) {
+            int exifIfdOffset = TIFF_HEADER_SIZE + ifd0Size;
+            ifd0.add(new Entry(TAG_EXIF_IFD_POINTER, TYPE_LONG, 1, ByteBuffer.allocate(4).putInt(exifIfdOffset).array()));
+        }
+        int tiffSize = TIFF_HEADER_SIZE + ifd0Size + (exifIfd.isEmpty() ? 0 : ifdSize(exifIfd, false));
+        int segmentLength = 2 + EXIF_HEADER.length + tiffSize;
+        if (segmentLength > MAX_SEGMENT_LENGTH) {
+            throw new IllegalStateException("Exif segment too large: " + segmentLength);
+        }
+        // IFD1 holds no values of its own in the data area, the thumbnail follows right after it
+        List<Entry> ifd1 = new ArrayList<>();
+        int ifd1Offset = tiffSize;
+        int thumbnailLength = mThumbnail == null ? 0 : mThumbnail.remaining();
+        int ifd1Size = 2 + 3 * ENTRY_SIZE + 4;
+        if (thumbnailLength > 0 && segmentLength + ifd1Size + thumbnailLength <= MAX_SEGMENT_LENGTH) {
+            ifd1.add(new Entry(TAG_COMPRESSION, TYPE_SHORT, 1, ByteBuffer.allocate(2).putShort(COMPRESSION_JPEG).array()));
+            ifd1.add(new Entry(TAG_JPEG_INTERCHANGE_FORMAT, TYPE_LONG, 1,
+                    ByteBuffer.allocate(4).putInt(ifd1Offset + ifd1Size).array()));
+            ifd1.add(new Entry(TAG_JPEG_INTERCHANGE_FORMAT_LENGTH, TYPE_LONG, 1,
+                    ByteBuffer.allocate(4).putInt(thumbnailLength).array()));
+            segmentLength += ifd1Size + thumbnailLength;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(2 + segmentLength).order(ByteOrder.BIG_ENDIAN);
+        buffer.putShort((short) APP1_MARKER);
+        buffer.putShort((short) segmentLength);
+        buffer.put(EXIF_HEADER);
+        int tiffStart = buffer.position();
+        buffer.put((byte) 'M').put((byte) 'M').putShort((short) 0x002A).putInt(TIFF_HEADER_SIZE);
+        writeIfd(buffer, tiffStart, ifd0, ifd1.isEmpty() ? 0 : ifd1Offset);
+        if (!exifIfd.isEmpty()) {
+            writeIfd(buffer, tiffStart, exifIfd, 0);
+        }
+        if (!ifd1.isEmpty()) {
+            writeIfd(buffer, tiffStart, ifd1, 0);
+            buffer.put(mThumbnail.duplicate());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int ifdSize(@NonNull List<Entry> entries, boolean withExifPointer) {
+        int count = entries.size() + (withExifPointer ? 1 : 0);
+        int size = 2 + count * ENTRY_SIZE + 4;
+        for (Entry entry : entries) {
+            size += entry.externalSize();
+        }
+        return size;
+    }
+
+    /**
+     * Writes entries sorted by tag, values longer than 4 bytes go to the data area right after the entries.
+     *
+     * @param nextIfdOffset offset of the IFD chained after this one, 0 for none
+     */
+    private static void writeIfd(@NonNull ByteBuffer buffer, int tiffStart, @NonNull List<Entry> entries,
+                                 int nextIfdOffset) {
+        Collections.sort(entries, (lhs, rhs) -> lhs.tag - rhs.tag);
+        int dataOffset = buffer.position() - tiffStart + 2 + entries.size() * ENTRY_SIZE + 4;
+        buffer.putShort((short) entries.size());
+        for (Entry entry : entries) {
+            buffer.putShort((short) entry.tag).putShort(entry.type).putInt(entry.count);
+            if (entry.value.length <= 4) {
+                buffer.put(entry.value);
+                for (int i = entry.value.length; i < 4; i++) {
+                    buffer.put((byte) 0);
+                }
+            } else {
+                buffer.putInt(dataOffset);
+                dataOffset += entry.externalSize();
+            }
+        }
+        buffer.putInt(nextIfdOffset);
+        for (Entry entry : entries) {
+            if (entry.value.length > 4) {
+                buffer.put(entry.value);
+                if (entry.value.length % 2 != 0) {
+                    buffer.put((byte) 0);
+                }
+            }
+        }
+    }
+
+    @NonNull
+    private static Entry ascii(int tag, @NonNull String value) {
+        byte[] bytes = (value + '\0').getBytes(ASCII);
+        return new Entry(tag, TYPE_ASCII, bytes.length, bytes);
+    }
+
+    @NonNull
+    private static Entry rational(int tag, long numerator, long denominator) {
+        long gcd = gcd(numerator, denominator);
+        if (gcd > 1) {
+            numerator /= gcd;
+            denominator /= gcd;
+        }
+        byte[] bytes = ByteBuffer.allocate(8).putInt((int) numerator).putInt((int) denominator).array();
+        return new Entry(tag, TYPE_RATIONAL, 1, bytes);
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return Math.abs(a);
+    }
+
+    private static class Entry {
+        final int tag;
+        final short type;
+        final int count;
+        final byte[] value;
+
+        Entry(int tag, short type, int count, @NonNull byte[] value) {
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+            this.value = value;
+        }
+
+        /**
+         * Bytes taken in the data area, values have to start on a word boundary.
+         */
+        int externalSize() {
+            return value.length <= 4 ? 0 : value.length + value.length % 2;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package volodymyr.com.camera.camera.storage;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+
+/**
+ * Persists JPEG frames off the capture thread.
+ * <p>
+ * The JPEG is written from the frame's direct buffer straight into a {@link FileChannel}, prefixed by an Exif segment
+ * built from the capture metadata, and the frame is closed right after the write so its buffer returns to the camera.
+ * Files are synced in batches of up to {@code syncBatchSize}, or earlier once the queue runs empty, and only show up
+ * under their final name after the sync, so a crash never leaves a truncated JPEG behind.
+ */
+public class ImageSaver {
+
+    private static final String TAG = ImageSaver.class.getSimpleName();
+    private static final int JPEG_SOI = 0xFFD8;
+
+    public enum OverflowPolicy {
+        /**
+         * Drop the image being saved.
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the oldest queued image to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * Block the caller until there is room, never use it on a camera thread.
+         */
+        WAIT
+    }
+
+    private final File mDirectory;
+    private final OverflowPolicy mOverflowPolicy;
+    private final int mSyncBatchSize;
+    private final String mMake;
+    private final String mModel;
+    private final BlockingQueue<Job> mQueue;
+    private final Scheduler.Worker mWorker;
+    private final AtomicInteger mWip = new AtomicInteger();
+    private final AtomicLong mSequence = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mSavedCount = new AtomicLong();
+    private final AtomicLong mFailedCount = new AtomicLong();
+    private final Subject<File> mSavedFiles = PublishSubject.<File>create().toSerialized();
+    // touched only by the worker
+    private final List<PendingFile> mPendingFiles = new ArrayList<>();
+    private volatile boolean mClosed;
+    // set by the worker once it wrote its last job, anything queued afterwards is closed unwritten
+    private volatile boolean mTerminated;
+
+    /**
+     * @param capacity images queued for writing at most, bounds the camera buffers held by the saver
+     * @param make     Exif make, usually {@link android.os.Build#MANUFACTURER}
+     * @param model    Exif model, usually {@link android.os.Build#MODEL}
+     */
+    public ImageSaver(@NonNull File directory, int capacity, @NonNull OverflowPolicy overflowPolicy, int syncBatchSize,
+                      @NonNull Scheduler scheduler, @NonNull String make, @NonNull String model) {
+        if (capacity <= 0 || syncBatchSize <= 0) {
+            throw new IllegalArgumentException("capacity and syncBatchSize must be positive");
+        }
+        mDirectory = directory;
+        mOverflowPolicy = overflowPolicy;
+        mSyncBatchSize = syncBatchSize;
+        mMake = make;
+        mModel = model;
+        mQueue = new ArrayBlockingQueue<>(capacity);
+        mWorker = scheduler.createWorker();
+    }
+
+    /**
+     * Queues {@code jpeg} for writing, the saver takes ownership and closes it.
+     *
+     * @return false if the image, or with {@link OverflowPolicy#DROP_OLDEST} an older one, was dropped
+     */
+    public boolean save(@NonNull Frame jpeg, @Nullable FrameMetadata metadata) throws InterruptedException {
+        if (mClosed) {
+            jpeg.close();
+            throw new IllegalStateException("Saver is closed");
+        }
+        Job job = new Job(jpeg, metadata, System.currentTimeMillis());
+        boolean dropped = false;
+        switch (mOverflowPolicy) {
+            case DROP_NEWEST:
+                if (!mQueue.offer(job)) {
+                    onDropped(job);
+                    return false;
+                }
+                break;
+            case DROP_OLDEST:
+                while (!mQueue.offer(job)) {
+                    Job oldest = mQueue.poll();
+                    if (oldest != null) {
+                        onDropped(oldest);
+                        dropped = true;
+                    }
+                }
+                break;
+            case WAIT:
+                mQueue.put(job);
+                break;
+        }
+        // a save racing close() may have queued behind the final drain, whoever takes the job out of the queue closes it
+        if (mTerminated && mQueue.remove(job)) {
+            job.jpeg.close();
+            throw new IllegalStateException("Saver is closed");
+        }
+        if (mWip.getAndIncrement() == 0) {
+            mWorker.schedule(this::drain);
+        }
+        return !dropped;
+    }
+
+    /**
+     * Emits every file once it is synced and visible under its final name, completes after {@link #close()}.
+     */
+    @NonNull
+    public Observable<File> getSavedFiles() {
+        return mSavedFiles;
+    }
+
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    public long getSavedCount() {
+        return mSavedCount.get();
+    }
+
+    public long getFailedCount() {
+        return mFailedCount.get();
+    }
+
+    /**
+     * Stops taking new images. Queued ones are still written and synced in background.
+     */
+    public void close() {
+        mClosed = true;
+        mWorker.schedule(() -> {
+            writeQueued();
+            syncPending();
+            mTerminated = true;
+            Job leftover;
+            while ((leftover = mQueue.poll()) != null) {
+                leftover.jpeg.close();
+            }
+            mSavedFiles.onComplete();
+            mWorker.dispose();
+        });
+    }
+
+    private void drain() {
+        int missed = 1;
+        while (true) {
+            writeQueued();
+            // queue ran empty, don't keep written files waiting for a full batch
+            syncPending();
+            missed = mWip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    private void writeQueued() {
+        Job job;
+        while ((job = mQueue.poll()) != null) {
+            write(job);
+            if (mPendingFiles.size() >= mSyncBatchSize) {
+                syncPending();
+            }
+        }
+    }
+
+    private void write(@NonNull Job job) {
+        String name = "IMG_" + job.timeMillis + "_" + mSequence.getAndIncrement() + ".jpg";
+        File file = new File(mDirectory, name);
+        File tmpFile = new File(mDirectory, name + ".tmp");
+        FileOutputStream out = null;
+        try {
+            ByteBuffer jpeg = job.jpeg.getPlane(0).buffer.duplicate();
+            int imageStart = JpegSegments.skipExif(jpeg);
+            ByteBuffer header = createHeader(job, jpeg);
+            jpeg.position(imageStart);
+            out = new FileOutputStream(tmpFile);
+            FileChannel channel = out.getChannel();
+            ByteBuffer[] buffers = {header, jpeg};
+            while (jpeg.hasRemaining()) {
+                channel.write(buffers);
+            }
+            mPendingFiles.add(new PendingFile(out, tmpFile, file));
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to write " + file, e);
+            mFailedCount.incrementAndGet();
+            closeQuietly(out);
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+        } finally {
+            job.jpeg.close();
+        }
+    }
+
+    private void syncPending() {
+        for (PendingFile pendingFile : mPendingFiles) {
+            try {
+                pendingFile.out.getChannel().force(false);
+                pendingFile.out.close();
+                if (!pendingFile.tmpFile.renameTo(pendingFile.file)) {
+                    throw new IOException("Rename failed " + pendingFile.tmpFile);
+                }
+                mSavedCount.incrementAndGet();
+                mSavedFiles.onNext(pendingFile.file);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to sync " + pendingFile.file, e);
+                mFailedCount.incrementAndGet();
+                closeQuietly(pendingFile.out);
+                //noinspection ResultOfMethodCallIgnored
+                pendingFile.tmpFile.delete();
+            }
+        }
+        mPendingFiles.clear();
+    }
+
+    /**
+     * SOI marker followed by the Exif segment, the camera JPEG is written after it without its own SOI and Exif.
+     * <p>
+     * The thumbnail and orientation of the camera's Exif are kept. The camera may rotate the pixels instead of tagging
+     * the requested JPEG orientation, its own tag says which one it did.
+     */
+    @NonNull
+    private ByteBuffer createHeader(@NonNull Job job, @NonNull ByteBuffer cameraJpeg) {
+        ExifBuilder exif = new ExifBuilder()
+                .setMake(mMake)
+                .setModel(mModel)
+                .setDateTime(job.timeMillis);
+        ByteBuffer thumbnail = JpegSegments.findThumbnail(cameraJpeg);
+        if (thumbnail != null) {
+            exif.setThumbnail(thumbnail);
+        }
+        int cameraOrientation = JpegSegments.readOrientation(cameraJpeg);
+        if (cameraOrientation != JpegSegments.NO_ORIENTATION) {
+            exif.setOrientation(cameraOrientation);
+        }
+        FrameMetadata metadata = job.metadata;
+        if (metadata != null) {
+            if (cameraOrientation == JpegSegments.NO_ORIENTATION
+                    && metadata.getJpegOrientation() != FrameMetadata.NO_VALUE) {
+                exif.setOrientation(metadata.getJpegOrientation());
+            }
+            if (metadata.getExposureTime() != FrameMetadata.NO_VALUE) {
+                exif.setExposureTimeNanos(metadata.getExposureTime());
+            }
+            if (metadata.getSensitivity() != FrameMetadata.NO_VALUE) {
+                exif.setIso(metadata.getSensitivity());
+            }
+            if (metadata.getAperture() != FrameMetadata.NO_VALUE) {
+                exif.setFNumber(metadata.getAperture());
+            }
+            if (metadata.getFocalLength() != FrameMetadata.NO_VALUE) {
+                exif.setFocalLength(metadata.getFocalLength());
+            }
+        }
+        ByteBuffer app1 = exif.build();
+        ByteBuffer header = ByteBuffer.allocate(2 + app1.remaining());
+        header.putShort((short) JPEG_SOI).put(app1).flip();
+        return header;
+    }
+
+    private void onDropped(@NonNull Job job) {
+        mDroppedCount.incrementAndGet();
+        job.jpeg.close();
+    }
+
+    private static void closeQuietly(@Nullable FileOutputStream out) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static class Job {
+        final Frame jpeg;
+        final FrameMetadata metadata;
+        final long timeMillis;
+
+        Job(@NonNull Frame jpeg, @Nullable FrameMetadata metadata, long timeMillis) {
+            this.jpeg = jpeg;
+            this.metadata = metadata;
+            this.timeMillis = timeMillis;
+        }
+    }
+
+    private static class PendingFile {
+        final FileOutputStream out;
+        final File tmpFile;
+        final File file;
+
+        PendingFile(@NonNull FileOutputStream out, @NonNull File tmpFile, @NonNull File file) {
+            this.out = out;
+            this.tmpFile = tmpFile;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package volodymyr.com.camera.camera.storage;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Minimal JPEG marker and Exif parsing, enough to replace the Exif segment without copying the image data and to carry
+ * over what the camera put into the old one.
+ */
+final class JpegSegments {
+
+    static final int NO_ORIENTATION = -1;
+
+    private static final int TIFF_HEADER_SIZE = 8;
+    private static final int ENTRY_SIZE = 12;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+
+    private JpegSegments() {
+    }
+
+    /**
+     * @return absolute offset in {@code jpeg} right after the SOI marker and, if it directly follows, the APP1 Exif segment
+     * @throws IllegalArgumentException if the data doesn't start with SOI
+     */
+    static int skipExif(@NonNull ByteBuffer jpeg) {
+        int start = jpeg.position();
+        if (!startsWithSoi(jpeg)) {
+            throw new IllegalArgumentException("Not a JPEG");
+        }
+        int segmentEnd = exifSegmentEnd(jpeg);
+        return segmentEnd < 0 ? start + 2 : segmentEnd;
+    }
+
+    /**
+     * @return the Exif IFD1 thumbnail as a view into {@code jpeg}, null if there is none or it doesn't fit the segment
+     */
+    @Nullable
+    static ByteBuffer findThumbnail(@NonNull ByteBuffer jpeg) {
+        ByteBuffer tiff = tiff(jpeg);
+        if (tiff == null) {
+            return null;
+        }
+        int ifd1 = nextIfd(tiff, tiff.getInt(4));
+        int offset = readValue(tiff, ifd1, ExifBuilder.TAG_JPEG_INTERCHANGE_FORMAT);
+        int length = readValue(tiff, ifd1, ExifBuilder.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH);
+        if (offset < TIFF_HEADER_SIZE || length <= 0 || offset > tiff.limit() - length) {
+            return null;
+        }
+        tiff.limit(offset + length).position(offset);
+        return tiff.slice();
+    }
+
+    /**
+     * @return clockwise rotation of the Exif orientation, {@link #NO_ORIENTATION} if it's missing or mirrored
+     */
+    static int readOrientation(@NonNull ByteBuffer jpeg) {
+        ByteBuffer tiff = tiff(jpeg);
+        if (tiff == null) {
+            return NO_ORIENTATION;
+        }
+        switch (readValue(tiff, tiff.getInt(4), ExifBuilder.TAG_ORIENTATION)) {
+            case 1:
+                return 0;
+            case 6:
+                return 90;
+            case 3:
+                return 180;
+            case 8:
+                return 270;
+            default:
+                return NO_ORIENTATION;
+        }
+    }
+
+    private static boolean startsWithSoi(@NonNull ByteBuffer jpeg) {
+        int start = jpeg.position();
+        return jpeg.remaining() >= 2 && (jpeg.get(start) & 0xFF) == 0xFF && (jpeg.get(start + 1) & 0xFF) == 0xD8;
+    }
+
+    /**
+     * @return absolute offset right after the APP1 Exif segment directly following SOI, -1 if there is none
+     */
+    private static int exifSegmentEnd(@NonNull ByteBuffer jpeg) {
+        int offset = jpeg.position() + 2;
+        if (jpeg.limit() - offset < 4 + ExifBuilder.EXIF_HEADER.length
+                || (jpeg.getShort(offset) & 0xFFFF) != ExifBuilder.APP1_MARKER) {
+            return -1;
+        }
+        for (int i = 0; i < ExifBuilder.EXIF_HEADER.length; i++) {
+            if (jpeg.get(offset + 4 + i) != ExifBuilder.EXIF_HEADER[i]) {
+                // APP1 used for something else, like XMP
+                return -1;
+            }
+        }
+        int segmentEnd = offset + 2 + (jpeg.getShort(offset + 2) & 0xFFFF);
+        return segmentEnd <= jpeg.limit() ? segmentEnd : -1;
+    }
+
+    /**
+     * @return the TIFF structure of the Exif segment as its own buffer in its byte order, so Exif offsets index it
+     * directly, null if there is no valid one
+     */
+    @Nullable
+    private static ByteBuffer tiff(@NonNull ByteBuffer jpeg) {
+        if (!startsWithSoi(jpeg)) {
+            return null;
+        }
+        int segmentEnd = exifSegmentEnd(jpeg);
+        int tiffStart = jpeg.position() + 2 + 4 + ExifBuilder.EXIF_HEADER.length;
+        if (segmentEnd - tiffStart < TIFF_HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer tiff = jpeg.duplicate();
+        tiff.limit(segmentEnd).position(tiffStart);
+        tiff = tiff.slice();
+        int byteOrder = tiff.getShort(0) & 0xFFFF;
+        if (byteOrder == ('I' << 8 | 'I')) {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (byteOrder != ('M' << 8 | 'M')) {
+            return null;
+        }
+        return tiff.getShort(2) == 0x002A ? tiff : null;
+    }
+
+    private static boolean isIfd(@NonNull ByteBuffer tiff, int ifdOffset) {
+        return ifdOffset >= TIFF_HEADER_SIZE && ifdOffset <= tiff.limit() - 2
+                && (tiff.getShort(ifdOffset) & 0xFFFF) * ENTRY_SIZE + 4 <= tiff.limit() - ifdOffset - 2;
+    }
+
+    /**
+     * @return offset of the IFD chained after the one at {@code ifdOffset}, 0 if there is none
+     */
+    private static int nextIfd(@NonNull ByteBuffer tiff, int ifdOffset) {
+        if (!isIfd(tiff, ifdOffset)) {
+            return 0;
+        }
+        return tiff.getInt(ifdOffset + 2 + (tiff.getShort(ifdOffset) & 0xFFFF) * ENTRY_SIZE);
+    }
+
+    /**
+     * @return value of a single SHORT or LONG entry, -1 if the IFD or entry is missing or has another type
+     */
+    private static int readValue(@NonNull ByteBuffer tiff, int ifdOffset, int tag) {
+        if (!isIfd(tiff, ifdOffset)) {
+            return -1;
+        }
+        int count = tiff.getShort(ifdOffset) & 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            int entry = ifdOffset + 2 + i * ENTRY_SIZE;
+            if ((tiff.getShort(entry) & 0xFFFF) != tag || tiff.getInt(entry + 4) != 1) {
+                continue;
+            }
+            switch (tiff.getShort(entry + 2)) {
+                case TYPE_SHORT:
+                    return tiff.getShort(entry + 8) & 0xFFFF;
+                case TYPE_LONG:
+                    return tiff.getInt(entry + 8);
+                default:
+                    return -1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,122 @@
+package volodymyr.com.camera.camera;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.subscribers.TestSubscriber;
+import volodymyr.com.camera.camera.event.CaptureSessionEvents;
+import volodymyr.com.camera.camera.pojo.CaptureSessionData;
+import volodymyr.com.camera.camera.pojo.CaptureSessionDataPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BackpressureEmitterTest {
+
+    private static final int WARM_UP_CALLBACKS = 1_000;
+    private static final int CALLBACKS = 10_000;
+    private static final long MAX_ALLOCATED_BYTES = 64 * 1024;
+
+    private final CaptureSessionDataPool mPool = new CaptureSessionDataPool(8);
+    private final AtomicReference<BackpressureEmitter<CaptureSessionData>> mEmitter = new AtomicReference<>();
+
+    private Flowable<CaptureSessionData> createFlowable(FrameBackpressure backpressure) {
+        return Flowable.create(flowableEmitter -> {
+            BackpressureEmitter<CaptureSessionData> emitter = new BackpressureEmitter<>(flowableEmitter, backpressure, CaptureSessionData::release);
+            flowableEmitter.setCancellable(emitter::clear);
+            mEmitter.set(emitter);
+        }, BackpressureStrategy.MISSING);
+    }
+
+    private void onCaptureCompleted(long frameNumber) {
+        mEmitter.get().onNext(mPool.obtain()
+                .set(CaptureSessionEvents.ON_COMPLETED, null, null, null)
+                .setFrame(CaptureSessionData.NO_VALUE, frameNumber));
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() throws Exception {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        createFlowable(FrameBackpressure.latest()).subscribe(CaptureSessionData::release);
+        for (int i = 0; i < WARM_UP_CALLBACKS; i++) {
+            onCaptureCompleted(i);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < CALLBACKS; i++) {
+            onCaptureCompleted(i);
+        }
+        long allocated = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        assertEquals(1, mPool.getAllocatedCount());
+        assertTrue("allocated " + allocated + " bytes for " + CALLBACKS + " callbacks", allocated < MAX_ALLOCATED_BYTES);
+    }
+
+    @Test
+    public void dropRecyclesEventsWithoutDemand() throws Exception {
+        TestSubscriber<CaptureSessionData> subscriber = createFlowable(FrameBackpressure.drop()).test(0);
+        for (int i = 0; i < CALLBACKS; i++) {
+            onCaptureCompleted(i);
+        }
+
+        subscriber.assertNoValues();
+        assertEquals(CALLBACKS, mEmitter.get().getDroppedCount());
+        assertEquals(1, mPool.getAllocatedCount());
+    }
+
+    @Test
+    public void latestKeepsMostRecentEvent() throws Exception {
+        TestSubscriber<CaptureSessionData> subscriber = createFlowable(FrameBackpressure.latest()).test(0);
+        for (int i = 0; i < CALLBACKS; i++) {
+            onCaptureCompleted(i);
+        }
+        subscriber.request(1);
+        onCaptureCompleted(CALLBACKS);
+
+        subscriber.assertValueCount(1);
+        assertEquals(CALLBACKS - 1, subscriber.values().get(0).getFrameNumber());
+        assertEquals(CALLBACKS - 1, mEmitter.get().getDroppedCount());
+        assertTrue(mPool.getAllocatedCount() <= 3);
+    }
+
+    @Test
+    public void bufferDropsOldestOnOverflow() throws Exception {
+        TestSubscriber<CaptureSessionData> subscriber = createFlowable(FrameBackpressure.buffer(4)).test(0);
+        for (int i = 0; i < 10; i++) {
+            onCaptureCompleted(i);
+        }
+        subscriber.request(4);
+        onCaptureCompleted(10);
+
+        subscriber.assertValueCount(4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(6 + i, subscriber.values().get(i).getFrameNumber());
+        }
+        assertEquals(6, mEmitter.get().getDroppedCount());
+    }
+
+    @Test
+    public void cancelRecyclesQueuedEvents() throws Exception {
+        TestSubscriber<CaptureSessionData> subscriber = createFlowable(FrameBackpressure.buffer(4)).test(0);
+        for (int i = 0; i < 4; i++) {
+            onCaptureCompleted(i);
+        }
+        subscriber.cancel();
+
+        for (int i = 0; i < CALLBACKS; i++) {
+            onCaptureCompleted(i);
+        }
+        assertEquals(4, mPool.getAllocatedCount());
+    }
+}
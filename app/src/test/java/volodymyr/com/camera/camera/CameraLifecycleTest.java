@@ -0,0 +1,109 @@
+package volodymyr.com.camera.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraDevice;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.schedulers.TestScheduler;
+import volodymyr.com.camera.camera.backend.CaptureRequestSpec;
+import volodymyr.com.camera.camera.backend.FrameTarget;
+import volodymyr.com.camera.camera.backend.OutputTarget;
+import volodymyr.com.camera.camera.backend.sim.SimulatedCameraBackend;
+import volodymyr.com.camera.camera.backend.sim.SimulatedCameraConfig;
+import volodymyr.com.camera.camera.event.CaptureSessionStateEvent;
+import volodymyr.com.camera.camera.event.DeviceStateEvent;
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CameraLifecycleTest {
+
+    private final TestScheduler mScheduler = new TestScheduler();
+    private final ResourceTracker mResourceTracker = new ResourceTracker();
+    private final SimulatedCameraBackend mBackend = new SimulatedCameraBackend(new SimulatedCameraConfig(64, 48, 30), mScheduler,
+            mResourceTracker, "0", "1");
+    private final CameraSwitcher mSwitcher = new CameraSwitcher(mBackend::openCamera, "0");
+    private final FrameTarget mTarget = new FrameTarget(64, 48, ImageFormat.YUV_420_888, 2);
+
+    /**
+     * Streams the current camera into {@link #mTarget} like the activity does, bound to {@code lifecycle}.
+     */
+    private void start(CameraLifecycle lifecycle) {
+        List<OutputTarget> outputs = Collections.singletonList(mTarget);
+        CaptureRequestSpec request = new CaptureRequestSpec(CameraDevice.TEMPLATE_PREVIEW, outputs, null);
+        lifecycle.add(mSwitcher.getDevice(mSwitcher.getCameraId())
+                .filter(pair -> pair.param1 == DeviceStateEvent.ON_OPENED)
+                .switchMap(pair -> pair.param2.createCaptureSession(outputs))
+                .filter(pair -> pair.param1 == CaptureSessionStateEvent.ON_CONFIGURED)
+                .doOnNext(pair -> lifecycle.setCaptureSession(pair.param2))
+                .toFlowable(BackpressureStrategy.LATEST)
+                .switchMap(pair -> pair.param2.getFrames(mTarget)
+                        .mergeWith(pair.param2.setRepeatingRequest(request, FrameBackpressure.latest())
+                                .doOnNext(data -> data.release())
+                                .ignoreElements()
+                                .toFlowable()))
+                .subscribe(frame -> frame.close()));
+        mScheduler.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void pauseReleasesEverything() throws Exception {
+        CameraLifecycle lifecycle = new CameraLifecycle(mSwitcher);
+
+        for (int i = 0; i < 3; i++) {
+            lifecycle.onResume();
+            start(lifecycle);
+            assertEquals(1, mResourceTracker.getLiveCount(ResourceTracker.Resource.DEVICE));
+            assertEquals(1, mResourceTracker.getLiveCount(ResourceTracker.Resource.SESSION));
+            assertEquals(1, mResourceTracker.getLiveCount(ResourceTracker.Resource.IMAGE_READER));
+
+            lifecycle.onPause(false);
+            mScheduler.triggerActions();
+            assertFalse(mResourceTracker.toString(), mResourceTracker.hasLiveResources());
+        }
+        assertEquals(3, mResourceTracker.getAcquiredCount(ResourceTracker.Resource.DEVICE));
+        assertTrue(mResourceTracker.getAcquiredCount(ResourceTracker.Resource.IMAGE) > 3);
+    }
+
+    @Test
+    public void recreationKeepsDeviceOpen() throws Exception {
+        CameraLifecycle lifecycle = new CameraLifecycle(mSwitcher);
+        lifecycle.onResume();
+        start(lifecycle);
+
+        lifecycle.onPause(true);
+        mScheduler.triggerActions();
+        assertEquals(1, mResourceTracker.getLiveCount(ResourceTracker.Resource.DEVICE));
+        assertEquals(0, mResourceTracker.getLiveCount(ResourceTracker.Resource.SESSION));
+        assertEquals(0, mResourceTracker.getLiveCount(ResourceTracker.Resource.IMAGE_READER));
+
+        CameraLifecycle recreated = new CameraLifecycle(mSwitcher);
+        recreated.onResume();
+        start(recreated);
+        assertEquals(1, mResourceTracker.getAcquiredCount(ResourceTracker.Resource.DEVICE));
+        assertEquals(1, mResourceTracker.getLiveCount(ResourceTracker.Resource.SESSION));
+
+        recreated.onPause(false);
+        mScheduler.triggerActions();
+        assertFalse(mResourceTracker.toString(), mResourceTracker.hasLiveResources());
+    }
+
+    @Test
+    public void streamsAddedWhilePausedAreDisposed() throws Exception {
+        CameraLifecycle lifecycle = new CameraLifecycle(mSwitcher);
+
+        start(lifecycle);
+
+        // the switcher keeps a device it opened, only the session is never configured
+        assertFalse(lifecycle.isResumed());
+        assertEquals(0, mResourceTracker.getAcquiredCount(ResourceTracker.Resource.SESSION));
+    }
+}
@@ -0,0 +1,91 @@
+package volodymyr.com.camera.camera;
+
+import android.graphics.Rect;
+import android.util.Size;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CameraParamsCacheTest {
+
+    private static final String FINGERPRINT = "acme/one/one:7.1/N1/1:user/release-keys";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * Every field has a value no other field of its type has, so fields read in the wrong order don't compare equal.
+     */
+    private static CameraHelper.CameraParams createParams() {
+        return new CameraHelper.CameraParams("2", 1, new Size(1920, 1080),
+                new Size[]{new Size(640, 360), new Size(1280, 720), new Size(1920, 1080)},
+                new Size(4032, 2268),
+                new int[]{0, 1, 4}, new int[]{0, 1, 2, 3}, new int[]{1, 5},
+                10.5f, 0.25f, 270, 1,
+                new Size(3840, 2160), 15, 60,
+                new Rect(8, 16, 4040, 3040), 3, 2, 4);
+    }
+
+    @Test
+    public void roundTripsEveryField() throws Exception {
+        File file = mFolder.newFile();
+        CameraHelper.CameraParams params = createParams();
+
+        new CameraParamsCache(file, FINGERPRINT).write(params);
+        CameraHelper.CameraParams read = new CameraParamsCache(file, FINGERPRINT).read();
+
+        assertEquals(params, read);
+        assertEquals("2", read.cameraId);
+        assertEquals(1, read.lensFacing);
+        assertEquals(new Size(1920, 1080), read.previewSize);
+        assertArrayEquals(params.previewSizes, read.previewSizes);
+        assertEquals(new Size(4032, 2268), read.stillImageSize);
+        assertArrayEquals(new int[]{0, 1, 4}, read.afModes);
+        assertArrayEquals(new int[]{0, 1, 2, 3}, read.aeModes);
+        assertArrayEquals(new int[]{1, 5}, read.awbModes);
+        assertEquals(10.5f, read.minFocusDistance, 0);
+        assertEquals(0.25f, read.hyperfocalDistance, 0);
+        assertEquals(270, read.sensorOrientation);
+        assertEquals(1, read.timestampSource);
+        assertEquals(new Size(3840, 2160), read.videoSize);
+        assertEquals(15, read.videoMinFrameRate);
+        assertEquals(60, read.videoMaxFrameRate);
+        assertEquals(new Rect(8, 16, 4040, 3040), read.activeArraySize);
+        assertEquals(3, read.maxAfRegions);
+        assertEquals(2, read.maxAeRegions);
+    }
+
+    @Test
+    public void otherBuildIsRejected() throws Exception {
+        File file = mFolder.newFile();
+        new CameraParamsCache(file, FINGERPRINT).write(createParams());
+
+        assertNull(new CameraParamsCache(file, FINGERPRINT + ".1").read());
+    }
+
+    @Test
+    public void otherVersionIsRejected() throws Exception {
+        File file = mFolder.newFile();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(CameraParamsCache.VERSION - 1);
+            out.writeUTF(FINGERPRINT);
+            createParams().writeTo(out);
+        }
+
+        assertNull(new CameraParamsCache(file, FINGERPRINT).read());
+    }
+
+    @Test
+    public void missingFileIsNoEntry() {
+        assertNull(new CameraParamsCache(new File(mFolder.getRoot(), "absent.bin"), FINGERPRINT).read());
+    }
+}
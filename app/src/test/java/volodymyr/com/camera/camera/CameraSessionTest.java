@@ -0,0 +1,172 @@
+package volodymyr.com.camera.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraDevice;
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subjects.BehaviorSubject;
+import io.reactivex.subjects.PublishSubject;
+import volodymyr.com.camera.camera.backend.CameraDeviceHandle;
+import volodymyr.com.camera.camera.backend.CaptureRequestSpec;
+import volodymyr.com.camera.camera.backend.CaptureSessionHandle;
+import volodymyr.com.camera.camera.backend.FrameTarget;
+import volodymyr.com.camera.camera.backend.OutputTarget;
+import volodymyr.com.camera.camera.backend.sim.SimulatedCameraBackend;
+import volodymyr.com.camera.camera.backend.sim.SimulatedCameraConfig;
+import volodymyr.com.camera.camera.event.CaptureSessionStateEvent;
+import volodymyr.com.camera.camera.event.DeviceStateEvent;
+import volodymyr.com.camera.camera.pojo.CaptureSessionData;
+import volodymyr.com.camera.camera.pojo.Pair;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CameraSessionTest {
+
+    private final TestScheduler mScheduler = new TestScheduler();
+    private final SimulatedCameraBackend mBackend = new SimulatedCameraBackend(new SimulatedCameraConfig(64, 48, 30), mScheduler, "0", "1");
+    private final FrameTarget mTarget = new FrameTarget(64, 48, ImageFormat.YUV_420_888, 2);
+    private final BehaviorSubject<CaptureRequestSpec> mRequests = BehaviorSubject.createDefault(request());
+    private final PublishSubject<Pair<DeviceStateEvent, CameraDeviceHandle>> mDisconnects = PublishSubject.create();
+    private final List<String> mStates = new ArrayList<>();
+    private final List<Throwable> mErrors = new ArrayList<>();
+    private final CompositeDisposable mDisposables = new CompositeDisposable();
+    private int mConfiguredSessions;
+    private int mFailingOpens;
+
+    private final CaptureSessionFactory mSessionFactory = new CaptureSessionFactory() {
+        @NonNull
+        @Override
+        public Observable<Pair<CaptureSessionStateEvent, CaptureSessionHandle>> createCaptureSession(@NonNull CameraDeviceHandle cameraDevice,
+                                                                                                   @NonNull List<OutputTarget> outputs) {
+            mConfiguredSessions++;
+            return cameraDevice.createCaptureSession(outputs);
+        }
+
+        @NonNull
+        @Override
+        public Flowable<CaptureSessionData> fromSetRepeatingRequest(@NonNull CaptureSessionHandle captureSession,
+                                                                    @NonNull CaptureRequestSpec request,
+                                                                    @NonNull FrameBackpressure backpressure) {
+            return captureSession.setRepeatingRequest(request, backpressure);
+        }
+    };
+
+    private final CameraSwitcher mCameraSwitcher = new CameraSwitcher(cameraId -> {
+        if (mFailingOpens > 0) {
+            mFailingOpens--;
+            return Observable.error(new Exception("Camera in use"));
+        }
+        return mBackend.openCamera(cameraId).mergeWith(mDisconnects);
+    }, "0");
+
+    private final CameraSession mCameraSession = new CameraSession(mCameraSwitcher, __ -> mSessionFactory, mScheduler);
+
+    private CaptureRequestSpec request() {
+        return new CaptureRequestSpec(CameraDevice.TEMPLATE_PREVIEW, Collections.<OutputTarget>singletonList(mTarget), null);
+    }
+
+    private void start() {
+        mDisposables.add(mCameraSession.getStates().subscribe(state -> mStates.add(state.type + " " + state.cameraId)));
+        mDisposables.add(mCameraSession.start(
+                __ -> Observable.just(Collections.<OutputTarget>singletonList(mTarget)),
+                __ -> mRequests,
+                FrameBackpressure.latest())
+                .subscribe(CaptureSessionData::release, mErrors::add));
+        mScheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        mDisposables.dispose();
+        mCameraSwitcher.close();
+        mScheduler.triggerActions();
+    }
+
+    @Test
+    public void emitsEachTransitionOnceAndUpdatesRequestsInPlace() {
+        start();
+        assertEquals("[CLOSED 0, OPENING 0, CONFIGURED 0, STREAMING 0]", mStates.toString());
+
+        CaptureRequestSpec request = request();
+        mRequests.onNext(request);
+        mScheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+
+        assertEquals(4, mStates.size());
+        assertEquals(1, mConfiguredSessions);
+        assertSame(request, mCameraSession.getRepeatingRequest());
+    }
+
+    @Test
+    public void reportedErrorEndsTheUsableSession() {
+        start();
+        Exception error = new IllegalStateException("Setup failed");
+
+        mCameraSession.reportError(error);
+
+        assertEquals("ERROR 0", mStates.get(mStates.size() - 1));
+        assertSame(error, mCameraSession.getState().error);
+        assertFalse(mCameraSession.getState().retrying);
+        assertNull(mCameraSession.getCaptureSession());
+    }
+
+    @Test
+    public void reopensDisconnectedDevice() {
+        start();
+        CameraDeviceHandle device = mCameraSession.getState().device;
+
+        mDisconnects.onNext(new Pair<>(DeviceStateEvent.ON_DISCONNECTED, device));
+        assertEquals("ERROR 0", mStates.get(mStates.size() - 1));
+        assertTrue(mCameraSession.getState().retrying);
+        assertNull(mCameraSession.getCaptureSession());
+        mScheduler.advanceTimeBy(CameraSession.RETRY_DELAY_MS + 100, TimeUnit.MILLISECONDS);
+
+        assertEquals("STREAMING 0", mStates.get(mStates.size() - 1));
+        assertEquals(2, mConfiguredSessions);
+    }
+
+    @Test
+    public void givesUpAfterMaxRetries() {
+        mFailingOpens = CameraSession.MAX_RETRIES + 1;
+        start();
+        mScheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+
+        assertEquals("ERROR 0", mStates.get(mStates.size() - 1));
+        assertEquals(false, mCameraSession.getState().retrying);
+        assertEquals(CameraSession.MAX_RETRIES + 1, Collections.frequency(mStates, "OPENING 0"));
+        assertEquals(0, mConfiguredSessions);
+        assertEquals(1, mErrors.size());
+        assertEquals("Camera in use", mErrors.get(0).getMessage());
+    }
+
+    @Test
+    public void switchesOnceTheSessionIsClosed() {
+        start();
+        CaptureSessionHandle session = mCameraSession.getCaptureSession();
+
+        mDisposables.add(mCameraSession.switchTo("1").subscribe());
+        assertEquals("0", mCameraSwitcher.getCameraId());
+        mScheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+
+        assertEquals("1", mCameraSwitcher.getCameraId());
+        assertTrue(mStates.lastIndexOf("CLOSED 0") > mStates.indexOf("STREAMING 0"));
+        assertTrue(mStates.indexOf("OPENING 1") > mStates.lastIndexOf("CLOSED 0"));
+        assertEquals("STREAMING 1", mStates.get(mStates.size() - 1));
+        assertTrue(session != mCameraSession.getCaptureSession());
+    }
+}
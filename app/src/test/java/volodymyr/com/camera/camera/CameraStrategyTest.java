@@ -0,0 +1,66 @@
+package volodymyr.com.camera.camera;
+
+import android.hardware.camera2.CameraCharacteristics;
+import android.util.Size;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CameraStrategyTest {
+
+    private static final Size[] SIZES = {
+            new Size(1920, 1080), new Size(640, 480), new Size(1280, 720), new Size(3840, 2160), new Size(960, 540),
+            new Size(1440, 1080), new Size(640, 360)
+    };
+
+    @Test
+    public void previewSizesKeepAspectRatioUpToMaxSmallestFirst() {
+        Size[] sizes = CameraStrategy.selectWithAspectRatio(SIZES, new Size(1920, 1080));
+
+        assertArrayEquals(new Size[]{new Size(640, 360), new Size(960, 540), new Size(1280, 720), new Size(1920, 1080)}, sizes);
+    }
+
+    @Test
+    public void smallestSizeCoveringViewIsSelected() {
+        Size[] sizes = CameraStrategy.selectWithAspectRatio(SIZES, new Size(1920, 1080));
+
+        // portrait view on a sensor mounted at 90 degrees, the view width covers the buffer height
+        assertEquals(new Size(1280, 720), CameraStrategy.selectPreviewSize(sizes, 720, 1280, 90, 0));
+        assertEquals(new Size(960, 540), CameraStrategy.selectPreviewSize(sizes, 540, 960, 90, 0));
+        assertEquals(new Size(1280, 720), CameraStrategy.selectPreviewSize(sizes, 600, 1000, 270, 180));
+        // landscape display, buffer and view in the same orientation
+        assertEquals(new Size(960, 540), CameraStrategy.selectPreviewSize(sizes, 900, 500, 90, 90));
+    }
+
+    @Test
+    public void viewsLargerThanEverySizeGetTheLargest() {
+        Size[] sizes = CameraStrategy.selectWithAspectRatio(SIZES, new Size(1920, 1080));
+
+        assertEquals(new Size(1920, 1080), CameraStrategy.selectPreviewSize(sizes, 1440, 2560, 90, 0));
+        assertArrayEquals(new Size[]{new Size(720, 720)}, CameraStrategy.selectWithAspectRatio(SIZES, new Size(720, 720)));
+    }
+
+    @Test
+    public void stillSizesAreLimitedToTheOnesAlsoStreamedAsYuv() {
+        Size[] yuvSizes = {new Size(640, 480), new Size(3840, 2160), new Size(320, 240)};
+
+        assertArrayEquals(new Size[]{new Size(640, 480), new Size(3840, 2160)}, CameraStrategy.intersect(SIZES, yuvSizes));
+        assertEquals(0, CameraStrategy.intersect(SIZES, null).length);
+    }
+
+    @Test
+    public void outputOrientationFollowsDeviceAndMirrorsFrontCamera() {
+        int back = CameraCharacteristics.LENS_FACING_BACK;
+        int front = CameraCharacteristics.LENS_FACING_FRONT;
+
+        assertEquals(90, CameraStrategy.getOutputOrientation(90, back, 0));
+        assertEquals(180, CameraStrategy.getOutputOrientation(90, back, 80));
+        assertEquals(0, CameraStrategy.getOutputOrientation(90, back, 280));
+        assertEquals(90, CameraStrategy.getOutputOrientation(90, back, 350));
+        assertEquals(270, CameraStrategy.getOutputOrientation(270, front, 0));
+        assertEquals(180, CameraStrategy.getOutputOrientation(270, front, 90));
+        assertEquals(0, CameraStrategy.getOutputOrientation(270, front, 270));
+    }
+}
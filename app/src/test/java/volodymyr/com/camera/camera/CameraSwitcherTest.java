@@ -0,0 +1,96 @@
+package volodymyr.com.camera.camera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.Observable;
+import io.reactivex.schedulers.TestScheduler;
+import volodymyr.com.camera.camera.backend.CameraDeviceHandle;
+import volodymyr.com.camera.camera.backend.sim.SimulatedCameraBackend;
+import volodymyr.com.camera.camera.backend.sim.SimulatedCameraConfig;
+import volodymyr.com.camera.camera.event.DeviceStateEvent;
+import volodymyr.com.camera.camera.pojo.Pair;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CameraSwitcherTest {
+
+    private final TestScheduler mScheduler = new TestScheduler();
+    private final SimulatedCameraBackend mBackend = new SimulatedCameraBackend(new SimulatedCameraConfig(64, 48, 30), mScheduler, "0", "1");
+    private final List<String> mOpened = new ArrayList<>();
+    private final List<String> mDeviceEvents = new ArrayList<>();
+
+    private Observable<Pair<DeviceStateEvent, CameraDeviceHandle>> open(String cameraId) {
+        mOpened.add(cameraId);
+        return mBackend.openCamera(cameraId);
+    }
+
+    private CameraSwitcher createSwitcher() {
+        CameraSwitcher switcher = new CameraSwitcher(this::open, "0");
+        switcher.getDeviceEvents().subscribe(pair -> mDeviceEvents.add(pair.param1 + " " + pair.param2.getId()));
+        mScheduler.triggerActions();
+        return switcher;
+    }
+
+    @Test
+    public void closesPreviousDeviceWhenConcurrencyIsUnknown() {
+        CameraSwitcher switcher = createSwitcher();
+
+        switcher.switchTo("1");
+        mScheduler.triggerActions();
+
+        assertFalse(switcher.isOpen("0"));
+        assertTrue(switcher.isOpen("1"));
+        assertEquals("ON_OPENED 1", mDeviceEvents.get(mDeviceEvents.size() - 1));
+    }
+
+    @Test
+    public void prewarmedDevicesAreReusedWithoutReopening() {
+        CameraSwitcher switcher = createSwitcher();
+        switcher.prewarm("1");
+        mScheduler.triggerActions();
+
+        // handed out from the open device, without waiting for the scheduler
+        switcher.switchTo("1");
+        assertEquals("ON_OPENED 1", mDeviceEvents.get(mDeviceEvents.size() - 1));
+        switcher.switchTo("0");
+        assertEquals("ON_OPENED 0", mDeviceEvents.get(mDeviceEvents.size() - 1));
+        switcher.switchTo("1");
+
+        assertEquals(2, mOpened.size());
+        assertTrue(switcher.isOpen("0"));
+        assertTrue(switcher.isOpen("1"));
+
+        switcher.close();
+        mScheduler.triggerActions();
+        assertFalse(switcher.isOpen("0"));
+        assertFalse(switcher.isOpen("1"));
+    }
+
+    @Test
+    public void failedPrewarmFallsBackToColdSwitch() {
+        CameraSwitcher switcher = new CameraSwitcher(cameraId -> {
+            mOpened.add(cameraId);
+            // second camera can't be opened next to the first one
+            return cameraId.equals("1") && mOpened.size() == 2
+                    ? Observable.<Pair<DeviceStateEvent, CameraDeviceHandle>>error(new Exception("Camera in use"))
+                    : mBackend.openCamera(cameraId);
+        }, "0");
+        switcher.getDeviceEvents().subscribe(pair -> mDeviceEvents.add(pair.param1 + " " + pair.param2.getId()), throwable -> {
+        });
+        mScheduler.triggerActions();
+
+        switcher.prewarm("1");
+        switcher.switchTo("1");
+        mScheduler.triggerActions();
+        switcher.prewarm("0");
+
+        assertEquals(3, mOpened.size());
+        assertTrue(switcher.isOpen("1"));
+        assertFalse(switcher.isOpen("0"));
+    }
+}
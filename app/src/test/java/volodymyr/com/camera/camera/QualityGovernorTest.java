@@ -0,0 +1,134 @@
+package volodymyr.com.camera.camera;
+
+import android.util.Range;
+import android.util.Size;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.observers.TestObserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QualityGovernorTest {
+
+    private static final long FRAME_INTERVAL = TimeUnit.SECONDS.toNanos(1) / 30;
+
+    private final List<QualityLevel> mLevels = Arrays.asList(
+            new QualityLevel(new Size(1920, 1080), new Range<>(30, 30)),
+            new QualityLevel(new Size(1280, 720), new Range<>(30, 30)),
+            new QualityLevel(new Size(640, 360), new Range<>(30, 30)));
+    private long mTimestamp;
+
+    /**
+     * Feeds a second worth of frames, processing only every {@code step}-th camera frame.
+     */
+    private void runWindow(QualityGovernor governor, int step, long processingNanos) {
+        for (int i = 0; i < 30; i += step) {
+            governor.onFrameProcessed(mTimestamp, processingNanos);
+            mTimestamp += FRAME_INTERVAL * step;
+        }
+    }
+
+    @Test
+    public void stepsDownWhenProcessingExceedsFrameInterval() {
+        QualityGovernor governor = new QualityGovernor(mLevels);
+        TestObserver<QualityLevel> levels = governor.getLevelChanges().test();
+
+        runWindow(governor, 1, FRAME_INTERVAL);
+        runWindow(governor, 1, FRAME_INTERVAL);
+
+        levels.assertValues(mLevels.get(0), mLevels.get(1));
+    }
+
+    @Test
+    public void stepsDownWhenFramesAreSkipped() {
+        QualityGovernor governor = new QualityGovernor(mLevels);
+
+        // a couple of frames at the cadence, then only every third frame
+        governor.onFrameProcessed(mTimestamp, 0);
+        mTimestamp += FRAME_INTERVAL;
+        runWindow(governor, 3, FRAME_INTERVAL / 10);
+        runWindow(governor, 3, FRAME_INTERVAL / 10);
+
+        assertEquals(mLevels.get(1), governor.getLevel());
+    }
+
+    @Test
+    public void stepsUpAfterHealthyWindowsAndBacksOffWhenUpgradeFails() {
+        QualityGovernor governor = new QualityGovernor(mLevels);
+        runWindow(governor, 1, FRAME_INTERVAL);
+        runWindow(governor, 1, FRAME_INTERVAL);
+        assertEquals(mLevels.get(1), governor.getLevel());
+
+        // settling window, then the healthy windows needed to step up
+        runWindow(governor, 1, FRAME_INTERVAL / 10);
+        for (int i = 0; i < QualityGovernor.MIN_UP_WINDOWS; i++) {
+            runWindow(governor, 1, FRAME_INTERVAL / 10);
+        }
+        assertEquals(mLevels.get(0), governor.getLevel());
+
+        // overloaded right after the upgrade, back down and twice as long to wait
+        runWindow(governor, 1, FRAME_INTERVAL);
+        runWindow(governor, 1, FRAME_INTERVAL);
+        assertEquals(mLevels.get(1), governor.getLevel());
+        runWindow(governor, 1, FRAME_INTERVAL / 10);
+        for (int i = 0; i < QualityGovernor.MIN_UP_WINDOWS * 2 - 1; i++) {
+            runWindow(governor, 1, FRAME_INTERVAL / 10);
+        }
+        assertEquals(mLevels.get(1), governor.getLevel());
+        runWindow(governor, 1, FRAME_INTERVAL / 10);
+        assertEquals(mLevels.get(0), governor.getLevel());
+    }
+
+    @Test
+    public void doesNotStepUpWhenNextLevelWouldOverload() {
+        QualityGovernor governor = new QualityGovernor(mLevels);
+        runWindow(governor, 1, FRAME_INTERVAL);
+        runWindow(governor, 1, FRAME_INTERVAL);
+
+        // 1080p has 2.25x the pixels of 720p, half a frame interval there would be over the limit
+        for (int i = 0; i < 10; i++) {
+            runWindow(governor, 1, FRAME_INTERVAL / 2);
+        }
+
+        assertEquals(mLevels.get(1), governor.getLevel());
+    }
+
+    @Test
+    public void holdsLevelWhileDisabled() {
+        QualityGovernor governor = new QualityGovernor(mLevels);
+        governor.setEnabled(false);
+
+        runWindow(governor, 1, FRAME_INTERVAL * 2);
+        runWindow(governor, 1, FRAME_INTERVAL * 2);
+
+        assertEquals(mLevels.get(0), governor.getLevel());
+    }
+
+    @Test
+    public void buildsLadderWithinBudgetInSteps() {
+        Size[] sizes = {new Size(3840, 2160), new Size(1920, 1080), new Size(1600, 1200), new Size(1280, 720),
+                new Size(960, 540), new Size(640, 360), new Size(176, 144)};
+        Range<Integer>[] fpsRanges = fpsRanges(new Range<>(15, 30), new Range<>(30, 30), new Range<>(7, 15), new Range<>(60, 60));
+
+        List<QualityLevel> levels = CameraStrategy.buildQualityLevels(sizes, fpsRanges, new Size(1920, 1080), 1280L * 720 * 30);
+
+        assertEquals(new Size(1280, 720), levels.get(0).size);
+        assertEquals(new Range<>(30, 30), levels.get(0).fpsRange);
+        for (int i = 1; i < levels.size(); i++) {
+            assertTrue(levels.get(i).getPixelRate() <= levels.get(i - 1).getPixelRate() * 0.75f);
+            assertEquals(16 * levels.get(i).size.getHeight(), 9 * levels.get(i).size.getWidth());
+        }
+        assertEquals(new Size(640, 360), levels.get(levels.size() - 1).size);
+    }
+
+    @SafeVarargs
+    private static Range<Integer>[] fpsRanges(Range<Integer>... ranges) {
+        return ranges;
+    }
+}
@@ -0,0 +1,104 @@
+package volodymyr.com.camera.camera.backend;
+
+import android.graphics.ImageFormat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.subscribers.TestSubscriber;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameQueueTest {
+
+    private static final int MAX_FRAMES_IN_FLIGHT = 2;
+
+    private final ResourceTracker mResourceTracker = new ResourceTracker();
+    private final AtomicReference<FrameQueue> mFrameQueue = new AtomicReference<>();
+    private final AtomicInteger mReleasedFrames = new AtomicInteger();
+
+    private final Flowable<Frame> mFrames = Flowable.create(flowableEmitter -> {
+        FrameQueue frameQueue = new FrameQueue(flowableEmitter, MAX_FRAMES_IN_FLIGHT, mResourceTracker);
+        flowableEmitter.setCancellable(frameQueue::clear);
+        mFrameQueue.set(frameQueue);
+    }, BackpressureStrategy.MISSING);
+
+    /**
+     * @return false if the producer had to skip the frame
+     */
+    private boolean produce(long timestamp) {
+        FrameQueue frameQueue = mFrameQueue.get();
+        if (!frameQueue.tryAcquire()) {
+            return false;
+        }
+        Frame.Plane[] planes = {new Frame.Plane(ByteBuffer.allocate(4), 2, 1)};
+        frameQueue.onNext(mReleasedFrames::incrementAndGet,
+                onClose -> new Frame(ImageFormat.YUV_420_888, 2, 2, timestamp, planes, onClose));
+        return true;
+    }
+
+    @Test
+    public void dropsOldestUndeliveredFrameAtTheLimit() {
+        TestSubscriber<Frame> subscriber = mFrames.test(0);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(produce(i));
+        }
+
+        assertEquals(MAX_FRAMES_IN_FLIGHT, mFrameQueue.get().getFramesInFlight());
+        assertEquals(3, mReleasedFrames.get());
+        assertEquals(3, mFrameQueue.get().getDroppedFrames());
+        subscriber.request(Long.MAX_VALUE);
+        subscriber.assertValueCount(0);
+
+        // queued frames go out with the next frame seeing demand, newest kept
+        produce(5);
+        subscriber.assertValueCount(MAX_FRAMES_IN_FLIGHT);
+        assertEquals(4, subscriber.values().get(0).getTimestamp());
+        assertEquals(5, subscriber.values().get(1).getTimestamp());
+    }
+
+    @Test
+    public void skipsFramesWhileTheSubscriberHoldsThemAll() {
+        TestSubscriber<Frame> subscriber = mFrames.test();
+        assertTrue(produce(0));
+        assertTrue(produce(1));
+
+        assertFalse(produce(2));
+        assertEquals(0, mReleasedFrames.get());
+        assertEquals(1, mFrameQueue.get().getDroppedFrames());
+
+        subscriber.values().get(0).close();
+        assertEquals(1, mReleasedFrames.get());
+        assertTrue(produce(3));
+        subscriber.assertValueCount(3);
+    }
+
+    @Test
+    public void cancellationClosesQueuedFramesOnly() {
+        TestSubscriber<Frame> subscriber = mFrames.test(1);
+        produce(0);
+        produce(1);
+        assertEquals(2, mResourceTracker.getLiveCount(ResourceTracker.Resource.IMAGE));
+
+        subscriber.cancel();
+        assertEquals(1, mReleasedFrames.get());
+        assertFalse(produce(2));
+
+        Frame delivered = subscriber.values().get(0);
+        assertFalse(delivered.isClosed());
+        delivered.close();
+        delivered.close();
+        assertEquals(2, mReleasedFrames.get());
+        assertEquals(0, mFrameQueue.get().getFramesInFlight());
+        assertEquals(0, mResourceTracker.getLiveCount(ResourceTracker.Resource.IMAGE));
+    }
+}
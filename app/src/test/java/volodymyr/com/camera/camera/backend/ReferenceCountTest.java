@@ -0,0 +1,54 @@
+package volodymyr.com.camera.camera.backend;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReferenceCountTest {
+
+    private final AtomicInteger mReleased = new AtomicInteger();
+    private final ReferenceCount mReferences = new ReferenceCount(mReleased::incrementAndGet);
+
+    @Test
+    public void releasedWithTheLastFrameAfterTheOwnerClosed() {
+        assertTrue(mReferences.retain());
+        assertTrue(mReferences.retain());
+
+        mReferences.close();
+        mReferences.release();
+        assertEquals(0, mReleased.get());
+
+        mReferences.release();
+        assertEquals(1, mReleased.get());
+        assertTrue(mReferences.isReleased());
+    }
+
+    @Test
+    public void releasedRightAwayWithoutFrames() {
+        mReferences.close();
+        mReferences.close();
+
+        assertEquals(1, mReleased.get());
+    }
+
+    @Test
+    public void nothingIsRetainedOnceClosed() {
+        assertTrue(mReferences.retain());
+        mReferences.close();
+
+        assertFalse(mReferences.retain());
+        mReferences.release();
+        assertFalse(mReferences.retain());
+        assertEquals(1, mReleased.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void extraReleaseFails() {
+        mReferences.close();
+        mReferences.release();
+    }
+}
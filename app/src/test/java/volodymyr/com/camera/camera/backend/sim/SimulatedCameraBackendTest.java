@@ -0,0 +1,167 @@
+package volodymyr.com.camera.camera.backend.sim;
+
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraDevice;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subscribers.TestSubscriber;
+import volodymyr.com.camera.camera.FrameBackpressure;
+import volodymyr.com.camera.camera.backend.CaptureRequestSpec;
+import volodymyr.com.camera.camera.backend.CaptureSessionHandle;
+import volodymyr.com.camera.camera.backend.FrameTarget;
+import volodymyr.com.camera.camera.backend.OutputTarget;
+import volodymyr.com.camera.camera.event.CaptureSessionEvents;
+import volodymyr.com.camera.camera.event.CaptureSessionStateEvent;
+import volodymyr.com.camera.camera.event.DeviceStateEvent;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.pojo.CaptureSessionData;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SimulatedCameraBackendTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private final TestScheduler mScheduler = new TestScheduler();
+    private final FrameTarget mTarget = new FrameTarget(WIDTH, HEIGHT, ImageFormat.YUV_420_888, 2);
+
+    private CaptureSessionHandle openSession(SimulatedCameraConfig config) {
+        SimulatedCameraBackend backend = new SimulatedCameraBackend(config, mScheduler);
+        List<CaptureSessionHandle> sessions = new ArrayList<>();
+        backend.openCamera("0")
+                .filter(pair -> pair.param1 == DeviceStateEvent.ON_OPENED)
+                .flatMap(pair -> pair.param2.createCaptureSession(Collections.<OutputTarget>singletonList(mTarget)))
+                .filter(pair -> pair.param1 == CaptureSessionStateEvent.ON_CONFIGURED)
+                .subscribe(pair -> sessions.add(pair.param2));
+        mScheduler.triggerActions();
+        assertEquals(1, sessions.size());
+        return sessions.get(0);
+    }
+
+    private CaptureRequestSpec previewRequest() {
+        return new CaptureRequestSpec(CameraDevice.TEMPLATE_PREVIEW, Collections.<OutputTarget>singletonList(mTarget), null);
+    }
+
+    @Test
+    public void deliversFramesAtConfiguredRate() {
+        CaptureSessionHandle session = openSession(new SimulatedCameraConfig(WIDTH, HEIGHT, 60));
+        List<Long> frameNumbers = new ArrayList<>();
+        List<Long> frameTimestamps = new ArrayList<>();
+        session.setRepeatingRequest(previewRequest(), FrameBackpressure.latest())
+                .subscribe(data -> {
+                    if (data.getEvent() == CaptureSessionEvents.ON_COMPLETED) {
+                        frameNumbers.add(data.getFrameNumber());
+                    }
+                    data.release();
+                });
+        session.getFrames(mTarget).subscribe(frame -> {
+            frameTimestamps.add(frame.getTimestamp());
+            frame.close();
+        });
+
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        assertTrue(frameNumbers.size() >= 60 && frameNumbers.size() <= 61);
+        for (int i = 0; i < frameNumbers.size(); i++) {
+            assertEquals(i, (long) frameNumbers.get(i));
+        }
+        assertEquals(frameNumbers.size(), frameTimestamps.size());
+    }
+
+    @Test
+    public void jitterStaysWithinBounds() {
+        long jitter = TimeUnit.MILLISECONDS.toNanos(2);
+        SimulatedCameraConfig config = new SimulatedCameraConfig(WIDTH, HEIGHT, 30, jitter, 16, 2);
+        CaptureSessionHandle session = openSession(config);
+        List<Long> timestamps = new ArrayList<>();
+        session.getFrames(mTarget).subscribe(frame -> {
+            timestamps.add(frame.getTimestamp());
+            assertEquals(WIDTH + 16, frame.getPlane(0).rowStride);
+            assertEquals(2, frame.getPlane(1).pixelStride);
+            frame.close();
+        });
+        session.setRepeatingRequest(previewRequest(), FrameBackpressure.latest()).subscribe(data -> data.release());
+
+        mScheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+
+        assertTrue(timestamps.size() > 50);
+        for (int i = 1; i < timestamps.size(); i++) {
+            long interval = timestamps.get(i) - timestamps.get(i - 1);
+            assertTrue(Math.abs(interval - config.getFrameIntervalNanos()) <= jitter);
+        }
+    }
+
+    @Test
+    public void slowConsumerHoldsAtMostMaxFramesInFlight() {
+        CaptureSessionHandle session = openSession(new SimulatedCameraConfig(WIDTH, HEIGHT, 60));
+        TestSubscriber<Frame> frames = session.getFrames(mTarget).test(0);
+        TestSubscriber<?> results = session.setRepeatingRequest(previewRequest(), FrameBackpressure.drop()).test(0);
+
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        frames.request(Long.MAX_VALUE);
+        // queued frames go out with the next one
+        mScheduler.advanceTimeBy(20, TimeUnit.MILLISECONDS);
+
+        // never closed, so no more than maxFramesInFlight buffers were ever handed out
+        assertEquals(mTarget.maxFramesInFlight, frames.valueCount());
+        assertTrue(((SimulatedSession) session).getDroppedFrames(mTarget) >= 58);
+        results.assertNoValues();
+        results.cancel();
+    }
+
+    @Test
+    public void captureBurstTagsEveryRequestAndCompletesSequence() {
+        CaptureSessionHandle session = openSession(new SimulatedCameraConfig(WIDTH, HEIGHT, 30));
+        List<Frame> frames = new ArrayList<>();
+        session.getFrames(mTarget).subscribe(frame -> {
+            frames.add(frame);
+            frame.close();
+        });
+        TestObserver<CaptureSessionData> burst = session.captureBurst(Arrays.asList(previewRequest(), previewRequest(), previewRequest()))
+                .filter(data -> data.getEvent() != CaptureSessionEvents.ON_STARTED)
+                .test();
+
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        burst.assertComplete();
+        burst.assertValueCount(4);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, burst.values().get(i).getBurstIndex());
+        }
+        CaptureSessionData sequenceCompleted = burst.values().get(3);
+        assertEquals(CaptureSessionEvents.ON_SEQUENCE_COMPLETED, sequenceCompleted.getEvent());
+        assertEquals(burst.values().get(2).getFrameNumber(), sequenceCompleted.getFrameNumber());
+        assertEquals(3, frames.size());
+    }
+
+    @Test
+    public void repeatingBurstCyclesThroughRequests() {
+        CaptureSessionHandle session = openSession(new SimulatedCameraConfig(WIDTH, HEIGHT, 240));
+        List<Integer> burstIndices = new ArrayList<>();
+        session.setRepeatingBurst(Arrays.asList(previewRequest(), previewRequest()), FrameBackpressure.latest())
+                .subscribe(data -> {
+                    if (data.getEvent() == CaptureSessionEvents.ON_COMPLETED) {
+                        burstIndices.add(data.getBurstIndex());
+                    }
+                    data.release();
+                });
+
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        assertTrue(burstIndices.size() >= 240 && burstIndices.size() <= 241);
+        for (int i = 0; i < burstIndices.size(); i++) {
+            assertEquals(i % 2, (int) burstIndices.get(i));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package volodymyr.com.camera.camera.control;
+
+import android.graphics.Rect;
+import android.hardware.camera2.params.MeteringRectangle;
+import android.util.Size;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MeteringRegionsTest {
+
+    private static final Rect ACTIVE_ARRAY = new Rect(0, 0, 4000, 3000);
+
+    @Test
+    public void cropsActiveArrayToPreviewAspectRatio() throws Exception {
+        assertEquals(new Rect(0, 375, 4000, 2625), MeteringRegions.getCrop(ACTIVE_ARRAY, new Size(1920, 1080)));
+        assertEquals(new Rect(0, 0, 4000, 3000), MeteringRegions.getCrop(ACTIVE_ARRAY, new Size(640, 480)));
+        assertEquals(new Rect(500, 0, 3500, 3000), MeteringRegions.getCrop(ACTIVE_ARRAY, new Size(1080, 1080)));
+    }
+
+    @Test
+    public void mapsPortraitBackCameraTapToSensor() throws Exception {
+        MeteringRegions regions = new MeteringRegions(ACTIVE_ARRAY, new Size(640, 480), 90, false);
+
+        // the top of a portrait view is the left edge of a sensor mounted at 90 degrees
+        MeteringRectangle top = regions.toSensor(540, 0, 1080, 1440, 0);
+        assertEquals(0, top.getX());
+        assertEquals(1500 - top.getHeight() / 2, top.getY());
+        assertEquals(450, top.getWidth());
+        assertEquals(MeteringRectangle.METERING_WEIGHT_MAX, top.getMeteringWeight());
+
+        // the right of the view is the top of the sensor
+        MeteringRectangle right = regions.toSensor(1080, 720, 1080, 1440, 0);
+        assertEquals(2000 - right.getWidth() / 2, right.getX());
+        assertEquals(0, right.getY());
+
+        // in landscape the view matches the sensor
+        MeteringRectangle landscape = regions.toSensor(1440, 1080, 1440, 1080, 90);
+        assertEquals(4000 - landscape.getWidth(), landscape.getX());
+        assertEquals(3000 - landscape.getHeight(), landscape.getY());
+    }
+
+    @Test
+    public void mirrorsFrontCamera() throws Exception {
+        MeteringRegions regions = new MeteringRegions(ACTIVE_ARRAY, new Size(640, 480), 270, true);
+
+        // the top of the mirrored portrait view is the right edge of a sensor mounted at 270 degrees
+        MeteringRectangle top = regions.toSensor(540, 0, 1080, 1440, 0);
+        assertEquals(4000 - top.getWidth(), top.getX());
+        assertEquals(1500 - top.getHeight() / 2, top.getY());
+
+        // mirrored, the right of the view is still the top of the sensor
+        MeteringRectangle right = regions.toSensor(1080, 720, 1080, 1440, 0);
+        assertEquals(2000 - right.getWidth() / 2, right.getX());
+        assertEquals(0, right.getY());
+    }
+}
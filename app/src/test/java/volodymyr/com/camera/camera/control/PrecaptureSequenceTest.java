@@ -0,0 +1,113 @@
+package volodymyr.com.camera.camera.control;
+
+import android.hardware.camera2.CaptureResult;
+
+import org.junit.Test;
+
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrecaptureSequenceTest {
+
+    @Test
+    public void convergedStatesNeedNoTrigger() throws Exception {
+        PrecaptureSequence sequence = new PrecaptureSequence();
+        sequence.startPrecapture(true);
+
+        assertEquals(PrecaptureSequence.Action.READY, sequence.onResult(1,
+                CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED, CaptureResult.CONTROL_AE_STATE_CONVERGED));
+        assertFalse(sequence.isRunning());
+        assertFalse(sequence.isAfTriggered());
+
+        // LEGACY devices may not report the states at all
+        sequence.startPrecapture(true);
+        assertEquals(PrecaptureSequence.Action.READY, sequence.onResult(2, FrameMetadata.NO_VALUE, FrameMetadata.NO_VALUE));
+    }
+
+    @Test
+    public void bufferedFrameIsConvergedLikeTheSequenceSeesIt() throws Exception {
+        assertTrue(PrecaptureSequence.isConverged(true,
+                CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED, CaptureResult.CONTROL_AE_STATE_CONVERGED));
+        assertTrue(PrecaptureSequence.isConverged(true, FrameMetadata.NO_VALUE, FrameMetadata.NO_VALUE));
+        assertFalse(PrecaptureSequence.isConverged(true,
+                CaptureResult.CONTROL_AF_STATE_PASSIVE_SCAN, CaptureResult.CONTROL_AE_STATE_CONVERGED));
+        assertFalse(PrecaptureSequence.isConverged(true,
+                CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED, CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED));
+        // a fixed-focus lens only waits for exposure
+        assertTrue(PrecaptureSequence.isConverged(false,
+                CaptureResult.CONTROL_AF_STATE_INACTIVE, CaptureResult.CONTROL_AE_STATE_LOCKED));
+    }
+
+    @Test
+    public void locksFocusThenRunsAePrecapture() throws Exception {
+        PrecaptureSequence sequence = new PrecaptureSequence();
+        sequence.startPrecapture(true);
+
+        assertEquals(PrecaptureSequence.Action.TRIGGER_AF, sequence.onResult(1,
+                CaptureResult.CONTROL_AF_STATE_PASSIVE_SCAN, CaptureResult.CONTROL_AE_STATE_SEARCHING));
+        // results before the trigger frame number is known, or of older frames, still show the old state
+        assertEquals(PrecaptureSequence.Action.NONE, sequence.onResult(2,
+                CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED, CaptureResult.CONTROL_AE_STATE_SEARCHING));
+        sequence.onTriggered(4);
+        assertEquals(PrecaptureSequence.Action.NONE, sequence.onResult(4,
+                CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED, CaptureResult.CONTROL_AE_STATE_SEARCHING));
+        assertEquals(PrecaptureSequence.Action.NONE, sequence.onResult(5,
+                CaptureResult.CONTROL_AF_STATE_ACTIVE_SCAN, CaptureResult.CONTROL_AE_STATE_SEARCHING));
+
+        assertEquals(PrecaptureSequence.Action.TRIGGER_AE_PRECAPTURE, sequence.onResult(6,
+                CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED, CaptureResult.CONTROL_AE_STATE_SEARCHING));
+        sequence.onTriggered(7);
+        assertEquals(PrecaptureSequence.Action.NONE, sequence.onResult(8,
+                CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED, CaptureResult.CONTROL_AE_STATE_PRECAPTURE));
+        assertEquals(PrecaptureSequence.Action.NONE, sequence.onResult(9,
+                CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED, CaptureResult.CONTROL_AE_STATE_PRECAPTURE));
+        assertEquals(PrecaptureSequence.Action.READY, sequence.onResult(10,
+                CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED, CaptureResult.CONTROL_AE_STATE_CONVERGED));
+        assertFalse(sequence.isRunning());
+        assertTrue(sequence.isAfTriggered());
+    }
+
+    @Test
+    public void precaptureFinishedWithinTheTriggerFrame() throws Exception {
+        PrecaptureSequence sequence = new PrecaptureSequence();
+        sequence.startPrecapture(false);
+
+        assertEquals(PrecaptureSequence.Action.TRIGGER_AE_PRECAPTURE, sequence.onResult(1,
+                FrameMetadata.NO_VALUE, CaptureResult.CONTROL_AE_STATE_SEARCHING));
+        sequence.onTriggered(2);
+        assertEquals(PrecaptureSequence.Action.NONE, sequence.onResult(2,
+                FrameMetadata.NO_VALUE, CaptureResult.CONTROL_AE_STATE_SEARCHING));
+        // no PRECAPTURE state is ever reported
+        assertEquals(PrecaptureSequence.Action.READY, sequence.onResult(3,
+                FrameMetadata.NO_VALUE, CaptureResult.CONTROL_AE_STATE_CONVERGED));
+        assertFalse(sequence.isRunning());
+
+        sequence.startPrecapture(false);
+        assertEquals(PrecaptureSequence.Action.TRIGGER_AE_PRECAPTURE, sequence.onResult(4,
+                FrameMetadata.NO_VALUE, CaptureResult.CONTROL_AE_STATE_INACTIVE));
+        sequence.onTriggered(5);
+        assertEquals(PrecaptureSequence.Action.READY, sequence.onResult(6,
+                FrameMetadata.NO_VALUE, CaptureResult.CONTROL_AE_STATE_LOCKED));
+    }
+
+    @Test
+    public void focusAlwaysTriggersAndLeavesExposure() throws Exception {
+        PrecaptureSequence sequence = new PrecaptureSequence();
+        sequence.startFocus();
+
+        assertEquals(PrecaptureSequence.Action.TRIGGER_AF, sequence.onResult(1,
+                CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED, CaptureResult.CONTROL_AE_STATE_SEARCHING));
+        sequence.onTriggered(2);
+        assertEquals(PrecaptureSequence.Action.READY, sequence.onResult(3,
+                CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED, CaptureResult.CONTROL_AE_STATE_SEARCHING));
+
+        sequence.startFocus();
+        sequence.reset();
+        assertFalse(sequence.isRunning());
+        assertEquals(PrecaptureSequence.Action.NONE, sequence.onResult(4,
+                CaptureResult.CONTROL_AF_STATE_PASSIVE_SCAN, CaptureResult.CONTROL_AE_STATE_SEARCHING));
+    }
+}
@@ -0,0 +1,169 @@
+package volodymyr.com.camera.camera.frame;
+
+import android.graphics.ImageFormat;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class YuvConverterTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    private final Random mRandom = new Random(0);
+
+    @AfterClass
+    public static void tearDown() {
+        POOL.shutdown();
+    }
+
+    /**
+     * Frame laid out like camera buffers: padded rows, interleaved chroma planes share one buffer with V first, and the
+     * last row of every plane ends at its last pixel.
+     */
+    private Frame frame(int width, int height, int rowPadding, int chromaPixelStride) {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        Frame.Plane y = new Frame.Plane(randomBuffer((width + rowPadding) * (height - 1) + width), width + rowPadding, 1);
+        Frame.Plane u;
+        Frame.Plane v;
+        if (chromaPixelStride == 1) {
+            int rowStride = chromaWidth + rowPadding;
+            u = new Frame.Plane(randomBuffer(rowStride * (chromaHeight - 1) + chromaWidth), rowStride, 1);
+            v = new Frame.Plane(randomBuffer(rowStride * (chromaHeight - 1) + chromaWidth), rowStride, 1);
+        } else {
+            int rowStride = chromaWidth * 2 + rowPadding;
+            ByteBuffer vu = randomBuffer(rowStride * (chromaHeight - 1) + chromaWidth * 2);
+            v = new Frame.Plane(vu, rowStride, 2);
+            vu.position(1);
+            u = new Frame.Plane(vu.slice(), rowStride, 2);
+            vu.position(0);
+        }
+        return new Frame(ImageFormat.YUV_420_888, width, height, 0, new Frame.Plane[]{y, u, v}, () -> {
+        });
+    }
+
+    private ByteBuffer randomBuffer(int size) {
+        byte[] bytes = new byte[size];
+        mRandom.nextBytes(bytes);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(bytes);
+        buffer.clear();
+        return buffer;
+    }
+
+    private static int sample(Frame frame, int plane, int x, int y) {
+        Frame.Plane p = frame.getPlane(plane);
+        return p.buffer.get(y * p.rowStride + x * p.pixelStride) & 0xff;
+    }
+
+    private static byte[] referenceNv21(Frame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        byte[] nv21 = new byte[YuvConverter.getNv21Size(width, height)];
+        int offset = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                nv21[offset++] = (byte) sample(frame, 0, x, y);
+            }
+        }
+        for (int y = 0; y < (height + 1) / 2; y++) {
+            for (int x = 0; x < (width + 1) / 2; x++) {
+                nv21[offset++] = (byte) sample(frame, 2, x, y);
+                nv21[offset++] = (byte) sample(frame, 1, x, y);
+            }
+        }
+        return nv21;
+    }
+
+    private static int referenceArgb(Frame frame, int x, int y) {
+        double luma = sample(frame, 0, x, y);
+        double cb = sample(frame, 1, x / 2, y / 2) - 128;
+        double cr = sample(frame, 2, x / 2, y / 2) - 128;
+        int r = (int) Math.max(0, Math.min(255, Math.round(luma + 1.402 * cr)));
+        int g = (int) Math.max(0, Math.min(255, Math.round(luma - 0.344136 * cb - 0.714136 * cr)));
+        int b = (int) Math.max(0, Math.min(255, Math.round(luma + 1.772 * cb)));
+        return 0xff000000 | r << 16 | g << 8 | b;
+    }
+
+    @Test
+    public void nv21MatchesReferenceForAnyStrides() throws Exception {
+        int[][] layouts = {{0, 1}, {0, 2}, {24, 1}, {24, 2}};
+        for (int[] layout : layouts) {
+            for (ForkJoinPool pool : new ForkJoinPool[]{null, POOL}) {
+                Frame frame = frame(130, 123, layout[0], layout[1]);
+                byte[] nv21 = new YuvConverter(pool).toNv21(frame, null);
+                assertArrayEquals("padding " + layout[0] + ", pixel stride " + layout[1], referenceNv21(frame), nv21);
+            }
+        }
+    }
+
+    @Test
+    public void argbMatchesReferenceWithinRounding() throws Exception {
+        Frame frame = frame(97, 201, 8, 2);
+        int[] argb = new YuvConverter(POOL).toArgb(frame, null);
+
+        for (int y = 0; y < frame.getHeight(); y++) {
+            for (int x = 0; x < frame.getWidth(); x++) {
+                int expected = referenceArgb(frame, x, y);
+                int actual = argb[y * frame.getWidth() + x];
+                assertEquals(0xff, actual >>> 24);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    int difference = Math.abs((expected >> shift & 0xff) - (actual >> shift & 0xff));
+                    assertTrue("pixel " + x + "," + y + ": " + Integer.toHexString(actual), difference <= 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void lumaAveragesBlocksIntoReusedOutput() throws Exception {
+        Frame frame = frame(641, 481, 16, 2);
+        YuvConverter converter = new YuvConverter(POOL);
+        byte[] out = new byte[160 * 120];
+
+        byte[] luma = converter.toLuma(frame, 4, out);
+
+        assertSame(out, luma);
+        for (int y = 0; y < 120; y++) {
+            for (int x = 0; x < 160; x++) {
+                int sum = 0;
+                for (int i = 0; i < 16; i++) {
+                    sum += sample(frame, 0, x * 4 + i % 4, y * 4 + i / 4);
+                }
+                assertEquals((sum + 8) / 16, luma[y * 160 + x] & 0xff);
+            }
+        }
+    }
+
+    @Test
+    public void scaledNv21SamplesEveryFactorthPixel() throws Exception {
+        Frame frame = frame(641, 481, 0, 2);
+        byte[] nv21 = referenceNv21(frame);
+
+        byte[] scaled = YuvConverter.scaleNv21(nv21, 641, 481, 8);
+
+        // 80 x 60, already even
+        assertEquals(YuvConverter.getNv21Size(80, 60), scaled.length);
+        for (int y = 0; y < 60; y++) {
+            for (int x = 0; x < 80; x++) {
+                assertEquals(sample(frame, 0, x * 8, y * 8), scaled[y * 80 + x] & 0xff);
+            }
+        }
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 40; x++) {
+                int offset = 80 * 60 + y * 80 + 2 * x;
+                assertEquals(sample(frame, 2, x * 8, y * 8), scaled[offset] & 0xff);
+                assertEquals(sample(frame, 1, x * 8, y * 8), scaled[offset + 1] & 0xff);
+            }
+        }
+    }
+}
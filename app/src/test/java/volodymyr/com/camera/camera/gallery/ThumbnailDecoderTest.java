@@ -0,0 +1,103 @@
+package volodymyr.com.camera.camera.gallery;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+
+import volodymyr.com.camera.camera.storage.ExifBuilder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ThumbnailDecoderTest {
+
+    private static byte[] encodeJpeg(int width, int height) throws IOException {
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        if (!ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "jpg", jpeg)) {
+            throw new IOException("No JPEG writer");
+        }
+        return jpeg.toByteArray();
+    }
+
+    /**
+     * Thumbnail out of the IFD1 of {@code segment}, an {@link ExifBuilder} segment, which writes big-endian.
+     */
+    private static byte[] readThumbnail(ByteBuffer segment) {
+        int tiffStart = 2 + 2 + 6;
+        int ifd0 = tiffStart + segment.getInt(tiffStart + 4);
+        int ifd1 = tiffStart + segment.getInt(ifd0 + 2 + segment.getShort(ifd0) * 12);
+        int offset = -1;
+        int length = -1;
+        for (int i = 0; i < segment.getShort(ifd1); i++) {
+            int entry = ifd1 + 2 + i * 12;
+            if (segment.getShort(entry) == 0x0201) {
+                offset = segment.getInt(entry + 8);
+            } else if (segment.getShort(entry) == 0x0202) {
+                length = segment.getInt(entry + 8);
+            }
+        }
+        byte[] thumbnail = new byte[length];
+        ByteBuffer data = segment.duplicate();
+        data.position(tiffStart + offset);
+        data.get(thumbnail);
+        return thumbnail;
+    }
+
+    @Test
+    public void sampleSizeKeepsShorterSideCovered() {
+        // 12 MP still
+        assertEquals(8, ThumbnailDecoder.computeSampleSize(4032, 3024, 256));
+        assertEquals(8, ThumbnailDecoder.computeSampleSize(3024, 4032, 256));
+        // exactly twice the target still halves
+        assertEquals(2, ThumbnailDecoder.computeSampleSize(1024, 512, 256));
+        // smaller than the target is never upscaled
+        assertEquals(1, ThumbnailDecoder.computeSampleSize(320, 240, 256));
+    }
+
+    @Test
+    public void detectsVideosByExtension() {
+        assertTrue(ThumbnailDecoder.isVideo(new File("VID_1.mp4")));
+        assertTrue(ThumbnailDecoder.isVideo(new File("clip.3GP")));
+        assertFalse(ThumbnailDecoder.isVideo(new File("IMG_1.jpg")));
+    }
+
+    @Test
+    public void cameraSizedExifThumbnailIsUsed() throws Exception {
+        byte[] thumbnail = encodeJpeg(320, 240);
+        ByteBuffer segment = new ExifBuilder().setThumbnail(ByteBuffer.wrap(thumbnail)).build();
+
+        byte[] embedded = readThumbnail(segment);
+        assertArrayEquals(thumbnail, embedded);
+        int[] size = ThumbnailDecoder.readJpegSize(embedded);
+        assertArrayEquals(new int[]{320, 240}, size);
+        assertTrue(ThumbnailDecoder.isEmbeddedLargeEnough(size[0], size[1], 256));
+        assertEquals(1, ThumbnailDecoder.computeSampleSize(size[0], size[1], 256));
+    }
+
+    @Test
+    public void smallExifThumbnailIsNotUsed() throws Exception {
+        int[] size = ThumbnailDecoder.readJpegSize(encodeJpeg(120, 160));
+
+        assertArrayEquals(new int[]{120, 160}, size);
+        assertFalse(ThumbnailDecoder.isEmbeddedLargeEnough(size[0], size[1], 256));
+    }
+
+    @Test
+    public void sizeOfBrokenJpegIsUnknown() throws Exception {
+        byte[] jpeg = encodeJpeg(320, 240);
+        byte[] headerless = new byte[20];
+        System.arraycopy(jpeg, 0, headerless, 0, headerless.length);
+
+        assertNull(ThumbnailDecoder.readJpegSize(headerless));
+        assertNull(ThumbnailDecoder.readJpegSize(new byte[]{1, 2, 3, 4}));
+    }
+}
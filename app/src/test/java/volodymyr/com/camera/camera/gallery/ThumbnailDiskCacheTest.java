@@ -0,0 +1,68 @@
+package volodymyr.com.camera.camera.gallery;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ThumbnailDiskCacheTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void evictsLeastRecentlyUsedOverBudget() throws IOException {
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(mFolder.getRoot(), 300);
+        cache.put("a", new byte[100]);
+        cache.put("b", new byte[100]);
+        cache.put("c", new byte[100]);
+        assertNotNull(cache.get("a"));
+
+        cache.put("d", new byte[100]);
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(300, cache.getSize());
+        assertEquals(3, mFolder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void replacesEntryOfSameKey() throws IOException {
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(mFolder.getRoot(), 1000);
+        cache.put("a", new byte[100]);
+        byte[] data = {1, 2, 3};
+        cache.put("a", data);
+
+        File file = cache.get("a");
+        assertNotNull(file);
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+        assertEquals(3, cache.getSize());
+        assertEquals(1, cache.getCount());
+    }
+
+    @Test
+    public void reopenedCacheIndexesFilesAndDropsLeftovers() throws IOException {
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(mFolder.getRoot(), 1000);
+        cache.put("a", new byte[100]);
+        cache.put("b", new byte[50]);
+        // a write cut off by a crash
+        assertEquals(true, new File(mFolder.getRoot(), "partial.tmp").createNewFile());
+
+        ThumbnailDiskCache reopened = new ThumbnailDiskCache(mFolder.getRoot(), 1000);
+
+        assertEquals(150, reopened.getSize());
+        assertNotNull(reopened.get("a"));
+        assertNotNull(reopened.get("b"));
+        assertEquals(2, mFolder.getRoot().listFiles().length);
+    }
+}
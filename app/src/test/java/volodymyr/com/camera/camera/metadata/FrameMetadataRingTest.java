@@ -0,0 +1,75 @@
+package volodymyr.com.camera.camera.metadata;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameMetadataRingTest {
+
+    private static FrameMetadata metadata(long frameNumber) {
+        return new FrameMetadata()
+                .setFrame(frameNumber, frameNumber * 1000)
+                .setExposure(frameNumber * 10, 33_333_333, 100 + (int) frameNumber)
+                .set3aStates(4, 2, 2)
+                .setLens(1.5f, 1.8f, 4.2f)
+                .setJpegOrientation(90);
+    }
+
+    @Test
+    public void findsEntriesByFrameNumberAndTimestamp() throws Exception {
+        FrameMetadataRing ring = new FrameMetadataRing(4);
+        for (int i = 1; i <= 3; i++) {
+            ring.add(metadata(i));
+        }
+        FrameMetadata out = new FrameMetadata();
+
+        assertTrue(ring.findByFrameNumber(2, out));
+        assertEquals(2000, out.getTimestamp());
+        assertEquals(20, out.getExposureTime());
+        assertEquals(33_333_333, out.getFrameDuration());
+        assertEquals(102, out.getSensitivity());
+        assertEquals(4, out.getAfState());
+        assertEquals(2, out.getAeState());
+        assertEquals(2, out.getAwbState());
+        assertEquals(1.5f, out.getFocusDistance(), 0);
+        assertEquals(1.8f, out.getAperture(), 0);
+        assertEquals(4.2f, out.getFocalLength(), 0);
+        assertEquals(90, out.getJpegOrientation());
+
+        assertTrue(ring.findByTimestamp(3000, out));
+        assertEquals(3, out.getFrameNumber());
+    }
+
+    @Test
+    public void overwritesOldestEntryWhenFull() throws Exception {
+        FrameMetadataRing ring = new FrameMetadataRing(3);
+        for (int i = 1; i <= 5; i++) {
+            ring.add(metadata(i));
+        }
+        FrameMetadata out = new FrameMetadata();
+
+        assertEquals(3, ring.size());
+        assertFalse(ring.findByFrameNumber(2, out));
+        assertEquals(FrameMetadata.NO_VALUE, out.getFrameNumber());
+        assertTrue(ring.containsTimestamp(3000));
+        assertTrue(ring.findByFrameNumber(5, out));
+
+        ring.clear();
+        assertFalse(ring.containsTimestamp(5000));
+    }
+
+    @Test
+    public void keepsMissingValues() throws Exception {
+        FrameMetadataRing ring = new FrameMetadataRing(2);
+        ring.add(new FrameMetadata().setFrame(7, 700));
+        FrameMetadata out = new FrameMetadata();
+
+        assertTrue(ring.findByFrameNumber(7, out));
+        assertEquals(FrameMetadata.NO_VALUE, out.getSensitivity());
+        assertEquals(FrameMetadata.NO_VALUE, out.getAfState());
+        assertEquals(FrameMetadata.NO_VALUE, out.getJpegOrientation());
+        assertEquals(FrameMetadata.NO_VALUE, out.getFocusDistance(), 0);
+    }
+}
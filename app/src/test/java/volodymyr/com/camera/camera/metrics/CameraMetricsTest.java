@@ -0,0 +1,41 @@
+package volodymyr.com.camera.camera.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CameraMetricsTest {
+
+    private final CameraMetrics mMetrics = new CameraMetrics();
+
+    @Test
+    public void gapIsCountedAsDroppedFrames() {
+        mMetrics.onFrame(1, -1, -1);
+        mMetrics.onFrame(4, -1, -1);
+
+        assertEquals(2, mMetrics.getDroppedFrames());
+    }
+
+    @Test
+    public void otherCapturesAndFailedFramesAreNoDrops() {
+        mMetrics.onFrame(1, -1, -1);
+        mMetrics.onOtherCapture(2);
+        mMetrics.onCaptureFailed(3);
+        mMetrics.onFrame(5, -1, -1);
+
+        assertEquals(1, mMetrics.getDroppedFrames());
+        assertEquals(1, mMetrics.getFailedFrames());
+    }
+
+    @Test
+    public void otherCaptureIsLeftOutOnce() {
+        mMetrics.onFrame(1, -1, -1);
+        mMetrics.onOtherCapture(2);
+        mMetrics.onFrame(3, -1, -1);
+        mMetrics.onOtherCapture(4);
+        mMetrics.onFrame(5, -1, -1);
+        mMetrics.onFrame(8, -1, -1);
+
+        assertEquals(2, mMetrics.getDroppedFrames());
+    }
+}
@@ -0,0 +1,57 @@
+package volodymyr.com.camera.camera.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    private static final double MAX_RELATIVE_ERROR = 1.0 / 16;
+
+    @Test
+    public void bucketsCoverValuesInOrder() throws Exception {
+        int previous = -1;
+        for (long value = 0; value < 1_000_000; value += 7) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(index >= previous);
+            assertTrue(LatencyHistogram.bucketLowerBound(index) <= value);
+            previous = index;
+        }
+        assertEquals(LatencyHistogram.bucketIndex(Long.MAX_VALUE), (Long.SIZE - 4) * 16 - 1);
+    }
+
+    @Test
+    public void percentilesAreWithinBucketError() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10_000, snapshot.count);
+        assertEquals(10_000_000, snapshot.max);
+        assertEquals(5_000_500, snapshot.getMean());
+        assertClose(5_000_000, snapshot.getPercentile(50));
+        assertClose(9_000_000, snapshot.getPercentile(90));
+        assertClose(9_900_000, snapshot.getPercentile(99));
+        assertEquals(10_000_000, snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void ignoresNegativeValuesAndResets() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(-5);
+        histogram.record(5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(5, histogram.snapshot().getPercentile(50));
+
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().count);
+        assertEquals(0, histogram.snapshot().getPercentile(99));
+    }
+
+    private static void assertClose(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual, Math.abs(actual - expected) <= expected * MAX_RELATIVE_ERROR);
+    }
+}
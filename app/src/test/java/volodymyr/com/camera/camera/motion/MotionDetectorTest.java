@@ -0,0 +1,114 @@
+package volodymyr.com.camera.camera.motion;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import io.reactivex.observers.TestObserver;
+import volodymyr.com.camera.camera.frame.Frame;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MotionDetectorTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int ROW_STRIDE = WIDTH + 32;
+
+    private long mTimestamp;
+
+    /**
+     * Gray frame with a white square of {@code size} pixels at {@code left, top}, none if {@code size} is 0.
+     */
+    private Frame frame(int left, int top, int size) {
+        ByteBuffer luma = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean inSquare = x >= left && x < left + size && y >= top && y < top + size;
+                luma.put(y * ROW_STRIDE + x, (byte) (inSquare ? 250 : 100 + (x + y) % 5));
+            }
+        }
+        ByteBuffer chroma = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT / 2);
+        Frame.Plane[] planes = {new Frame.Plane(luma, ROW_STRIDE, 1), new Frame.Plane(chroma, ROW_STRIDE, 2),
+                new Frame.Plane(chroma.duplicate(), ROW_STRIDE, 2)};
+        return new Frame(ImageFormat.YUV_420_888, WIDTH, HEIGHT, mTimestamp++, planes, () -> {
+        });
+    }
+
+    @Test
+    public void reportsRegionOfMovedSquare() {
+        MotionDetector detector = new MotionDetector(new MotionConfig(4, 4, 24, 0.2f, 100, 1));
+        TestObserver<MotionEvent> events = detector.getMotionEvents().test();
+        detector.process(frame(0, 0, 0));
+        detector.process(frame(0, 0, 0));
+        events.assertNoValues();
+
+        detector.process(frame(160, 96, 48));
+
+        events.assertValueCount(1);
+        MotionEvent event = events.values().get(0);
+        assertEquals(1, event.regions.size());
+        Rect bounds = event.regions.get(0).bounds;
+        assertTrue(bounds.contains(new Rect(160, 96, 208, 144)));
+        // block aligned, at most one block of 16 pixels around the square
+        assertTrue(bounds.width() <= 48 + 32 && bounds.height() <= 48 + 32);
+        assertEquals(48f * 48 / (WIDTH * HEIGHT), event.score, 0.01f);
+        assertTrue(event.regions.get(0).score > 0.5f);
+    }
+
+    @Test
+    public void separateMovementsAreSeparateRegionsLargestFirst() {
+        MotionDetector detector = new MotionDetector(new MotionConfig(4, 4, 24, 0.2f, 100, 1));
+        TestObserver<MotionEvent> events = detector.getMotionEvents().test();
+        detector.process(frame(0, 0, 0));
+        detector.process(frame(16, 16, 32));
+        detector.process(frame(200, 128, 64));
+
+        events.assertValueCount(2);
+        // the square left one place and appeared in another
+        MotionEvent event = events.values().get(1);
+        assertEquals(2, event.regions.size());
+        assertTrue(event.regions.get(0).bounds.contains(new Rect(200, 128, 264, 192)));
+        assertTrue(event.regions.get(1).bounds.contains(new Rect(16, 16, 48, 48)));
+    }
+
+    @Test
+    public void staticSceneIsSkippedUntilMotion() {
+        MotionDetector detector = new MotionDetector(new MotionConfig(8, 8, 24, 0.2f, 2, 4));
+        TestObserver<MotionEvent> events = detector.getMotionEvents().test();
+        Frame still = frame(0, 0, 0);
+        for (int i = 0; i < 12; i++) {
+            detector.process(still);
+        }
+        assertEquals(4, detector.getSkipInterval());
+        assertTrue(detector.getSkippedFrames() > 0);
+        assertEquals(12, detector.getAnalysedFrames() + detector.getSkippedFrames());
+
+        // motion is seen at the latest on the 4th frame
+        Frame moved = frame(100, 100, 64);
+        int frames = 1;
+        while (!detector.process(moved)) {
+            frames++;
+        }
+        assertTrue(frames <= 4);
+        events.assertValueCount(1);
+        assertEquals(1, detector.getSkipInterval());
+        assertEquals(detector.getAnalysedFrames(), detector.getAnalysisTime().getCount());
+    }
+
+    @Test
+    public void resetForgetsReferenceFrame() {
+        MotionDetector detector = new MotionDetector(new MotionConfig());
+        TestObserver<MotionEvent> events = detector.getMotionEvents().test();
+        detector.process(frame(0, 0, 0));
+        detector.reset();
+        assertTrue(detector.process(frame(0, 0, 200)));
+        events.assertNoValues();
+        assertFalse(detector.getAnalysisTime().getCount() == 0);
+    }
+}
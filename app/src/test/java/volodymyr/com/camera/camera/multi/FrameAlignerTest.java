@@ -0,0 +1,69 @@
+package volodymyr.com.camera.camera.multi;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import volodymyr.com.camera.camera.frame.Frame;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class FrameAlignerTest {
+
+    private static final long TOLERANCE = 5;
+
+    private final AtomicInteger mClosedFrames = new AtomicInteger();
+
+    private Frame frame(long timestamp) {
+        Frame.Plane[] planes = {new Frame.Plane(ByteBuffer.allocate(1), 0, 0)};
+        return new Frame(0, 1, 1, timestamp, planes, mClosedFrames::incrementAndGet);
+    }
+
+    @Test
+    public void emitsFramesWithinTolerance() throws Exception {
+        FrameAligner aligner = new FrameAligner(2, TOLERANCE, 2);
+
+        assertNull(aligner.offer(0, frame(100)));
+        Frame[] frames = aligner.offer(1, frame(103));
+
+        assertNotNull(frames);
+        assertEquals(100, frames[0].getTimestamp());
+        assertEquals(103, frames[1].getTimestamp());
+        assertEquals(0, mClosedFrames.get());
+    }
+
+    @Test
+    public void dropsFramesWithoutCounterpart() throws Exception {
+        FrameAligner aligner = new FrameAligner(2, TOLERANCE, 2);
+
+        // second camera runs at half the rate, its frames match every other frame of the first one
+        assertNull(aligner.offer(0, frame(0)));
+        assertNull(aligner.offer(0, frame(33)));
+        Frame[] frames = aligner.offer(1, frame(34));
+
+        assertNotNull(frames);
+        assertEquals(33, frames[0].getTimestamp());
+        assertEquals(34, frames[1].getTimestamp());
+        assertEquals(1, mClosedFrames.get());
+        assertEquals(1, aligner.getDroppedCount());
+
+        assertNull(aligner.offer(1, frame(100)));
+        assertNull(aligner.offer(0, frame(66)));
+        assertEquals(2, mClosedFrames.get());
+    }
+
+    @Test
+    public void boundsQueuedFramesAndClosesThemOnClear() throws Exception {
+        FrameAligner aligner = new FrameAligner(2, TOLERANCE, 2);
+        for (int i = 0; i < 5; i++) {
+            assertNull(aligner.offer(0, frame(i * 10)));
+        }
+        assertEquals(3, mClosedFrames.get());
+
+        aligner.clear();
+        assertEquals(5, mClosedFrames.get());
+    }
+}
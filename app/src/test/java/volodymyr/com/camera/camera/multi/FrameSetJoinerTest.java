@@ -0,0 +1,76 @@
+package volodymyr.com.camera.camera.multi;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class FrameSetJoinerTest {
+
+    private static final long TOLERANCE = 5;
+
+    private final AtomicInteger mClosedFrames = new AtomicInteger();
+    private final List<FrameSet> mSets = new ArrayList<>();
+    private final FrameSetJoiner mJoiner = new FrameSetJoiner(new FrameAligner(2, TOLERANCE, 2), 4, mSets::add);
+
+    private Frame frame(long timestamp) {
+        Frame.Plane[] planes = {new Frame.Plane(ByteBuffer.allocate(1), 0, 0)};
+        return new Frame(0, 1, 1, timestamp, planes, mClosedFrames::incrementAndGet);
+    }
+
+    private static FrameMetadata metadata(long frameNumber, long timestamp) {
+        return new FrameMetadata().setFrame(frameNumber, timestamp);
+    }
+
+    @Test
+    public void emitsSetOnceLateResultsArrived() {
+        mJoiner.onMetadata(0, metadata(1, 100));
+        mJoiner.onFrame(0, frame(100));
+        mJoiner.onFrame(1, frame(102));
+        assertEquals(0, mSets.size());
+
+        mJoiner.onMetadata(1, metadata(7, 102));
+
+        assertEquals(1, mSets.size());
+        assertEquals(1, mSets.get(0).metadata[0].getFrameNumber());
+        assertEquals(7, mSets.get(0).metadata[1].getFrameNumber());
+    }
+
+    @Test
+    public void emitsIncompleteSetWhenTheNextOneIsAligned() {
+        mJoiner.onFrame(0, frame(100));
+        mJoiner.onFrame(1, frame(102));
+        mJoiner.onMetadata(0, metadata(1, 100));
+
+        mJoiner.onMetadata(0, metadata(2, 133));
+        mJoiner.onMetadata(1, metadata(8, 135));
+        mJoiner.onFrame(0, frame(133));
+        mJoiner.onFrame(1, frame(135));
+
+        assertEquals(2, mSets.size());
+        assertNotNull(mSets.get(0).metadata[0]);
+        assertNull(mSets.get(0).metadata[1]);
+        assertEquals(8, mSets.get(1).metadata[1].getFrameNumber());
+    }
+
+    @Test
+    public void clearClosesPendingAndLaterFrames() {
+        mJoiner.onFrame(0, frame(100));
+        mJoiner.onFrame(1, frame(102));
+
+        mJoiner.clear();
+        mJoiner.onFrame(0, frame(133));
+
+        assertEquals(0, mSets.size());
+        assertEquals(3, mClosedFrames.get());
+    }
+}
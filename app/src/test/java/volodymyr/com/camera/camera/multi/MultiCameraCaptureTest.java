@@ -0,0 +1,51 @@
+package volodymyr.com.camera.camera.multi;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.TestScheduler;
+import volodymyr.com.camera.camera.backend.FrameTarget;
+import volodymyr.com.camera.camera.backend.sim.SimulatedCameraBackend;
+import volodymyr.com.camera.camera.backend.sim.SimulatedCameraConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MultiCameraCaptureTest {
+
+    private static final int YUV_420_888 = 0x23;
+
+    private final TestScheduler mScheduler = new TestScheduler();
+
+    private MultiCameraCapture.Source source(int fps, String cameraId) {
+        SimulatedCameraBackend backend = new SimulatedCameraBackend(new SimulatedCameraConfig(64, 48, fps), mScheduler, cameraId);
+        return new MultiCameraCapture.Source(backend, cameraId, new FrameTarget(64, 48, YUV_420_888, 3));
+    }
+
+    @Test
+    public void mergesCamerasIntoAlignedSets() throws Exception {
+        long tolerance = TimeUnit.MILLISECONDS.toNanos(1);
+        MultiCameraCapture capture = new MultiCameraCapture(Arrays.asList(source(30, "0"), source(15, "1")), tolerance);
+        List<Long> spreads = new ArrayList<>();
+
+        Disposable disposable = capture.getFrameSets()
+                .subscribe(frameSet -> {
+                    assertEquals(2, frameSet.frames.length);
+                    spreads.add(frameSet.getTimestampSpread());
+                    frameSet.close();
+                });
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        disposable.dispose();
+
+        // limited by the slower camera
+        assertTrue("sets: " + spreads.size(), spreads.size() >= 14 && spreads.size() <= 16);
+        for (long spread : spreads) {
+            assertTrue("spread: " + spread, spread <= tolerance);
+        }
+    }
+}
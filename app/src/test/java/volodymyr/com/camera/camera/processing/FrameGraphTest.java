@@ -0,0 +1,133 @@
+package volodymyr.com.camera.camera.processing;
+
+import android.graphics.ImageFormat;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import volodymyr.com.camera.camera.frame.Frame;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameGraphTest {
+
+    private static final long FRAME_INTERVAL_NS = TimeUnit.SECONDS.toNanos(1) / 30;
+
+    private final AtomicInteger mClosedFrames = new AtomicInteger();
+    private FrameGraph mGraph = new FrameGraph(1);
+
+    @After
+    public void tearDown() {
+        mGraph.close();
+    }
+
+    private Frame frame(int index) {
+        return new Frame(ImageFormat.YUV_420_888, 4, 4, index * FRAME_INTERVAL_NS, new Frame.Plane[0], mClosedFrames::incrementAndGet);
+    }
+
+    private static void awaitClosed(Frame frame) throws InterruptedException {
+        for (int i = 0; i < 1000 && !frame.isClosed(); i++) {
+            Thread.sleep(1);
+        }
+        assertTrue(frame.isClosed());
+    }
+
+    @Test
+    public void sharesFrameAndClosesItAfterTheLastStage() throws InterruptedException {
+        mGraph.close();
+        mGraph = new FrameGraph(2);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger processed = new AtomicInteger();
+        mGraph.addStage("fast", new StageConfig(0, 0, StageConfig.PRIORITY_NORMAL), frame -> processed.incrementAndGet());
+        mGraph.addStage("slow", new StageConfig(0, 0, StageConfig.PRIORITY_NORMAL), frame -> {
+            release.await();
+            processed.incrementAndGet();
+        });
+        List<Long> processedFrames = Collections.synchronizedList(new ArrayList<>());
+        mGraph.setOnFrameProcessedListener((timestamp, processingNanos) -> processedFrames.add(timestamp));
+        Frame frame = frame(1);
+
+        mGraph.onFrame(frame);
+        Thread.sleep(20);
+        assertFalse(frame.isClosed());
+        release.countDown();
+
+        awaitClosed(frame);
+        assertEquals(2, processed.get());
+        assertEquals(1, mClosedFrames.get());
+        assertEquals(Collections.singletonList(FRAME_INTERVAL_NS), processedFrames);
+    }
+
+    @Test
+    public void busyStageSkipsFramesInsteadOfQueueing() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        FrameGraph.Stage stage = mGraph.addStage("slow", new StageConfig(0, 0, StageConfig.PRIORITY_NORMAL), frame -> release.await());
+        Frame first = frame(0);
+
+        mGraph.onFrame(first);
+        mGraph.onFrame(frame(1));
+        mGraph.onFrame(frame(2));
+        // skipped frames go back right away
+        assertEquals(2, mClosedFrames.get());
+        release.countDown();
+
+        awaitClosed(first);
+        assertEquals(2, stage.getSkippedFrames());
+    }
+
+    @Test
+    public void limitsStageToItsFrameRate() throws InterruptedException {
+        FrameGraph.Stage stage = mGraph.addStage("half", new StageConfig(15, 0, StageConfig.PRIORITY_NORMAL), frame -> {
+        });
+        for (int i = 0; i < 10; i++) {
+            Frame frame = frame(i);
+            mGraph.onFrame(frame);
+            awaitClosed(frame);
+        }
+
+        assertEquals(5, stage.getProcessedFrames());
+        assertEquals(0, stage.getSkippedFrames());
+    }
+
+    @Test
+    public void throttlesStageOverBudget() throws InterruptedException {
+        FrameGraph.Stage stage = mGraph.addStage("heavy", new StageConfig(0, TimeUnit.MILLISECONDS.toNanos(1), StageConfig.PRIORITY_NORMAL),
+                frame -> Thread.sleep(5));
+        for (int i = 0; i < 2 * FrameGraph.MAX_THROTTLE; i++) {
+            Frame frame = frame(i);
+            mGraph.onFrame(frame);
+            awaitClosed(frame);
+        }
+
+        assertEquals(FrameGraph.MAX_THROTTLE, stage.getThrottle());
+        assertEquals(2, stage.getProcessedFrames());
+        assertEquals(2 * FrameGraph.MAX_THROTTLE - 2, stage.getSkippedFrames());
+    }
+
+    @Test
+    public void runsHigherPriorityStagesFirst() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        // occupies the only worker while the other two are queued
+        mGraph.addStage("blocking", new StageConfig(0, 0, StageConfig.PRIORITY_LOW), frame -> release.await());
+        mGraph.addStage("low", new StageConfig(0, 0, StageConfig.PRIORITY_LOW), frame -> order.add("low"));
+        mGraph.addStage("high", new StageConfig(0, 0, StageConfig.PRIORITY_HIGH), frame -> order.add("high"));
+        Frame frame = frame(0);
+
+        mGraph.onFrame(frame);
+        release.countDown();
+
+        awaitClosed(frame);
+        assertEquals(2, order.size());
+        assertEquals("high", order.get(0));
+    }
+}
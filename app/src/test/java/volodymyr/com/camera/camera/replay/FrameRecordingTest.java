@@ -0,0 +1,157 @@
+package volodymyr.com.camera.camera.replay;
+
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraDevice;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subscribers.TestSubscriber;
+import volodymyr.com.camera.camera.FrameBackpressure;
+import volodymyr.com.camera.camera.backend.CaptureRequestSpec;
+import volodymyr.com.camera.camera.backend.CaptureSessionHandle;
+import volodymyr.com.camera.camera.backend.FrameTarget;
+import volodymyr.com.camera.camera.backend.OutputTarget;
+import volodymyr.com.camera.camera.backend.sim.SimulatedCameraBackend;
+import volodymyr.com.camera.camera.backend.sim.SimulatedCameraConfig;
+import volodymyr.com.camera.camera.event.CaptureSessionEvents;
+import volodymyr.com.camera.camera.event.CaptureSessionStateEvent;
+import volodymyr.com.camera.camera.event.DeviceStateEvent;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+import volodymyr.com.camera.camera.metrics.ResourceTracker;
+import volodymyr.com.camera.camera.pojo.CaptureSessionData;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameRecordingTest {
+
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 8;
+    private static final int ROW_STRIDE = WIDTH + 8;
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(33);
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static Frame frame(int index) {
+        ByteBuffer luma = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT);
+        ByteBuffer chroma = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT / 2);
+        for (int i = 0; i < luma.capacity(); i++) {
+            luma.put(i, (byte) (i + index));
+        }
+        Frame.Plane[] planes = {
+                new Frame.Plane(luma, ROW_STRIDE, 1),
+                new Frame.Plane(chroma, ROW_STRIDE, 2),
+                new Frame.Plane(chroma.duplicate(), ROW_STRIDE, 2)
+        };
+        return new Frame(ImageFormat.YUV_420_888, WIDTH, HEIGHT, 1000 + index * INTERVAL, planes, () -> {
+        });
+    }
+
+    private File record(int frames) throws Exception {
+        File file = mFolder.newFile();
+        try (FrameRecorder recorder = new FrameRecorder(file)) {
+            for (int i = 0; i < frames; i++) {
+                // every other frame without metadata
+                FrameMetadata metadata = i % 2 == 0
+                        ? new FrameMetadata().setFrame(100 + i, 1000 + i * INTERVAL).setExposure(i, INTERVAL, 400)
+                        : null;
+                recorder.write(frame(i), metadata);
+            }
+            assertEquals(frames, recorder.getFrameCount());
+        }
+        return file;
+    }
+
+    @Test
+    public void replaysRecordedFramesAndMetadata() throws Exception {
+        FrameRecording recording = FrameRecording.open(record(5));
+
+        assertEquals(5, recording.size());
+        assertEquals(4 * INTERVAL, recording.getDurationNanos());
+        assertEquals(3, recording.indexOf(1000 + 3 * INTERVAL));
+        for (int i = 0; i < 5; i++) {
+            Frame frame = recording.getFrame(i, recording.getTimestamp(i), () -> {
+            });
+            Frame.Plane luma = frame.getPlane(0);
+            assertEquals(ImageFormat.YUV_420_888, frame.getFormat());
+            assertEquals(3, frame.getPlaneCount());
+            assertEquals(ROW_STRIDE, luma.rowStride);
+            assertEquals(2, frame.getPlane(1).pixelStride);
+            assertEquals(ROW_STRIDE * HEIGHT, luma.buffer.remaining());
+            assertTrue(luma.buffer.isReadOnly());
+            for (int j = 0; j < luma.buffer.remaining(); j++) {
+                assertEquals((byte) (j + i), luma.buffer.get(j));
+            }
+            FrameMetadata metadata = new FrameMetadata();
+            assertEquals(i % 2 == 0, recording.getMetadata(i, metadata));
+            assertEquals(1000 + i * INTERVAL, metadata.getTimestamp());
+        }
+        FrameMetadata metadata = new FrameMetadata();
+        recording.getMetadata(2, metadata);
+        assertEquals(102, metadata.getFrameNumber());
+        assertEquals(400, metadata.getSensitivity());
+    }
+
+    @Test
+    public void simulatedBackendReplaysAtRecordedPace() throws Exception {
+        FrameRecording recording = FrameRecording.open(record(4));
+        TestScheduler scheduler = new TestScheduler();
+        SimulatedCameraBackend backend = new SimulatedCameraBackend(new SimulatedCameraConfig(recording, 2), scheduler);
+        FrameTarget target = new FrameTarget(WIDTH, HEIGHT, ImageFormat.YUV_420_888, 2);
+        List<CaptureSessionHandle> sessions = new ArrayList<>();
+        backend.openCamera("0")
+                .filter(pair -> pair.param1 == DeviceStateEvent.ON_OPENED)
+                .flatMap(pair -> pair.param2.createCaptureSession(Collections.<OutputTarget>singletonList(target)))
+                .filter(pair -> pair.param1 == CaptureSessionStateEvent.ON_CONFIGURED)
+                .subscribe(pair -> sessions.add(pair.param2));
+        scheduler.triggerActions();
+        CaptureSessionHandle session = sessions.get(0);
+
+        List<Long> timestamps = new ArrayList<>();
+        List<Long> frameNumbers = new ArrayList<>();
+        session.getFrames(target).subscribe(frame -> {
+            timestamps.add(frame.getTimestamp());
+            frame.close();
+        });
+        TestSubscriber<CaptureSessionData> requests = session.setRepeatingRequest(
+                new CaptureRequestSpec(CameraDevice.TEMPLATE_PREVIEW, Collections.<OutputTarget>singletonList(target), null),
+                FrameBackpressure.latest())
+                .doOnNext(data -> {
+                    if (data.getEvent() == CaptureSessionEvents.ON_COMPLETED) {
+                        frameNumbers.add(data.getFrameNumber());
+                    }
+                    data.release();
+                })
+                .test();
+
+        // recorded at 33ms intervals, replayed twice as fast
+        scheduler.advanceTimeBy(INTERVAL, TimeUnit.NANOSECONDS);
+        assertEquals(3, timestamps.size());
+        assertFalse(requests.isTerminated());
+        scheduler.advanceTimeBy(INTERVAL, TimeUnit.NANOSECONDS);
+
+        assertEquals(4, timestamps.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(recording.getTimestamp(i), (long) timestamps.get(i));
+        }
+        assertEquals(100, (long) frameNumbers.get(0));
+        assertEquals(102, (long) frameNumbers.get(2));
+        requests.assertComplete();
+        session.close();
+        scheduler.triggerActions();
+        assertEquals(0, backend.getResourceTracker().getLiveCount(ResourceTracker.Resource.IMAGE));
+    }
+}
@@ -0,0 +1,93 @@
+package volodymyr.com.camera.camera.still;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ZslRingBufferTest {
+
+    private static final int FRAME_BYTES = 100;
+
+    private final AtomicInteger mClosedFrames = new AtomicInteger();
+
+    private Frame frame(long timestamp) {
+        Frame.Plane[] planes = {new Frame.Plane(ByteBuffer.allocateDirect(FRAME_BYTES), 0, 0)};
+        return new Frame(0, 10, 10, timestamp, planes, mClosedFrames::incrementAndGet);
+    }
+
+    @Test
+    public void closesOldestFrameWhenFull() throws Exception {
+        ZslRingBuffer buffer = new ZslRingBuffer(3);
+        for (int i = 0; i < 5; i++) {
+            buffer.addFrame(frame(i * 10));
+        }
+
+        assertEquals(3, buffer.size());
+        assertEquals(2, mClosedFrames.get());
+        assertEquals(3 * FRAME_BYTES, buffer.getFootprintBytes());
+        assertFalse(buffer.contains(10));
+        assertTrue(buffer.contains(20));
+    }
+
+    @Test
+    public void takesClosestFrameWithResult() throws Exception {
+        ZslRingBuffer buffer = new ZslRingBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            buffer.addFrame(frame(i * 10));
+            if (i != 3) {
+                buffer.addMetadata(new FrameMetadata().setFrame(i, i * 10));
+            }
+        }
+
+        ZslRingBuffer.Entry entry = buffer.takeClosest(19);
+        assertEquals(20, entry.frame.getTimestamp());
+        assertEquals(2, entry.metadata.getFrameNumber());
+
+        // frame 30 is closer, but its result hasn't arrived yet
+        entry = buffer.takeClosest(31);
+        assertEquals(10, entry.frame.getTimestamp());
+        assertEquals(2, buffer.size());
+        assertEquals(0, mClosedFrames.get());
+    }
+
+    @Test
+    public void takeRemovesExactFrameAndKeepsOrder() throws Exception {
+        ZslRingBuffer buffer = new ZslRingBuffer(3);
+        Frame middle = frame(20);
+        buffer.addFrame(frame(10));
+        buffer.addFrame(middle);
+        buffer.addFrame(frame(30));
+
+        assertNull(buffer.take(25));
+        assertSame(middle, buffer.take(20).frame);
+
+        buffer.addFrame(frame(40));
+        buffer.addFrame(frame(50));
+        assertEquals(1, mClosedFrames.get());
+        assertFalse(buffer.contains(10));
+        assertTrue(buffer.contains(30));
+        assertTrue(buffer.contains(50));
+    }
+
+    @Test
+    public void clearClosesAllFrames() throws Exception {
+        ZslRingBuffer buffer = new ZslRingBuffer(3);
+        buffer.addFrame(frame(10));
+        buffer.addFrame(frame(20));
+        buffer.clear();
+
+        assertEquals(0, buffer.size());
+        assertEquals(2, mClosedFrames.get());
+        assertNull(buffer.takeClosest(10));
+    }
+}
@@ -0,0 +1,120 @@
+package volodymyr.com.camera.camera.storage;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExifBuilderTest {
+
+    private static final int TIFF_START = 2 + 2 + 6;
+
+    /**
+     * @return absolute offset of the entry with {@code tag} in the IFD at {@code ifdOffset}, -1 if missing
+     */
+    private static int findEntry(ByteBuffer segment, int ifdOffset, int tag) {
+        int position = TIFF_START + ifdOffset;
+        int count = segment.getShort(position) & 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            int entry = position + 2 + i * 12;
+            if ((segment.getShort(entry) & 0xFFFF) == tag) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void writesTagsIntoTheirIfds() {
+        ByteBuffer segment = new ExifBuilder()
+                .setMake("Acme")
+                .setModel("Camera One")
+                .setOrientation(90)
+                .setIso(400)
+                .setExposureTimeNanos(10_000_000)
+                .setFNumber(1.8f)
+                .build();
+
+        assertEquals(ExifBuilder.APP1_MARKER, segment.getShort(0) & 0xFFFF);
+        assertEquals(segment.remaining() - 2, segment.getShort(2) & 0xFFFF);
+        assertEquals('M', segment.get(TIFF_START));
+        assertEquals(0x2A, segment.getShort(TIFF_START + 2));
+
+        int ifd0 = segment.getInt(TIFF_START + 4);
+        int orientation = findEntry(segment, ifd0, ExifBuilder.TAG_ORIENTATION);
+        assertEquals(6, segment.getShort(orientation + 8));
+
+        int model = findEntry(segment, ifd0, ExifBuilder.TAG_MODEL);
+        byte[] modelBytes = new byte[segment.getInt(model + 4)];
+        ByteBuffer modelData = segment.duplicate();
+        modelData.position(TIFF_START + segment.getInt(model + 8));
+        modelData.get(modelBytes);
+        assertEquals("Camera One\0", new String(modelBytes));
+
+        int exifPointer = findEntry(segment, ifd0, ExifBuilder.TAG_EXIF_IFD_POINTER);
+        int exifIfd = segment.getInt(exifPointer + 8);
+        assertEquals(400, segment.getShort(findEntry(segment, exifIfd, ExifBuilder.TAG_ISO_SPEED_RATINGS) + 8));
+
+        int exposure = TIFF_START + segment.getInt(findEntry(segment, exifIfd, ExifBuilder.TAG_EXPOSURE_TIME) + 8);
+        assertEquals(1, segment.getInt(exposure));
+        assertEquals(100, segment.getInt(exposure + 4));
+    }
+
+    @Test
+    public void entriesAreSortedByTag() {
+        ByteBuffer segment = new ExifBuilder()
+                .setOrientation(0)
+                .setModel("b")
+                .setMake("a")
+                .build();
+        int ifd = TIFF_START + segment.getInt(TIFF_START + 4);
+        int count = segment.getShort(ifd);
+        int previous = -1;
+        for (int i = 0; i < count; i++) {
+            int tag = segment.getShort(ifd + 2 + i * 12) & 0xFFFF;
+            assertTrue(tag > previous);
+            previous = tag;
+        }
+        assertEquals(3, count);
+    }
+
+    @Test
+    public void thumbnailIsChainedAsIfd1() {
+        byte[] thumbnail = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, (byte) 0xFF, (byte) 0xD9};
+        ByteBuffer segment = new ExifBuilder()
+                .setMake("Acme")
+                .setIso(100)
+                .setThumbnail(ByteBuffer.wrap(thumbnail))
+                .build();
+        assertEquals(segment.remaining() - 2, segment.getShort(2) & 0xFFFF);
+
+        int ifd0 = segment.getInt(TIFF_START + 4);
+        int ifd0Count = segment.getShort(TIFF_START + ifd0);
+        int ifd1 = segment.getInt(TIFF_START + ifd0 + 2 + ifd0Count * 12);
+        assertEquals(6, segment.getShort(findEntry(segment, ifd1, ExifBuilder.TAG_COMPRESSION) + 8));
+        int offset = segment.getInt(findEntry(segment, ifd1, ExifBuilder.TAG_JPEG_INTERCHANGE_FORMAT) + 8);
+        assertEquals(thumbnail.length,
+                segment.getInt(findEntry(segment, ifd1, ExifBuilder.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH) + 8));
+        byte[] written = new byte[thumbnail.length];
+        ByteBuffer data = segment.duplicate();
+        data.position(TIFF_START + offset);
+        data.get(written);
+        assertArrayEquals(thumbnail, written);
+    }
+
+    @Test
+    public void oversizedThumbnailIsLeftOut() {
+        ByteBuffer segment = new ExifBuilder()
+                .setMake("Acme")
+                .setThumbnail(ByteBuffer.allocate(0xFFFF))
+                .build();
+
+        int ifd0 = segment.getInt(TIFF_START + 4);
+        int ifd0Count = segment.getShort(TIFF_START + ifd0);
+        assertEquals(0, segment.getInt(TIFF_START + ifd0 + 2 + ifd0Count * 12));
+        assertTrue(segment.remaining() < 100);
+    }
+}
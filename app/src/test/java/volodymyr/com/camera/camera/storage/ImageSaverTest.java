@@ -0,0 +1,118 @@
+package volodymyr.com.camera.camera.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
+import volodymyr.com.camera.camera.frame.Frame;
+import volodymyr.com.camera.camera.metadata.FrameMetadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ImageSaverTest {
+
+    private static final byte[] IMAGE_DATA = {(byte) 0xFF, (byte) 0xDB, 0, 4, 1, 2, (byte) 0xFF, (byte) 0xD9};
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final AtomicInteger mClosedFrames = new AtomicInteger();
+
+    /**
+     * JPEG with the camera's own Exif segment, which the saver replaces.
+     */
+    private Frame createJpeg() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        buffer.putShort((short) 0xFFD8);
+        buffer.putShort((short) ExifBuilder.APP1_MARKER).putShort((short) 10).put(ExifBuilder.EXIF_HEADER).putShort((short) 0);
+        buffer.put(IMAGE_DATA);
+        buffer.flip();
+        return new Frame(0x100, 4, 4, 0, new Frame.Plane[]{new Frame.Plane(buffer, 0, 0)}, mClosedFrames::incrementAndGet);
+    }
+
+    @Test
+    public void writesJpegWithNewExif() throws Exception {
+        ImageSaver saver = new ImageSaver(mFolder.getRoot(), 4, ImageSaver.OverflowPolicy.DROP_NEWEST, 2,
+                Schedulers.trampoline(), "Acme", "One");
+        TestObserver<File> saved = saver.getSavedFiles().test();
+
+        assertTrue(saver.save(createJpeg(), null));
+        assertTrue(saver.save(createJpeg(), null));
+        saver.close();
+
+        saved.assertValueCount(2).assertComplete();
+        assertEquals(2, mClosedFrames.get());
+        byte[] file = Files.readAllBytes(saved.values().get(0).toPath());
+        assertEquals((byte) 0xFF, file[0]);
+        assertEquals((byte) 0xD8, file[1]);
+        assertEquals((byte) 0xE1, file[3]);
+        int exifLength = ((file[4] & 0xFF) << 8) | (file[5] & 0xFF);
+        byte[] rest = new byte[file.length - 4 - exifLength];
+        System.arraycopy(file, 4 + exifLength, rest, 0, rest.length);
+        assertArrayEquals(IMAGE_DATA, rest);
+        assertEquals(2, mFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void keepsCameraThumbnailAndOrientation() throws Exception {
+        byte[] thumbnail = {(byte) 0xFF, (byte) 0xD8, 7, 7, (byte) 0xFF, (byte) 0xD9};
+        ByteBuffer cameraExif = new ExifBuilder()
+                .setOrientation(180)
+                .setThumbnail(ByteBuffer.wrap(thumbnail))
+                .build();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(2 + cameraExif.remaining() + IMAGE_DATA.length);
+        buffer.putShort((short) 0xFFD8).put(cameraExif).put(IMAGE_DATA).flip();
+        Frame jpeg = new Frame(0x100, 4, 4, 0, new Frame.Plane[]{new Frame.Plane(buffer, 0, 0)}, mClosedFrames::incrementAndGet);
+        ImageSaver saver = new ImageSaver(mFolder.getRoot(), 1, ImageSaver.OverflowPolicy.DROP_NEWEST, 1,
+                Schedulers.trampoline(), "Acme", "One");
+        TestObserver<File> saved = saver.getSavedFiles().test();
+
+        // the camera rotated by 180 itself rather than tagging the requested 90
+        assertTrue(saver.save(jpeg, new FrameMetadata().setJpegOrientation(90)));
+        saver.close();
+
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(saved.values().get(0).toPath()));
+        assertEquals(180, JpegSegments.readOrientation(file));
+        ByteBuffer savedThumbnail = JpegSegments.findThumbnail(file);
+        assertEquals(ByteBuffer.wrap(thumbnail), savedThumbnail);
+        file.position(JpegSegments.skipExif(file));
+        assertEquals(ByteBuffer.wrap(IMAGE_DATA), file);
+    }
+
+    @Test
+    public void dropsNewestWhenQueueIsFull() throws Exception {
+        TestScheduler scheduler = new TestScheduler();
+        ImageSaver saver = new ImageSaver(mFolder.getRoot(), 1, ImageSaver.OverflowPolicy.DROP_NEWEST, 1, scheduler, "Acme", "One");
+
+        assertTrue(saver.save(createJpeg(), null));
+        assertFalse(saver.save(createJpeg(), null));
+        assertEquals(1, saver.getDroppedCount());
+        assertEquals(1, mClosedFrames.get());
+
+        scheduler.triggerActions();
+        assertEquals(1, saver.getSavedCount());
+        assertEquals(2, mClosedFrames.get());
+    }
+
+    @Test
+    public void dropOldestKeepsLatestImage() throws Exception {
+        TestScheduler scheduler = new TestScheduler();
+        ImageSaver saver = new ImageSaver(mFolder.getRoot(), 1, ImageSaver.OverflowPolicy.DROP_OLDEST, 1, scheduler, "Acme", "One");
+
+        assertTrue(saver.save(createJpeg(), null));
+        assertFalse(saver.save(createJpeg(), null));
+        assertEquals(1, saver.getQueueDepth());
+        assertEquals(1, saver.getDroppedCount());
+    }
+}
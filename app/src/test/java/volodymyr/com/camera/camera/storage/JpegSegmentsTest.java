@@ -0,0 +1,72 @@
+package volodymyr.com.camera.camera.storage;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class JpegSegmentsTest {
+
+    private static final byte[] THUMBNAIL = {(byte) 0xFF, (byte) 0xD8, 5, (byte) 0xFF, (byte) 0xD9};
+
+    /**
+     * Little-endian Exif as many cameras write it: IFD0 with the orientation, IFD1 with the thumbnail.
+     */
+    private static ByteBuffer createLittleEndianJpeg(int orientation) {
+        ByteBuffer tiff = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) 'I').put((byte) 'I').putShort((short) 0x2A).putInt(8);
+        // IFD0 at 8, one entry, IFD1 at 26
+        tiff.putShort((short) 1);
+        tiff.putShort((short) ExifBuilder.TAG_ORIENTATION).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+        tiff.putInt(26);
+        // IFD1 at 26, two entries, thumbnail at 56
+        tiff.putShort((short) 2);
+        tiff.putShort((short) ExifBuilder.TAG_JPEG_INTERCHANGE_FORMAT).putShort((short) 4).putInt(1).putInt(56);
+        tiff.putShort((short) ExifBuilder.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH).putShort((short) 4).putInt(1).putInt(THUMBNAIL.length);
+        tiff.putInt(0);
+        tiff.put(THUMBNAIL);
+        tiff.flip();
+
+        ByteBuffer jpeg = ByteBuffer.allocate(2 + 4 + ExifBuilder.EXIF_HEADER.length + tiff.remaining() + 2);
+        jpeg.putShort((short) 0xFFD8).putShort((short) ExifBuilder.APP1_MARKER)
+                .putShort((short) (2 + ExifBuilder.EXIF_HEADER.length + tiff.remaining()))
+                .put(ExifBuilder.EXIF_HEADER).put(tiff).putShort((short) 0xFFD9).flip();
+        return jpeg;
+    }
+
+    @Test
+    public void readsLittleEndianExif() {
+        ByteBuffer jpeg = createLittleEndianJpeg(8);
+
+        assertEquals(270, JpegSegments.readOrientation(jpeg));
+        assertEquals(ByteBuffer.wrap(THUMBNAIL), JpegSegments.findThumbnail(jpeg));
+        assertEquals(jpeg.limit() - 2, JpegSegments.skipExif(jpeg));
+    }
+
+    @Test
+    public void mirroredOrientationIsIgnored() {
+        assertEquals(JpegSegments.NO_ORIENTATION, JpegSegments.readOrientation(createLittleEndianJpeg(2)));
+    }
+
+    @Test
+    public void thumbnailPastTheSegmentIsIgnored() {
+        ByteBuffer jpeg = createLittleEndianJpeg(1);
+        // length of the APP1 segment cut right before the thumbnail
+        jpeg.putShort(4, (short) ((jpeg.getShort(4) & 0xFFFF) - THUMBNAIL.length));
+
+        assertNull(JpegSegments.findThumbnail(jpeg));
+        assertEquals(0, JpegSegments.readOrientation(jpeg));
+    }
+
+    @Test
+    public void jpegWithoutExif() {
+        ByteBuffer jpeg = ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9});
+
+        assertNull(JpegSegments.findThumbnail(jpeg));
+        assertEquals(JpegSegments.NO_ORIENTATION, JpegSegments.readOrientation(jpeg));
+        assertEquals(2, JpegSegments.skipExif(jpeg));
+    }
+}
@@ -0,0 +1,72 @@
+package volodymyr.com.camera.camera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
+import volodymyr.com.camera.camera.event.CaptureSessionEvents;
+import volodymyr.com.camera.camera.pojo.CaptureSessionData;
+import volodymyr.com.camera.camera.pojo.CaptureSessionDataPool;
+
+/**
+ * Cost of delivering one capture callback to subscribers: the allocating {@code share()}'d Observable chain the activity
+ * used to build, against the pooled {@link BackpressureEmitter} path.
+ */
+@State(Scope.Thread)
+public class CaptureEventBenchmark {
+
+    private final CompositeDisposable mDisposables = new CompositeDisposable();
+    private Subject<CaptureSessionData> mSharedSource;
+    private BackpressureEmitter<CaptureSessionData> mPooledEmitter;
+    private CaptureSessionDataPool mPool;
+    private long mFrameNumber;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        mSharedSource = PublishSubject.create();
+        Observable<CaptureSessionData> shared = mSharedSource.share();
+        mDisposables.add(shared
+                .filter(data -> data.getEvent() == CaptureSessionEvents.ON_COMPLETED)
+                .map(CaptureSessionData::getResult)
+                .subscribe(blackhole::consume));
+        mDisposables.add(shared
+                .filter(data -> data.getEvent() == CaptureSessionEvents.ON_STARTED)
+                .subscribe(blackhole::consume));
+
+        mPool = new CaptureSessionDataPool(16);
+        mDisposables.add(Flowable.<CaptureSessionData>create(flowableEmitter -> {
+            mPooledEmitter = new BackpressureEmitter<>(flowableEmitter, FrameBackpressure.latest(), CaptureSessionData::release);
+            flowableEmitter.setCancellable(mPooledEmitter::clear);
+        }, BackpressureStrategy.MISSING)
+                .subscribe(data -> {
+                    blackhole.consume(data.getFrameNumber());
+                    data.release();
+                }));
+    }
+
+    @TearDown
+    public void tearDown() {
+        mDisposables.clear();
+    }
+
+    @Benchmark
+    public void sharedObservable() {
+        mSharedSource.onNext(new CaptureSessionData(CaptureSessionEvents.ON_COMPLETED, null, null, null).setFrame(0, mFrameNumber++));
+    }
+
+    @Benchmark
+    public void pooledFlowable() {
+        mPooledEmitter.onNext(mPool.obtain()
+                .set(CaptureSessionEvents.ON_COMPLETED, null, null, null)
+                .setFrame(0, mFrameNumber++));
+    }
+}
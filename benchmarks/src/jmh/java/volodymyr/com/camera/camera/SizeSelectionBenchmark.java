@@ -0,0 +1,53 @@
+package volodymyr.com.camera.camera;
+
+import android.util.Size;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.List;
+
+import io.reactivex.Observable;
+
+/**
+ * {@link CameraStrategy} size selection against the Rx filter + {@code blockingGet} it replaced.
+ */
+@State(Scope.Thread)
+public class SizeSelectionBenchmark {
+
+    private static final int MAX_WIDTH = 1920;
+    private static final int MAX_HEIGHT = 1920;
+
+    // typical SurfaceTexture output sizes of a mid-range sensor
+    private final Size[] mSizes = {
+            new Size(4032, 3024), new Size(4000, 3000), new Size(3264, 2448), new Size(3200, 2400), new Size(2592, 1944),
+            new Size(2048, 1536), new Size(1920, 1440), new Size(1920, 1080), new Size(1600, 1200), new Size(1440, 1080),
+            new Size(1280, 960), new Size(1280, 720), new Size(1024, 768), new Size(800, 600), new Size(720, 480),
+            new Size(640, 480), new Size(352, 288), new Size(320, 240), new Size(176, 144)
+    };
+    private final Size mPreviewSize = new Size(1920, 1440);
+
+    @Benchmark
+    public Size selectLargest() {
+        return CameraStrategy.selectLargest(mSizes, MAX_WIDTH, MAX_HEIGHT, null);
+    }
+
+    @Benchmark
+    public Size selectLargestWithAspectRatio() {
+        return CameraStrategy.selectLargest(mSizes, MAX_WIDTH, MAX_HEIGHT, mPreviewSize);
+    }
+
+    @Benchmark
+    public Size rxFilterBaseline() {
+        List<Size> filtered = Observable.fromArray(mSizes)
+                .filter(size -> size.getWidth() <= MAX_WIDTH && size.getHeight() <= MAX_HEIGHT)
+                .toList()
+                .blockingGet();
+        if (filtered.isEmpty()) {
+            return mSizes[0];
+        }
+        return Collections.max(filtered, (lhs, rhs) -> Long.signum((long) lhs.getWidth() * lhs.getHeight() - (long) rhs.getWidth() * rhs.getHeight()));
+    }
+}
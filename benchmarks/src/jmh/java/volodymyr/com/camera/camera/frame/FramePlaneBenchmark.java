@@ -0,0 +1,71 @@
+package volodymyr.com.camera.camera.frame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Ways of reading a strided {@link Frame.Plane}, measured on a luma mean kernel. Direct buffers, like the ones
+ * {@link android.media.Image} hands out.
+ */
+@State(Scope.Thread)
+public class FramePlaneBenchmark {
+
+    @Param({"640x480", "1920x1080"})
+    public String size;
+    @Param({"0", "64"})
+    public int rowPadding;
+
+    private Frame.Plane mPlane;
+    private int mWidth;
+    private int mHeight;
+    private byte[] mRow;
+
+    @Setup
+    public void setUp() {
+        String[] dimensions = size.split("x");
+        mWidth = Integer.parseInt(dimensions[0]);
+        mHeight = Integer.parseInt(dimensions[1]);
+        int rowStride = mWidth + rowPadding;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(rowStride * mHeight);
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) i);
+        }
+        mPlane = new Frame.Plane(buffer, rowStride, 1);
+        mRow = new byte[mWidth];
+    }
+
+    @Benchmark
+    public int absoluteGet() {
+        ByteBuffer buffer = mPlane.buffer;
+        int rowStride = mPlane.rowStride;
+        long sum = 0;
+        for (int y = 0; y < mHeight; y++) {
+            int offset = y * rowStride;
+            for (int x = 0; x < mWidth; x++) {
+                sum += buffer.get(offset + x) & 0xff;
+            }
+        }
+        return (int) (sum / ((long) mWidth * mHeight));
+    }
+
+    @Benchmark
+    public int bulkRowGet() {
+        ByteBuffer buffer = mPlane.buffer.duplicate();
+        int rowStride = mPlane.rowStride;
+        byte[] row = mRow;
+        long sum = 0;
+        for (int y = 0; y < mHeight; y++) {
+            buffer.position(y * rowStride);
+            buffer.get(row, 0, mWidth);
+            for (int x = 0; x < mWidth; x++) {
+                sum += row[x] & 0xff;
+            }
+        }
+        return (int) (sum / ((long) mWidth * mHeight));
+    }
+}
@@ -0,0 +1,84 @@
+package volodymyr.com.camera.camera.frame;
+
+import android.graphics.ImageFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * {@link YuvConverter} on a padded frame with interleaved chroma, the common camera layout, on the calling thread and
+ * striped over a pool. Outputs are reused, so allocation per operation stays independent of the frame size.
+ */
+@State(Scope.Thread)
+public class YuvConverterBenchmark {
+
+    @Param({"640x480", "1920x1080"})
+    public String size;
+    @Param({"1", "4"})
+    public int threads;
+
+    private ForkJoinPool mPool;
+    private YuvConverter mConverter;
+    private Frame mFrame;
+    private byte[] mNv21;
+    private int[] mArgb;
+    private byte[] mLuma;
+
+    @Setup
+    public void setUp() {
+        String[] dimensions = size.split("x");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+        int rowStride = width + 64;
+        Frame.Plane y = new Frame.Plane(filledBuffer(rowStride * height), rowStride, 1);
+        ByteBuffer vu = filledBuffer(rowStride * height / 2);
+        Frame.Plane v = new Frame.Plane(vu, rowStride, 2);
+        vu.position(1);
+        Frame.Plane u = new Frame.Plane(vu.slice(), rowStride, 2);
+        vu.position(0);
+        mFrame = new Frame(ImageFormat.YUV_420_888, width, height, 0, new Frame.Plane[]{y, u, v}, () -> {
+        });
+        mPool = threads > 1 ? new ForkJoinPool(threads) : null;
+        mConverter = new YuvConverter(mPool);
+        mNv21 = new byte[YuvConverter.getNv21Size(width, height)];
+        mArgb = new int[width * height];
+        mLuma = new byte[width * height / 16];
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mPool != null) {
+            mPool.shutdown();
+        }
+    }
+
+    private static ByteBuffer filledBuffer(int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put(i, (byte) (i * 31));
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] toNv21() {
+        return mConverter.toNv21(mFrame, mNv21);
+    }
+
+    @Benchmark
+    public int[] toArgb() {
+        return mConverter.toArgb(mFrame, mArgb);
+    }
+
+    @Benchmark
+    public byte[] toLumaQuarter() {
+        return mConverter.toLuma(mFrame, 4, mLuma);
+    }
+}
@@ -0,0 +1,22 @@
+package volodymyr.com.camera.camera.metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-frame cost of recording into a {@link LatencyHistogram}.
+ */
+@State(Scope.Benchmark)
+public class LatencyHistogramBenchmark {
+
+    private final LatencyHistogram mHistogram = new LatencyHistogram("frame_interval");
+    private long mValue = 33_333_333;
+
+    @Benchmark
+    public void record() {
+        // walk over a few buckets around a 30 fps interval
+        mValue = mValue * 31 % 50_000_000 + 16_000_000;
+        mHistogram.record(mValue);
+    }
+}
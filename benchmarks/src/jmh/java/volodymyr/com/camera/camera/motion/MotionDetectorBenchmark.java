@@ -0,0 +1,49 @@
+package volodymyr.com.camera.camera.motion;
+
+import android.graphics.ImageFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+import volodymyr.com.camera.camera.frame.Frame;
+
+/**
+ * {@link MotionDetector} analysing every frame of a static padded 1080p stream, skipping disabled, so each operation is
+ * a full sample and compare. Nothing moves, so nothing is emitted and the analysis must not allocate.
+ */
+@State(Scope.Thread)
+public class MotionDetectorBenchmark {
+
+    @Param({"4", "8"})
+    public int sampleStride;
+
+    private MotionDetector mDetector;
+    private Frame mFrame;
+
+    @Setup
+    public void setUp() {
+        int width = 1920;
+        int height = 1080;
+        int rowStride = width + 64;
+        ByteBuffer luma = ByteBuffer.allocateDirect(rowStride * height);
+        for (int i = 0; i < luma.capacity(); i++) {
+            luma.put(i, (byte) (i * 31));
+        }
+        ByteBuffer chroma = ByteBuffer.allocateDirect(rowStride * height / 2);
+        Frame.Plane[] planes = {new Frame.Plane(luma, rowStride, 1), new Frame.Plane(chroma, rowStride, 2),
+                new Frame.Plane(chroma.duplicate(), rowStride, 2)};
+        mFrame = new Frame(ImageFormat.YUV_420_888, width, height, 0, planes, () -> {
+        });
+        mDetector = new MotionDetector(new MotionConfig(sampleStride, 8, 24, 0.2f, 15, 1));
+    }
+
+    @Benchmark
+    public boolean processStatic() {
+        return mDetector.process(mFrame);
+    }
+}
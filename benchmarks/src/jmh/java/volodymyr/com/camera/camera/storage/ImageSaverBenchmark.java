@@ -0,0 +1,73 @@
+package volodymyr.com.camera.camera.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.Schedulers;
+import volodymyr.com.camera.camera.frame.Frame;
+
+/**
+ * Sustained shots per second to storage. {@link ImageSaver.OverflowPolicy#WAIT} pushes back on the benchmark thread,
+ * so the score is the rate the disk keeps up with. Saved files are deleted as they are reported.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ImageSaverBenchmark {
+
+    @Param({"512", "3072"})
+    public int jpegSizeKb;
+    @Param({"1", "8"})
+    public int syncBatchSize;
+
+    private ExecutorService mExecutor;
+    private ImageSaver mImageSaver;
+    private ByteBuffer mJpeg;
+    private File mDirectory;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("image-saver").toFile();
+        mExecutor = Executors.newSingleThreadExecutor();
+        mImageSaver = new ImageSaver(mDirectory, 4, ImageSaver.OverflowPolicy.WAIT, syncBatchSize,
+                Schedulers.from(mExecutor), "Benchmark", "JVM");
+        mImageSaver.getSavedFiles().subscribe(File::delete);
+        mJpeg = ByteBuffer.allocateDirect(jpegSizeKb * 1024);
+        mJpeg.putShort((short) 0xFFD8);
+        while (mJpeg.hasRemaining()) {
+            mJpeg.put((byte) mJpeg.position());
+        }
+        mJpeg.flip();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        mImageSaver.close();
+        mExecutor.shutdown();
+        mExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        //noinspection ResultOfMethodCallIgnored
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public boolean save() throws InterruptedException {
+        Frame frame = new Frame(0x100, 4000, 3000, System.nanoTime(), new Frame.Plane[]{new Frame.Plane(mJpeg.duplicate(), 0, 0)}, () -> {
+        });
+        return mImageSaver.save(frame, null);
+    }
+}